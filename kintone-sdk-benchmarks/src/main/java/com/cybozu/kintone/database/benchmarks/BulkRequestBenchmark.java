@@ -0,0 +1,76 @@
+//   Copyright 2014 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cybozu.kintone.database.BulkRequest;
+import com.cybozu.kintone.database.Record;
+
+/**
+ * Benchmarks of building the bulk request. A bulk request holds up to 20
+ * requests, each of which has up to 100 records.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BulkRequestBenchmark {
+    private static final int RECORDS_PER_REQUEST = 100;
+
+    private List<Record> newRecords;
+    private List<Record> updatedRecords;
+    private BulkRequest bulk;
+
+    @Setup
+    public void setup() {
+        newRecords = Payloads.newRecords(RECORDS_PER_REQUEST);
+        updatedRecords = Payloads.updatedRecords(RECORDS_PER_REQUEST);
+        bulk = build();
+    }
+
+    private BulkRequest build() {
+        BulkRequest bulk = new BulkRequest();
+        bulk.insert(1, newRecords);
+        bulk.updateByRecords(1, updatedRecords);
+        bulk.deleteByRecords(1, updatedRecords);
+        return bulk;
+    }
+
+    @Benchmark
+    public String getJson() {
+        return bulk.getJson();
+    }
+
+    @Benchmark
+    public String buildAndGetJson() {
+        return build().getJson();
+    }
+}
@@ -0,0 +1,88 @@
+//   Copyright 2014 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cybozu.kintone.database.JsonParser;
+import com.cybozu.kintone.database.Record;
+import com.cybozu.kintone.database.ResultSet;
+
+/**
+ * Benchmarks of decoding the records response and encoding the records for
+ * insert and update.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonParserBenchmark {
+
+    @Param({ "100", "500" })
+    public int records;
+
+    private JsonParser parser;
+    private String json;
+    private byte[] jsonBytes;
+    private List<Record> newRecords;
+    private List<Record> updatedRecords;
+
+    @Setup
+    public void setup() {
+        parser = new JsonParser();
+        json = Payloads.recordsJson(records);
+        jsonBytes = Payloads.recordsJsonBytes(records);
+        newRecords = Payloads.newRecords(records);
+        updatedRecords = Payloads.updatedRecords(records);
+    }
+
+    @Benchmark
+    public ResultSet jsonToResultSet() throws IOException {
+        return parser.jsonToResultSet(null, json);
+    }
+
+    @Benchmark
+    public ResultSet jsonToResultSetFromStream() throws IOException {
+        return parser.jsonToResultSet(null, new ByteArrayInputStream(jsonBytes));
+    }
+
+    @Benchmark
+    public String recordsToJsonForInsert() throws IOException {
+        return parser.recordsToJsonForInsert(1, newRecords);
+    }
+
+    @Benchmark
+    public String recordsToJsonForUpdate() throws IOException {
+        return parser.recordsToJsonForUpdate(1, updatedRecords);
+    }
+}
@@ -0,0 +1,246 @@
+//   Copyright 2014 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database.benchmarks;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import com.cybozu.kintone.database.Record;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Generates the payloads of the benchmarks. Each record is a wide record which
+ * has text and number fields, choices, dates, users, files and a sub table,
+ * like the records of a real business application.
+ *
+ */
+final class Payloads {
+    static final int TEXT_FIELDS = 10;
+    static final int NUMBER_FIELDS = 10;
+    static final int SUBTABLE_ROWS = 5;
+    static final int USERS = 3;
+    static final int FILES = 2;
+
+    private static final String[] CHOICES = { "Sample1", "Sample2", "Sample3" };
+
+    private Payloads() {
+    }
+
+    /**
+     * Generates the json of the response of the records api.
+     * @param count number of the records
+     * @return json string
+     */
+    static String recordsJson(int count) {
+        StringWriter out = new StringWriter();
+        JsonWriter writer = new JsonWriter(out);
+        try {
+            writer.beginObject();
+            writer.name("records").beginArray();
+            for (int i = 1; i <= count; i++) {
+                writeRecord(writer, i);
+            }
+            writer.endArray();
+            writer.name("totalCount").value(String.valueOf(count));
+            writer.endObject();
+            writer.close();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Generates the json of the response of the records api as UTF-8 bytes.
+     * @param count number of the records
+     * @return json bytes
+     */
+    static byte[] recordsJsonBytes(int count) {
+        return recordsJson(count).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Generates the records to be inserted.
+     * @param count number of the records
+     * @return list of the record
+     */
+    static List<Record> newRecords(int count) {
+        List<Record> records = new ArrayList<Record>(count);
+        for (int i = 1; i <= count; i++) {
+            Record record = new Record();
+            fill(record, i);
+            records.add(record);
+        }
+        return records;
+    }
+
+    /**
+     * Generates the records to be updated.
+     * @param count number of the records
+     * @return list of the record which has the id and the revision
+     */
+    static List<Record> updatedRecords(int count) {
+        List<Record> records = new ArrayList<Record>(count);
+        for (int i = 1; i <= count; i++) {
+            Record record = new Record(i, i);
+            fill(record, i);
+            records.add(record);
+        }
+        return records;
+    }
+
+    private static void fill(Record record, int i) {
+        for (int j = 0; j < TEXT_FIELDS; j++) {
+            record.setString("Text_" + j, text(i, j));
+        }
+        for (int j = 0; j < NUMBER_FIELDS; j++) {
+            record.setLong("Number_" + j, (long) i * 1000 + j);
+        }
+        record.setString("Drop_down", CHOICES[i % CHOICES.length]);
+        record.setStrings("Check_box", Arrays.asList(CHOICES));
+        record.setDateTime("Date_and_time", new Date(1400000000000L + i * 60000L));
+        record.setUsers("User_selection", userCodes(i));
+        record.setFiles("Attachment", fileKeys(i));
+
+        List<Record> rows = new ArrayList<Record>(SUBTABLE_ROWS);
+        for (int k = 0; k < SUBTABLE_ROWS; k++) {
+            Record row = new Record();
+            row.setString("Item", text(i, k));
+            row.setLong("Quantity", k + 1);
+            row.setLong("Unit_price", 100 * (k + 1));
+            rows.add(row);
+        }
+        record.setSubtable("Table", rows);
+    }
+
+    private static void writeRecord(JsonWriter writer, int i) throws IOException {
+        writer.beginObject();
+        writeValue(writer, "$id", "__ID__", String.valueOf(i));
+        writeValue(writer, "$revision", "__REVISION__", String.valueOf(i));
+        writeValue(writer, "Record_number", "RECORD_NUMBER", String.valueOf(i));
+        writeUser(writer, "Created_by", "CREATOR", "user" + i);
+        writeValue(writer, "Created_datetime", "CREATED_TIME", "2014-05-13T16:53:00Z");
+        writeUser(writer, "Updated_by", "MODIFIER", "user" + i);
+        writeValue(writer, "Updated_datetime", "UPDATED_TIME", "2014-05-13T16:53:00Z");
+        for (int j = 0; j < TEXT_FIELDS; j++) {
+            writeValue(writer, "Text_" + j, "SINGLE_LINE_TEXT", text(i, j));
+        }
+        for (int j = 0; j < NUMBER_FIELDS; j++) {
+            writeValue(writer, "Number_" + j, "NUMBER", String.valueOf((long) i * 1000 + j));
+        }
+        writeValue(writer, "Text_area", "MULTI_LINE_TEXT", text(i, 0) + "\n" + text(i, 1));
+        writeValue(writer, "Drop_down", "DROP_DOWN", CHOICES[i % CHOICES.length]);
+        writeValue(writer, "Radio_button", "RADIO_BUTTON", CHOICES[(i + 1) % CHOICES.length]);
+        writeValue(writer, "Date", "DATE", "2014-05-13");
+        writeValue(writer, "Date_and_time", "DATETIME", "2014-05-13T16:53:00Z");
+
+        writer.name("Check_box").beginObject();
+        writer.name("type").value("CHECK_BOX");
+        writer.name("value").beginArray();
+        for (String choice : CHOICES) {
+            writer.value(choice);
+        }
+        writer.endArray();
+        writer.endObject();
+
+        writer.name("User_selection").beginObject();
+        writer.name("type").value("USER_SELECT");
+        writer.name("value").beginArray();
+        for (String code : userCodes(i)) {
+            writer.beginObject();
+            writer.name("code").value(code);
+            writer.name("name").value("Name of " + code);
+            writer.endObject();
+        }
+        writer.endArray();
+        writer.endObject();
+
+        writer.name("Attachment").beginObject();
+        writer.name("type").value("FILE");
+        writer.name("value").beginArray();
+        for (String key : fileKeys(i)) {
+            writer.beginObject();
+            writer.name("contentType").value("text/plain");
+            writer.name("fileKey").value(key);
+            writer.name("name").value(key + ".txt");
+            writer.name("size").value("1024");
+            writer.endObject();
+        }
+        writer.endArray();
+        writer.endObject();
+
+        writer.name("Table").beginObject();
+        writer.name("type").value("SUBTABLE");
+        writer.name("value").beginArray();
+        for (int k = 0; k < SUBTABLE_ROWS; k++) {
+            writer.beginObject();
+            writer.name("id").value(String.valueOf(i * 100 + k));
+            writer.name("value").beginObject();
+            writeValue(writer, "Item", "SINGLE_LINE_TEXT", text(i, k));
+            writeValue(writer, "Quantity", "NUMBER", String.valueOf(k + 1));
+            writeValue(writer, "Unit_price", "NUMBER", String.valueOf(100 * (k + 1)));
+            writer.endObject();
+            writer.endObject();
+        }
+        writer.endArray();
+        writer.endObject();
+
+        writer.endObject();
+    }
+
+    private static void writeValue(JsonWriter writer, String name, String type,
+            String value) throws IOException {
+        writer.name(name).beginObject();
+        writer.name("type").value(type);
+        writer.name("value").value(value);
+        writer.endObject();
+    }
+
+    private static void writeUser(JsonWriter writer, String name, String type,
+            String code) throws IOException {
+        writer.name(name).beginObject();
+        writer.name("type").value(type);
+        writer.name("value").beginObject();
+        writer.name("code").value(code);
+        writer.name("name").value("Name of " + code);
+        writer.endObject();
+        writer.endObject();
+    }
+
+    private static String text(int i, int j) {
+        return "text value " + i + "-" + j;
+    }
+
+    private static List<String> userCodes(int i) {
+        List<String> codes = new ArrayList<String>(USERS);
+        for (int k = 0; k < USERS; k++) {
+            codes.add("user" + (i + k));
+        }
+        return codes;
+    }
+
+    private static List<String> fileKeys(int i) {
+        List<String> keys = new ArrayList<String>(FILES);
+        for (int k = 0; k < FILES; k++) {
+            keys.add("20140513075300A4F1B2C3D4E5F6" + i + "-" + k);
+        }
+        return keys;
+    }
+}
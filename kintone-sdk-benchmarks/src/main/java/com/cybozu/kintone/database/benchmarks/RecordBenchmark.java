@@ -0,0 +1,124 @@
+//   Copyright 2014 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.cybozu.kintone.database.Field;
+import com.cybozu.kintone.database.FieldType;
+import com.cybozu.kintone.database.FileDto;
+import com.cybozu.kintone.database.JsonParser;
+import com.cybozu.kintone.database.Record;
+import com.cybozu.kintone.database.ResultSet;
+import com.cybozu.kintone.database.UserDto;
+
+/**
+ * Benchmarks of reading the field values of the parsed records.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecordBenchmark {
+    private static final int RECORDS = 100;
+
+    private Record[] records;
+    private String[] typeNames;
+
+    @Setup
+    public void setup() throws IOException {
+        ResultSet rs = new JsonParser().jsonToResultSet(null,
+                Payloads.recordsJson(RECORDS));
+        records = new Record[rs.size()];
+        for (int i = 0; rs.next(); i++) {
+            records[i] = rs.getRecord();
+        }
+        FieldType[] types = FieldType.values();
+        typeNames = new String[types.length];
+        for (int j = 0; j < types.length; j++) {
+            typeNames[j] = types[j].toString();
+        }
+    }
+
+    @Benchmark
+    public void getString(Blackhole bh) {
+        for (Record record : records) {
+            for (int j = 0; j < Payloads.TEXT_FIELDS; j++) {
+                bh.consume(record.getString("Text_" + j));
+            }
+        }
+    }
+
+    @Benchmark
+    public void getLong(Blackhole bh) {
+        for (Record record : records) {
+            for (int j = 0; j < Payloads.NUMBER_FIELDS; j++) {
+                bh.consume(record.getLong("Number_" + j));
+            }
+        }
+    }
+
+    @Benchmark
+    public void getUsersAndFiles(Blackhole bh) {
+        for (Record record : records) {
+            for (UserDto user : record.getUsers("User_selection")) {
+                bh.consume(user.getCode());
+            }
+            for (FileDto file : record.getFiles("Attachment")) {
+                bh.consume(file.getFileKey());
+            }
+        }
+    }
+
+    @Benchmark
+    public void getSubtable(Blackhole bh) {
+        for (Record record : records) {
+            for (Record row : record.getSubtable("Table")) {
+                bh.consume(row.getLong("Quantity"));
+            }
+        }
+    }
+
+    @Benchmark
+    public void fieldGetAsLong(Blackhole bh) {
+        for (Record record : records) {
+            Field field = record.getField("Number_0");
+            bh.consume(field.getAsLong());
+        }
+    }
+
+    @Benchmark
+    public void fieldTypeGetEnum(Blackhole bh) {
+        for (String name : typeNames) {
+            bh.consume(FieldType.getEnum(name));
+        }
+    }
+}
@@ -0,0 +1,418 @@
+//   Copyright 2014 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.stub;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * A subset of the kintone query language:
+ *
+ * <pre>
+ * [condition] [order by field (asc|desc) [, ...]] [limit n] [offset n]
+ * </pre>
+ *
+ * A condition combines "field op value" with "and", "or" and parentheses.
+ * The operators are =, !=, &gt;, &lt;, &gt;=, &lt;=, in, not in, like and
+ * not like. The values are quoted strings or numbers; functions such as
+ * LOGINUSER() are not supported.
+ *
+ */
+final class Query {
+    static final int DEFAULT_LIMIT = 100;
+    static final int MAX_LIMIT = 500;
+
+    private Condition condition;
+    private List<String> orderFields = new ArrayList<String>();
+    private List<Boolean> orderAscending = new ArrayList<Boolean>();
+    private int limit = DEFAULT_LIMIT;
+    private int offset = 0;
+
+    private List<String> tokens;
+    private int pos;
+
+    private Query(String query) {
+        tokens = tokenize(query == null ? "" : query);
+        pos = 0;
+        if (pos < tokens.size() && !isKeyword("order") && !isKeyword("limit")
+                && !isKeyword("offset")) {
+            condition = parseOr();
+        }
+        if (isKeyword("order")) {
+            pos++;
+            expectKeyword("by");
+            do {
+                orderFields.add(next());
+                boolean ascending = false;
+                if (isKeyword("asc")) {
+                    pos++;
+                    ascending = true;
+                } else if (isKeyword("desc")) {
+                    pos++;
+                }
+                orderAscending.add(ascending);
+            } while (accept(","));
+        }
+        if (isKeyword("limit")) {
+            pos++;
+            limit = parseInt(next());
+            if (limit > MAX_LIMIT) {
+                throw StubException.badRequest("limit must be " + MAX_LIMIT
+                        + " or less.");
+            }
+        }
+        if (isKeyword("offset")) {
+            pos++;
+            offset = parseInt(next());
+        }
+        if (pos < tokens.size()) {
+            throw error();
+        }
+        if (orderFields.isEmpty()) {
+            orderFields.add(StubRecord.ID);
+            orderAscending.add(false);
+        }
+    }
+
+    /**
+     * Parses the query.
+     * @param query query string
+     * @return parsed query
+     * @throws StubException if the query is invalid
+     */
+    static Query parse(String query) {
+        return new Query(query);
+    }
+
+    /**
+     * Filters and sorts the records without applying limit and offset.
+     */
+    List<StubRecord> filter(Collection<StubRecord> records) {
+        List<StubRecord> result = new ArrayList<StubRecord>();
+        for (StubRecord record : records) {
+            if (condition == null || condition.matches(record)) {
+                result.add(record);
+            }
+        }
+        Collections.sort(result, new Comparator<StubRecord>() {
+            @Override
+            public int compare(StubRecord r1, StubRecord r2) {
+                for (int i = 0; i < orderFields.size(); i++) {
+                    String field = orderFields.get(i);
+                    int c = compareValues(scalar(r1, field), scalar(r2, field));
+                    if (c != 0) {
+                        return orderAscending.get(i) ? c : -c;
+                    }
+                }
+                return 0;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Applies limit and offset to the filtered records.
+     */
+    List<StubRecord> page(List<StubRecord> records) {
+        int from = Math.min(offset, records.size());
+        int to = Math.min(from + limit, records.size());
+        return records.subList(from, to);
+    }
+
+    private interface Condition {
+        boolean matches(StubRecord record);
+    }
+
+    private Condition parseOr() {
+        Condition left = parseAnd();
+        while (isKeyword("or")) {
+            pos++;
+            final Condition l = left;
+            final Condition r = parseAnd();
+            left = new Condition() {
+                @Override
+                public boolean matches(StubRecord record) {
+                    return l.matches(record) || r.matches(record);
+                }
+            };
+        }
+        return left;
+    }
+
+    private Condition parseAnd() {
+        Condition left = parsePrimary();
+        while (isKeyword("and")) {
+            pos++;
+            final Condition l = left;
+            final Condition r = parsePrimary();
+            left = new Condition() {
+                @Override
+                public boolean matches(StubRecord record) {
+                    return l.matches(record) && r.matches(record);
+                }
+            };
+        }
+        return left;
+    }
+
+    private Condition parsePrimary() {
+        if (accept("(")) {
+            Condition condition = parseOr();
+            expect(")");
+            return condition;
+        }
+        final String field = next();
+        boolean negate = false;
+        if (isKeyword("not")) {
+            pos++;
+            negate = true;
+        }
+        String op = next().toLowerCase();
+        if (op.equals("in")) {
+            expect("(");
+            final List<String> values = new ArrayList<String>();
+            do {
+                values.add(value(next()));
+            } while (accept(","));
+            expect(")");
+            final boolean not = negate;
+            return new Condition() {
+                @Override
+                public boolean matches(StubRecord record) {
+                    boolean found = false;
+                    for (String v : values(record, field)) {
+                        for (String value : values) {
+                            if (compareValues(v, value) == 0) {
+                                found = true;
+                            }
+                        }
+                    }
+                    return found != not;
+                }
+            };
+        }
+        final String value = value(next());
+        if (op.equals("like")) {
+            final boolean not = negate;
+            return new Condition() {
+                @Override
+                public boolean matches(StubRecord record) {
+                    boolean found = false;
+                    for (String v : values(record, field)) {
+                        if (v.toLowerCase().contains(value.toLowerCase())) {
+                            found = true;
+                        }
+                    }
+                    return found != not;
+                }
+            };
+        }
+        if (negate || !(op.equals("=") || op.equals("!=") || op.equals(">")
+                || op.equals("<") || op.equals(">=") || op.equals("<="))) {
+            throw error();
+        }
+        final String operator = op;
+        return new Condition() {
+            @Override
+            public boolean matches(StubRecord record) {
+                int c = compareValues(scalar(record, field), value);
+                if (operator.equals("=")) {
+                    return c == 0;
+                } else if (operator.equals("!=")) {
+                    return c != 0;
+                } else if (operator.equals(">")) {
+                    return c > 0;
+                } else if (operator.equals("<")) {
+                    return c < 0;
+                } else if (operator.equals(">=")) {
+                    return c >= 0;
+                }
+                return c <= 0;
+            }
+        };
+    }
+
+    /**
+     * Gets the value of a single value field as string.
+     */
+    private static String scalar(StubRecord record, String field) {
+        JsonElement value = record.getValue(field);
+        if (value == null || value.isJsonNull()) {
+            return "";
+        }
+        if (value.isJsonPrimitive()) {
+            return value.getAsString();
+        }
+        List<String> values = values(record, field);
+        return values.isEmpty() ? "" : values.get(0);
+    }
+
+    /**
+     * Gets the values of a field. The users are represented by their codes.
+     */
+    private static List<String> values(StubRecord record, String field) {
+        List<String> values = new ArrayList<String>();
+        JsonElement value = record.getValue(field);
+        if (value == null || value.isJsonNull()) {
+            return values;
+        }
+        if (value.isJsonPrimitive()) {
+            values.add(value.getAsString());
+        } else if (value.isJsonObject()) {
+            values.add(code(value.getAsJsonObject()));
+        } else {
+            for (JsonElement elem : value.getAsJsonArray()) {
+                if (elem.isJsonPrimitive()) {
+                    values.add(elem.getAsString());
+                } else {
+                    values.add(code(elem.getAsJsonObject()));
+                }
+            }
+        }
+        return values;
+    }
+
+    private static String code(JsonObject obj) {
+        JsonElement code = obj.get("code");
+        if (code == null) {
+            code = obj.get("name");
+        }
+        return code == null ? "" : code.getAsString();
+    }
+
+    /**
+     * Compares as numbers if both are numbers, otherwise as strings. The
+     * empty values come first.
+     */
+    private static int compareValues(String v1, String v2) {
+        if (v1.isEmpty() || v2.isEmpty()) {
+            return v1.isEmpty() ? (v2.isEmpty() ? 0 : -1) : 1;
+        }
+        try {
+            return new BigDecimal(v1).compareTo(new BigDecimal(v2));
+        } catch (NumberFormatException e) {
+            return v1.compareTo(v2);
+        }
+    }
+
+    private String value(String token) {
+        if (token.startsWith("\"")) {
+            return token.substring(1);
+        }
+        if (token.endsWith("()")) {
+            throw StubException.badRequest("The function " + token
+                    + " is not supported by the stub server.");
+        }
+        return token;
+    }
+
+    private static List<String> tokenize(String query) {
+        List<String> tokens = new ArrayList<String>();
+        int i = 0;
+        int n = query.length();
+        while (i < n) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '"') {
+                // a string token starts with a quote to tell it from a word
+                StringBuilder sb = new StringBuilder("\"");
+                i++;
+                while (i < n && query.charAt(i) != '"') {
+                    if (query.charAt(i) == '\\' && i + 1 < n) {
+                        i++;
+                    }
+                    sb.append(query.charAt(i++));
+                }
+                if (i >= n) {
+                    throw StubException.badRequest("The query is not closed: " + query);
+                }
+                i++;
+                tokens.add(sb.toString());
+            } else if (c == '(' || c == ')' || c == ',') {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else if (c == '=' || c == '!' || c == '<' || c == '>') {
+                int start = i++;
+                if (i < n && query.charAt(i) == '=') {
+                    i++;
+                }
+                tokens.add(query.substring(start, i));
+            } else {
+                int start = i;
+                while (i < n && !Character.isWhitespace(query.charAt(i))
+                        && "()=!<>,\"".indexOf(query.charAt(i)) < 0) {
+                    i++;
+                }
+                if (i + 1 < n && query.charAt(i) == '(' && query.charAt(i + 1) == ')') {
+                    i += 2;
+                }
+                tokens.add(query.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+
+    private boolean isKeyword(String keyword) {
+        return pos < tokens.size() && tokens.get(pos).equalsIgnoreCase(keyword);
+    }
+
+    private boolean accept(String token) {
+        if (pos < tokens.size() && tokens.get(pos).equals(token)) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String token) {
+        if (!accept(token)) {
+            throw error();
+        }
+    }
+
+    private void expectKeyword(String keyword) {
+        if (!isKeyword(keyword)) {
+            throw error();
+        }
+        pos++;
+    }
+
+    private String next() {
+        if (pos >= tokens.size()) {
+            throw error();
+        }
+        return tokens.get(pos++);
+    }
+
+    private int parseInt(String token) {
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw error();
+        }
+    }
+
+    private StubException error() {
+        return new StubException(400, "GAIA_IQ11", "The query is invalid.");
+    }
+}
@@ -0,0 +1,443 @@
+//   Copyright 2014 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.stub;
+
+import java.math.BigDecimal;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * An app of the stub server. The field types are inferred from the first
+ * value written to each field unless they are declared by
+ * {@link #setFieldType(String, String)}. Texts and numbers cannot be told
+ * apart by their values, so number fields should be declared to be compared
+ * and validated as numbers.
+ *
+ */
+public class StubApp {
+    private final StubStore store;
+    private final long id;
+    private String name;
+    private String code = "";
+    private String description = "";
+    private final String createdAt = now();
+
+    private HashMap<String, String> fieldTypes = new HashMap<String, String>();
+    private TreeMap<Long, StubRecord> records = new TreeMap<Long, StubRecord>();
+    private long nextRecordId = 1;
+    private long nextRowId = 1;
+    private HashMap<Long, TreeMap<Long, JsonObject>> comments = new HashMap<Long, TreeMap<Long, JsonObject>>();
+    private long nextCommentId = 1;
+
+    StubApp(StubStore store, long id, String name) {
+        this.store = store;
+        this.id = id;
+        this.name = name;
+    }
+
+    /**
+     * Gets the app id.
+     * @return app id
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Gets the app name.
+     * @return app name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the app code.
+     * @return app code
+     */
+    public String getCode() {
+        return code;
+    }
+
+    /**
+     * Sets the app code.
+     * @param code app code
+     */
+    public void setCode(String code) {
+        synchronized (store) {
+            this.code = code;
+        }
+    }
+
+    /**
+     * Sets the description of the app.
+     * @param description description
+     */
+    public void setDescription(String description) {
+        synchronized (store) {
+            this.description = description;
+        }
+    }
+
+    /**
+     * Declares the type of the field.
+     * @param fieldCode field code (the fields in sub tables are declared
+     *            with their own codes)
+     * @param type field type such as "NUMBER" or "DROP_DOWN"
+     */
+    public void setFieldType(String fieldCode, String type) {
+        synchronized (store) {
+            fieldTypes.put(fieldCode, type);
+        }
+    }
+
+    /**
+     * Gets the number of the records.
+     * @return number of the records
+     */
+    public int size() {
+        synchronized (store) {
+            return records.size();
+        }
+    }
+
+    /**
+     * Removes all the records and comments.
+     */
+    public void clear() {
+        synchronized (store) {
+            records.clear();
+            comments.clear();
+        }
+    }
+
+    JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("appId", String.valueOf(id));
+        json.addProperty("code", code);
+        json.addProperty("name", name);
+        json.addProperty("description", description);
+        json.add("spaceId", JsonNull.INSTANCE);
+        json.add("threadId", JsonNull.INSTANCE);
+        json.addProperty("createdAt", createdAt);
+        json.add("creator", user("Administrator"));
+        json.addProperty("modifiedAt", createdAt);
+        json.add("modifier", user("Administrator"));
+        return json;
+    }
+
+    Collection<StubRecord> records() {
+        return records.values();
+    }
+
+    StubRecord get(long recordId) {
+        StubRecord record = records.get(recordId);
+        if (record == null) {
+            throw StubException.recordNotFound(recordId);
+        }
+        return record;
+    }
+
+    /**
+     * Finds the record by the value of a unique field.
+     */
+    StubRecord findByKey(String field, String value) {
+        for (StubRecord record : records.values()) {
+            JsonElement stored = record.getValue(field);
+            if (stored != null && stored.isJsonPrimitive()
+                    && stored.getAsString().equals(value)) {
+                return record;
+            }
+        }
+        throw new StubException(404, "GAIA_RE01",
+                "The record (" + field + ": " + value + ") is not found.");
+    }
+
+    StubRecord insert(JsonObject values, String user) {
+        long recordId = nextRecordId++;
+        String time = now();
+        JsonObject fields = new JsonObject();
+        fields.add(StubRecord.RECORD_NUMBER,
+                StubRecord.field("RECORD_NUMBER", String.valueOf(recordId)));
+        fields.add(StubRecord.CREATOR, StubRecord.field("CREATOR", user(user)));
+        fields.add(StubRecord.CREATED_TIME, StubRecord.field("CREATED_TIME", time));
+        fields.add(StubRecord.MODIFIER, StubRecord.field("MODIFIER", user(user)));
+        fields.add(StubRecord.UPDATED_TIME, StubRecord.field("UPDATED_TIME", time));
+        putValues(fields, values);
+        StubRecord record = new StubRecord(recordId, 1, fields);
+        records.put(recordId, record);
+        return record;
+    }
+
+    StubRecord update(StubRecord record, long revision, JsonObject values,
+            String user) {
+        checkRevision(record, revision);
+        JsonObject fields = record.copyFields();
+        if (values != null) {
+            putValues(fields, values);
+        }
+        fields.add(StubRecord.MODIFIER, StubRecord.field("MODIFIER", user(user)));
+        fields.add(StubRecord.UPDATED_TIME, StubRecord.field("UPDATED_TIME", now()));
+        StubRecord updated = new StubRecord(record.getId(),
+                record.getRevision() + 1, fields);
+        records.put(record.getId(), updated);
+        return updated;
+    }
+
+    void delete(long recordId, long revision) {
+        checkRevision(get(recordId), revision);
+        records.remove(recordId);
+        comments.remove(recordId);
+    }
+
+    long addComment(long recordId, String text, JsonArray mentions, String user) {
+        get(recordId);
+        TreeMap<Long, JsonObject> list = comments.get(recordId);
+        if (list == null) {
+            list = new TreeMap<Long, JsonObject>();
+            comments.put(recordId, list);
+        }
+        long commentId = nextCommentId++;
+        StringBuilder sb = new StringBuilder();
+        if (mentions != null && mentions.size() > 0) {
+            for (JsonElement mention : mentions) {
+                sb.append("@").append(mention.getAsJsonObject().get("code").getAsString()).append(" ");
+            }
+            sb.append("\n");
+        }
+        sb.append(text);
+        JsonObject comment = new JsonObject();
+        comment.addProperty("id", String.valueOf(commentId));
+        comment.addProperty("text", sb.toString());
+        comment.addProperty("createdAt", now());
+        comment.add("creator", user(user));
+        comment.add("mentions", mentions == null ? new JsonArray() : mentions);
+        list.put(commentId, comment);
+        return commentId;
+    }
+
+    void deleteComment(long recordId, long commentId) {
+        get(recordId);
+        TreeMap<Long, JsonObject> list = comments.get(recordId);
+        if (list == null || list.remove(commentId) == null) {
+            throw new StubException(404, "GAIA_RE02",
+                    "The comment (id: " + commentId + ") is not found.");
+        }
+    }
+
+    List<JsonObject> getComments(long recordId) {
+        get(recordId);
+        TreeMap<Long, JsonObject> list = comments.get(recordId);
+        if (list == null) {
+            return new ArrayList<JsonObject>();
+        }
+        return new ArrayList<JsonObject>(list.values());
+    }
+
+    /**
+     * Takes a snapshot of the records to roll back a failed bulk request.
+     */
+    Object snapshot() {
+        return new Object[] { new TreeMap<Long, StubRecord>(records),
+                nextRecordId };
+    }
+
+    @SuppressWarnings("unchecked")
+    void restore(Object snapshot) {
+        Object[] saved = (Object[]) snapshot;
+        records = (TreeMap<Long, StubRecord>) saved[0];
+        nextRecordId = (Long) saved[1];
+    }
+
+    /**
+     * Checks the revision. Revisions start from 1, so 0 and -1 mean that the
+     * revision is not specified.
+     */
+    private void checkRevision(StubRecord record, long revision) {
+        if (revision > 0 && revision != record.getRevision()) {
+            throw new StubException(409, "GAIA_CO02",
+                    "The revision is not the latest. Someone may update a record.");
+        }
+    }
+
+    private void putValues(JsonObject fields, JsonObject values) {
+        for (Map.Entry<String, JsonElement> entry : values.entrySet()) {
+            String fieldCode = entry.getKey();
+            if (isSystemField(fieldCode)) {
+                continue;
+            }
+            JsonElement value = entry.getValue();
+            if (value.isJsonObject()) {
+                value = value.getAsJsonObject().get("value");
+            }
+            fields.add(fieldCode, toField(fieldCode, value));
+        }
+    }
+
+    private static boolean isSystemField(String fieldCode) {
+        return fieldCode.equals(StubRecord.ID)
+                || fieldCode.equals(StubRecord.REVISION)
+                || fieldCode.equals(StubRecord.RECORD_NUMBER)
+                || fieldCode.equals(StubRecord.CREATOR)
+                || fieldCode.equals(StubRecord.CREATED_TIME)
+                || fieldCode.equals(StubRecord.MODIFIER)
+                || fieldCode.equals(StubRecord.UPDATED_TIME);
+    }
+
+    private JsonObject toField(String fieldCode, JsonElement value) {
+        if (value == null || value.isJsonNull()) {
+            value = new JsonPrimitive("");
+        }
+        String type = fieldTypes.get(fieldCode);
+        if (type == null) {
+            type = inferType(value);
+            if (type == null) {
+                return StubRecord.field("SINGLE_LINE_TEXT", value);
+            }
+            fieldTypes.put(fieldCode, type);
+        }
+        if (isEmptyString(value) && isArrayType(type)) {
+            return StubRecord.field(type, new JsonArray());
+        }
+
+        if (type.equals("NUMBER") && !isEmptyString(value)) {
+            try {
+                new BigDecimal(value.getAsString());
+            } catch (RuntimeException e) {
+                throw StubException.badRequest("The value of " + fieldCode
+                        + " must be a number.");
+            }
+        }
+        if (type.equals("FILE")) {
+            return StubRecord.field(type, toFiles(value));
+        }
+        if (type.equals("USER_SELECT") || type.equals("ORGANIZATION_SELECT")
+                || type.equals("GROUP_SELECT") || type.equals("STATUS_ASSIGNEE")) {
+            JsonArray users = new JsonArray();
+            for (JsonElement elem : value.getAsJsonArray()) {
+                users.add(user(elem.getAsJsonObject().get("code").getAsString()));
+            }
+            return StubRecord.field(type, users);
+        }
+        if (type.equals("SUBTABLE")) {
+            return StubRecord.field(type, toRows(value));
+        }
+        return StubRecord.field(type, value);
+    }
+
+    private JsonArray toFiles(JsonElement value) {
+        JsonArray files = new JsonArray();
+        for (JsonElement elem : value.getAsJsonArray()) {
+            String key = elem.getAsJsonObject().get("fileKey").getAsString();
+            StubStore.StoredFile stored = store.getFile(key);
+            if (stored == null) {
+                throw StubException.badRequest("The file (fileKey: " + key
+                        + ") is not found.");
+            }
+            JsonObject file = new JsonObject();
+            file.addProperty("contentType", stored.contentType);
+            file.addProperty("fileKey", stored.key);
+            file.addProperty("name", stored.name);
+            file.addProperty("size", String.valueOf(stored.data.length));
+            files.add(file);
+        }
+        return files;
+    }
+
+    private JsonArray toRows(JsonElement value) {
+        JsonArray rows = new JsonArray();
+        for (JsonElement elem : value.getAsJsonArray()) {
+            JsonObject row = elem.getAsJsonObject();
+            JsonElement rowId = row.get("id");
+            JsonObject fields = new JsonObject();
+            JsonElement rowValue = row.get("value");
+            if (rowValue != null && rowValue.isJsonObject()) {
+                putValues(fields, rowValue.getAsJsonObject());
+            }
+            JsonObject stored = new JsonObject();
+            if (rowId == null || rowId.isJsonNull()) {
+                stored.addProperty("id", String.valueOf(nextRowId++));
+            } else {
+                stored.addProperty("id", rowId.getAsString());
+            }
+            stored.add("value", fields);
+            rows.add(stored);
+        }
+        return rows;
+    }
+
+    private static String inferType(JsonElement value) {
+        if (value.isJsonPrimitive()) {
+            return isEmptyString(value) ? null : "SINGLE_LINE_TEXT";
+        }
+        if (value.isJsonObject()) {
+            return "CREATOR";
+        }
+        JsonArray array = value.getAsJsonArray();
+        if (array.size() == 0) {
+            return null;
+        }
+        JsonElement first = array.get(0);
+        if (first.isJsonPrimitive()) {
+            return "MULTI_SELECT";
+        }
+        JsonObject obj = first.getAsJsonObject();
+        if (obj.has("fileKey")) {
+            return "FILE";
+        }
+        if (obj.has("code")) {
+            return "USER_SELECT";
+        }
+        return "SUBTABLE";
+    }
+
+    private static boolean isArrayType(String type) {
+        return type.equals("CHECK_BOX") || type.equals("MULTI_SELECT")
+                || type.equals("CATEGORY") || type.equals("FILE")
+                || type.equals("USER_SELECT") || type.equals("ORGANIZATION_SELECT")
+                || type.equals("GROUP_SELECT") || type.equals("STATUS_ASSIGNEE")
+                || type.equals("SUBTABLE");
+    }
+
+    private static boolean isEmptyString(JsonElement value) {
+        return value.isJsonPrimitive() && value.getAsString().isEmpty();
+    }
+
+    private static JsonObject user(String code) {
+        JsonObject user = new JsonObject();
+        user.addProperty("code", code);
+        user.addProperty("name", code);
+        return user;
+    }
+
+    static String now() {
+        SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        df.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return df.format(new Date());
+    }
+}
@@ -0,0 +1,68 @@
+//   Copyright 2014 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.stub;
+
+/**
+ * An error which the stub server returns as a kintone error response.
+ *
+ */
+public class StubException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private int status;
+    private String code;
+
+    /**
+     * Constructor
+     * @param status http status code
+     * @param code error code
+     * @param message error message
+     */
+    public StubException(int status, String code, String message) {
+        super(message);
+        this.status = status;
+        this.code = code;
+    }
+
+    /**
+     * Gets the http status code.
+     * @return status code
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Gets the error code.
+     * @return error code such as "GAIA_RE01"
+     */
+    public String getCode() {
+        return code;
+    }
+
+    static StubException badRequest(String message) {
+        return new StubException(400, "CB_VA01", message);
+    }
+
+    static StubException appNotFound(long app) {
+        return new StubException(404, "GAIA_AP01",
+                "The app (id: " + app + ") not found.");
+    }
+
+    static StubException recordNotFound(long id) {
+        return new StubException(404, "GAIA_RE01",
+                "The specified record (id: " + id + ") is not found.");
+    }
+}
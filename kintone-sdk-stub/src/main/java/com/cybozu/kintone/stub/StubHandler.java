@@ -0,0 +1,727 @@
+//   Copyright 2014 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.stub;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Handles the requests to the stub server.
+ *
+ */
+class StubHandler implements HttpHandler {
+    private static final Pattern API_PATH = Pattern
+            .compile("^/k/(?:guest/\\d+/)?v1/(.+)$");
+    private static final int MAX_RECORDS = 100;
+    private static final int MAX_CURSOR_SIZE = 500;
+    private static final int MAX_BULK_REQUESTS = 20;
+    private static final int CHUNK_SIZE = 8192;
+
+    private final StubServer server;
+    private final StubStore store;
+    private final Map<String, Cursor> cursors = new HashMap<String, Cursor>();
+
+    StubHandler(StubServer server, StubStore store) {
+        this.server = server;
+        this.store = store;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        Matcher matcher = API_PATH.matcher(exchange.getRequestURI().getPath());
+        String api = matcher.matches() ? matcher.group(1) : exchange.getRequestURI().getPath();
+        server.countRequest(api);
+
+        int concurrency = server.active.incrementAndGet();
+        try {
+            delay();
+            byte[] body = read(exchange.getRequestBody());
+            Response response;
+            try {
+                if (server.getMaxConcurrency() > 0
+                        && concurrency > server.getMaxConcurrency()) {
+                    throw new StubException(429, StubServer.TOO_MANY_REQUESTS_CODE,
+                            "Too many concurrent requests.");
+                }
+                injectFailure(api);
+                if (!matcher.matches()) {
+                    throw new StubException(404, "STUB_NOT_SUPPORTED",
+                            "The api is not supported by the stub server.");
+                }
+                response = dispatch(exchange, api, body);
+            } catch (StubException e) {
+                response = Response.error(e, null);
+            } catch (JsonParseException e) {
+                response = Response.error(StubException.badRequest(
+                        "The request body is invalid."), null);
+            } catch (RuntimeException e) {
+                response = Response.error(StubException.badRequest(
+                        "The request is invalid: " + e), null);
+            }
+            write(exchange, response);
+        } finally {
+            server.active.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private Response dispatch(HttpExchange exchange, String api, byte[] body) {
+        String method = exchange.getRequestMethod();
+        Map<String, List<String>> params = parseQuery(exchange.getRequestURI().getRawQuery());
+        String user = user(exchange);
+
+        if (api.equals("file.json")) {
+            if (method.equals("GET")) {
+                return downloadFile(first(params, "fileKey"));
+            } else if (method.equals("POST")) {
+                return uploadFile(exchange.getRequestHeaders().getFirst("Content-Type"), body);
+            }
+            throw notSupported(method, api);
+        }
+        if (api.equals("bulkRequest.json") && method.equals("POST")) {
+            return bulkRequest(parseJson(body), user);
+        }
+        JsonObject json = method.equals("GET") ? null : parseJson(body);
+        synchronized (store) {
+            return Response.json(call(method, api, params, json, user));
+        }
+    }
+
+    /**
+     * Processes the json api. The caller holds the lock of the store.
+     */
+    private JsonObject call(String method, String api,
+            Map<String, List<String>> params, JsonObject json, String user) {
+        if (api.equals("records.json")) {
+            if (method.equals("GET")) {
+                return getRecords(params);
+            } else if (method.equals("POST")) {
+                return addRecords(json, user);
+            } else if (method.equals("PUT")) {
+                return updateRecords(json, user);
+            } else if (method.equals("DELETE")) {
+                return deleteRecords(json);
+            }
+        } else if (api.equals("record.json")) {
+            if (method.equals("GET")) {
+                StubApp app = store.app(longParam(params, "app"));
+                JsonObject result = new JsonObject();
+                result.add("record", app.get(longParam(params, "id")).toJson(null));
+                return result;
+            } else if (method.equals("POST")) {
+                StubApp app = store.app(json.get("app").getAsLong());
+                StubRecord record = app.insert(object(json, "record"), user);
+                JsonObject result = new JsonObject();
+                result.addProperty("id", String.valueOf(record.getId()));
+                result.addProperty("revision", String.valueOf(record.getRevision()));
+                return result;
+            } else if (method.equals("PUT")) {
+                StubApp app = store.app(json.get("app").getAsLong());
+                StubRecord record = update(app, json, user);
+                JsonObject result = new JsonObject();
+                result.addProperty("revision", String.valueOf(record.getRevision()));
+                return result;
+            }
+        } else if (api.equals("records/cursor.json")) {
+            if (method.equals("POST")) {
+                return createCursor(json);
+            } else if (method.equals("GET")) {
+                return getCursorRecords(first(params, "id"));
+            } else if (method.equals("DELETE")) {
+                String id = json.get("id").getAsString();
+                cursor(id);
+                cursors.remove(id);
+                return new JsonObject();
+            }
+        } else if (api.equals("app.json") && method.equals("GET")) {
+            return store.app(longParam(params, "id")).toJson();
+        } else if (api.equals("apps.json") && method.equals("GET")) {
+            return getApps(params);
+        } else if (api.equals("record/comments.json") && method.equals("GET")) {
+            return getComments(params);
+        } else if (api.equals("record/comment.json")) {
+            if (method.equals("POST")) {
+                StubApp app = store.app(json.get("app").getAsLong());
+                JsonObject comment = object(json, "comment");
+                JsonElement mentions = comment.get("mentions");
+                long id = app.addComment(json.get("record").getAsLong(),
+                        comment.get("text").getAsString(),
+                        mentions != null && mentions.isJsonArray() ? mentions.getAsJsonArray() : null,
+                        user);
+                JsonObject result = new JsonObject();
+                result.addProperty("id", String.valueOf(id));
+                return result;
+            } else if (method.equals("DELETE")) {
+                StubApp app = store.app(json.get("app").getAsLong());
+                app.deleteComment(json.get("record").getAsLong(),
+                        json.get("comment").getAsLong());
+                return new JsonObject();
+            }
+        }
+        throw notSupported(method, api);
+    }
+
+    private JsonObject getRecords(Map<String, List<String>> params) {
+        StubApp app = store.app(longParam(params, "app"));
+        Query query = Query.parse(first(params, "query"));
+        List<String> fields = params.get("fields");
+
+        List<StubRecord> matched = query.filter(app.records());
+        JsonArray records = new JsonArray();
+        for (StubRecord record : query.page(matched)) {
+            records.add(record.toJson(fields));
+        }
+        JsonObject result = new JsonObject();
+        result.add("records", records);
+        if ("true".equals(first(params, "totalCount"))) {
+            result.addProperty("totalCount", String.valueOf(matched.size()));
+        } else {
+            result.add("totalCount", null);
+        }
+        return result;
+    }
+
+    private JsonObject createCursor(JsonObject json) {
+        StubApp app = store.app(json.get("app").getAsLong());
+        JsonElement query = json.get("query");
+        List<StubRecord> matched = Query.parse(query != null ? query.getAsString() : null)
+                .filter(app.records());
+        List<String> fields = null;
+        JsonElement fieldsJson = json.get("fields");
+        if (fieldsJson != null && fieldsJson.isJsonArray()) {
+            fields = new ArrayList<String>();
+            for (JsonElement field : fieldsJson.getAsJsonArray()) {
+                fields.add(field.getAsString());
+            }
+        }
+        JsonElement size = json.get("size");
+        Cursor cursor = new Cursor(size != null ? size.getAsInt() : MAX_RECORDS);
+        if (cursor.size <= 0 || cursor.size > MAX_CURSOR_SIZE) {
+            throw StubException.badRequest("The size must be between 1 and "
+                    + MAX_CURSOR_SIZE + ".");
+        }
+        for (StubRecord record : matched) {
+            cursor.records.add(record.toJson(fields));
+        }
+        String id = UUID.randomUUID().toString();
+        cursors.put(id, cursor);
+        JsonObject result = new JsonObject();
+        result.addProperty("id", id);
+        result.addProperty("totalCount", String.valueOf(matched.size()));
+        return result;
+    }
+
+    private JsonObject getCursorRecords(String id) {
+        Cursor cursor = cursor(id);
+        JsonArray records = new JsonArray();
+        while (records.size() < cursor.size && !cursor.records.isEmpty()) {
+            records.add(cursor.records.poll());
+        }
+        boolean next = !cursor.records.isEmpty();
+        if (!next) {
+            cursors.remove(id);
+        }
+        JsonObject result = new JsonObject();
+        result.add("records", records);
+        result.addProperty("next", next);
+        return result;
+    }
+
+    private Cursor cursor(String id) {
+        Cursor cursor = id == null ? null : cursors.get(id);
+        if (cursor == null) {
+            throw new StubException(404, "GAIA_CO01",
+                    "The specified cursor does not exist.");
+        }
+        return cursor;
+    }
+
+    private JsonObject addRecords(JsonObject json, String user) {
+        StubApp app = store.app(json.get("app").getAsLong());
+        JsonArray records = json.getAsJsonArray("records");
+        checkCount(records.size());
+        Object snapshot = app.snapshot();
+        try {
+            JsonArray ids = new JsonArray();
+            JsonArray revisions = new JsonArray();
+            for (JsonElement elem : records) {
+                StubRecord record = app.insert(elem.getAsJsonObject(), user);
+                ids.add(String.valueOf(record.getId()));
+                revisions.add(String.valueOf(record.getRevision()));
+            }
+            JsonObject result = new JsonObject();
+            result.add("ids", ids);
+            result.add("revisions", revisions);
+            return result;
+        } catch (RuntimeException e) {
+            app.restore(snapshot);
+            throw e;
+        }
+    }
+
+    private JsonObject updateRecords(JsonObject json, String user) {
+        StubApp app = store.app(json.get("app").getAsLong());
+        JsonArray records = json.getAsJsonArray("records");
+        checkCount(records.size());
+        Object snapshot = app.snapshot();
+        try {
+            JsonArray results = new JsonArray();
+            for (JsonElement elem : records) {
+                StubRecord record = update(app, elem.getAsJsonObject(), user);
+                JsonObject result = new JsonObject();
+                result.addProperty("id", String.valueOf(record.getId()));
+                result.addProperty("revision", String.valueOf(record.getRevision()));
+                results.add(result);
+            }
+            JsonObject result = new JsonObject();
+            result.add("records", results);
+            return result;
+        } catch (RuntimeException e) {
+            app.restore(snapshot);
+            throw e;
+        }
+    }
+
+    private StubRecord update(StubApp app, JsonObject json, String user) {
+        StubRecord record;
+        JsonElement updateKey = json.get("updateKey");
+        if (updateKey != null && updateKey.isJsonObject()) {
+            JsonObject key = updateKey.getAsJsonObject();
+            record = app.findByKey(key.get("field").getAsString(),
+                    key.get("value").getAsString());
+        } else {
+            record = app.get(json.get("id").getAsLong());
+        }
+        JsonElement values = json.get("record");
+        return app.update(record, revision(json.get("revision")),
+                values != null && values.isJsonObject() ? values.getAsJsonObject() : null,
+                user);
+    }
+
+    private JsonObject deleteRecords(JsonObject json) {
+        StubApp app = store.app(json.get("app").getAsLong());
+        JsonArray ids = json.getAsJsonArray("ids");
+        JsonElement revisions = json.get("revisions");
+        checkCount(ids.size());
+        Object snapshot = app.snapshot();
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                long revision = -1;
+                if (revisions != null && revisions.isJsonArray()
+                        && i < revisions.getAsJsonArray().size()) {
+                    revision = revision(revisions.getAsJsonArray().get(i));
+                }
+                app.delete(ids.get(i).getAsLong(), revision);
+            }
+        } catch (RuntimeException e) {
+            app.restore(snapshot);
+            throw e;
+        }
+        return new JsonObject();
+    }
+
+    private Response bulkRequest(JsonObject json, String user) {
+        JsonArray requests = json.getAsJsonArray("requests");
+        if (requests.size() > MAX_BULK_REQUESTS) {
+            throw StubException.badRequest("The number of requests must be "
+                    + MAX_BULK_REQUESTS + " or less.");
+        }
+        synchronized (store) {
+            Map<StubApp, Object> snapshots = new HashMap<StubApp, Object>();
+            JsonArray results = new JsonArray();
+            for (int i = 0; i < requests.size(); i++) {
+                JsonObject request = requests.get(i).getAsJsonObject();
+                String method = request.get("method").getAsString();
+                Matcher matcher = API_PATH.matcher(request.get("api").getAsString());
+                JsonObject payload = object(request, "payload");
+                try {
+                    if (method.equals("GET") || !matcher.matches()) {
+                        throw notSupported(method, request.get("api").getAsString());
+                    }
+                    StubApp app = store.app(payload.get("app").getAsLong());
+                    if (!snapshots.containsKey(app)) {
+                        snapshots.put(app, app.snapshot());
+                    }
+                    results.add(call(method, matcher.group(1), null, payload, user));
+                } catch (RuntimeException e) {
+                    for (Map.Entry<StubApp, Object> entry : snapshots.entrySet()) {
+                        entry.getKey().restore(entry.getValue());
+                    }
+                    StubException error = e instanceof StubException ? (StubException) e
+                            : StubException.badRequest("The request is invalid: " + e);
+                    JsonArray errors = new JsonArray();
+                    for (int j = 0; j < requests.size(); j++) {
+                        errors.add(j == i ? errorJson(error) : new JsonObject());
+                    }
+                    return Response.error(error, errors);
+                }
+            }
+            JsonObject result = new JsonObject();
+            result.add("results", results);
+            return Response.json(result);
+        }
+    }
+
+    private JsonObject getApps(Map<String, List<String>> params) {
+        List<String> ids = params.get("ids");
+        List<String> codes = params.get("codes");
+        String name = first(params, "name");
+        int limit = params.containsKey("limit") ? (int) longParam(params, "limit") : 100;
+        int offset = params.containsKey("offset") ? (int) longParam(params, "offset") : 0;
+
+        JsonArray apps = new JsonArray();
+        int skipped = 0;
+        for (StubApp app : store.getApps()) {
+            if (ids != null && !ids.contains(String.valueOf(app.getId()))) {
+                continue;
+            }
+            if (codes != null && !codes.contains(app.getCode())) {
+                continue;
+            }
+            if (name != null && !app.getName().contains(name)) {
+                continue;
+            }
+            if (params.containsKey("spaceIds")) {
+                continue;
+            }
+            if (skipped++ < offset) {
+                continue;
+            }
+            if (apps.size() >= limit) {
+                break;
+            }
+            apps.add(app.toJson());
+        }
+        JsonObject result = new JsonObject();
+        result.add("apps", apps);
+        return result;
+    }
+
+    private JsonObject getComments(Map<String, List<String>> params) {
+        StubApp app = store.app(longParam(params, "app"));
+        List<JsonObject> comments = app.getComments(longParam(params, "record"));
+        boolean ascending = "asc".equalsIgnoreCase(first(params, "order"));
+        int limit = params.containsKey("limit") ? (int) longParam(params, "limit") : 10;
+        int offset = params.containsKey("offset") ? (int) longParam(params, "offset") : 0;
+
+        JsonArray result = new JsonArray();
+        int from = Math.min(offset, comments.size());
+        int to = Math.min(from + limit, comments.size());
+        for (int i = from; i < to; i++) {
+            result.add(comments.get(ascending ? i : comments.size() - 1 - i));
+        }
+        boolean before = from > 0;
+        boolean after = to < comments.size();
+        JsonObject json = new JsonObject();
+        json.add("comments", result);
+        json.addProperty("older", ascending ? before : after);
+        json.addProperty("newer", ascending ? after : before);
+        return json;
+    }
+
+    private Response downloadFile(String fileKey) {
+        StubStore.StoredFile file = fileKey == null ? null : store.getFile(fileKey);
+        if (file == null) {
+            throw new StubException(404, "GAIA_BL01",
+                    "The file (fileKey: " + fileKey + ") is not found.");
+        }
+        return new Response(200, file.contentType == null ? "application/octet-stream"
+                : file.contentType, file.data);
+    }
+
+    private Response uploadFile(String contentType, byte[] body) {
+        Matcher boundary = Pattern.compile("boundary=\"?([^\";]+)\"?").matcher(
+                contentType == null ? "" : contentType);
+        if (!boundary.find()) {
+            throw StubException.badRequest("The request is not multipart.");
+        }
+        byte[] delimiter = ("\r\n--" + boundary.group(1)).getBytes(StandardCharsets.ISO_8859_1);
+        int headerEnd = indexOf(body, "\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1), 0);
+        int dataEnd = headerEnd < 0 ? -1 : indexOf(body, delimiter, headerEnd + 4);
+        if (dataEnd < 0) {
+            throw StubException.badRequest("The multipart body is invalid.");
+        }
+        String headers = new String(body, 0, headerEnd, StandardCharsets.UTF_8);
+        Matcher fileName = Pattern.compile("filename=\"([^\"]*)\"").matcher(headers);
+        Matcher type = Pattern.compile("(?i)Content-Type:\\s*(\\S+)").matcher(headers);
+        byte[] data = new byte[dataEnd - headerEnd - 4];
+        System.arraycopy(body, headerEnd + 4, data, 0, data.length);
+
+        String key = store.putFile(data, fileName.find() ? fileName.group(1) : "",
+                type.find() ? type.group(1) : null);
+        JsonObject result = new JsonObject();
+        result.addProperty("fileKey", key);
+        return Response.json(result);
+    }
+
+    private void delay() {
+        long millis = server.getLatency();
+        long jitter = server.getLatencyJitter();
+        if (jitter > 0) {
+            millis += ThreadLocalRandom.current().nextLong(jitter + 1);
+        }
+        sleep(millis);
+    }
+
+    private void injectFailure(String api) {
+        AtomicInteger remaining = server.scheduledFailures.get(api);
+        if (remaining != null && remaining.getAndDecrement() > 0) {
+            throw new StubException(server.scheduledStatus.get(api),
+                    StubServer.FAULT_CODE, "Injected failure.");
+        }
+        double rate = server.getErrorRate();
+        if (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate) {
+            throw new StubException(server.getErrorStatus(),
+                    StubServer.FAULT_CODE, "Injected failure.");
+        }
+    }
+
+    private byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[CHUNK_SIZE];
+        long start = System.nanoTime();
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+            pace(start, out.size());
+        }
+        return out.toByteArray();
+    }
+
+    private void write(HttpExchange exchange, Response response) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", response.contentType);
+        exchange.sendResponseHeaders(response.status,
+                response.body.length == 0 ? -1 : response.body.length);
+        if (response.body.length == 0) {
+            return;
+        }
+        OutputStream out = exchange.getResponseBody();
+        long start = System.nanoTime();
+        for (int off = 0; off < response.body.length; off += CHUNK_SIZE) {
+            int len = Math.min(CHUNK_SIZE, response.body.length - off);
+            out.write(response.body, off, len);
+            pace(start, off + len);
+        }
+        out.close();
+    }
+
+    /**
+     * Sleeps until the bytes can be transferred at the bandwidth.
+     */
+    private void pace(long start, long bytes) {
+        long bandwidth = server.getBandwidth();
+        if (bandwidth <= 0) {
+            return;
+        }
+        long due = start + bytes * 1000000000L / bandwidth;
+        long wait = due - System.nanoTime();
+        if (wait > 0) {
+            sleep(wait / 1000000L);
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String user(HttpExchange exchange) {
+        String auth = exchange.getRequestHeaders().getFirst("X-Cybozu-Authorization");
+        if (auth != null) {
+            try {
+                String decoded = new String(Base64.getDecoder().decode(auth),
+                        StandardCharsets.UTF_8);
+                int colon = decoded.indexOf(':');
+                if (colon > 0) {
+                    return decoded.substring(0, colon);
+                }
+            } catch (IllegalArgumentException e) {
+            }
+        }
+        return "Administrator";
+    }
+
+    private static Map<String, List<String>> parseQuery(String query) {
+        Map<String, List<String>> params = new LinkedHashMap<String, List<String>>();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = decode(eq < 0 ? pair : pair.substring(0, eq));
+            String value = eq < 0 ? "" : decode(pair.substring(eq + 1));
+            int bracket = name.indexOf('[');
+            if (bracket > 0) {
+                name = name.substring(0, bracket);
+            }
+            List<String> values = params.get(name);
+            if (values == null) {
+                values = new ArrayList<String>();
+                params.put(name, values);
+            }
+            values.add(value);
+        }
+        return params;
+    }
+
+    private static String decode(String s) {
+        try {
+            return URLDecoder.decode(s, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String first(Map<String, List<String>> params, String name) {
+        List<String> values = params.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    private static long longParam(Map<String, List<String>> params, String name) {
+        String value = first(params, name);
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw StubException.badRequest("The parameter " + name + " is invalid.");
+        }
+    }
+
+    private static JsonObject parseJson(byte[] body) {
+        JsonElement json = new JsonParser().parse(new String(body, StandardCharsets.UTF_8));
+        if (!json.isJsonObject()) {
+            throw StubException.badRequest("The request body is not a json object.");
+        }
+        return json.getAsJsonObject();
+    }
+
+    private static JsonObject object(JsonObject json, String name) {
+        JsonElement value = json.get(name);
+        if (value == null || !value.isJsonObject()) {
+            throw StubException.badRequest("The parameter " + name + " is required.");
+        }
+        return value.getAsJsonObject();
+    }
+
+    private static long revision(JsonElement revision) {
+        if (revision == null || revision.isJsonNull()) {
+            return -1;
+        }
+        return revision.getAsLong();
+    }
+
+    private static void checkCount(int count) {
+        if (count > MAX_RECORDS) {
+            throw StubException.badRequest("The number of records must be "
+                    + MAX_RECORDS + " or less.");
+        }
+    }
+
+    private static StubException notSupported(String method, String api) {
+        return new StubException(404, "STUB_NOT_SUPPORTED",
+                method + " " + api + " is not supported by the stub server.");
+    }
+
+    private static JsonObject errorJson(StubException e) {
+        JsonObject json = new JsonObject();
+        json.addProperty("code", e.getCode());
+        json.addProperty("id", UUID.randomUUID().toString());
+        json.addProperty("message", e.getMessage());
+        return json;
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern, int from) {
+        outer: for (int i = from; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * A response to be written.
+     */
+    /**
+     * The records of a cursor which have not been retrieved yet.
+     */
+    private static final class Cursor {
+        final int size;
+        final ArrayDeque<JsonObject> records = new ArrayDeque<JsonObject>();
+
+        Cursor(int size) {
+            this.size = size;
+        }
+    }
+
+    private static final class Response {
+        final int status;
+        final String contentType;
+        final byte[] body;
+
+        Response(int status, String contentType, byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        static Response json(JsonObject json) {
+            return new Response(200, "application/json; charset=utf-8",
+                    json.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Response error(StubException e, JsonArray results) {
+            JsonObject json = errorJson(e);
+            if (results != null) {
+                json.add("results", results);
+            }
+            return new Response(e.getStatus(), "application/json; charset=utf-8",
+                    json.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,130 @@
+//   Copyright 2014 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.stub;
+
+import java.util.Map;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * A record stored in the stub server. A record is never modified after it is
+ * stored; an update replaces it with a new one, so that a snapshot of the
+ * store only has to copy the references.
+ *
+ */
+final class StubRecord {
+    static final String ID = "$id";
+    static final String REVISION = "$revision";
+    static final String RECORD_NUMBER = "Record_number";
+    static final String CREATOR = "Created_by";
+    static final String CREATED_TIME = "Created_datetime";
+    static final String MODIFIER = "Updated_by";
+    static final String UPDATED_TIME = "Updated_datetime";
+
+    private final long id;
+    private final long revision;
+    private final JsonObject fields;
+
+    StubRecord(long id, long revision, JsonObject fields) {
+        this.id = id;
+        this.revision = revision;
+        this.fields = fields;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    long getRevision() {
+        return revision;
+    }
+
+    /**
+     * Gets the field object which has the type and the value.
+     * @param name field code
+     * @return field object, or null if the record does not have the field
+     */
+    JsonObject getField(String name) {
+        if (ID.equals(name)) {
+            return field("__ID__", String.valueOf(id));
+        }
+        if (REVISION.equals(name)) {
+            return field("__REVISION__", String.valueOf(revision));
+        }
+        JsonElement field = fields.get(name);
+        return field == null ? null : field.getAsJsonObject();
+    }
+
+    /**
+     * Gets the value of the field.
+     * @param name field code
+     * @return the value, or null if the record does not have the field
+     */
+    JsonElement getValue(String name) {
+        JsonObject field = getField(name);
+        return field == null ? null : field.get("value");
+    }
+
+    /**
+     * Copies the fields to be updated.
+     * @return new json object which has the same fields
+     */
+    JsonObject copyFields() {
+        JsonObject copy = new JsonObject();
+        for (Map.Entry<String, JsonElement> entry : fields.entrySet()) {
+            copy.add(entry.getKey(), entry.getValue());
+        }
+        return copy;
+    }
+
+    /**
+     * Converts the record to the json of the response.
+     * @param columns field codes to be returned, or null for all the fields
+     * @return json object
+     */
+    JsonObject toJson(Iterable<String> columns) {
+        JsonObject json = new JsonObject();
+        if (columns == null) {
+            json.add(ID, getField(ID));
+            json.add(REVISION, getField(REVISION));
+            for (Map.Entry<String, JsonElement> entry : fields.entrySet()) {
+                json.add(entry.getKey(), entry.getValue());
+            }
+        } else {
+            for (String column : columns) {
+                JsonObject field = getField(column);
+                if (field != null) {
+                    json.add(column, field);
+                }
+            }
+        }
+        return json;
+    }
+
+    static JsonObject field(String type, String value) {
+        JsonObject field = new JsonObject();
+        field.addProperty("type", type);
+        field.addProperty("value", value);
+        return field;
+    }
+
+    static JsonObject field(String type, JsonElement value) {
+        JsonObject field = new JsonObject();
+        field.addProperty("type", type);
+        field.add("value", value);
+        return field;
+    }
+}
@@ -0,0 +1,304 @@
+//   Copyright 2014 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.stub;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+/**
+ * An in-memory stand-in of the kintone REST API for load and latency tests.
+ * It serves records.json, record.json, bulkRequest.json, file.json,
+ * app.json, apps.json, record/comments.json and record/comment.json for the
+ * apps of a {@link StubStore}. Point a connection at it with
+ * <code>Connection.setBaseUrl(server.getBaseUrl())</code>.
+ *
+ * The latency, the bandwidth, the number of concurrent requests and the
+ * failures can be configured while the server is running. Any credentials
+ * are accepted.
+ *
+ */
+public class StubServer {
+    /** The error code of the injected failures. */
+    public static final String FAULT_CODE = "STUB_FAULT";
+    /** The error code returned when the concurrency limit is exceeded. */
+    public static final String TOO_MANY_REQUESTS_CODE = "STUB_TOO_MANY_REQUESTS";
+
+    private final StubStore store;
+    private HttpServer server;
+    private ExecutorService executor;
+    private String scheme = "http";
+
+    private volatile long latency = 0;
+    private volatile long latencyJitter = 0;
+    private volatile long bandwidth = 0;
+    private volatile double errorRate = 0;
+    private volatile int errorStatus = 503;
+    private volatile int maxConcurrency = 0;
+
+    final AtomicInteger active = new AtomicInteger();
+    final ConcurrentHashMap<String, AtomicInteger> scheduledFailures = new ConcurrentHashMap<String, AtomicInteger>();
+    final ConcurrentHashMap<String, Integer> scheduledStatus = new ConcurrentHashMap<String, Integer>();
+    private final ConcurrentHashMap<String, AtomicLong> requestCounts = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong requestCount = new AtomicLong();
+
+    /**
+     * Constructor with an empty store.
+     */
+    public StubServer() {
+        this(new StubStore());
+    }
+
+    /**
+     * Constructor
+     * @param store the data served by the server
+     */
+    public StubServer(StubStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Starts the server on an ephemeral port of the loopback address.
+     * @throws IOException
+     */
+    public void start() throws IOException {
+        start(0);
+    }
+
+    /**
+     * Starts the server on the port of the loopback address.
+     * @param port port number (0 means an ephemeral port)
+     * @throws IOException
+     */
+    public void start(int port) throws IOException {
+        start(HttpServer.create(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), port), 0), "http");
+    }
+
+    /**
+     * Starts the server with https on the port of the loopback address. The
+     * client has to trust the certificate of the context, e.g. by
+     * <code>Connection.setTrustAllHosts(true)</code>.
+     * @param port port number (0 means an ephemeral port)
+     * @param sslContext ssl context which has the server certificate
+     * @throws IOException
+     */
+    public void startHttps(int port, SSLContext sslContext) throws IOException {
+        HttpsServer https = HttpsServer.create(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), port), 0);
+        https.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+        start(https, "https");
+    }
+
+    private synchronized void start(HttpServer server, String scheme) {
+        if (this.server != null) {
+            server.stop(0);
+            throw new IllegalStateException("the server is already started");
+        }
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "kintone-stub-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.createContext("/k/", new StubHandler(this, store));
+        server.setExecutor(executor);
+        server.start();
+        this.server = server;
+        this.scheme = scheme;
+    }
+
+    /**
+     * Stops the server. The data in the store is kept.
+     */
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+            executor = null;
+        }
+    }
+
+    /**
+     * Gets the port which the server listens on.
+     * @return port number
+     */
+    public synchronized int getPort() {
+        if (server == null) {
+            throw new IllegalStateException("the server is not started");
+        }
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Gets the base url to be set to the connection.
+     * @return url such as "http://127.0.0.1:12345"
+     */
+    public String getBaseUrl() {
+        return scheme + "://" + InetAddress.getLoopbackAddress().getHostAddress()
+                + ":" + getPort();
+    }
+
+    /**
+     * Gets the data served by the server.
+     * @return the store
+     */
+    public StubStore getStore() {
+        return store;
+    }
+
+    /**
+     * Sets the time added to each request.
+     * @param millis latency in milliseconds
+     * @param jitterMillis max random latency added to it in milliseconds
+     */
+    public void setLatency(long millis, long jitterMillis) {
+        this.latency = millis;
+        this.latencyJitter = jitterMillis;
+    }
+
+    long getLatency() {
+        return latency;
+    }
+
+    long getLatencyJitter() {
+        return latencyJitter;
+    }
+
+    /**
+     * Sets the bandwidth of each request and response body.
+     * @param bytesPerSecond bytes per second (0 means unlimited)
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        this.bandwidth = bytesPerSecond;
+    }
+
+    long getBandwidth() {
+        return bandwidth;
+    }
+
+    /**
+     * Makes the requests fail at random.
+     * @param rate probability of the failure from 0 to 1
+     * @param status http status code of the failure
+     */
+    public void setErrorRate(double rate, int status) {
+        this.errorRate = rate;
+        this.errorStatus = status;
+    }
+
+    double getErrorRate() {
+        return errorRate;
+    }
+
+    int getErrorStatus() {
+        return errorStatus;
+    }
+
+    /**
+     * Makes the next requests to the api fail.
+     * @param api api name such as "records.json"
+     * @param status http status code of the failure
+     * @param count number of the requests to fail
+     */
+    public void failNext(String api, int status, int count) {
+        scheduledStatus.put(api, status);
+        scheduledFailures.put(api, new AtomicInteger(count));
+    }
+
+    /**
+     * Sets the max number of the requests processed at the same time. The
+     * requests exceeding it fail with 429 Too Many Requests.
+     * @param maxConcurrency max number of the requests (0 means unlimited)
+     */
+    public void setMaxConcurrency(int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Gets the number of the requests received.
+     * @return number of the requests
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Gets the number of the requests received by the api. The requests in
+     * a bulk request are not counted.
+     * @param api api name such as "records.json"
+     * @return number of the requests
+     */
+    public long getRequestCount(String api) {
+        AtomicLong count = requestCounts.get(api);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Resets the request counts.
+     */
+    public void resetRequestCounts() {
+        requestCounts.clear();
+        requestCount.set(0);
+    }
+
+    void countRequest(String api) {
+        requestCount.incrementAndGet();
+        AtomicLong count = requestCounts.get(api);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = requestCounts.putIfAbsent(api, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Runs the stub server with an empty app (id: 1) until it is killed.
+     * @param args the port number (8080 by default)
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        StubServer server = new StubServer();
+        server.getStore().createApp("Stub app");
+        server.start(port);
+        System.out.println("kintone stub server: " + server.getBaseUrl());
+        Thread.currentThread().join();
+    }
+}
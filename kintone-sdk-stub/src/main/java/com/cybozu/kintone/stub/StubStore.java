@@ -0,0 +1,124 @@
+//   Copyright 2014 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.stub;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * The in-memory data of the stub server: the apps, their records and the
+ * uploaded files. The methods of the apps and the store are synchronized on
+ * the store, so the data can be prepared while the server is running.
+ *
+ */
+public class StubStore {
+    private TreeMap<Long, StubApp> apps = new TreeMap<Long, StubApp>();
+    private HashMap<String, StoredFile> files = new HashMap<String, StoredFile>();
+    private long nextAppId = 1;
+
+    /**
+     * Creates a new app with the next app id.
+     * @param name app name
+     * @return the app
+     */
+    public synchronized StubApp createApp(String name) {
+        return addApp(nextAppId, name);
+    }
+
+    /**
+     * Creates a new app with the specified id. An existing app with the id
+     * is replaced.
+     * @param id app id
+     * @param name app name
+     * @return the app
+     */
+    public synchronized StubApp addApp(long id, String name) {
+        StubApp app = new StubApp(this, id, name);
+        apps.put(id, app);
+        if (id >= nextAppId) {
+            nextAppId = id + 1;
+        }
+        return app;
+    }
+
+    /**
+     * Gets the app.
+     * @param id app id
+     * @return the app, or null if not found
+     */
+    public synchronized StubApp getApp(long id) {
+        return apps.get(id);
+    }
+
+    /**
+     * Gets all the apps in the order of the id.
+     * @return list of the app
+     */
+    public synchronized List<StubApp> getApps() {
+        return new ArrayList<StubApp>(apps.values());
+    }
+
+    /**
+     * Removes all the apps and the files.
+     */
+    public synchronized void clear() {
+        apps.clear();
+        files.clear();
+        nextAppId = 1;
+    }
+
+    /**
+     * Gets the app or throws the not found error.
+     * @param id app id
+     * @return the app
+     */
+    StubApp app(long id) {
+        StubApp app = apps.get(id);
+        if (app == null) {
+            throw StubException.appNotFound(id);
+        }
+        return app;
+    }
+
+    synchronized String putFile(byte[] data, String name, String contentType) {
+        String key = UUID.randomUUID().toString().replace("-", "");
+        files.put(key, new StoredFile(key, data, name, contentType));
+        return key;
+    }
+
+    synchronized StoredFile getFile(String key) {
+        return files.get(key);
+    }
+
+    /**
+     * A file uploaded to the stub server.
+     */
+    static final class StoredFile {
+        final String key;
+        final byte[] data;
+        final String name;
+        final String contentType;
+
+        StoredFile(String key, byte[] data, String name, String contentType) {
+            this.key = key;
+            this.data = data;
+            this.name = name;
+            this.contentType = contentType;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.cybozu.kintone.stub;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cybozu.kintone.database.BulkRequest;
+import com.cybozu.kintone.database.CommentSet;
+import com.cybozu.kintone.database.Connection;
+import com.cybozu.kintone.database.MentionDto;
+import com.cybozu.kintone.database.Record;
+import com.cybozu.kintone.database.ResultSet;
+import com.cybozu.kintone.database.RetryPolicy;
+import com.cybozu.kintone.database.exception.DBException;
+
+public class StubServerTest {
+
+	private StubServer server;
+	private long app;
+
+	@Before
+	public void initialize() throws Exception {
+		server = new StubServer();
+		StubApp stubApp = server.getStore().createApp("test");
+		stubApp.setFieldType("Number", "NUMBER");
+		app = stubApp.getId();
+		server.start();
+	}
+
+	@After
+	public void terminate() {
+		server.stop();
+	}
+
+	private Connection getConnection() {
+		Connection db = new Connection("stub", "user1", "password");
+		db.setBaseUrl(server.getBaseUrl());
+		return db;
+	}
+
+	private List<Long> insertRecords() throws DBException {
+		ArrayList<Record> records = new ArrayList<Record>();
+		for (int i = 1; i <= 3; i++) {
+			Record record = new Record();
+			record.setString("key", "key" + i);
+			record.setLong("Number", i * 10);
+			records.add(record);
+		}
+		return getConnection().insert(app, records);
+	}
+
+	@Test
+	public void testSelect() {
+		Connection db = getConnection();
+		try {
+			insertRecords();
+			ResultSet rs = db.select(app, "Number >= 20 order by Number asc");
+			assertEquals(rs.size(), 2);
+			rs.next();
+			assertEquals(rs.getString("key"), "key2");
+			assertEquals(rs.getLong("Number").longValue(), 20);
+
+			rs = db.selectWithTotalCount(app, "key in (\"key1\", \"key3\") limit 1");
+			assertEquals(rs.size(), 1);
+			assertEquals(rs.getTotalCount().longValue(), 2);
+			rs.next();
+			assertEquals(rs.getString("key"), "key3");
+			assertEquals(rs.getUser("Created_by").getCode(), "user1");
+		} catch (Exception e) {
+			fail("db exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testUpdateAndDelete() {
+		Connection db = getConnection();
+		try {
+			List<Long> ids = insertRecords();
+			Record record = new Record(ids.get(0));
+			record.setString("key", "updated");
+			long revision = db.updateRecord(app, record);
+			assertEquals(revision, 2);
+
+			try {
+				Record stale = new Record(ids.get(0), 1);
+				stale.setString("key", "stale");
+				db.updateRecord(app, stale);
+				fail("stale revision should be rejected");
+			} catch (DBException e) {
+				assertEquals(e.getHttpStatus(), 409);
+			}
+
+			db.delete(app, ids.get(1));
+			ResultSet rs = db.select(app, "order by $id asc");
+			assertEquals(rs.size(), 2);
+			rs.next();
+			assertEquals(rs.getString("key"), "updated");
+		} catch (Exception e) {
+			fail("db exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testBulkRequestIsAtomic() {
+		Connection db = getConnection();
+		try {
+			List<Long> ids = insertRecords();
+			BulkRequest bulk = new BulkRequest();
+			Record record = new Record();
+			record.setString("key", "bulk");
+			bulk.insert(app, record);
+			bulk.delete(app, ids.get(0) + 100);
+			try {
+				db.bulkRequest(bulk);
+				fail("bulk request should fail");
+			} catch (DBException e) {
+			}
+			assertEquals(db.select(app, "").size(), 3);
+
+			bulk = new BulkRequest();
+			bulk.insert(app, record);
+			bulk.delete(app, ids.get(0));
+			db.bulkRequest(bulk);
+			assertEquals(db.select(app, "key = \"bulk\"").size(), 1);
+			assertEquals(db.select(app, "").size(), 3);
+		} catch (Exception e) {
+			fail("db exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testFileAndComment() {
+		Connection db = getConnection();
+		try {
+			Record record = new Record();
+			record.setFile("Attachment", new ByteArrayInputStream("hello".getBytes("UTF-8")), "hello.txt");
+			long id = db.insert(app, record);
+
+			ResultSet rs = db.select(app, "");
+			rs.next();
+			assertEquals(rs.getFiles("Attachment").get(0).getName(), "hello.txt");
+			File file = rs.downloadFile("Attachment", 0);
+			FileInputStream in = new FileInputStream(file);
+			byte[] data = new byte[16];
+			int n = in.read(data);
+			in.close();
+			file.delete();
+			assertEquals(new String(data, 0, n, "UTF-8"), "hello");
+
+			List<MentionDto> mentions = new ArrayList<MentionDto>();
+			mentions.add(new MentionDto("user2", "USER"));
+			db.addComment(app, id, "this is a comment", mentions);
+			CommentSet cs = db.getComments(app, id, true);
+			assertEquals(cs.size(), 1);
+			cs.next();
+			assertTrue(cs.getText().indexOf("this is a comment") > 0);
+			assertEquals(cs.getCreator().getCode(), "user1");
+		} catch (Exception e) {
+			fail("db exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testFaultInjection() {
+		Connection db = getConnection();
+		try {
+			server.failNext("records.json", 503, 1);
+			try {
+				db.select(app, "");
+				fail("injected failure expected");
+			} catch (DBException e) {
+				assertEquals(e.getHttpStatus(), 503);
+			}
+			db.select(app, "");
+			assertEquals(server.getRequestCount("records.json"), 2);
+
+			server.setLatency(100, 0);
+			long start = System.currentTimeMillis();
+			db.select(app, "");
+			assertTrue(System.currentTimeMillis() - start >= 100);
+		} catch (Exception e) {
+			fail("db exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testCursorPageIsNotRetried() {
+		Connection db = getConnection();
+		db.setRetryPolicy(RetryPolicy.builder().backoff(10, 20).build());
+		try {
+			insertRecords();
+			String cursor = db.createCursor(app, "order by Number asc", null, 1);
+			ResultSet rs = db.getCursorRecords(cursor);
+			rs.next();
+			assertEquals(rs.getString("key"), "key1");
+
+			server.failNext("records/cursor.json", 503, 1);
+			try {
+				db.getCursorRecords(cursor);
+				fail("injected failure expected");
+			} catch (DBException e) {
+				assertEquals(e.getHttpStatus(), 503);
+			}
+			rs = db.getCursorRecords(cursor);
+			rs.next();
+			assertEquals(rs.getString("key"), "key2");
+			assertTrue(rs.hasMore());
+		} catch (Exception e) {
+			fail("db exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testInvalidQuery() {
+		Connection db = getConnection();
+		try {
+			db.select(app, "key = ");
+			fail("invalid query should be rejected");
+		} catch (DBException e) {
+			assertEquals(e.getHttpStatus(), 400);
+		}
+	}
+}
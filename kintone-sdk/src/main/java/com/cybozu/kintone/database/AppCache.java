@@ -0,0 +1,252 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the app information returned by {@link Connection#getApp(long)}
+ * and {@link Connection#getApps(java.util.List, java.util.List, String, java.util.List, long, long)},
+ * and resolves the app codes to the app ids. An entry expires after the time
+ * to live, and the least recently used entry is evicted when the cache is
+ * full. The callers get copies of the cached objects.
+ *
+ * The cache does not check the permission of the user, so it should be
+ * shared only by the connections to the same domain with the same access.
+ *
+ * <pre>
+ * Connection db = new Connection(ConnectionConfig.builder("example.cybozu.com")
+ *         .password("login", "password")
+ *         .appCache(new AppCache(1000, 600000))
+ *         .build());
+ * </pre>
+ *
+ */
+public class AppCache {
+    public static final int DEFAULT_MAX_SIZE = 1000;
+    public static final long DEFAULT_TIME_TO_LIVE = 10 * 60 * 1000; // msec
+
+    private final int maxSize;
+    private final long timeToLive;
+    private final LinkedHashMap<Long, CachedApp> apps;
+    private final HashMap<String, Long> codes = new HashMap<String, Long>();
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Constructor with the default size and time to live.
+     */
+    public AppCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TIME_TO_LIVE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxSize
+     *            max number of the apps
+     * @param timeToLive
+     *            time to keep an app in milliseconds
+     */
+    public AppCache(int maxSize, long timeToLive) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        if (timeToLive <= 0) {
+            throw new IllegalArgumentException("timeToLive must be positive");
+        }
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+        this.apps = new LinkedHashMap<Long, CachedApp>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CachedApp> eldest) {
+                if (size() <= AppCache.this.maxSize) {
+                    return false;
+                }
+                evictions++;
+                removeCode(eldest.getValue().app);
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Gets the cached app.
+     *
+     * @param id
+     *            app id
+     * @return copy of the app, or null if not cached
+     */
+    public synchronized AppDto get(long id) {
+        CachedApp entry = lookup(id);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.app.copy();
+    }
+
+    /**
+     * Gets the cached app.
+     *
+     * @param code
+     *            app code
+     * @return copy of the app, or null if not cached
+     */
+    public synchronized AppDto get(String code) {
+        Long id = codes.get(code);
+        CachedApp entry = id != null ? lookup(id) : null;
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.app.copy();
+    }
+
+    /**
+     * Gets the id of the cached app.
+     *
+     * @param code
+     *            app code
+     * @return app id, or null if not cached
+     */
+    public synchronized Long getAppId(String code) {
+        Long id = codes.get(code);
+        if (id == null || lookup(id) == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return id;
+    }
+
+    /**
+     * Adds the app to the cache.
+     *
+     * @param app
+     *            app object
+     */
+    public synchronized void put(AppDto app) {
+        CachedApp old = apps.put(app.getAppId(), new CachedApp(app.copy(),
+                System.currentTimeMillis() + timeToLive));
+        if (old != null) {
+            removeCode(old.app);
+        }
+        if (app.getCode() != null && app.getCode().length() > 0) {
+            codes.put(app.getCode(), app.getAppId());
+        }
+    }
+
+    /**
+     * Removes the app from the cache.
+     *
+     * @param id
+     *            app id
+     */
+    public synchronized void invalidate(long id) {
+        CachedApp entry = apps.remove(id);
+        if (entry != null) {
+            removeCode(entry.app);
+        }
+    }
+
+    /**
+     * Removes all apps from the cache.
+     */
+    public synchronized void invalidateAll() {
+        apps.clear();
+        codes.clear();
+    }
+
+    /**
+     * Removes the expired apps from the cache.
+     */
+    public synchronized void cleanUp() {
+        long now = System.currentTimeMillis();
+        Iterator<CachedApp> it = apps.values().iterator();
+        while (it.hasNext()) {
+            CachedApp entry = it.next();
+            if (entry.expiresAt <= now) {
+                it.remove();
+                removeCode(entry.app);
+            }
+        }
+    }
+
+    /**
+     * @return the number of the cached apps, including the expired ones
+     */
+    public synchronized int size() {
+        return apps.size();
+    }
+
+    /**
+     * @return the number of the lookups which found the app
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return the number of the lookups which did not find the app
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return the number of the apps evicted because the cache was full
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    private CachedApp lookup(long id) {
+        CachedApp entry = apps.get(id);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt <= System.currentTimeMillis()) {
+            apps.remove(id);
+            removeCode(entry.app);
+            return null;
+        }
+        return entry;
+    }
+
+    private void removeCode(AppDto app) {
+        if (app.getCode() != null) {
+            codes.remove(app.getCode(), app.getAppId());
+        }
+    }
+
+    private static class CachedApp {
+        final AppDto app;
+        final long expiresAt;
+
+        CachedApp(AppDto app, long expiresAt) {
+            this.app = app;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
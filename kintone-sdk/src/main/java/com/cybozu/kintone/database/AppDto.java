@@ -88,5 +88,33 @@ public class AppDto {
 	public String getModifiedAt() {
 		return modifiedAt;
 	}	
+	/**
+	 * Creates a copy of this object, which does not share the users.
+	 *
+	 * @return new object
+	 */
+	AppDto copy() {
+		AppDto app = new AppDto();
+		app.appId = appId;
+		app.code = code;
+		app.name = name;
+		app.description = description;
+		app.spaceId = spaceId;
+		app.threadId = threadId;
+		app.creator = copy(creator);
+		app.createdAt = createdAt;
+		app.modifier = copy(modifier);
+		app.modifiedAt = modifiedAt;
+		return app;
+	}
+	private static UserDto copy(UserDto user) {
+		if (user == null) {
+			return null;
+		}
+		UserDto copy = new UserDto();
+		copy.setName(user.getName());
+		copy.setCode(user.getCode());
+		return copy;
+	}
     
 }
@@ -0,0 +1,432 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.cybozu.kintone.database.exception.DBException;
+
+/**
+ * Asynchronous kintone data access class. Each method returns immediately
+ * with a future, and the request is sent by a bounded set of worker threads.
+ * At most {@code maxInFlight} requests are in flight at the same time and the
+ * others wait in the queue, so the number of threads does not grow with the
+ * number of requests.
+ *
+ */
+public class AsyncConnection {
+    public static final int DEFAULT_MAX_IN_FLIGHT = 16;
+
+    private Connection connection;
+    private ThreadPoolExecutor executor;
+
+    /**
+     * Constructor
+     *
+     * @param connection
+     *            the connection which sends the requests
+     */
+    public AsyncConnection(Connection connection) {
+        this(connection, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param connection
+     *            the connection which sends the requests
+     * @param maxInFlight
+     *            max number of requests in flight
+     */
+    public AsyncConnection(Connection connection, int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        this.connection = connection;
+        this.executor = new ThreadPoolExecutor(maxInFlight, maxInFlight, 60,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new WorkerThreadFactory());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Gets the connection which sends the requests.
+     *
+     * @return connection object
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * @return the number of requests in flight
+     */
+    public int getInFlight() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return the number of requests waiting to be sent
+     */
+    public int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Stops accepting requests. The queued requests are still sent.
+     */
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Selects the records from kintone using a query string.
+     *
+     * @param app
+     *            application id
+     * @param query
+     *            query string
+     * @return a future of ResultSet object
+     */
+    public CompletableFuture<ResultSet> select(final long app,
+            final String query) {
+        return submit(() -> connection.select(app, query));
+    }
+
+    /**
+     * Selects the records from kintone using a query string.
+     *
+     * @param app
+     *            application id
+     * @param query
+     *            query string
+     * @param columns
+     *            column names if needed
+     * @return a future of ResultSet object
+     */
+    public CompletableFuture<ResultSet> select(final long app,
+            final String query, final String[] columns) {
+        return submit(() -> connection.select(app, query, columns));
+    }
+
+    /**
+     * Selects the records and total count from kintone using a query string.
+     *
+     * @param app
+     *            application id
+     * @param query
+     *            query string
+     * @param columns
+     *            column names if needed
+     * @return a future of ResultSet object
+     */
+    public CompletableFuture<ResultSet> selectWithTotalCount(final long app,
+            final String query, final String[] columns) {
+        return submit(() -> connection.selectWithTotalCount(app, query, columns));
+    }
+
+    /**
+     * Inserts a new record.
+     *
+     * @param app
+     *            application id
+     * @param record
+     *            The Record object to be inserted
+     * @return a future of the id number of inserted record
+     */
+    public CompletableFuture<Long> insert(final long app, final Record record) {
+        return submit(() -> connection.insert(app, record));
+    }
+
+    /**
+     * Inserts new records.
+     *
+     * @param app
+     *            application id
+     * @param records
+     *            The array of Record objects to be inserted
+     * @return a future of the list of inserted id number
+     */
+    public CompletableFuture<List<Long>> insert(final long app,
+            final List<Record> records) {
+        return submit(() -> connection.insert(app, records));
+    }
+
+    /**
+     * Updates a record.
+     *
+     * @param app
+     *            application id
+     * @param record
+     *            updated record object
+     * @return a future of new revision number
+     */
+    public CompletableFuture<Long> updateRecord(final long app,
+            final Record record) {
+        return submit(() -> connection.updateRecord(app, record));
+    }
+
+    /**
+     * Updates records.
+     *
+     * @param app
+     *            application id
+     * @param records
+     *            an array of the updated record object
+     * @return a future of the list of new revision number
+     */
+    public CompletableFuture<List<Long>> updateRecords(final long app,
+            final List<Record> records) {
+        return submit(() -> connection.updateRecords(app, records));
+    }
+
+    /**
+     * Updates a record by specified key.
+     *
+     * @param app
+     *            application id
+     * @param key
+     *            the key field
+     * @param record
+     *            updated record object
+     * @return a future of new revision number
+     */
+    public CompletableFuture<Long> updateRecordByKey(final long app,
+            final String key, final Record record) {
+        return submit(() -> connection.updateRecordByKey(app, key, record));
+    }
+
+    /**
+     * Updates records by specified key.
+     *
+     * @param app
+     *            application id
+     * @param key
+     *            the key field
+     * @param records
+     *            an array of the updated record object
+     * @return a future of the list of new revision number
+     */
+    public CompletableFuture<List<Long>> updateRecordsByKey(final long app,
+            final String key, final List<Record> records) {
+        return submit(() -> connection.updateRecordsByKey(app, key, records));
+    }
+
+    /**
+     * Deletes records.
+     *
+     * @param app
+     *            application id
+     * @param records
+     *            a list of the record object to be deleted
+     * @return a future completed when the records are deleted
+     */
+    public CompletableFuture<Void> deleteRecords(final long app,
+            final List<Record> records) {
+        return submit(() -> {
+            connection.deleteRecords(app, records);
+            return null;
+        });
+    }
+
+    /**
+     * Deletes records.
+     *
+     * @param app
+     *            application id
+     * @param ids
+     *            a list of record numbers to be deleted
+     * @return a future completed when the records are deleted
+     */
+    public CompletableFuture<Void> delete(final long app, final List<Long> ids) {
+        return submit(() -> {
+            connection.delete(app, ids);
+            return null;
+        });
+    }
+
+    /**
+     * Uploads a file with the content type.
+     *
+     * @param file
+     *            file object to be uploaded
+     * @param contentType
+     *            content type
+     * @return a future of file key
+     */
+    public CompletableFuture<String> uploadFile(final File file,
+            final String contentType) {
+        return submit(() -> connection.uploadFile(file, contentType));
+    }
+
+    /**
+     * Uploads a file from input stream.
+     *
+     * @param contentType
+     *            content type
+     * @param file
+     *            file object to be uploaded
+     * @param fileName
+     *            upload file name
+     * @return a future of file key
+     */
+    public CompletableFuture<String> uploadFile(final String contentType,
+            final InputStream file, final String fileName) {
+        return submit(() -> connection.uploadFile(contentType, file, fileName));
+    }
+
+    /**
+     * Sends the bulk request.
+     *
+     * @param bulk
+     *            an instance of bulk request
+     * @return a future completed when the request is processed
+     */
+    public CompletableFuture<Void> bulkRequest(final BulkRequest bulk) {
+        return submit(() -> {
+            connection.bulkRequest(bulk);
+            return null;
+        });
+    }
+
+    /**
+     * Return the app information object
+     *
+     * @param id
+     *            app id
+     * @return a future of app object
+     */
+    public CompletableFuture<AppDto> getApp(final long id) {
+        return submit(() -> connection.getApp(id));
+    }
+
+    /**
+     * Search apps with id, code or name
+     *
+     * @param ids
+     * @param codes
+     * @param name
+     * @param spaceIds
+     * @param limit
+     * @param offset
+     * @return a future of the list of apps
+     */
+    public CompletableFuture<List<AppDto>> getApps(final List<Long> ids,
+            final List<String> codes, final String name,
+            final List<Long> spaceIds, final long limit, final long offset) {
+        return submit(() -> connection.getApps(ids, codes, name, spaceIds,
+                limit, offset));
+    }
+
+    /**
+     * Add comment.
+     *
+     * @param app
+     *            application id
+     * @param record
+     *            record id
+     * @param text
+     *            comment text
+     * @param mentions
+     *            an array of mentions
+     * @return a future of the comment id
+     */
+    public CompletableFuture<Long> addComment(final long app,
+            final long record, final String text,
+            final List<MentionDto> mentions) {
+        return submit(() -> connection.addComment(app, record, text, mentions));
+    }
+
+    /**
+     * Get record comments
+     *
+     * @param app
+     *            application id
+     * @param record
+     *            record id
+     * @param descending
+     *            sort in a descending order if true
+     * @param limit
+     * @param offset
+     * @return a future of the list of comments
+     */
+    public CompletableFuture<CommentSet> getComments(final long app,
+            final long record, final boolean descending, final long limit,
+            final long offset) {
+        return submit(() -> connection.getComments(app, record, descending,
+                limit, offset));
+    }
+
+    /**
+     * Queues a call. The future is completed by a worker thread.
+     *
+     * @param call
+     *            the call to be executed
+     * @return a future of the result
+     */
+    private <T> CompletableFuture<T> submit(final Call<T> call) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        try {
+            executor.execute(() -> {
+                if (future.isDone()) {
+                    return; // cancelled while waiting in the queue
+                }
+                try {
+                    future.complete(call.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * A blocking call of the connection.
+     *
+     */
+    private interface Call<T> {
+        T call() throws DBException;
+    }
+
+    /**
+     * Creates daemon worker threads.
+     *
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private static final AtomicInteger poolNumber = new AtomicInteger();
+        private final int pool = poolNumber.incrementAndGet();
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "kintone-async-" + pool + "-"
+                    + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
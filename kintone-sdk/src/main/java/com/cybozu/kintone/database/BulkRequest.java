@@ -16,7 +16,9 @@ package com.cybozu.kintone.database;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import com.cybozu.kintone.database.exception.ParseException;
 
 /**
@@ -26,6 +28,8 @@ import com.cybozu.kintone.database.exception.ParseException;
 public class BulkRequest {
 
     List<BulkRequestData> requests = new ArrayList<BulkRequestData>();
+    private final Map<Long, List<Long>> changedIds = new LinkedHashMap<Long, List<Long>>();
+    private final Map<Integer, List<Record>> updatedRecords = new LinkedHashMap<Integer, List<Record>>();
     
     /**
      * Constructor
@@ -119,6 +123,7 @@ public class BulkRequest {
         } catch (IOException e) {
             throw new ParseException("failed to encode to json");
         }
+        changed(app, ids);
 
         BulkRequestData request = new BulkRequestData("PUT", "/k/v1/records.json", json);
         requests.add(request);
@@ -141,9 +146,11 @@ public class BulkRequest {
         } catch (IOException e) {
             throw new ParseException("failed to encode to json");
         }
+        changedRecords(app, records);
 
         BulkRequestData request = new BulkRequestData("PUT", "/k/v1/records.json", json);
         requests.add(request);
+        updatedBy(records);
     }
 
     /**
@@ -191,6 +198,7 @@ public class BulkRequest {
         } catch (IOException e) {
             throw new ParseException("failed to encode to json");
         }
+        changedRecords(app, records);
         
         BulkRequestData request = new BulkRequestData("DELETE", "/k/v1/records.json", json);
         requests.add(request);
@@ -213,6 +221,92 @@ public class BulkRequest {
         deleteByRecords(app, records);
     }
 
+    /**
+     * Adds a request with the encoded payload.
+     * 
+     * @param method
+     *            http method
+     * @param api
+     *            path to api
+     * @param payload
+     *            json payload
+     */
+    void add(String method, String api, String payload) {
+        requests.add(new BulkRequestData(method, api, payload));
+    }
+
+    /**
+     * Records the ids of the records updated or deleted by the requests.
+     * 
+     * @param app
+     *            application id
+     * @param ids
+     *            record ids
+     */
+    void changed(long app, List<Long> ids) {
+        List<Long> list = changedIds.get(app);
+        if (list == null) {
+            list = new ArrayList<Long>();
+            changedIds.put(app, list);
+        }
+        list.addAll(ids);
+    }
+
+    private void changedRecords(long app, List<Record> records) {
+        List<Long> ids = new ArrayList<Long>(records.size());
+        for (Record record : records) {
+            ids.add(record.getId());
+        }
+        changed(app, ids);
+    }
+
+    /**
+     * Keeps the records updated by the last request, whose revisions are
+     * set from the response.
+     * 
+     * @param records
+     *            the updated records in the order of the request
+     */
+    void updatedBy(List<Record> records) {
+        updatedRecords.put(requests.size() - 1, new ArrayList<Record>(records));
+    }
+
+    /**
+     * Sets the new revisions to the updated records and restarts tracking
+     * their changes.
+     * 
+     * @param revisions
+     *            the revisions returned for each request
+     */
+    void updated(List<List<Long>> revisions) {
+        for (Map.Entry<Integer, List<Record>> entry : updatedRecords.entrySet()) {
+            if (entry.getKey() >= revisions.size()) {
+                continue;
+            }
+            List<Long> list = revisions.get(entry.getKey());
+            List<Record> records = entry.getValue();
+            for (int i = 0; i < records.size() && i < list.size(); i++) {
+                records.get(i).updated(list.get(i));
+            }
+        }
+    }
+
+    /**
+     * Gets the ids of the records updated or deleted by the requests.
+     * 
+     * @return record ids by application id
+     */
+    Map<Long, List<Long>> getChangedIds() {
+        return changedIds;
+    }
+
+    /**
+     * @return the number of requests
+     */
+    public int size() {
+        return requests.size();
+    }
+
     public String getJson() {
         StringBuilder sb = new StringBuilder();
         sb.append("{\"requests\":[");
@@ -0,0 +1,513 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.cybozu.kintone.database.exception.DBException;
+import com.cybozu.kintone.database.exception.ParseException;
+
+/**
+ * A write-behind writer which packs single record mutations from many threads
+ * into bulkRequest.json calls. The mutations are queued and sent by a
+ * background thread when the number of queued records, their json size or the
+ * age of the oldest one exceeds the threshold.
+ *
+ * Mutations of different records may be packed into the same request, but the
+ * order of the mutations of the same record is kept. A bulk request is
+ * processed as a transaction, so if one mutation fails, all the mutations in
+ * the same call fail.
+ *
+ */
+public class BulkWriter implements Closeable {
+    public static final int MAX_REQUESTS = 20;
+    public static final int MAX_RECORDS_PER_REQUEST = 100;
+    public static final int DEFAULT_FLUSH_RECORDS = MAX_REQUESTS
+            * MAX_RECORDS_PER_REQUEST;
+    public static final long DEFAULT_FLUSH_BYTES = 1024 * 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+    public static final int DEFAULT_MAX_PENDING = 10000;
+
+    private static final String RECORDS_API = "/k/v1/records.json";
+    private static final AtomicInteger writerNumber = new AtomicInteger();
+
+    private Connection connection;
+    private volatile int flushRecords = DEFAULT_FLUSH_RECORDS;
+    private volatile long flushBytes = DEFAULT_FLUSH_BYTES;
+    private volatile long flushInterval = DEFAULT_FLUSH_INTERVAL;
+    private volatile int maxPending = DEFAULT_MAX_PENDING;
+
+    private final Object lock = new Object();
+    private final ArrayDeque<Mutation> queue = new ArrayDeque<Mutation>();
+    private long queuedBytes = 0;
+    private long enqueued = 0;
+    private long completed = 0;
+    private long flushUntil = 0;
+    private boolean closed = false;
+    private Thread sender;
+
+    /**
+     * Constructor
+     *
+     * @param connection
+     *            the connection which sends the bulk requests
+     */
+    public BulkWriter(Connection connection) {
+        this.connection = connection;
+        this.sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sendLoop();
+            }
+        }, "kintone-bulk-writer-" + writerNumber.incrementAndGet());
+        this.sender.setDaemon(true);
+        this.sender.start();
+    }
+
+    /**
+     * Sets the number of queued records which triggers a flush.
+     *
+     * @param flushRecords
+     *            number of records
+     */
+    public void setFlushRecords(int flushRecords) {
+        if (flushRecords <= 0) {
+            throw new IllegalArgumentException("flushRecords must be positive");
+        }
+        this.flushRecords = flushRecords;
+    }
+
+    /**
+     * Sets the approximate json size of the queued records which triggers a
+     * flush. It also limits the size of a bulk request.
+     *
+     * @param flushBytes
+     *            size in bytes
+     */
+    public void setFlushBytes(long flushBytes) {
+        if (flushBytes <= 0) {
+            throw new IllegalArgumentException("flushBytes must be positive");
+        }
+        this.flushBytes = flushBytes;
+    }
+
+    /**
+     * Sets the max time a mutation waits in the queue.
+     *
+     * @param flushInterval
+     *            time in milliseconds
+     */
+    public void setFlushInterval(long flushInterval) {
+        if (flushInterval < 0) {
+            throw new IllegalArgumentException("flushInterval must not be negative");
+        }
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * Sets the max number of queued mutations. The caller is blocked while
+     * the queue is full.
+     *
+     * @param maxPending
+     *            number of mutations
+     */
+    public void setMaxPending(int maxPending) {
+        if (maxPending <= 0) {
+            throw new IllegalArgumentException("maxPending must be positive");
+        }
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * @return the number of mutations waiting to be sent
+     */
+    public int getPending() {
+        synchronized (lock) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * Queues an insert.
+     *
+     * @param app
+     *            application id
+     * @param record
+     *            The Record object to be inserted
+     * @return a future completed when the record is inserted
+     * @throws DBException
+     *             if the lazy upload of the record fails
+     */
+    public CompletableFuture<Void> insert(long app, Record record)
+            throws DBException {
+        uploadFiles(record);
+        String json;
+        try {
+            json = new JsonParser().recordToJsonForInsert(record);
+        } catch (IOException e) {
+            throw new ParseException("failed to encode to json");
+        }
+        return enqueue(new Mutation(Kind.INSERT, app, null, null, json));
+    }
+
+    /**
+     * Queues an update. The record must have the id, and the revision is
+     * checked if the record has it. The new revision is set to the record
+     * before the future completes, so do not modify the record until then.
+     *
+     * @param app
+     *            application id
+     * @param record
+     *            updated record object
+     * @return a future completed when the record is updated
+     * @throws DBException
+     *             if the lazy upload of the record fails
+     */
+    public CompletableFuture<Void> update(long app, Record record)
+            throws DBException {
+        if (record.getId() == null) {
+            throw new IllegalArgumentException("record id is required");
+        }
+        uploadFiles(record);
+        String json;
+        try {
+            json = new JsonParser().recordToJsonForUpdate(record);
+        } catch (IOException e) {
+            throw new ParseException("failed to encode to json");
+        }
+        Mutation mutation = new Mutation(Kind.UPDATE, app, record.getId(), null, json);
+        mutation.record = record;
+        return enqueue(mutation);
+    }
+
+    /**
+     * Queues a delete. The revision is checked if the record has it.
+     *
+     * @param app
+     *            application id
+     * @param record
+     *            a record object to be deleted
+     * @return a future completed when the record is deleted
+     */
+    public CompletableFuture<Void> delete(long app, Record record) {
+        if (record.getId() == null) {
+            throw new IllegalArgumentException("record id is required");
+        }
+        return enqueue(new Mutation(Kind.DELETE, app, record.getId(),
+                record.getRevision(), null));
+    }
+
+    /**
+     * Queues a delete.
+     *
+     * @param app
+     *            application id
+     * @param id
+     *            record number to be deleted
+     * @return a future completed when the record is deleted
+     */
+    public CompletableFuture<Void> delete(long app, long id) {
+        return delete(app, new Record(id));
+    }
+
+    /**
+     * Sends all the queued mutations and waits for them.
+     *
+     * @throws InterruptedException
+     */
+    public void flush() throws InterruptedException {
+        synchronized (lock) {
+            long target = enqueued;
+            flushUntil = Math.max(flushUntil, target);
+            lock.notifyAll();
+            while (completed < target) {
+                lock.wait();
+            }
+        }
+    }
+
+    /**
+     * Sends all the queued mutations and stops the background thread. The
+     * mutations queued after close fail with IllegalStateException.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            lock.notifyAll();
+        }
+        boolean interrupted = false;
+        while (sender.isAlive()) {
+            try {
+                sender.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void uploadFiles(Record record) throws DBException {
+        connection.lazyUpload(Collections.singletonList(record)); // force lazy upload
+    }
+
+    private CompletableFuture<Void> enqueue(Mutation mutation) {
+        synchronized (lock) {
+            boolean interrupted = false;
+            while (!closed && queue.size() >= maxPending) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (closed) {
+                mutation.future.completeExceptionally(new IllegalStateException(
+                        "the writer is closed"));
+                return mutation.future;
+            }
+            mutation.queuedAt = System.currentTimeMillis();
+            queue.add(mutation);
+            queuedBytes += mutation.bytes;
+            enqueued++;
+            if (queue.size() == 1 || queue.size() >= flushRecords
+                    || queuedBytes >= flushBytes) {
+                lock.notifyAll();
+            }
+        }
+        return mutation.future;
+    }
+
+    /**
+     * Waits for a flush condition and sends the queued mutations until the
+     * writer is closed.
+     */
+    private void sendLoop() {
+        while (true) {
+            List<Mutation> batch;
+            synchronized (lock) {
+                while (true) {
+                    if (queue.isEmpty()) {
+                        if (closed) {
+                            return;
+                        }
+                        waitQuietly(0);
+                        continue;
+                    }
+                    long wait = queue.peek().queuedAt + flushInterval
+                            - System.currentTimeMillis();
+                    if (closed || wait <= 0 || queue.size() >= flushRecords
+                            || queuedBytes >= flushBytes
+                            || flushUntil > completed) {
+                        break;
+                    }
+                    waitQuietly(wait);
+                }
+                batch = takeBatch();
+                lock.notifyAll(); // wake up the callers waiting for space
+            }
+
+            send(batch);
+
+            synchronized (lock) {
+                completed += batch.size();
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void waitQuietly(long timeout) {
+        try {
+            lock.wait(timeout);
+        } catch (InterruptedException e) {
+            // the sender is stopped only by close()
+        }
+    }
+
+    /**
+     * Takes the longest prefix of the queue which fits in a bulk request. A
+     * mutation joins the request of the same kind and app, and a record is
+     * never touched twice in the same bulk request.
+     *
+     * @return the mutations to be sent
+     */
+    private List<Mutation> takeBatch() {
+        List<Mutation> batch = new ArrayList<Mutation>();
+        Map<String, Integer> requests = new LinkedHashMap<String, Integer>();
+        Set<String> touched = new HashSet<String>();
+        int requestCount = 0;
+        long bytes = 0;
+        while (!queue.isEmpty()) {
+            Mutation mutation = queue.peek();
+            String recordKey = mutation.getRecordKey();
+            if (recordKey != null && touched.contains(recordKey)) {
+                break;
+            }
+            if (!batch.isEmpty() && bytes + mutation.bytes > flushBytes) {
+                break;
+            }
+            String requestKey = mutation.getRequestKey();
+            Integer count = requests.get(requestKey);
+            if (count == null || count >= MAX_RECORDS_PER_REQUEST) {
+                if (requestCount >= MAX_REQUESTS) {
+                    break;
+                }
+                requestCount++;
+                count = 0;
+            }
+            requests.put(requestKey, count + 1);
+            if (recordKey != null) {
+                touched.add(recordKey);
+            }
+            bytes += mutation.bytes;
+            batch.add(queue.poll());
+            queuedBytes -= mutation.bytes;
+        }
+        return batch;
+    }
+
+    /**
+     * Sends the mutations in a bulk request and completes their futures.
+     *
+     * @param batch
+     *            the mutations to be sent
+     */
+    private void send(List<Mutation> batch) {
+        BulkRequest bulk = new BulkRequest();
+        Map<String, List<Mutation>> open = new LinkedHashMap<String, List<Mutation>>();
+        List<List<Mutation>> requests = new ArrayList<List<Mutation>>();
+        for (Mutation mutation : batch) {
+            String requestKey = mutation.getRequestKey();
+            List<Mutation> request = open.get(requestKey);
+            if (request == null || request.size() >= MAX_RECORDS_PER_REQUEST) {
+                request = new ArrayList<Mutation>();
+                open.put(requestKey, request);
+                requests.add(request);
+            }
+            request.add(mutation);
+        }
+        try {
+            for (List<Mutation> request : requests) {
+                addRequest(bulk, request);
+            }
+            connection.bulkRequest(bulk);
+        } catch (Throwable e) {
+            for (Mutation mutation : batch) {
+                mutation.future.completeExceptionally(e);
+            }
+            return;
+        }
+        for (Mutation mutation : batch) {
+            mutation.future.complete(null);
+        }
+    }
+
+    private void addRequest(BulkRequest bulk, List<Mutation> request)
+            throws IOException {
+        Mutation first = request.get(0);
+        if (first.kind == Kind.DELETE) {
+            List<Record> records = new ArrayList<Record>();
+            for (Mutation mutation : request) {
+                if (mutation.revision == null) {
+                    records.add(new Record(mutation.id));
+                } else {
+                    records.add(new Record(mutation.id, mutation.revision));
+                }
+            }
+            bulk.deleteByRecords(first.app, records);
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"app\":" + first.app + ",\"records\":[");
+        for (int i = 0; i < request.size(); i++) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append(request.get(i).json);
+        }
+        sb.append("]}");
+        bulk.add(first.kind == Kind.INSERT ? "POST" : "PUT", RECORDS_API,
+                new String(sb));
+        if (first.kind == Kind.UPDATE) {
+            List<Long> ids = new ArrayList<Long>(request.size());
+            List<Record> records = new ArrayList<Record>(request.size());
+            for (Mutation mutation : request) {
+                ids.add(mutation.id);
+                records.add(mutation.record);
+            }
+            bulk.changed(first.app, ids);
+            bulk.updatedBy(records);
+        }
+    }
+
+    private enum Kind {
+        INSERT, UPDATE, DELETE
+    }
+
+    /**
+     * A queued mutation of a record.
+     *
+     */
+    private static class Mutation {
+        private final Kind kind;
+        private final long app;
+        private final Long id;
+        private final Long revision;
+        private final String json;
+        private final long bytes;
+        private final CompletableFuture<Void> future = new CompletableFuture<Void>();
+        private long queuedAt;
+        private Record record; // the updated record
+
+        Mutation(Kind kind, long app, Long id, Long revision, String json) {
+            this.kind = kind;
+            this.app = app;
+            this.id = id;
+            this.revision = revision;
+            this.json = json;
+            this.bytes = json == null ? 32 : json.length();
+        }
+
+        String getRequestKey() {
+            return kind + ":" + app;
+        }
+
+        String getRecordKey() {
+            if (id == null) {
+                return null;
+            }
+            return app + ":" + id;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * The position of a {@link ChangeFeed}: the update time and the id of the
+ * last record read. The records updated at the same time are ordered by
+ * their ids, so no record is skipped or read twice at the boundary.
+ *
+ * The checkpoint is saved as a string such as "2017-01-23T04:56:00Z/123".
+ *
+ */
+public final class ChangeCheckpoint {
+    private final String updatedAt;
+    private final long id;
+
+    /**
+     * Constructor.
+     *
+     * @param updatedAt
+     *            update time in the format of "yyyy-MM-ddTHH:mm:ssZ"
+     * @param id
+     *            record id
+     */
+    public ChangeCheckpoint(String updatedAt, long id) {
+        if (updatedAt == null) {
+            throw new IllegalArgumentException("updatedAt is null");
+        }
+        this.updatedAt = updatedAt;
+        this.id = id;
+    }
+
+    /**
+     * Creates a checkpoint before the records updated at or after the time.
+     *
+     * @param time
+     *            start time
+     * @return new checkpoint
+     */
+    public static ChangeCheckpoint since(Date time) {
+        return new ChangeCheckpoint(format(new Date(time.getTime() - 1000)),
+                Long.MAX_VALUE);
+    }
+
+    /**
+     * Parses the string returned by {@link #toString()}.
+     *
+     * @param checkpoint
+     *            checkpoint string
+     * @return checkpoint object
+     */
+    public static ChangeCheckpoint parse(String checkpoint) {
+        int slash = checkpoint.lastIndexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException("invalid checkpoint: " + checkpoint);
+        }
+        try {
+            return new ChangeCheckpoint(checkpoint.substring(0, slash).trim(),
+                    Long.parseLong(checkpoint.substring(slash + 1).trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid checkpoint: " + checkpoint);
+        }
+    }
+
+    /**
+     * @return update time of the last record read
+     */
+    public String getUpdatedAt() {
+        return updatedAt;
+    }
+
+    /**
+     * @return id of the last record read
+     */
+    public long getId() {
+        return id;
+    }
+
+    static String format(Date time) {
+        DateFormat df = new SimpleDateFormat(Record.DATETIME_PATTERN);
+        df.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return df.format(time);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ChangeCheckpoint)) {
+            return false;
+        }
+        ChangeCheckpoint other = (ChangeCheckpoint) o;
+        return updatedAt.equals(other.updatedAt) && id == other.id;
+    }
+
+    @Override
+    public int hashCode() {
+        return updatedAt.hashCode() * 31 + (int) (id ^ (id >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return updatedAt + "/" + id;
+    }
+}
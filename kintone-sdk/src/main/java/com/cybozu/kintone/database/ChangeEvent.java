@@ -0,0 +1,74 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+/**
+ * A record created or updated, which is read by a {@link ChangeFeed}. A
+ * record updated again is read again with the new revision, so the events
+ * can be deduplicated by the id and the revision. Deleted records are not
+ * reported.
+ *
+ */
+public class ChangeEvent {
+    private final Record record;
+    private final ChangeCheckpoint checkpoint;
+
+    ChangeEvent(Record record, ChangeCheckpoint checkpoint) {
+        this.record = record;
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * @return the record
+     */
+    public Record getRecord() {
+        return record;
+    }
+
+    /**
+     * @return record id
+     */
+    public long getId() {
+        return record.getId();
+    }
+
+    /**
+     * @return revision number
+     */
+    public long getRevision() {
+        return record.getRevision();
+    }
+
+    /**
+     * @return true if the record has not been updated since it was created
+     */
+    public boolean isCreated() {
+        return record.getRevision() == 1;
+    }
+
+    /**
+     * @return update time of the record
+     */
+    public String getUpdatedAt() {
+        return checkpoint.getUpdatedAt();
+    }
+
+    /**
+     * @return the checkpoint just after this event
+     */
+    public ChangeCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+}
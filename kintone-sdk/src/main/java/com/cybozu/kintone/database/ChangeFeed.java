@@ -0,0 +1,410 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.cybozu.kintone.database.exception.DBException;
+import com.cybozu.kintone.database.exception.RecordStreamException;
+
+/**
+ * Reads the records created or updated since the checkpoint, in the order
+ * of the update time and the record id. Each batch is selected with
+ * "(update time, id) &gt; checkpoint", so the cost of a poll depends on the
+ * number of the changes, not on the size of the app.
+ *
+ * The records updated within the settle time are read in a later poll, so
+ * that a record updated at the same second as the checkpoint, but after it
+ * was read, is not skipped. The settle time should cover the difference of
+ * the clocks of this host and kintone.
+ *
+ * The feed can be iterated as a blocking stream of the events, which waits
+ * for the poll interval when there are no more changes. The checkpoint is
+ * saved in the checkpoint store when all events of a batch have been
+ * iterated, so each change is delivered at least once across restarts.
+ *
+ * <pre>
+ * ChangeFeed feed = db.changeFeed(app)
+ *         .checkpointStore(new FileCheckpointStore(new File("app.checkpoint")))
+ *         .build();
+ * while (feed.hasNext()) {
+ *     ChangeEvent event = feed.next();
+ *     ...
+ * }
+ * </pre>
+ *
+ */
+public class ChangeFeed implements Iterator<ChangeEvent>, Closeable {
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final long DEFAULT_POLL_INTERVAL = 30000; // msec
+    public static final long DEFAULT_SETTLE_TIME = 60000; // msec
+    public static final String DEFAULT_UPDATED_FIELD = "Updated_datetime";
+
+    private static final String ID_FIELD = "$id";
+    private static final String REVISION_FIELD = "$revision";
+
+    private final Connection connection;
+    private final long app;
+    private final String condition;
+    private final String[] columns;
+    private final int batchSize;
+    private final long pollInterval;
+    private final long settleTime;
+    private final String updatedField;
+    private final CheckpointStore checkpointStore;
+
+    private ChangeCheckpoint checkpoint;
+    private ChangeCheckpoint saved;
+    private Iterator<ChangeEvent> current = Collections.<ChangeEvent>emptyList().iterator();
+    private boolean caughtUp;
+    private volatile boolean closed;
+
+    private ChangeFeed(Builder builder, ChangeCheckpoint checkpoint) {
+        this.connection = builder.connection;
+        this.app = builder.app;
+        this.condition = builder.condition;
+        this.columns = builder.columns == null ? null
+                : withFields(builder.columns, builder.updatedField);
+        this.batchSize = builder.batchSize;
+        this.pollInterval = builder.pollInterval;
+        this.settleTime = builder.settleTime;
+        this.updatedField = builder.updatedField;
+        this.checkpointStore = builder.checkpointStore;
+        this.checkpoint = checkpoint;
+        this.saved = checkpoint;
+    }
+
+    /**
+     * Creates a builder.
+     *
+     * @param connection
+     *            the connection object
+     * @param app
+     *            application id
+     * @return new builder
+     */
+    public static Builder builder(Connection connection, long app) {
+        return new Builder(connection, app);
+    }
+
+    /**
+     * Makes sure that the fields of the checkpoint are retrieved.
+     */
+    private static String[] withFields(String[] columns, String updatedField) {
+        Set<String> fields = new LinkedHashSet<String>();
+        Collections.addAll(fields, columns);
+        fields.add(ID_FIELD);
+        fields.add(REVISION_FIELD);
+        fields.add(updatedField);
+        return fields.toArray(new String[fields.size()]);
+    }
+
+    /**
+     * Gets the position after the last event read by {@link #poll()}.
+     *
+     * @return checkpoint, or null if nothing has been read
+     */
+    public synchronized ChangeCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Builds the query of the batch following the checkpoint.
+     */
+    String buildQuery(ChangeCheckpoint from, String until) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(updatedField + " < \"" + until + "\"");
+        if (from != null) {
+            sb.append(" and (" + updatedField + " > \"" + from.getUpdatedAt()
+                    + "\" or (" + updatedField + " = \"" + from.getUpdatedAt()
+                    + "\" and " + ID_FIELD + " > " + from.getId() + "))");
+        }
+        if (condition != null && !condition.trim().isEmpty()) {
+            sb.append(" and (" + condition + ")");
+        }
+        sb.append(" order by " + updatedField + " asc, " + ID_FIELD
+                + " asc limit " + batchSize);
+        return new String(sb);
+    }
+
+    /**
+     * Reads the next batch of the changes and moves the checkpoint after
+     * them. The checkpoint is not saved until {@link #commit()} is called.
+     *
+     * @return the events, which are empty if there are no more changes
+     * @throws DBException
+     */
+    public synchronized List<ChangeEvent> poll() throws DBException {
+        String until = ChangeCheckpoint.format(new Date(
+                System.currentTimeMillis() - settleTime));
+        ResultSet rs = connection.selectRecords(app,
+                buildQuery(checkpoint, until), columns, false);
+        List<ChangeEvent> events = new ArrayList<ChangeEvent>(rs.size());
+        for (Record record : rs.getRecords()) {
+            checkpoint = new ChangeCheckpoint(record.getString(updatedField),
+                    record.getId());
+            events.add(new ChangeEvent(record, checkpoint));
+        }
+        caughtUp = events.size() < batchSize;
+        return events;
+    }
+
+    /**
+     * Saves the checkpoint in the checkpoint store.
+     *
+     * @throws DBException
+     */
+    public synchronized void commit() throws DBException {
+        if (checkpointStore == null || checkpoint == null
+                || checkpoint.equals(saved)) {
+            return;
+        }
+        try {
+            checkpointStore.save(checkpoint);
+        } catch (IOException e) {
+            throw new DBException(e, "failed to save the checkpoint");
+        }
+        saved = checkpoint;
+    }
+
+    /**
+     * Waits for the next change. This returns false only after
+     * {@link #close()} is called.
+     *
+     * @throws RecordStreamException
+     *             if failed to read or to save the checkpoint
+     */
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (closed) {
+                return false;
+            }
+            try {
+                commit();
+                if (caughtUp) {
+                    pause();
+                    if (closed) {
+                        return false;
+                    }
+                }
+                current = poll().iterator();
+            } catch (DBException e) {
+                throw new RecordStreamException(e);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public ChangeEvent next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stops the stream. A thread waiting in {@link #hasNext()} returns
+     * false. The checkpoint of the events not iterated is not saved.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    private synchronized void pause() throws DBException {
+        try {
+            long end = System.currentTimeMillis() + pollInterval;
+            long remaining;
+            while (!closed && (remaining = end - System.currentTimeMillis()) > 0) {
+                wait(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DBException(e, "interrupted while waiting for changes");
+        }
+    }
+
+    /**
+     * A builder of {@link ChangeFeed}.
+     */
+    public static final class Builder {
+        private final Connection connection;
+        private final long app;
+        private String condition;
+        private String[] columns;
+        private int batchSize = DEFAULT_BATCH_SIZE;
+        private long pollInterval = DEFAULT_POLL_INTERVAL;
+        private long settleTime = DEFAULT_SETTLE_TIME;
+        private String updatedField = DEFAULT_UPDATED_FIELD;
+        private CheckpointStore checkpointStore;
+        private ChangeCheckpoint start;
+
+        private Builder(Connection connection, long app) {
+            this.connection = connection;
+            this.app = app;
+        }
+
+        /**
+         * Reads only the records matching the condition.
+         *
+         * @param condition
+         *            query condition without "order by", "limit" and "offset"
+         * @return this builder
+         */
+        public Builder condition(String condition) {
+            if (condition != null && Connection.hasPagingClause(condition)) {
+                throw new IllegalArgumentException(
+                        "condition must not contain order by, limit or offset");
+            }
+            this.condition = condition;
+            return this;
+        }
+
+        /**
+         * Reads only the fields. The id, the revision and the update time
+         * are always read.
+         *
+         * @param columns
+         *            column names, or null for all the fields
+         * @return this builder
+         */
+        public Builder columns(String[] columns) {
+            this.columns = columns;
+            return this;
+        }
+
+        /**
+         * Sets the max number of the records read at once.
+         *
+         * @param batchSize
+         *            number of records between 1 and 500
+         * @return this builder
+         */
+        public Builder batchSize(int batchSize) {
+            if (batchSize <= 0 || batchSize > 500) {
+                throw new IllegalArgumentException("batchSize must be between 1 and 500");
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Sets the time to wait when there are no more changes.
+         *
+         * @param pollInterval
+         *            wait time in milliseconds
+         * @return this builder
+         */
+        public Builder pollInterval(long pollInterval) {
+            if (pollInterval < 0) {
+                throw new IllegalArgumentException("pollInterval must not be negative");
+            }
+            this.pollInterval = pollInterval;
+            return this;
+        }
+
+        /**
+         * Sets how long the recent changes are left for a later poll.
+         *
+         * @param settleTime
+         *            time in milliseconds
+         * @return this builder
+         */
+        public Builder settleTime(long settleTime) {
+            if (settleTime < 0) {
+                throw new IllegalArgumentException("settleTime must not be negative");
+            }
+            this.settleTime = settleTime;
+            return this;
+        }
+
+        /**
+         * Sets the field code of the update time, if it is renamed in the
+         * app.
+         *
+         * @param updatedField
+         *            field code of the updated datetime field
+         * @return this builder
+         */
+        public Builder updatedField(String updatedField) {
+            this.updatedField = updatedField;
+            return this;
+        }
+
+        /**
+         * Sets the store where the checkpoint is saved. The feed starts from
+         * the saved checkpoint if any.
+         *
+         * @param checkpointStore
+         *            checkpoint store, or null not to save
+         * @return this builder
+         */
+        public Builder checkpointStore(CheckpointStore checkpointStore) {
+            this.checkpointStore = checkpointStore;
+            return this;
+        }
+
+        /**
+         * Sets the checkpoint to start from if no checkpoint is saved. The
+         * feed starts from the oldest record by default.
+         *
+         * @param start
+         *            checkpoint such as {@link ChangeCheckpoint#since(Date)}
+         * @return this builder
+         */
+        public Builder startAt(ChangeCheckpoint start) {
+            this.start = start;
+            return this;
+        }
+
+        /**
+         * Creates the feed, loading the checkpoint from the store.
+         *
+         * @return new feed
+         * @throws DBException
+         *             if failed to load the checkpoint
+         */
+        public ChangeFeed build() throws DBException {
+            ChangeCheckpoint checkpoint = null;
+            if (checkpointStore != null) {
+                try {
+                    checkpoint = checkpointStore.load();
+                } catch (IOException e) {
+                    throw new DBException(e, "failed to load the checkpoint");
+                }
+            }
+            return new ChangeFeed(this, checkpoint != null ? checkpoint : start);
+        }
+    }
+}
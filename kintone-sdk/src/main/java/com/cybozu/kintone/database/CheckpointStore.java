@@ -0,0 +1,41 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.io.IOException;
+
+/**
+ * Keeps the checkpoint of a {@link ChangeFeed} across restarts.
+ *
+ */
+public interface CheckpointStore {
+
+    /**
+     * Loads the saved checkpoint.
+     *
+     * @return checkpoint, or null if not saved
+     * @throws IOException
+     */
+    ChangeCheckpoint load() throws IOException;
+
+    /**
+     * Saves the checkpoint.
+     *
+     * @param checkpoint
+     *            checkpoint
+     * @throws IOException
+     */
+    void save(ChangeCheckpoint checkpoint) throws IOException;
+}
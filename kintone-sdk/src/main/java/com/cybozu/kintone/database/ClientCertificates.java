@@ -0,0 +1,142 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+
+import com.cybozu.kintone.database.exception.DBException;
+
+/**
+ * The socket factories which bind client certificates. A factory is created
+ * once for each keystore file and password and shared by all connections, so
+ * that the TLS sessions are resumed and pooled connections are reused. The
+ * keystore is loaded again when the file is modified.
+ *
+ */
+final class ClientCertificates {
+    // how often the keystore file is checked for modification
+    static final long CHECK_INTERVAL = 1000; // msec
+
+    private static final ConcurrentHashMap<List<String>, Entry> entries =
+            new ConcurrentHashMap<List<String>, Entry>();
+
+    private ClientCertificates() {
+    }
+
+    /**
+     * Gets the socket factory which binds the client certificate.
+     *
+     * @param path
+     *            PKCS12 file path
+     * @param password
+     *            cert password
+     * @return ssl socket factory
+     * @throws DBException
+     */
+    static SSLSocketFactory getSocketFactory(String path, String password)
+            throws DBException {
+        List<String> key = Arrays.asList(path, password);
+        Entry entry = entries.get(key);
+        long now = System.currentTimeMillis();
+        if (entry != null && now - entry.checkedAt < CHECK_INTERVAL) {
+            return entry.socketFactory;
+        }
+
+        File file = new File(path);
+        long lastModified = file.lastModified();
+        long length = file.length();
+        if (entry != null && entry.lastModified == lastModified
+                && entry.length == length) {
+            entry.checkedAt = now;
+            return entry.socketFactory;
+        }
+
+        synchronized (entries) {
+            Entry current = entries.get(key);
+            if (current != null && current != entry
+                    && current.lastModified == lastModified
+                    && current.length == length) {
+                return current.socketFactory;
+            }
+            current = new Entry(load(file, password), lastModified, length, now);
+            entries.put(key, current);
+            return current.socketFactory;
+        }
+    }
+
+    /**
+     * Removes all cached socket factories.
+     */
+    static void clear() {
+        entries.clear();
+    }
+
+    private static SSLSocketFactory load(File file, String password)
+            throws DBException {
+        try {
+            TrustManagerFactory tmf = TrustManagerFactory
+                    .getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            tmf.init((KeyStore) null);
+
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            char[] keyPass = password.toCharArray();
+            InputStream is = new FileInputStream(file);
+            try {
+                keyStore.load(is, keyPass);
+            } finally {
+                is.close();
+            }
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
+            kmf.init(keyStore, keyPass);
+
+            SSLContext sslcontext = SSLContext.getInstance("SSL");
+            sslcontext.init(kmf.getKeyManagers(), tmf.getTrustManagers(),
+                    new SecureRandom());
+            return sslcontext.getSocketFactory();
+        } catch (GeneralSecurityException e) {
+            throw new DBException(e);
+        } catch (IOException e) {
+            throw new DBException(e);
+        }
+    }
+
+    private static class Entry {
+        final SSLSocketFactory socketFactory;
+        final long lastModified;
+        final long length;
+        volatile long checkedAt;
+
+        Entry(SSLSocketFactory socketFactory, long lastModified, long length,
+                long checkedAt) {
+            this.socketFactory = socketFactory;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.checkedAt = checkedAt;
+        }
+    }
+}
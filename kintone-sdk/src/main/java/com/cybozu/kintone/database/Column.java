@@ -0,0 +1,160 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.util.BitSet;
+
+import com.cybozu.kintone.database.exception.TypeMismatchException;
+
+/**
+ * A column of the columnar result set. It holds the values of a field of all
+ * the records, which are decoded when the response is parsed.
+ *
+ */
+public abstract class Column {
+    private String name;
+    private FieldType fieldType;
+    private BitSet nulls = new BitSet();
+    protected int size = 0;
+
+    Column(String name, FieldType fieldType) {
+        this.name = name;
+        this.fieldType = fieldType;
+    }
+
+    /**
+     * Gets the field name.
+     * @return field name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the field type.
+     * @return field type
+     */
+    public FieldType getFieldType() {
+        return fieldType;
+    }
+
+    /**
+     * Gets the number of rows.
+     * @return number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns true if the value of the row is empty.
+     * @param row row index
+     * @return true if the value is empty
+     */
+    public boolean isNull(int row) {
+        checkRow(row);
+        return nulls.get(row);
+    }
+
+    /**
+     * Gets the value of the row as long.
+     * @param row row index
+     * @return long value
+     */
+    public long getLong(int row) {
+        throw new TypeMismatchException();
+    }
+
+    /**
+     * Gets the value of the row as double.
+     * @param row row index
+     * @return double value
+     */
+    public double getDouble(int row) {
+        throw new TypeMismatchException();
+    }
+
+    /**
+     * Gets the value of the row as string.
+     * @param row row index
+     * @return string value, or null if the value is empty
+     */
+    public String getString(int row) {
+        Object value = getValue(row);
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * Gets the value of the row. Numeric values are boxed.
+     * @param row row index
+     * @return the value, or null if the value is empty
+     */
+    public abstract Object getValue(int row);
+
+    /**
+     * Appends a value decoded from the response.
+     * @param value the field value
+     * @return false if the column cannot hold the value
+     */
+    abstract boolean append(Object value);
+
+    /**
+     * Appends an empty value.
+     */
+    void appendNull() {
+        nulls.set(size);
+        appendDefault();
+        size++;
+    }
+
+    /**
+     * Appends the placeholder of an empty value.
+     */
+    abstract void appendDefault();
+
+    /**
+     * Releases the unused capacity.
+     */
+    void trim() {
+    }
+
+    /**
+     * Creates a column which holds the values as objects.
+     * @return new column with the same values
+     */
+    Column toObjectColumn() {
+        ObjectColumn column = new ObjectColumn(name, fieldType);
+        for (int i = 0; i < size; i++) {
+            if (isNull(i)) {
+                column.appendNull();
+            } else {
+                column.append(getString(i));
+            }
+        }
+        return column;
+    }
+
+    protected void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("row: " + row);
+        }
+    }
+
+    protected void checkNotNull(int row) {
+        if (isNull(row)) {
+            throw new NullPointerException("the value is empty at row " + row);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+/**
+ * A result set which stores the records column by column. Numbers, record
+ * numbers and ids are decoded into primitive arrays, and drop downs, radio
+ * buttons and statuses are dictionary encoded, when the response is parsed.
+ * It suits aggregating many records.
+ *
+ * The record id and the revision are stored in the columns "$id" and
+ * "$revision".
+ *
+ */
+public class ColumnarResultSet {
+    public static final String ID_COLUMN = "$id";
+    public static final String REVISION_COLUMN = "$revision";
+
+    private LinkedHashMap<String, Column> columns = new LinkedHashMap<String, Column>();
+    private int size = 0;
+    private Long totalCount = null;
+
+    /**
+     * Gets the number of records.
+     *
+     * @return number of records
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets total count.
+     *
+     * @return total count
+     */
+    public Long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Sets total count
+     *
+     * @param totalCount
+     *            total count
+     */
+    public void setTotalCount(long totalCount) {
+        this.totalCount = totalCount;
+    }
+
+    /**
+     * Gets the names of the columns.
+     *
+     * @return set of the field name
+     */
+    public Set<String> getFieldNames() {
+        return Collections.unmodifiableSet(columns.keySet());
+    }
+
+    /**
+     * Returns true if the column exists.
+     *
+     * @param name
+     *            field name
+     * @return true if the column exists
+     */
+    public boolean hasField(String name) {
+        return columns.containsKey(name);
+    }
+
+    /**
+     * Gets the column of the field.
+     *
+     * @param name
+     *            field name
+     * @return column object, or null if the column does not exist
+     */
+    public Column getColumn(String name) {
+        return columns.get(name);
+    }
+
+    /**
+     * Gets the record id column.
+     *
+     * @return the record id column
+     */
+    public LongColumn getIds() {
+        return (LongColumn) columns.get(ID_COLUMN);
+    }
+
+    /**
+     * Gets the field value as long.
+     *
+     * @param name
+     *            field name
+     * @param row
+     *            row index
+     * @return long value
+     */
+    public long getLong(String name, int row) {
+        return columns.get(name).getLong(row);
+    }
+
+    /**
+     * Gets the field value as double.
+     *
+     * @param name
+     *            field name
+     * @param row
+     *            row index
+     * @return double value
+     */
+    public double getDouble(String name, int row) {
+        return columns.get(name).getDouble(row);
+    }
+
+    /**
+     * Gets the field value as string.
+     *
+     * @param name
+     *            field name
+     * @param row
+     *            row index
+     * @return string value
+     */
+    public String getString(String name, int row) {
+        return columns.get(name).getString(row);
+    }
+
+    /**
+     * Returns true if the field value is empty.
+     *
+     * @param name
+     *            field name
+     * @param row
+     *            row index
+     * @return true if the field value is empty
+     */
+    public boolean isEmpty(String name, int row) {
+        return columns.get(name).isNull(row);
+    }
+
+    /**
+     * Adds a field value to the current row.
+     *
+     * @param name
+     *            field name
+     * @param type
+     *            field type
+     * @param value
+     *            decoded field value
+     */
+    void put(String name, FieldType type, Object value) {
+        if (type == FieldType.__ID__) {
+            name = ID_COLUMN;
+        } else if (type == FieldType.__REVISION__) {
+            name = REVISION_COLUMN;
+        }
+        Column column = columns.get(name);
+        if (column == null) {
+            column = createColumn(name, type);
+            for (int i = 0; i < size; i++) {
+                column.appendNull();
+            }
+            columns.put(name, column);
+        }
+        if (column.size() > size) {
+            return; // duplicated field name
+        }
+        if (value == null || (value.equals("") && !(column instanceof ObjectColumn))) {
+            column.appendNull();
+            return;
+        }
+        while (!column.append(value)) {
+            if (column instanceof LongColumn && isDecimal(value)) {
+                column = ((LongColumn) column).toDoubleColumn();
+            } else {
+                column = column.toObjectColumn();
+            }
+            columns.put(name, column);
+        }
+    }
+
+    private static boolean isDecimal(Object value) {
+        try {
+            Double.parseDouble(value.toString());
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Ends the current row. The fields which the row does not have are empty.
+     */
+    void endRow() {
+        size++;
+        for (Column column : columns.values()) {
+            if (column.size() < size) {
+                column.appendNull();
+            }
+        }
+    }
+
+    /**
+     * Releases the unused capacity after parsing.
+     */
+    void trim() {
+        for (Column column : columns.values()) {
+            column.trim();
+        }
+    }
+
+    private static Column createColumn(String name, FieldType type) {
+        switch (type) {
+        case __ID__:
+        case __REVISION__:
+        case RECORD_NUMBER:
+        case NUMBER:
+            return new LongColumn(name, type);
+        case DROP_DOWN:
+        case RADIO_BUTTON:
+        case STATUS:
+            return new DictionaryColumn(name, type);
+        default:
+            return new ObjectColumn(name, type);
+        }
+    }
+}
@@ -0,0 +1,451 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.cybozu.kintone.database.exception.DBException;
+import com.cybozu.kintone.database.exception.DeadlineExceededException;
+
+/**
+ * Limits the number of the concurrent requests to a kintone domain. The
+ * limit is tuned from the responses: it is multiplied by the backoff ratio
+ * when the server is overloaded (429, 503 or a read timeout) or when the
+ * recent latency exceeds the long term latency by the tolerance, and it
+ * grows by about one per round trip while the requests use the limit.
+ *
+ * The requests over the limit wait in first-in first-out order for each
+ * {@link RequestPriority}, and the requests of a higher priority go first.
+ * {@link RequestPriority#BATCH} requests use only a share of the limit, so
+ * that the rest is kept for the interactive requests. Connections to the
+ * same domain should share the limiter returned by
+ * {@link #forDomain(String)}.
+ *
+ * <pre>
+ * Connection db = new Connection(ConnectionConfig.builder("example.cybozu.com")
+ *         .password("login", "password")
+ *         .concurrencyLimiter(ConcurrencyLimiter.forDomain("example.cybozu.com"))
+ *         .build());
+ * </pre>
+ *
+ */
+public class ConcurrencyLimiter {
+    public static final int DEFAULT_INITIAL_LIMIT = 10;
+    public static final int DEFAULT_MIN_LIMIT = 1;
+    public static final int DEFAULT_MAX_LIMIT = 100;
+    public static final double DEFAULT_BACKOFF_RATIO = 0.75;
+    public static final double DEFAULT_LATENCY_TOLERANCE = 2.0;
+    public static final double DEFAULT_BATCH_SHARE = 0.75;
+
+    // weights of the exponential moving averages of the latency
+    private static final double SHORT_WEIGHT = 0.1;
+    private static final double LONG_WEIGHT = 0.01;
+    private static final int WARMUP_SAMPLES = 20;
+
+    private static final ConcurrentHashMap<String, ConcurrencyLimiter> domains =
+            new ConcurrentHashMap<String, ConcurrencyLimiter>();
+
+    private final int minLimit;
+    private final int maxLimit;
+    private volatile double backoffRatio = DEFAULT_BACKOFF_RATIO;
+    private volatile double latencyTolerance = DEFAULT_LATENCY_TOLERANCE;
+    private volatile double batchShare = DEFAULT_BATCH_SHARE;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final EnumMap<RequestPriority, ArrayDeque<Waiter>> queues =
+            new EnumMap<RequestPriority, ArrayDeque<Waiter>>(RequestPriority.class);
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private double limit;
+    private int inFlight;
+    private int waiting;
+    private long timeouts;
+    private long samples;
+    private double shortRtt;
+    private double longRtt;
+    private long drops;
+
+    /**
+     * Constructor with the default limits.
+     */
+    public ConcurrencyLimiter() {
+        this(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param initialLimit
+     *            the limit before any response is received
+     * @param minLimit
+     *            lower bound of the limit
+     * @param maxLimit
+     *            upper bound of the limit
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit <= 0 || maxLimit < minLimit || initialLimit < minLimit
+                || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("invalid limits");
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        for (RequestPriority priority : RequestPriority.values()) {
+            queues.put(priority, new ArrayDeque<Waiter>());
+        }
+    }
+
+    /**
+     * Gets the limiter shared by the connections to the domain.
+     *
+     * @param domain
+     *            FQDN, or host and port of the base url
+     * @return limiter object
+     */
+    public static ConcurrencyLimiter forDomain(String domain) {
+        String key = domain.toLowerCase(Locale.ROOT);
+        ConcurrencyLimiter limiter = domains.get(key);
+        if (limiter == null) {
+            ConcurrencyLimiter created = new ConcurrencyLimiter();
+            limiter = domains.putIfAbsent(key, created);
+            if (limiter == null) {
+                limiter = created;
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * Sets the ratio by which the limit is multiplied when the server is
+     * overloaded.
+     *
+     * @param backoffRatio
+     *            ratio between 0 and 1
+     */
+    public void setBackoffRatio(double backoffRatio) {
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("backoffRatio must be between 0 and 1");
+        }
+        this.backoffRatio = backoffRatio;
+    }
+
+    /**
+     * Sets how many times the recent latency may exceed the long term
+     * latency before the limit is decreased.
+     *
+     * @param latencyTolerance
+     *            tolerance greater than 1, or 0 to ignore the latency
+     */
+    public void setLatencyTolerance(double latencyTolerance) {
+        if (latencyTolerance != 0 && latencyTolerance <= 1) {
+            throw new IllegalArgumentException("latencyTolerance must be greater than 1");
+        }
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    /**
+     * Sets the share of the limit which the batch requests can use.
+     *
+     * @param batchShare
+     *            ratio between 0 and 1
+     */
+    public void setBatchShare(double batchShare) {
+        if (batchShare <= 0 || batchShare > 1) {
+            throw new IllegalArgumentException("batchShare must be between 0 and 1");
+        }
+        this.batchShare = batchShare;
+    }
+
+    /**
+     * Gets the current limit.
+     *
+     * @return max number of concurrent requests
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of the requests being sent
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of the requests waiting for the limit
+     */
+    public int getQueueLength() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param priority
+     *            priority of the requests
+     * @return the number of the requests of the priority waiting for the limit
+     */
+    public int getQueueLength(RequestPriority priority) {
+        lock.lock();
+        try {
+            return queues.get(priority).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of the overloaded responses
+     */
+    public long getDropCount() {
+        lock.lock();
+        try {
+            return drops;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of the requests which gave up waiting for the limit
+     */
+    public long getTimeoutCount() {
+        lock.lock();
+        try {
+            return timeouts;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the microseconds the requests waited for the limit
+     */
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    /**
+     * Waits until a request can be sent. {@link #release(long, boolean)} must
+     * be called when the request is completed.
+     *
+     * @throws InterruptedException
+     */
+    public void acquire() throws InterruptedException {
+        tryAcquire(RequestPriority.NORMAL, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Waits until a request of the normal priority can be sent or the timeout
+     * elapses. {@link #release(long, boolean)} must be called when the
+     * request is completed if this returns true.
+     *
+     * @param timeout
+     *            max time to wait
+     * @param unit
+     *            unit of the timeout
+     * @return true if the request can be sent
+     * @throws InterruptedException
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        return tryAcquire(RequestPriority.NORMAL, timeout, unit);
+    }
+
+    /**
+     * Waits until a request can be sent or the timeout elapses.
+     * {@link #release(long, boolean)} must be called when the request is
+     * completed if this returns true.
+     *
+     * @param priority
+     *            priority of the request
+     * @param timeout
+     *            max time to wait
+     * @param unit
+     *            unit of the timeout
+     * @return true if the request can be sent
+     * @throws InterruptedException
+     */
+    public boolean tryAcquire(RequestPriority priority, long timeout,
+            TimeUnit unit) throws InterruptedException {
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            if (!hasWaiters(priority) && inFlight < capacity(priority)) {
+                inFlight++;
+                queueWait.record(0);
+                return true;
+            }
+            ArrayDeque<Waiter> queue = queues.get(priority);
+            Waiter waiter = new Waiter(lock.newCondition());
+            queue.addLast(waiter);
+            waiting++;
+            long remaining = unit.toNanos(timeout);
+            try {
+                while (!waiter.granted) {
+                    if (remaining <= 0) {
+                        queue.remove(waiter);
+                        waiting--;
+                        timeouts++;
+                        return false;
+                    }
+                    remaining = waiter.condition.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                if (waiter.granted) {
+                    inFlight--;
+                    grant();
+                } else {
+                    queue.remove(waiter);
+                    waiting--;
+                }
+                throw e;
+            }
+            queueWait.record((System.nanoTime() - start) / 1000);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reports the completion of a request and lets a waiting request go.
+     *
+     * @param rttNanos
+     *            the time from sending the request to closing the response
+     * @param dropped
+     *            true if the server was overloaded
+     */
+    public void release(long rttNanos, boolean dropped) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (dropped) {
+                drops++;
+                limit = Math.max(minLimit, limit * backoffRatio);
+            } else {
+                sample(rttNanos);
+            }
+            grant();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns true if the error shows that the server is overloaded.
+     *
+     * @param error
+     *            the failure of the request, or null
+     * @return true if the request was dropped
+     */
+    static boolean isOverload(DBException error) {
+        if (error == null || error instanceof DeadlineExceededException) {
+            return false;
+        }
+        int status = error.getHttpStatus();
+        return status == 429 || status == 503
+                || (status == 0 && error.getCause() instanceof SocketTimeoutException);
+    }
+
+    private void sample(long rttNanos) {
+        if (samples++ == 0) {
+            shortRtt = rttNanos;
+            longRtt = rttNanos;
+        } else {
+            shortRtt += (rttNanos - shortRtt) * SHORT_WEIGHT;
+            longRtt += (rttNanos - longRtt) * LONG_WEIGHT;
+        }
+        double tolerance = latencyTolerance;
+        if (tolerance > 0 && samples > WARMUP_SAMPLES
+                && shortRtt > longRtt * tolerance) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+            longRtt = shortRtt / tolerance; // back off once per latency shift
+        } else if ((inFlight + 1) * 2 >= limit) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    /**
+     * Gets the number of the requests of the priority which can be in
+     * flight.
+     */
+    private int capacity(RequestPriority priority) {
+        if (priority == RequestPriority.BATCH) {
+            return Math.max(1, (int) (limit * batchShare));
+        }
+        return (int) limit;
+    }
+
+    /**
+     * Returns true if a request of the same or a higher priority is waiting.
+     */
+    private boolean hasWaiters(RequestPriority priority) {
+        for (RequestPriority p : RequestPriority.values()) {
+            if (!queues.get(p).isEmpty()) {
+                return true;
+            }
+            if (p == priority) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    private void grant() {
+        for (RequestPriority priority : RequestPriority.values()) {
+            ArrayDeque<Waiter> queue = queues.get(priority);
+            while (!queue.isEmpty() && inFlight < capacity(priority)) {
+                Waiter waiter = queue.pollFirst();
+                waiter.granted = true;
+                waiting--;
+                inFlight++;
+                waiter.condition.signal();
+            }
+            if (!queue.isEmpty()) {
+                return; // the lower priorities wait for this one
+            }
+        }
+    }
+
+    private static class Waiter {
+        final Condition condition;
+        boolean granted;
+
+        Waiter(Condition condition) {
+            this.condition = condition;
+        }
+    }
+}
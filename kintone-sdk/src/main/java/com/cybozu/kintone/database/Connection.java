@@ -15,9 +15,11 @@
 package com.cybozu.kintone.database;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -25,41 +27,41 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
-import java.net.Authenticator;
-import java.net.HttpURLConnection;
-import java.net.InetSocketAddress;
+import java.io.Writer;
+import java.net.ConnectException;
 import java.net.MalformedURLException;
-import java.net.PasswordAuthentication;
-import java.net.Proxy;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLEncoder;
-import java.security.KeyManagementException;
-import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.security.UnrecoverableKeyException;
-import java.security.cert.CertificateException;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
-import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509TrustManager;
 
-import java.util.Base64;
-
+import com.google.gson.stream.JsonWriter;
+import com.cybozu.kintone.database.exception.BulkException;
 import com.cybozu.kintone.database.exception.DBException;
 import com.cybozu.kintone.database.exception.DBNotFoundException;
+import com.cybozu.kintone.database.exception.DeadlineExceededException;
 import com.cybozu.kintone.database.exception.ParseException;
 
 /**
@@ -68,8 +70,13 @@ import com.cybozu.kintone.database.exception.ParseException;
  */
 public class Connection {
     public static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+    public static final int DEFAULT_STREAM_PAGE_SIZE = 500;
+    private static final int MAX_STREAM_PAGE_SIZE = 500;
+    public static final int MAX_RECORDS_PER_REQUEST = 100;
+    public static final int DEFAULT_BULK_PARALLELISM = 4;
     
     private final String AUTH_HEADER = "X-Cybozu-Authorization";
+    private final String BASIC_AUTH_HEADER = "Authorization";
     private final String API_TOKEN = "X-Cybozu-API-Token";
     private final String JSON_CONTENT = "application/json";
     private final String API_PREFIX = "/k/v1/";
@@ -77,20 +84,15 @@ public class Connection {
     
     private final String BOUNDARY = "boundary_aj8gksdnsdfakj342fs3dt3stk8g6j32";
     private final String USER_AGENT_KEY = "User-Agent";
-    private final String USER_AGENT_VALUE = "kintone-java-SDK";
-    
-    private final String SSL_KEY_STORE = "javax.net.ssl.keyStore";
-    private final String SSL_KEY_STORE_PASSWORD = "javax.net.ssl.keyStorePassword";
+    private final String RETRY_AFTER = "Retry-After";
+    private static final String[] REVISION_COLUMNS = { "$id", "$revision" };
 
-    private String domain;
-    private String auth;
-    private String apiToken;
-    private Proxy proxy;
-    private String userAgent = USER_AGENT_VALUE;
-    private boolean trustAllHosts; // for debug
-    private boolean useClientCert;
-    private long guestSpaceId = -1;
-    private HashMap<String, String> headers = new HashMap<String, String>();
+    // replaced as a whole by the setters, so that a request sees one snapshot
+    private volatile ConnectionConfig config;
+
+    private static final HostnameVerifier VERIFY_EVERYTHING = new VerifyEverythingHostnameVerifier();
+    private static SSLSocketFactory trustAllSocketFactory;
+    private static ExecutorService bulkExecutor;
 
     /**
      * Constructor
@@ -104,12 +106,7 @@ public class Connection {
      *            password of the login name
      */
     public Connection(String domain, String login, String password) {
-        this.trustAllHosts = false;
-        this.useClientCert = false;
-        this.domain = domain;
-        this.auth = Base64.getEncoder().encodeToString((login + ":" + password).getBytes());
-        this.apiToken = null;
-        this.userAgent += "/" + getProperties().getProperty("version");
+        this(ConnectionConfig.builder(domain).password(login, password).build());
     }
     
     /**
@@ -122,34 +119,59 @@ public class Connection {
      *            api Token
      */
     public Connection(String domain, String apiToken) {
-        this.trustAllHosts = false;
-        this.useClientCert = false;
-        this.domain = domain;
-        this.auth = null;
-        this.apiToken = apiToken;
-        this.userAgent += "/" + getProperties().getProperty("version");
+        this(ConnectionConfig.builder(domain).apiToken(apiToken).build());
+    }
+
+    /**
+     * Constructor. A connection made from a config can be shared by many
+     * threads as long as its setters are not called.
+     * 
+     * @param config
+     *            connection settings
+     */
+    public Connection(ConnectionConfig config) {
+        if (config == null) {
+            throw new IllegalArgumentException("config is null");
+        }
+        this.config = config;
+    }
+
+    /**
+     * Gets the current settings of this connection.
+     * 
+     * @return config object
+     */
+    public ConnectionConfig getConfig() {
+        return config;
     }
 
     /**
      * Generates the URL of the API.
      * 
+     * @param config
+     *            connection settings
      * @param api 
      *            path to api
      * @return
      *            generated url
      * @throws MalformedURLException
      */
-    private URL getURL(String api) throws MalformedURLException {
+    private URL getURL(ConnectionConfig config, String api) throws MalformedURLException {
         StringBuilder sb = new StringBuilder();
-        sb.append("https://" + this.domain);
-        if (!domain.contains(".")) {
-            if (this.useClientCert) {
-                sb.append(".s");
+        if (config.getBaseUrl() != null) {
+            sb.append(config.getBaseUrl());
+        } else {
+            String domain = config.getDomain();
+            sb.append("https://" + domain);
+            if (!domain.contains(".")) {
+                if (config.isUseClientCert()) {
+                    sb.append(".s");
+                }
+                sb.append(".cybozu.com");
             }
-            sb.append(".cybozu.com");
         }
-        if (this.guestSpaceId >= 0) {
-        	sb.append(String.format(GUEST_API_PREFIX, this.guestSpaceId));
+        if (config.getGuestSpaceId() >= 0) {
+        	sb.append(String.format(GUEST_API_PREFIX, config.getGuestSpaceId()));
         } else {
         	sb.append(API_PREFIX);
         }
@@ -163,14 +185,8 @@ public class Connection {
     /**
      * Clears the settings of this connection.
      */
-    public void close() {
-        auth = null;
-        proxy = null;
-        apiToken = null;
-        headers.clear();
-        this.trustAllHosts = false;
-        this.useClientCert = false;
-        Authenticator.setDefault(null);
+    public synchronized void close() {
+        config = config.withoutCredentials();
     }
 
     /**
@@ -179,7 +195,7 @@ public class Connection {
      * @return true if this connection trusts all hosts
      */
     public boolean isTrustAllHosts() {
-        return trustAllHosts;
+        return config.isTrustAllHosts();
     }
 
     /**
@@ -187,23 +203,19 @@ public class Connection {
      * 
      * @param trustAllHosts
      */
-    public void setTrustAllHosts(boolean trustAllHosts) {
-        this.trustAllHosts = trustAllHosts;
+    public synchronized void setTrustAllHosts(boolean trustAllHosts) {
+        config = config.toBuilder().trustAllHosts(trustAllHosts).build();
     }
 
     /**
-     * Sets an basic authentication password.
+     * Sets an basic authentication password. It is sent with each request of
+     * this connection only.
      * 
      * @param username
      * @param password
      */
-    public void setBasicAuth(final String username, final String password) {
-        Authenticator.setDefault(new Authenticator() {
-            protected PasswordAuthentication getPasswordAuthentication() {
-                return new PasswordAuthentication(username, password
-                        .toCharArray());
-            }
-        });
+    public synchronized void setBasicAuth(final String username, final String password) {
+        config = config.toBuilder().basicAuth(username, password).build();
     }
 
     
@@ -211,14 +223,14 @@ public class Connection {
 	 * @return the guestSpaceId
 	 */
 	public long getGuestSpaceId() {
-		return guestSpaceId;
+		return config.getGuestSpaceId();
 	}
 
 	/**
 	 * @param guestSpaceId the guestSpaceId to set
 	 */
-	public void setGuestSpaceId(long guestSpaceId) {
-		this.guestSpaceId = guestSpaceId;
+	public synchronized void setGuestSpaceId(long guestSpaceId) {
+		config = config.toBuilder().guestSpaceId(guestSpaceId).build();
 	}
 
 	/**
@@ -229,12 +241,29 @@ public class Connection {
      * @param value
      *            header value
      */
-    public void addHeader(String name, String value) {
-        if (name.equalsIgnoreCase(USER_AGENT_KEY)) {
-            userAgent += " " + value;
-        } else {
-            headers.put(name, value);
-        }
+    public synchronized void addHeader(String name, String value) {
+        config = config.toBuilder().addHeader(name, value).build();
+    }
+
+    /**
+     * Sets the base url of the server instead of the domain, for example
+     * "http://localhost:8080" to send requests to a stub server.
+     * 
+     * @param baseUrl
+     *            scheme, host and port without the trailing slash, or null
+     *            to use the domain
+     */
+    public synchronized void setBaseUrl(String baseUrl) {
+        config = config.toBuilder().baseUrl(baseUrl).build();
+    }
+
+    /**
+     * Gets the base url of the server.
+     * 
+     * @return base url, or null if the url is made from the domain
+     */
+    public String getBaseUrl() {
+        return config.getBaseUrl();
     }
 
     /**
@@ -245,9 +274,200 @@ public class Connection {
      * @param port
      *            proxy port
      */
-    public void setProxy(String host, int port) {
-        this.proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(host,
-                port));
+    public synchronized void setProxy(String host, int port) {
+        config = config.toBuilder().proxy(host, port).build();
+    }
+
+    /**
+     * Sets the transport which sends requests. The transport is not closed by
+     * {@link #close()} so that it can be shared by several connections.
+     * 
+     * @param transport
+     *            transport object
+     */
+    public synchronized void setTransport(Transport transport) {
+        config = config.toBuilder().transport(transport).build();
+    }
+
+    /**
+     * Gets the transport which sends requests.
+     * 
+     * @return transport object
+     */
+    public Transport getTransport() {
+        return config.getTransport();
+    }
+
+    /**
+     * Sets the listener which receives the metrics of the requests, such as
+     * {@link ConnectionMetrics}. The requests are not measured if it is null,
+     * which is the default.
+     * 
+     * @param metricsListener
+     *            metrics listener, or null to stop measuring
+     */
+    public synchronized void setMetricsListener(MetricsListener metricsListener) {
+        config = config.toBuilder().metricsListener(metricsListener).build();
+    }
+
+    /**
+     * Gets the listener which receives the metrics of the requests.
+     * 
+     * @return metrics listener, or null if the requests are not measured
+     */
+    public MetricsListener getMetricsListener() {
+        return config.getMetricsListener();
+    }
+
+    /**
+     * Sets the policy to retry the failed requests. The requests are not
+     * retried by default.
+     * 
+     * @param retryPolicy
+     *            retry policy, or {@link RetryPolicy#NONE}
+     */
+    public synchronized void setRetryPolicy(RetryPolicy retryPolicy) {
+        config = config.toBuilder().retryPolicy(retryPolicy).build();
+    }
+
+    /**
+     * Gets the policy to retry the failed requests.
+     * 
+     * @return retry policy
+     */
+    public RetryPolicy getRetryPolicy() {
+        return config.getRetryPolicy();
+    }
+
+    /**
+     * Sets the limiter of the concurrent requests. Connections to the same
+     * domain should share a limiter, such as
+     * {@link ConcurrencyLimiter#forDomain(String)}.
+     * 
+     * @param concurrencyLimiter
+     *            limiter, or null not to limit
+     */
+    public synchronized void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+        config = config.toBuilder().concurrencyLimiter(concurrencyLimiter).build();
+    }
+
+    /**
+     * Gets the limiter of the concurrent requests.
+     * 
+     * @return limiter, or null if not limited
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return config.getConcurrencyLimiter();
+    }
+
+    /**
+     * Sets the coalescer which shares a GET request among the threads sending
+     * the same request at the same time.
+     * 
+     * @param requestCoalescer
+     *            coalescer, or null not to share the requests
+     */
+    public synchronized void setRequestCoalescer(RequestCoalescer requestCoalescer) {
+        config = config.toBuilder().requestCoalescer(requestCoalescer).build();
+    }
+
+    /**
+     * Gets the coalescer of the GET requests.
+     * 
+     * @return coalescer, or null if the requests are not shared
+     */
+    public RequestCoalescer getRequestCoalescer() {
+        return config.getRequestCoalescer();
+    }
+
+    /**
+     * Sets the cache of the app information.
+     * 
+     * @param appCache
+     *            app cache, or null not to cache
+     */
+    public synchronized void setAppCache(AppCache appCache) {
+        config = config.toBuilder().appCache(appCache).build();
+    }
+
+    /**
+     * Gets the cache of the app information.
+     * 
+     * @return app cache, or null if not cached
+     */
+    public AppCache getAppCache() {
+        return config.getAppCache();
+    }
+
+    /**
+     * Sets the cache of the records selected without the columns.
+     * 
+     * @param recordCache
+     *            record cache, or null not to cache
+     */
+    public synchronized void setRecordCache(RecordCache recordCache) {
+        config = config.toBuilder().recordCache(recordCache).build();
+    }
+
+    /**
+     * Gets the cache of the records.
+     * 
+     * @return record cache, or null if not cached
+     */
+    public RecordCache getRecordCache() {
+        return config.getRecordCache();
+    }
+
+    /**
+     * Creates a connection which sends the requests with the priority. The
+     * new connection shares the transport and the concurrency limiter with
+     * this connection.
+     * 
+     * <pre>
+     * ResultSet rs = db.withPriority(RequestPriority.INTERACTIVE)
+     *         .withDeadline(3000).select(app, query);
+     * </pre>
+     * 
+     * @param priority
+     *            priority of the requests
+     * @return new connection
+     */
+    public Connection withPriority(RequestPriority priority) {
+        return new Connection(config.toBuilder().priority(priority).build());
+    }
+
+    /**
+     * Creates a connection whose calls fail with DeadlineExceededException
+     * when they cannot complete within the time limit. The new connection
+     * shares the transport and the concurrency limiter with this connection.
+     * 
+     * @param deadline
+     *            time limit of each call in milliseconds, or 0 not to limit
+     * @return new connection
+     */
+    public Connection withDeadline(long deadline) {
+        return new Connection(config.toBuilder().deadline(deadline).build());
+    }
+
+    /**
+     * Sets the max number of chunks sent concurrently by a bulk operation.
+     * A list of more than {@link #MAX_RECORDS_PER_REQUEST} records is split
+     * into chunks.
+     * 
+     * @param bulkParallelism
+     *            max number of concurrent requests (1 means sequential)
+     */
+    public synchronized void setBulkParallelism(int bulkParallelism) {
+        config = config.toBuilder().bulkParallelism(bulkParallelism).build();
+    }
+
+    /**
+     * Gets the max number of chunks sent concurrently by a bulk operation.
+     * 
+     * @return max number of concurrent requests
+     */
+    public int getBulkParallelism() {
+        return config.getBulkParallelism();
     }
 
     /**
@@ -258,61 +478,32 @@ public class Connection {
      * @param password
      *            cert password
      */
-    public void setClientCert(String cert, String password) {
-        System.setProperty(SSL_KEY_STORE, cert);
-        System.setProperty(SSL_KEY_STORE_PASSWORD, password);
-
-        this.useClientCert = true;
+    public synchronized void setClientCert(String cert, String password) {
+        config = config.toBuilder().clientCert(cert, password).build();
     }
 
     /**
-     * Binds the client certification to the connection.
-     * @param conn
-     *            connection object
+     * Gets the socket factory which binds the client certification. The
+     * factory is cached until the keystore file is modified.
+     * @param config connection settings
+     * @return ssl socket factory
      * @throws DBException
      */
-    private void certificate(HttpsURLConnection conn) throws DBException {
-        try {
-            TrustManagerFactory tmf = TrustManagerFactory
-                    .getInstance(TrustManagerFactory.getDefaultAlgorithm());
-            tmf.init((KeyStore) null);
-
-            KeyStore key_store = KeyStore.getInstance("PKCS12");
-            char[] key_pass = System.getProperty(SSL_KEY_STORE_PASSWORD)
-                    .toCharArray();
-            key_store.load(
-                    new FileInputStream(System.getProperty(SSL_KEY_STORE)),
-                    key_pass);
-            KeyManagerFactory kmf = KeyManagerFactory.getInstance("SunX509");
-            kmf.init(key_store, key_pass);
-
-            SSLContext sslcontext = SSLContext.getInstance("SSL");
-
-            sslcontext.init(kmf.getKeyManagers(), tmf.getTrustManagers(),
-                    new SecureRandom());
-            conn.setSSLSocketFactory(sslcontext.getSocketFactory());
-        } catch (KeyManagementException e) {
-            throw new DBException(e);
-        } catch (KeyStoreException e) {
-            throw new DBException(e);
-        } catch (CertificateException e) {
-            throw new DBException(e);
-        } catch (NoSuchAlgorithmException e) {
-            throw new DBException(e);
-        } catch (IOException e) {
-            throw new DBException(e);
-        } catch (UnrecoverableKeyException e) {
-            throw new DBException(e);
-        }
+    private SSLSocketFactory certificate(ConnectionConfig config) throws DBException {
+        return ClientCertificates.getSocketFactory(config.getClientCert(),
+                config.getClientCertPassword());
     }
 
     /**
-     * Makes the connection trust all hosts.
+     * Gets the socket factory which trusts all hosts. The factory is shared so
+     * that pooled connections can be reused.
      * 
-     * @param conn
-     *            connection object
+     * @return ssl socket factory
      */
-    private static void trustAllHosts(HttpsURLConnection conn) {
+    private static synchronized SSLSocketFactory getTrustAllSocketFactory() {
+        if (trustAllSocketFactory != null) {
+            return trustAllSocketFactory;
+        }
 
         X509TrustManager easyTrustManager = new X509TrustManager() {
             @Override
@@ -341,21 +532,22 @@ public class Connection {
 
             sc.init(null, trustAllCerts, new java.security.SecureRandom());
 
-            conn.setSSLSocketFactory(sc.getSocketFactory());
+            trustAllSocketFactory = sc.getSocketFactory();
 
         } catch (Exception e) {
             e.printStackTrace();
         }
+        return trustAllSocketFactory;
     }
 
     /**
      * HostnameVerifier verify everything.
      *
      */
-    private class VerifyEverythingHostnameVerifier implements HostnameVerifier {
+    private static class VerifyEverythingHostnameVerifier implements HostnameVerifier {
         @Override
         public boolean verify(String arg0, SSLSession arg1) {
-            return false;
+            return true;
         }
     }
 
@@ -403,294 +595,575 @@ public class Connection {
     
     /**
      * Sets user defined HTTP headers.
-     * @param conn connection object
+     * @param config connection settings
+     * @param request request object
      */
-    private void setHTTPHeaders(HttpURLConnection conn) {
-        if (this.apiToken != null) {
-            conn.setRequestProperty(API_TOKEN, this.apiToken);
+    private void setHTTPHeaders(ConnectionConfig config, TransportRequest request) {
+        if (config.getApiToken() != null) {
+            request.setHeader(API_TOKEN, config.getApiToken());
         } else {
-            conn.setRequestProperty(AUTH_HEADER, this.auth);
+            request.setHeader(AUTH_HEADER, config.getAuth());
         }
-        conn.setRequestProperty(USER_AGENT_KEY, this.userAgent);
-        for (String header : this.headers.keySet()) {
-            conn.setRequestProperty(header, this.headers.get(header));
+        if (config.getBasicAuth() != null) {
+            request.setHeader(BASIC_AUTH_HEADER, config.getBasicAuth());
+        }
+        request.setHeader(USER_AGENT_KEY, config.getUserAgent());
+        for (Map.Entry<String, String> header : config.getHeaders().entrySet()) {
+            request.setHeader(header.getKey(), header.getValue());
         }
     }
 
     /**
-     * Sends a request to kintone.
+     * Creates a request object with the settings of this connection.
      * 
      * @param method
      *            GET, POST, PUT or DELETE
      * @param api
      *            api file path and query string
-     * @param body
-     *            request data body
-     * @param outFile
-     *            download file to the stream
-     * @return response string
+     * @return request object
      * @throws DBException
      */
-    public String request(String method, String api, String body, File outFile)
+    private TransportRequest createRequest(String method, String api)
             throws DBException {
-        HttpsURLConnection conn = null;
-        String response = null;
-
+        ConnectionConfig config = this.config;
         URL url;
         try {
-            url = this.getURL(api);
+            url = this.getURL(config, api);
         } catch (MalformedURLException e1) {
             throw new DBException("invalid url");
         }
 
-        try {
-            if (this.proxy == null) {
-                conn = (HttpsURLConnection) url.openConnection();
-            } else {
-                conn = (HttpsURLConnection) url.openConnection(proxy);
-            }
-            if (this.trustAllHosts) {
-                trustAllHosts(conn);
-                conn.setHostnameVerifier(new VerifyEverythingHostnameVerifier());
-            }
+        TransportRequest request = new TransportRequest(method, url);
+        request.setProxy(config.getProxy());
+        if (config.isTrustAllHosts()) {
+            request.setSSLSocketFactory(getTrustAllSocketFactory());
+            request.setHostnameVerifier(VERIFY_EVERYTHING);
+        }
 
-            if (this.useClientCert) {
-                certificate(conn);
-            }
+        if (config.isUseClientCert()) {
+            request.setSSLSocketFactory(certificate(config));
+        }
 
-            setHTTPHeaders(conn);
+        setHTTPHeaders(config, request);
 
-            conn.setRequestMethod(method);
-        } catch (IOException e) {
-            throw new DBException("can not open connection");
-        }
-        boolean post = false;
-        if (method.equals("PUT") || method.equals("POST") || method.equals("DELETE")) {
-            post = true;
-        }
+        return request;
+    }
 
-        if (post) {
-            conn.setDoOutput(true);
-            conn.setRequestProperty("Content-Type", JSON_CONTENT);
+    /**
+     * Sends a request through the transport. The caller must check the
+     * status code and close the returned response.
+     * 
+     * @param request
+     *            request object
+     * @return response object
+     * @throws DBException
+     */
+    private TransportResponse send(TransportRequest request) throws DBException {
+        ConnectionConfig config = this.config;
+        RequestMeter meter = null;
+        if (config.getMetricsListener() != null) {
+            meter = new RequestMeter(config.getMetricsListener(), request);
         }
+        TransportResponse response;
         try {
-            conn.connect();
+            response = config.getTransport().execute(request);
+        } catch (ConnectException e) {
+            throw failed(meter, e, "cannot connect to host");
+        } catch (UnknownHostException e) {
+            throw failed(meter, e, "cannot connect to host");
         } catch (IOException e) {
-            throw new DBException("cannot connect to host");
-        }
-
-        if (post) {
-            // send request
-            OutputStream os;
-            try {
-                os = conn.getOutputStream();
-            } catch (IOException e) {
-                throw new DBException("an error occurred while sending data");
-            }
-            try {
-	            OutputStreamWriter writer = new OutputStreamWriter(os, "UTF-8");
-	            writer.write(body);
-	            writer.close();
-            } catch(IOException e) {
-            	throw new DBException("socket error");
-            }
-            
+            throw failed(meter, e, "socket error");
         }
-
-        // receive response
-        try {
-            checkStatus(conn);
-            InputStream is = conn.getInputStream();
-            try {
-                if (outFile != null) {
-                    OutputStream os = new FileOutputStream(outFile);
-                    try {
-                        byte[] buffer = new byte[8192];
-                        int n = 0;
-                        while (-1 != (n = is.read(buffer))) {
-                            os.write(buffer, 0, n);
-                        }
-                    } finally {
-                        os.close();
-                    }
-                } else {
-                    response = streamToString(is);
-                }
-            } finally {
-                is.close();
-            }
-        } catch (IOException e) {
-            throw new DBException("an error occurred while receiving data");
+        if (meter != null) {
+            response = meter.received(response);
         }
-
-        // System.out.println(response);
         return response;
-
     }
 
     /**
-     * Checks the status code of the response.
-     * @param conn
-     *             a connection object
+     * Reports the failed request to the metrics listener.
+     * 
+     * @param meter
+     *            the meter of the request, or null if not measured
+     * @param e
+     *            the error of the transport
+     * @param message
+     *            error message
+     * @return the exception to be thrown
      */
-    private void checkStatus(HttpURLConnection conn) throws IOException, DBException {
-        int statusCode = conn.getResponseCode();
-        if (statusCode == 404) {
-            ErrorResponse response = getErrorResponse(conn);
-            if (response == null) {
-                throw new DBNotFoundException("not found");
-            } else {
-                throw new DBNotFoundException(statusCode, response);
-            }
-        }
-        if (statusCode != 200) {
-            ErrorResponse response = getErrorResponse(conn);
-            if (response == null) {
-                throw new DBException("http status error(" + statusCode + ")");
-            } else {
-                throw new DBException(statusCode, response);
-            }
+    private static DBException failed(RequestMeter meter, IOException e,
+            String message) {
+        if (meter != null) {
+            meter.failed(e);
         }
+        return new DBException(e, message);
     }
-    
+
     /**
-     * Creates an error response object.
-     * @param conn
-     * @return ErrorResponse object. return null if any error occurred
+     * Sends a request to kintone.
+     * 
+     * @param method
+     *            GET, POST, PUT or DELETE
+     * @param api
+     *            api file path and query string
+     * @param body
+     *            request data body
+     * @param outFile
+     *            download file to the stream
+     * @return response string
+     * @throws DBException
      */
-    private ErrorResponse getErrorResponse(HttpURLConnection conn) {
-        
-        InputStream err = conn.getErrorStream();
-        
-        String response;
-        try {
-        	if (err == null) {
-        		err = conn.getInputStream();
-        	}
-            response = streamToString(err);
-        } catch (IOException e) {
-            return null;
-        }
-        JsonParser parser = new JsonParser();
-        return parser.jsonToErrorResponse(response);
+    public String request(String method, String api, String body, final File outFile)
+            throws DBException {
+        return request(method, api, body, outFile,
+                RetryPolicy.isIdempotentMethod(method));
     }
-    
+
     /**
-     * Uploads a file.
+     * Sends a request to kintone.
      * 
-     * @param contentType
-     *            content type
-     * @param file
-     *            uploaded file
-     * @return file key of the uploaded file
+     * @param method
+     *            GET, POST, PUT or DELETE
+     * @param api
+     *            api file path and query string
+     * @param body
+     *            request data body
+     * @param outFile
+     *            download file to the stream
+     * @param idempotent
+     *            false if the request must not be applied twice
+     * @return response string
      * @throws DBException
      */
-    private String upload(File file, String contentType) throws DBException {
-        InputStream isFile;
-
-        try {
-            isFile = new FileInputStream(file.getAbsolutePath());
-        } catch (FileNotFoundException e1) {
-            throw new DBNotFoundException("cannot open file");
+    private String request(String method, String api, String body,
+            final File outFile, boolean idempotent) throws DBException {
+        RequestBody requestBody = null;
+        if (method.equals("PUT") || method.equals("POST") || method.equals("DELETE")) {
+            requestBody = new StringRequestBody(JSON_CONTENT, body);
+        }
+        if (outFile == null) {
+            return execute(method, api, requestBody, true, idempotent,
+                    new ResponseReader<String>() {
+                @Override
+                public String read(InputStream is) throws IOException {
+                    return streamToString(is);
+                }
+            });
         }
-        
-        try {
-            return upload(isFile, file.getName(), contentType);
-        } finally {
-            try {
-                isFile.close();
-            } catch (IOException e) {
+        // a downloaded file is not kept in memory to share it
+        execute(method, api, requestBody, false, idempotent, new ResponseReader<Void>() {
+            @Override
+            public Void read(InputStream is) throws IOException {
+                OutputStream os = new FileOutputStream(outFile);
+                try {
+                    byte[] buffer = new byte[8192];
+                    int n = 0;
+                    while (-1 != (n = is.read(buffer))) {
+                        os.write(buffer, 0, n);
+                    }
+                } finally {
+                    os.close();
+                }
+                return null;
             }
-        }
-        
+        });
+        return null;
     }
-    
+
     /**
-     * Uploads a file from input stream.
+     * Sends a request to kintone and reads the response body with the reader.
      * 
-     * @param input
-     *            the file stream to be uploaded
-     * @param fileName
-     *            file name
-     * @param contentType
-     *            content type
-     * @return file key of the uploaded file
+     * @param method
+     *            GET, POST, PUT or DELETE
+     * @param api
+     *            api file path and query string
+     * @param body
+     *            request data body
+     * @param reader
+     *            response reader
+     * @return the object returned by the reader
      * @throws DBException
      */
-    private String upload(InputStream input, String fileName, String contentType) throws DBException {
-        HttpsURLConnection conn;
-        String response = null;
+    private <T> T execute(String method, String api, RequestBody body,
+            ResponseReader<T> reader) throws DBException {
+        return execute(method, api, body, true,
+                RetryPolicy.isIdempotentMethod(method), reader);
+    }
 
-        URL url;
+    /**
+     * Sends a request to kintone and reads the response body with the
+     * reader. A GET request may share the response of the same request sent
+     * by another thread if the request coalescer is set.
+     * 
+     * @param method
+     *            GET, POST, PUT or DELETE
+     * @param api
+     *            api file path and query string
+     * @param body
+     *            request data body
+     * @param coalesce
+     *            false not to share the response
+     * @param idempotent
+     *            false if the request must not be applied twice, so that it
+     *            is retried only if it was not sent
+     * @param reader
+     *            response reader
+     * @return the object returned by the reader
+     * @throws DBException
+     */
+    private <T> T execute(String method, String api, RequestBody body,
+            boolean coalesce, boolean idempotent, ResponseReader<T> reader)
+            throws DBException {
+        final TransportRequest request = createRequest(method, api);
+        request.setIdempotent(idempotent);
+
+        if (body != null) {
+            request.setBody(body);
+        }
+
+        final ConnectionConfig config = this.config;
+        long deadline = 0;
+        if (config.getDeadline() > 0) {
+            deadline = System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(config.getDeadline());
+        }
+        RequestCoalescer coalescer = config.getRequestCoalescer();
+        if (coalescer == null || !coalesce || body != null
+                || !method.equals("GET")) {
+            return execute(config, request, deadline, reader);
+        }
+
+        final long sharedDeadline = deadline;
+        byte[] content = coalescer.fetch(
+                RequestCoalescer.key(request, config.getPriority()), deadline,
+                new RequestCoalescer.Fetcher() {
+                    @Override
+                    public byte[] fetch() throws DBException {
+                        return execute(config, request, sharedDeadline,
+                                new ResponseReader<byte[]>() {
+                                    @Override
+                                    public byte[] read(InputStream is) throws IOException {
+                                        return streamToBytes(is);
+                                    }
+                                });
+                    }
+                });
         try {
-            url = this.getURL("file.json");
+            return reader.read(new ByteArrayInputStream(content));
+        } catch (IOException e) {
+            throw new DBException(e, "an error occurred while receiving data");
+        }
+    }
 
-            if (this.proxy == null) {
-                conn = (HttpsURLConnection) url.openConnection();
-            } else {
-                conn = (HttpsURLConnection) url.openConnection(proxy);
+    /**
+     * Sends the request, retrying it by the retry policy.
+     * 
+     * @param config
+     *            connection settings
+     * @param request
+     *            request object
+     * @param deadline
+     *            the deadline in nanoseconds, or 0 if not limited
+     * @param reader
+     *            response reader
+     * @return the object returned by the reader
+     * @throws DBException
+     */
+    private <T> T execute(ConnectionConfig config, TransportRequest request,
+            long deadline, ResponseReader<T> reader) throws DBException {
+        ConcurrencyLimiter limiter = config.getConcurrencyLimiter();
+        for (int retry = 1; ; retry++) {
+            DBException error = null;
+            String retryAfter = null;
+            TransportResponse response = null;
+            long start = acquire(limiter, request, config.getPriority(), deadline);
+            if (deadline != 0) {
+                // rounded up so that the timeout does not fire before the deadline
+                request.setTimeout((int) Math.min(Integer.MAX_VALUE,
+                        TimeUnit.NANOSECONDS.toMillis(deadline - start + 999999)));
             }
-            if (this.trustAllHosts) {
-                trustAllHosts(conn);
-                conn.setHostnameVerifier(new VerifyEverythingHostnameVerifier());
+            try {
+                // receive response
+                response = send(request);
+                checkStatus(response);
+                InputStream is = response.getBody();
+                T result = reader.read(is);
+                drain(is);
+                return result;
+            } catch (IOException e) {
+                error = new DBException(e, "an error occurred while receiving data");
+            } catch (DBException e) {
+                error = e;
+            } finally {
+                if (error != null && deadline != 0) {
+                    error = expired(error, deadline);
+                }
+                if (response != null) {
+                    if (error != null) {
+                        retryAfter = response.getHeader(RETRY_AFTER);
+                    }
+                    response.close();
+                }
+                if (limiter != null) {
+                    limiter.release(System.nanoTime() - start,
+                            ConcurrencyLimiter.isOverload(error));
+                }
             }
+            backoff(request, retry, error, retryAfter, deadline);
+        }
+    }
 
-            if (this.useClientCert) {
-                certificate(conn);
+    /**
+     * Waits until the concurrency limiter lets the request go.
+     * 
+     * @param limiter
+     *            the limiter, or null if not limited
+     * @param request
+     *            the request to be sent
+     * @param priority
+     *            the priority of the request
+     * @param deadline
+     *            the deadline in nanoseconds, or 0 if not limited
+     * @return the time when the wait ended in nanoseconds
+     * @throws DBException
+     */
+    private long acquire(ConcurrencyLimiter limiter, TransportRequest request,
+            RequestPriority priority, long deadline) throws DBException {
+        long start = System.nanoTime();
+        if (deadline != 0 && deadline - start <= 0) {
+            throw new DeadlineExceededException("deadline exceeded");
+        }
+        if (limiter == null) {
+            return start;
+        }
+        try {
+            long timeout = deadline != 0 ? deadline - start : Long.MAX_VALUE;
+            if (!limiter.tryAcquire(priority, timeout, TimeUnit.NANOSECONDS)) {
+                throw new DeadlineExceededException(
+                        "deadline exceeded while waiting for the concurrency limiter");
             }
-
-            setHTTPHeaders(conn);
-
-            conn.setRequestMethod("POST");
-        } catch (Exception e) {
-            throw new DBException("invalid url");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DBException(e, "interrupted while waiting for the concurrency limiter");
+        }
+        long now = System.nanoTime();
+        MetricsListener listener = this.config.getMetricsListener();
+        if (listener != null) {
+            listener.requestQueued(request.getMethod(),
+                    RequestMeter.apiName(request.getUrl()), now - start);
         }
+        return now;
+    }
 
-        conn.setDoOutput(true);
-        conn.setRequestProperty("Content-Type",
-                "multipart/form-data; boundary=" + BOUNDARY);
+    /**
+     * Replaces the read timeout caused by the deadline with
+     * DeadlineExceededException, so that it is not taken as an overload.
+     * 
+     * @param error
+     *            the failure of the request
+     * @param deadline
+     *            the deadline in nanoseconds
+     * @return the error to be reported
+     */
+    private static DBException expired(DBException error, long deadline) {
+        if (error.getHttpStatus() == 0
+                && error.getCause() instanceof SocketTimeoutException
+                && deadline - System.nanoTime() <= 0) {
+            return new DeadlineExceededException(error.getCause(),
+                    "deadline exceeded while waiting for the response");
+        }
+        return error;
+    }
 
+    /**
+     * Waits before retrying the failed request, or throws the error if the
+     * request cannot be retried.
+     * 
+     * @param request
+     *            the failed request
+     * @param retry
+     *            the number of the retry (1 for the first retry)
+     * @param error
+     *            the failure of the request
+     * @param retryAfter
+     *            the Retry-After header, or null
+     * @param deadline
+     *            the deadline in nanoseconds, or 0 if not limited
+     * @throws DBException
+     */
+    private void backoff(TransportRequest request, int retry, DBException error,
+            String retryAfter, long deadline) throws DBException {
+        ConnectionConfig config = this.config;
+        RetryPolicy retryPolicy = config.getRetryPolicy();
+        RequestBody body = request.getBody();
+        if (retry > retryPolicy.getMaxRetries()
+                || (body != null && !body.isRepeatable())
+                || !retryPolicy.isRetryable(request.isIdempotent(), error)) {
+            throw error;
+        }
+        long delay = retryPolicy.getDelay(retry, retryAfter);
+        if (deadline != 0 && deadline - System.nanoTime()
+                <= TimeUnit.MILLISECONDS.toNanos(delay)) {
+            throw error; // no time is left for the retry
+        }
+        if (config.getMetricsListener() != null) {
+            config.getMetricsListener().requestRetried(request.getMethod(),
+                    RequestMeter.apiName(request.getUrl()), retry + 1, error);
+        }
         try {
-            conn.connect();
-        } catch (IOException e) {
-            throw new DBException("cannot connect to host");
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw error;
         }
+    }
 
-        OutputStream os;
+    /**
+     * Sends a request whose json body is written directly to the connection.
+     * 
+     * @param method
+     *            POST, PUT or DELETE
+     * @param api
+     *            api file path
+     * @param body
+     *            request data body
+     * @return response string
+     * @throws DBException
+     */
+    private String sendJson(String method, String api, JsonRequestBody body)
+            throws DBException {
+        return sendJson(method, api, body, RetryPolicy.isIdempotentMethod(method));
+    }
 
-        try {
-                os = conn.getOutputStream();
-                OutputStreamWriter writer = new OutputStreamWriter(os, "UTF-8");
-                writer.write("--" + BOUNDARY + "\r\n");
-                writer.write("Content-Disposition: form-data; name=\"file\"; filename=\""
-                        + fileName + "\"\r\n");
-                writer.write("Content-Type: " + contentType + "\r\n\r\n");
-                writer.flush();
-                byte[] buffer = new byte[8192];
-                int n = 0;
-                while (-1 != (n = input.read(buffer))) {
-                    os.write(buffer, 0, n);
-                }
-                os.flush();
-                writer.write("\r\n--" + BOUNDARY + "--\r\n");
-                os.flush();
-                writer.close();
-        } catch (IOException e) {
-            throw new DBException("an error occurred while sending data");
+    /**
+     * Sends a request whose json body is written directly to the connection.
+     * 
+     * @param method
+     *            POST, PUT or DELETE
+     * @param api
+     *            api file path
+     * @param body
+     *            request data body
+     * @param idempotent
+     *            false if the request must not be applied twice, such as an
+     *            update with the revision
+     * @return response string
+     * @throws DBException
+     */
+    private String sendJson(String method, String api, JsonRequestBody body,
+            boolean idempotent) throws DBException {
+        return execute(method, api, body, true, idempotent, new ResponseReader<String>() {
+            @Override
+            public String read(InputStream is) throws IOException {
+                return streamToString(is);
+            }
+        });
+    }
+
+    /**
+     * Reads the rest of the stream so that the connection can be reused.
+     * @param is input stream
+     * @throws IOException
+     */
+    private static void drain(InputStream is) throws IOException {
+        byte[] buffer = new byte[1024];
+        while (is.read(buffer) != -1) {
         }
+    }
+
+    /**
+     * Checks the status code of the response.
+     * @param response
+     *             a response object
+     */
+    private void checkStatus(TransportResponse response) throws DBException {
+        int statusCode = response.getStatusCode();
+        if (statusCode == 404) {
+            ErrorResponse error = getErrorResponse(response);
+            if (error == null) {
+                throw new DBNotFoundException("not found");
+            } else {
+                throw new DBNotFoundException(statusCode, error);
+            }
+        }
+        if (statusCode != 200) {
+            ErrorResponse error = getErrorResponse(response);
+            if (error == null) {
+                throw new DBException(statusCode, "http status error(" + statusCode + ")");
+            } else {
+                throw new DBException(statusCode, error);
+            }
+        }
+    }
     
-        // receive response
+    /**
+     * Creates an error response object.
+     * @param response
+     * @return ErrorResponse object. return null if any error occurred
+     */
+    private ErrorResponse getErrorResponse(TransportResponse response) {
+        
+        String body;
         try {
-            checkStatus(conn);
-            InputStream is = conn.getInputStream();
-            try {
-                response = streamToString(is);
-            } finally {
-                is.close();
-            }
+            body = streamToString(response.getBody());
         } catch (IOException e) {
-            throw new DBException("an error occurred while receiving data");
+            return null;
         }
+        JsonParser parser = new JsonParser();
+        return parser.jsonToErrorResponse(body);
+    }
+    
+    /**
+     * Uploads a file. The body is sent with its length and streamed from the
+     * file, so the heap use does not depend on the file size, and the upload
+     * can be retried.
+     * 
+     * @param contentType
+     *            content type
+     * @param file
+     *            uploaded file
+     * @return file key of the uploaded file
+     * @throws DBException
+     */
+    private String upload(File file, String contentType) throws DBException {
+        if (!file.isFile() || !file.canRead()) {
+            throw new DBNotFoundException("cannot open file");
+        }
+        return upload(new FileRequestBody(BOUNDARY, file, contentType));
+    }
+    
+    /**
+     * Uploads a file from input stream.
+     * 
+     * @param input
+     *            the file stream to be uploaded
+     * @param fileName
+     *            file name
+     * @param contentType
+     *            content type
+     * @return file key of the uploaded file
+     * @throws DBException
+     */
+    private String upload(InputStream input, String fileName, String contentType) throws DBException {
+        return upload(new MultipartRequestBody(BOUNDARY, input, fileName, contentType));
+    }
+
+    /**
+     * Sends the multipart body of a file.
+     * 
+     * @param body
+     *            the request body
+     * @return file key of the uploaded file
+     * @throws DBException
+     */
+    private String upload(RequestBody body) throws DBException {
+        String response = execute("POST", "file.json", body,
+                new ResponseReader<String>() {
+            @Override
+            public String read(InputStream is) throws IOException {
+                return streamToString(is);
+            }
+        });
 
         JsonParser parser = new JsonParser();
         String fileKey = null;
@@ -703,7 +1176,8 @@ public class Connection {
     }
 
     /**
-     * An utility method converts a stream object to string.
+     * An utility method converts a stream object to string. The stream is
+     * read to the end but not closed; it is closed with the response.
      * @param is input stream
      * @return string
      * @throws IOException
@@ -712,18 +1186,30 @@ public class Connection {
         StringBuilder sb = new StringBuilder();
         BufferedReader reader = new BufferedReader(new InputStreamReader(is,
                 "UTF-8"));
-        try {
-            char[] b = new char[1024];
-            int line;
-            while (0 <= (line = reader.read(b))) {
-                sb.append(b, 0, line);
-            }
-        } finally {
-            reader.close();
+        char[] b = new char[1024];
+        int line;
+        while (0 <= (line = reader.read(b))) {
+            sb.append(b, 0, line);
         }
         return new String(sb);
     }
 
+    /**
+     * Reads the stream to the end into a byte array.
+     * @param is input stream
+     * @return bytes read
+     * @throws IOException
+     */
+    static byte[] streamToBytes(InputStream is) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while (-1 != (n = is.read(buffer))) {
+            os.write(buffer, 0, n);
+        }
+        return os.toByteArray();
+    }
+
     /**
      * Selects the records from kintone using a query string.
      * 
@@ -804,7 +1290,191 @@ public class Connection {
      */
     private ResultSet select(long app, String query, String[] columns, boolean totalCount)
             throws DBException {
+        RecordCache cache = config.getRecordCache();
+        if (cache != null && columns == null) {
+            return selectCached(cache, app, query, totalCount);
+        }
+        return selectRecords(app, query, columns, totalCount);
+    }
+
+    /**
+     * Selects the records from kintone without the record cache. The
+     * streams and the feeds page through the records with this method, so
+     * that only the records selected by the callers are cached.
+     * 
+     * @param app
+     *            application id
+     * @param query
+     *            query string
+     * @param columns
+     *            column names if needed
+     * @param totalCount
+     *            retrieve total count(true/false)
+     * @return ResultSet object
+     * @throws DBException
+     */
+    ResultSet selectRecords(long app, String query, String[] columns,
+            boolean totalCount) throws DBException {
+        String api = selectApi(app, query, columns, totalCount);
+        return execute("GET", "records.json?" + api, null, new ResponseReader<ResultSet>() {
+            @Override
+            public ResultSet read(InputStream is) throws IOException {
+                JsonParser parser = new JsonParser();
+                return parser.jsonToResultSet(Connection.this, is);
+            }
+        });
+    }
+
+    /**
+     * Selects the records through the record cache. The ids and the
+     * revisions of the records are retrieved first, and only the records
+     * which are not cached or have been modified are retrieved in full.
+     * 
+     * @param cache
+     *            record cache
+     * @param app
+     *            application id
+     * @param query
+     *            query string
+     * @param totalCount
+     *            retrieve total count(true/false)
+     * @return ResultSet object
+     * @throws DBException
+     */
+    private ResultSet selectCached(RecordCache cache, long app, String query,
+            boolean totalCount) throws DBException {
+        ResultSet revisions = selectRecords(app, query, REVISION_COLUMNS, totalCount);
+        List<Record> candidates = revisions.getRecords();
+        Record[] records = new Record[candidates.size()];
+        StringBuilder missing = new StringBuilder();
+        int count = 0;
+        for (int i = 0; i < records.length; i++) {
+            Record candidate = candidates.get(i);
+            records[i] = cache.get(app, candidate.getId(), candidate.getRevision());
+            if (records[i] == null) {
+                if (count++ > 0) {
+                    missing.append(",");
+                }
+                missing.append(candidate.getId());
+            }
+        }
+
+        if (count > 0) {
+            ResultSet fetched = selectRecords(app, "$id in (" + missing
+                    + ") limit " + count, null, false);
+            Map<Long, Record> byId = new HashMap<Long, Record>();
+            for (Record record : fetched.getRecords()) {
+                cache.put(app, record);
+                byId.put(record.getId(), record);
+            }
+            for (int i = 0; i < records.length; i++) {
+                if (records[i] == null) {
+                    // null if deleted after the revisions were retrieved
+                    records[i] = byId.get(candidates.get(i).getId());
+                }
+            }
+        }
+
+        ResultSet rs = new ResultSet(this);
+        if (revisions.getTotalCount() != null) {
+            rs.setTotalCount(revisions.getTotalCount());
+        }
+        for (Record record : records) {
+            if (record != null) {
+                rs.add(record);
+            }
+        }
+        return rs;
+    }
+
+    /**
+     * Removes the records from the record cache.
+     * 
+     * @param app
+     *            application id
+     * @param ids
+     *            record ids
+     */
+    private void invalidateRecords(long app, List<Long> ids) {
+        RecordCache cache = config.getRecordCache();
+        if (cache == null) {
+            return;
+        }
+        for (Long id : ids) {
+            cache.invalidate(app, id);
+        }
+    }
+
+    /**
+     * Removes all the records of the app from the record cache.
+     * 
+     * @param app
+     *            application id
+     */
+    private void invalidateApp(long app) {
+        RecordCache cache = config.getRecordCache();
+        if (cache != null) {
+            cache.invalidateApp(app);
+        }
+    }
+
+    /**
+     * Removes the records from the record cache.
+     * 
+     * @param app
+     *            application id
+     * @param records
+     *            records which have the ids
+     */
+    private void invalidateRecords(long app, Iterable<Record> records) {
+        RecordCache cache = config.getRecordCache();
+        if (cache == null) {
+            return;
+        }
+        for (Record record : records) {
+            cache.invalidate(app, record.getId());
+        }
+    }
+
+    /**
+     * Selects the records into a columnar result set. Numeric values are
+     * decoded into primitive arrays while the response is parsed.
+     * 
+     * @param app
+     *            application id
+     * @param query
+     *            query string
+     * @param columns
+     *            column names if needed
+     * @return ColumnarResultSet object
+     * @throws DBException
+     */
+    public ColumnarResultSet selectColumnar(long app, String query, String[] columns)
+            throws DBException {
+        String api = selectApi(app, query, columns, false);
+        return execute("GET", "records.json?" + api, null, new ResponseReader<ColumnarResultSet>() {
+            @Override
+            public ColumnarResultSet read(InputStream is) throws IOException {
+                JsonParser parser = new JsonParser();
+                return parser.jsonToColumnarResultSet(is);
+            }
+        });
+    }
 
+    /**
+     * Generates the query string of records.json.
+     * 
+     * @param app
+     *            application id
+     * @param query
+     *            query string
+     * @param columns
+     *            column names if needed
+     * @param totalCount
+     *            retrieve total count(true/false)
+     * @return query string
+     */
+    private String selectApi(long app, String query, String[] columns, boolean totalCount) {
         try {
             query = URLEncoder.encode(query, "UTF-8");
         } catch (UnsupportedEncodingException e) {
@@ -829,18 +1499,218 @@ public class Connection {
         	sb.append("&totalCount=true");
         }
         
-        String api = new String(sb);
-        String response = request("GET", "records.json?" + api, null);
+        return new String(sb);
+    }
+
+    /**
+     * Selects all the records matching the condition as a stream. The records
+     * are retrieved page by page in the order of the record id, and the next
+     * page is requested while the current one is being read.
+     * 
+     * @param app
+     *            application id
+     * @param condition
+     *            query condition without "order by", "limit" and "offset"
+     * @return record stream
+     */
+    public RecordStream selectStream(long app, String condition) {
+        return selectStream(app, condition, null, DEFAULT_STREAM_PAGE_SIZE);
+    }
+
+    /**
+     * Selects all the records matching the condition as a stream. The records
+     * are retrieved page by page in the order of the record id, and the next
+     * page is requested while the current one is being read.
+     * 
+     * @param app
+     *            application id
+     * @param condition
+     *            query condition without "order by", "limit" and "offset"
+     * @param columns
+     *            column names if needed
+     * @param pageSize
+     *            the number of records per request
+     * @return record stream
+     */
+    public RecordStream selectStream(long app, String condition,
+            String[] columns, int pageSize) {
+        if (pageSize <= 0 || pageSize > MAX_STREAM_PAGE_SIZE) {
+            throw new IllegalArgumentException("pageSize must be between 1 and "
+                    + MAX_STREAM_PAGE_SIZE);
+        }
+        if (condition != null && hasPagingClause(condition)) {
+            throw new IllegalArgumentException(
+                    "condition must not contain order by, limit or offset");
+        }
+        return new SeekRecordStream(this, app, condition, columns, pageSize);
+    }
+
+    /**
+     * Creates a builder of the feed which reads the records created or
+     * updated since the checkpoint.
+     * 
+     * @param app
+     *            application id
+     * @return change feed builder
+     */
+    public ChangeFeed.Builder changeFeed(long app) {
+        return ChangeFeed.builder(this, app);
+    }
+
+    /**
+     * Checks whether the condition has "order by", "limit" or "offset" clause
+     * outside of the string literals.
+     * 
+     * @param condition
+     *            query condition
+     * @return true if the condition has a paging clause
+     */
+    static boolean hasPagingClause(String condition) {
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < condition.length(); i++) {
+            char c = condition.charAt(i);
+            if (quoted) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                }
+                sb.append(' ');
+            } else if (c == '"') {
+                quoted = true;
+                sb.append(' ');
+            } else {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        String s = " " + sb.toString().replaceAll("[\\s()]+", " ") + " ";
+        return s.contains(" order by ") || s.contains(" limit ")
+                || s.contains(" offset ");
+    }
+
+    /**
+     * Selects the records using a server-side cursor. The records are
+     * retrieved page by page while the stream is iterated, so there is no
+     * limit of the offset. The cursor is deleted when the stream is closed or
+     * garbage collected.
+     * 
+     * @param app
+     *            application id
+     * @param query
+     *            query string
+     * @return record stream
+     * @throws DBException
+     */
+    public RecordStream selectByCursor(long app, String query)
+            throws DBException {
+        return selectByCursor(app, query, null, DEFAULT_STREAM_PAGE_SIZE);
+    }
+
+    /**
+     * Selects the records using a server-side cursor. The records are
+     * retrieved page by page while the stream is iterated, so there is no
+     * limit of the offset. The cursor is deleted when the stream is closed or
+     * garbage collected.
+     * 
+     * @param app
+     *            application id
+     * @param query
+     *            query string
+     * @param columns
+     *            column names if needed
+     * @param size
+     *            the number of records per request
+     * @return record stream
+     * @throws DBException
+     */
+    public RecordStream selectByCursor(long app, String query,
+            String[] columns, int size) throws DBException {
+        String id = createCursor(app, query, columns, size);
+        return new CursorRecordStream(this, id);
+    }
+
+    /**
+     * Creates a cursor.
+     * 
+     * @param app
+     *            application id
+     * @param query
+     *            query string
+     * @param columns
+     *            column names if needed
+     * @param size
+     *            the number of records per request
+     * @return cursor id
+     * @throws DBException
+     */
+    public String createCursor(long app, String query, String[] columns,
+            int size) throws DBException {
+        if (size <= 0 || size > MAX_STREAM_PAGE_SIZE) {
+            throw new IllegalArgumentException("size must be between 1 and "
+                    + MAX_STREAM_PAGE_SIZE);
+        }
         JsonParser parser = new JsonParser();
-        ResultSet rs = null;
-        
+        String json;
         try {
-            rs = parser.jsonToResultSet(this, response);
+            json = parser.generateForCreateCursor(app, query, columns, size);
         } catch (IOException e) {
-            throw new ParseException("failed to parse json to resultset");
+            throw new ParseException("failed to encode to json");
         }
 
-        return rs;
+        String response = request("POST", "records/cursor.json", json);
+
+        try {
+            return parser.jsonToCursorId(response);
+        } catch (IOException e) {
+            throw new ParseException("failed to parse json to cursor id");
+        }
+    }
+
+    /**
+     * Retrieves the next page of the cursor. {@link ResultSet#hasMore()}
+     * returns false at the last page, and the cursor is deleted by the server.
+     * Each request moves the cursor forward, so the request is neither
+     * retried after it was sent nor shared with other threads.
+     * 
+     * @param id
+     *            cursor id
+     * @return ResultSet object
+     * @throws DBException
+     */
+    public ResultSet getCursorRecords(String id) throws DBException {
+        String api;
+        try {
+            api = "records/cursor.json?id=" + URLEncoder.encode(id, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new DBException(e);
+        }
+        return execute("GET", api, null, false, false, new ResponseReader<ResultSet>() {
+            @Override
+            public ResultSet read(InputStream is) throws IOException {
+                JsonParser parser = new JsonParser();
+                return parser.jsonToResultSet(Connection.this, is);
+            }
+        });
+    }
+
+    /**
+     * Deletes a cursor.
+     * 
+     * @param id
+     *            cursor id
+     * @throws DBException
+     */
+    public void deleteCursor(String id) throws DBException {
+        JsonParser parser = new JsonParser();
+        String json;
+        try {
+            json = parser.generateForDeleteCursor(id);
+        } catch (IOException e) {
+            throw new ParseException("failed to encode to json");
+        }
+
+        request("DELETE", "records/cursor.json", json);
     }
 
     /**
@@ -880,9 +1750,31 @@ public class Connection {
         list.add(file);
         field.setValue(list);
     }
+
+    /**
+     * Uploads the files binded with the fields of the records and sets the
+     * file keys. Up to {@link #getBulkParallelism()} files are uploaded at
+     * the same time. Each field gets its own file key, and a stream binded
+     * with several fields is read once.
+     * 
+     * @param records
+     *            the records to be written
+     * @throws DBException
+     */
+    public void lazyUpload(List<Record> records) throws DBException {
+        LazyUploadBatch batch = new LazyUploadBatch();
+        for (Record record : records) {
+            batch.add(record);
+        }
+        if (batch.size() > 0) {
+            batch.upload(this, getBulkExecutor(), config.getBulkParallelism());
+        }
+    }
     
     /**
      * Inserts new records.
+     * More than {@link #MAX_RECORDS_PER_REQUEST} records are sent in chunks
+     * concurrently, and {@link BulkException} is thrown if some chunks fail.
      * 
      * @param app
      *            application id
@@ -891,31 +1783,28 @@ public class Connection {
      * @return The list of inserted id number
      * @throws DBException
      */
-    public List<Long> insert(long app, List<Record> records) throws DBException {
+    public List<Long> insert(final long app, List<Record> records) throws DBException {
 
-        for (Record record: records) {
-            Set<Map.Entry<String,Field>> set = record.getEntrySet();
-            for (Map.Entry<String,Field> entry: set) {
-                Field field = entry.getValue();
-                lazyUpload(field); // force lazy upload
-            }
-        }
+        lazyUpload(records); // force lazy upload
         
-        JsonParser parser = new JsonParser();
-        String json;
-        try {
-            json = parser.recordsToJsonForInsert(app, records);
-        } catch (IOException e) {
-            throw new ParseException("failed to encode to json");
-        }
-
-        String response = request("POST", "records.json", json);
+        return sendInChunks(records, new ChunkCall() {
+            @Override
+            public List<Long> call(List<Record> chunk) throws DBException {
+                final JsonParser parser = new JsonParser();
+                String response = sendJson("POST", "records.json", new JsonRequestBody() {
+                    @Override
+                    void writeJson(JsonWriter writer) throws IOException {
+                        parser.writeJsonForInsert(writer, app, chunk);
+                    }
+                });
 
-        try {
-            return parser.jsonToIDs(response);
-        } catch (IOException e) {
-            throw new ParseException("failed to parse json to id list");
-        }
+                try {
+                    return parser.jsonToIDs(response);
+                } catch (IOException e) {
+                    throw new ParseException("failed to parse json to id list");
+                }
+            }
+        });
     }
 
     /**
@@ -936,7 +1825,8 @@ public class Connection {
     }
 
     /**
-     * Updates a record.
+     * Updates a record. Only the changed fields are sent if the record
+     * tracks the changes (see {@link Record#snapshot()}).
      * 
      * @param app
      *            application id
@@ -946,27 +1836,25 @@ public class Connection {
      * @throws DBException
      */
     public long updateRecord(long app, Record record) throws DBException {
+        invalidateRecords(app, Collections.singletonList(record));
     	
-    	Set<Map.Entry<String,Field>> set = record.getEntrySet();
-        for (Map.Entry<String,Field> entry: set) {
-            Field field = entry.getValue();
-            lazyUpload(field); // force lazy upload
-        }
+        lazyUpload(Collections.singletonList(record)); // force lazy upload
     
-        JsonParser parser = new JsonParser();
-        String json;
-        try {
-            json = parser.recordsToJsonForUpdate(app, record);
-        } catch (IOException e) {
-            throw new ParseException("failed to encode to json");
-        }
-
-        String response = request("PUT", "record.json", json);
+        final JsonParser parser = new JsonParser();
+        String response = sendJson("PUT", "record.json", new JsonRequestBody() {
+            @Override
+            void writeJson(JsonWriter writer) throws IOException {
+                parser.writeJsonForUpdate(writer, app, record);
+            }
+        }, !record.hasRevision());
+        long revision;
         try {
-            return parser.jsonToRevision(response);
+            revision = parser.jsonToRevision(response);
         } catch (IOException e) {
             throw new ParseException("failed to parse json to the revision number");
         }
+        record.updated(revision);
+        return revision;
     }
     
     /**
@@ -982,52 +1870,58 @@ public class Connection {
      */
     public void update(long app, List<Long> ids, Record record)
             throws DBException {
+        invalidateRecords(app, ids);
         
-        Set<Map.Entry<String,Field>> set = record.getEntrySet();
-        for (Map.Entry<String,Field> entry: set) {
-            Field field = entry.getValue();
-            lazyUpload(field); // force lazy upload
-        }
+        lazyUpload(Collections.singletonList(record)); // force lazy upload
     
-        JsonParser parser = new JsonParser();
-        String json;
-        try {
-            json = parser.recordsToJsonForUpdate(app, ids, record);
-        } catch (IOException e) {
-            throw new ParseException("failed to encode to json");
-        }
-
-        request("PUT", "records.json", json);
+        final JsonParser parser = new JsonParser();
+        sendJson("PUT", "records.json", new JsonRequestBody() {
+            @Override
+            void writeJson(JsonWriter writer) throws IOException {
+                parser.writeJsonForUpdate(writer, app, ids, record);
+            }
+        }, !record.hasRevision());
     }
 
     /**
      * Updates records.
+     * More than {@link #MAX_RECORDS_PER_REQUEST} records are sent in chunks
+     * concurrently, and {@link BulkException} is thrown if some chunks fail.
+     * Only the changed fields of the records which track the changes are
+     * sent.
      * 
      * @param app
      *            application id
      * @param records
      *            an array of the updated record object
+     * @return the list of new revision number
      * @throws DBException
      */
-    public void updateRecords(long app, List<Record> records) throws DBException {
-        // upload files
-        for (Record record: records) {
-            Set<Map.Entry<String,Field>> set = record.getEntrySet();
-            for (Map.Entry<String,Field> entry: set) {
-                Field field = entry.getValue();
-                lazyUpload(field); // force lazy upload
-            }
-        }
+    public List<Long> updateRecords(final long app, List<Record> records) throws DBException {
+        invalidateRecords(app, records);
+        lazyUpload(records); // force lazy upload
     
-        JsonParser parser = new JsonParser();
-        String json;
-        try {
-            json = parser.recordsToJsonForUpdate(app, records);
-        } catch (IOException e) {
-            throw new ParseException("failed to encode to json");
-        }
+        return sendInChunks(records, new ChunkCall() {
+            @Override
+            public List<Long> call(List<Record> chunk) throws DBException {
+                final JsonParser parser = new JsonParser();
+                String response = sendJson("PUT", "records.json", new JsonRequestBody() {
+                    @Override
+                    void writeJson(JsonWriter writer) throws IOException {
+                        parser.writeJsonForUpdate(writer, app, chunk);
+                    }
+                }, !hasRevision(chunk));
 
-        request("PUT", "records.json", json);
+                List<Long> revisions;
+                try {
+                    revisions = parser.jsonToRevisions(response);
+                } catch (IOException e) {
+                    throw new ParseException("failed to parse json to revision list");
+                }
+                updated(chunk, revisions);
+                return revisions;
+            }
+        });
     }
     
     /**
@@ -1071,30 +1965,30 @@ public class Connection {
      * @throws DBException
      */
     public long updateRecordByKey(long app, String key, Record record) throws DBException {
-    	Set<Map.Entry<String,Field>> set = record.getEntrySet();
-        for (Map.Entry<String,Field> entry: set) {
-            Field field = entry.getValue();
-            lazyUpload(field); // force lazy upload
-        }
+        invalidateApp(app); // the id of the record is not known
+        lazyUpload(Collections.singletonList(record)); // force lazy upload
     
-        JsonParser parser = new JsonParser();
-        String json;
-        try {
-            json = parser.recordsToJsonForUpdateByKey(app, key, record);
-        } catch (IOException e) {
-            throw new ParseException("failed to encode to json");
-        }
-
-        String response = request("PUT", "record.json", json);
+        final JsonParser parser = new JsonParser();
+        String response = sendJson("PUT", "record.json", new JsonRequestBody() {
+            @Override
+            void writeJson(JsonWriter writer) throws IOException {
+                parser.writeJsonForUpdateByKey(writer, app, key, record);
+            }
+        }, !record.hasRevision());
+        long revision;
         try {
-            return parser.jsonToRevision(response);
+            revision = parser.jsonToRevision(response);
         } catch (IOException e) {
             throw new ParseException("failed to parse json to the revision number");
         }
+        record.updated(revision);
+        return revision;
     }
 
     /**
      * Updates records by specified key.
+     * More than {@link #MAX_RECORDS_PER_REQUEST} records are sent in chunks
+     * concurrently, and {@link BulkException} is thrown if some chunks fail.
      * 
      * @param app
      *            application id
@@ -1102,27 +1996,34 @@ public class Connection {
      *            the key field
      * @param records
      *            an array of the updated record object
+     * @return the list of new revision number
      * @throws DBException
      */
-    public void updateRecordsByKey(long app, String key, List<Record> records) throws DBException {
-    	// upload files
-        for (Record record: records) {
-            Set<Map.Entry<String,Field>> set = record.getEntrySet();
-            for (Map.Entry<String,Field> entry: set) {
-                Field field = entry.getValue();
-                lazyUpload(field); // force lazy upload
-            }
-        }
+    public List<Long> updateRecordsByKey(final long app, final String key, List<Record> records) throws DBException {
+        invalidateApp(app); // the ids of the records are not known
+        lazyUpload(records); // force lazy upload
     
-        JsonParser parser = new JsonParser();
-        String json;
-        try {
-            json = parser.recordsToJsonForUpdateByKey(app, key, records);
-        } catch (IOException e) {
-            throw new ParseException("failed to encode to json");
-        }
+        return sendInChunks(records, new ChunkCall() {
+            @Override
+            public List<Long> call(List<Record> chunk) throws DBException {
+                final JsonParser parser = new JsonParser();
+                String response = sendJson("PUT", "records.json", new JsonRequestBody() {
+                    @Override
+                    void writeJson(JsonWriter writer) throws IOException {
+                        parser.writeJsonForUpdateByKey(writer, app, key, chunk);
+                    }
+                }, !hasRevision(chunk));
 
-        request("PUT", "records.json", json);
+                List<Long> revisions;
+                try {
+                    revisions = parser.jsonToRevisions(response);
+                } catch (IOException e) {
+                    throw new ParseException("failed to parse json to revision list");
+                }
+                updated(chunk, revisions);
+                return revisions;
+            }
+        });
     }
     
 
@@ -1141,6 +2042,7 @@ public class Connection {
      * @throws DBException
      */
     public long updateAssignees(long app, long id, List<String> codes, long revision) throws DBException {
+        invalidateRecords(app, Collections.singletonList(id));
     	JsonParser parser = new JsonParser();
         String json;
         try {
@@ -1149,7 +2051,7 @@ public class Connection {
             throw new ParseException("failed to encode to json");
         }
 
-        String response = request("PUT", "record/assignees.json", json);
+        String response = request("PUT", "record/assignees.json", json, null, false);
 
         try {
             return parser.jsonToRevision(response);
@@ -1179,6 +2081,7 @@ public class Connection {
      * @throws DBException
      */
     public long updateStatus(long app, long id, String action, String assignee, long revision) throws DBException {
+        invalidateRecords(app, Collections.singletonList(id));
     	JsonParser parser = new JsonParser();
         String json;
         try {
@@ -1187,7 +2090,7 @@ public class Connection {
             throw new ParseException("failed to encode to json");
         }
 
-        String response = request("PUT", "record/status.json", json);
+        String response = request("PUT", "record/status.json", json, null, false);
 
         try {
             return parser.jsonToRevision(response);
@@ -1216,6 +2119,7 @@ public class Connection {
      * @throws DBException
      */
     public void updateStatus(long app, List<Long> ids, List<String> actions, List<String> assignees, List<Long> revisions) throws DBException {
+        invalidateRecords(app, ids);
     	JsonParser parser = new JsonParser();
         String json;
         try {
@@ -1224,7 +2128,7 @@ public class Connection {
             throw new ParseException("failed to encode to json");
         }
 
-        request("PUT", "records/status.json", json);
+        request("PUT", "records/status.json", json, null, false);
     }
     
     /**
@@ -1259,6 +2163,8 @@ public class Connection {
     
     /**
      * Deletes records.
+     * More than {@link #MAX_RECORDS_PER_REQUEST} records are sent in chunks
+     * concurrently, and {@link BulkException} is thrown if some chunks fail.
      * 
      * @param app
      *            application id
@@ -1266,21 +2172,28 @@ public class Connection {
      *            a list of the record object to be deleted
      * @throws DBException
      */
-    public void deleteRecords(long app, List<Record> records) throws DBException {
+    public void deleteRecords(final long app, List<Record> records) throws DBException {
+        invalidateRecords(app, records);
         
-        JsonParser parser = new JsonParser();
-        String json;
-        try {
-            json = parser.recordsToJsonForDelete(app, records);
-        } catch (IOException e) {
-            throw new ParseException("failed to encode to json");
-        }
-        
-        request("DELETE", "records.json", json);
+        sendInChunks(records, new ChunkCall() {
+            @Override
+            public List<Long> call(List<Record> chunk) throws DBException {
+                final JsonParser parser = new JsonParser();
+                sendJson("DELETE", "records.json", new JsonRequestBody() {
+                    @Override
+                    void writeJson(JsonWriter writer) throws IOException {
+                        parser.writeJsonForDelete(writer, app, chunk);
+                    }
+                }, !hasRevision(chunk));
+                return Collections.nCopies(chunk.size(), Long.valueOf(0));
+            }
+        });
     }
 
     /**
      * Deletes records.
+     * More than {@link #MAX_RECORDS_PER_REQUEST} records are sent in chunks
+     * concurrently, and {@link BulkException} is thrown if some chunks fail.
      * @param app
      *           application id
      * @param ids
@@ -1307,7 +2220,7 @@ public class Connection {
      * @throws DBException
      */
     public void deleteByQuery(long app, String query) throws DBException {
-        ResultSet rs = select(app, query);
+        ResultSet rs = selectRecords(app, query, null, false);
         List<Record> records = new ArrayList<Record>();
 
         if (rs.size() == 0)
@@ -1394,14 +2307,22 @@ public class Connection {
      * @throws DBException
      */
     public void bulkRequest(BulkRequest bulk) throws DBException {
-        
+        for (Map.Entry<Long, List<Long>> entry : bulk.getChangedIds().entrySet()) {
+            invalidateRecords(entry.getKey(), entry.getValue());
+        }
         String json = bulk.getJson();
         
-        request("POST", "bulkRequest.json", json);
+        String response = request("POST", "bulkRequest.json", json);
+        try {
+            bulk.updated(new JsonParser().jsonToBulkRevisions(response));
+        } catch (IOException e) {
+            throw new ParseException("failed to parse json to revision list");
+        }
     }
     
     /**
-     * Return the app information object
+     * Return the app information object. The app is taken from the app cache
+     * if it is cached.
      * 
      * @param id 
      * 	            app id
@@ -1409,6 +2330,14 @@ public class Connection {
      */
     public AppDto getApp(long id) throws DBException
     {
+        AppCache cache = config.getAppCache();
+        if (cache != null) {
+            AppDto cached = cache.get(id);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
         StringBuilder sb = new StringBuilder();
         sb.append("id=");
         sb.append(id);
@@ -1424,8 +2353,31 @@ public class Connection {
             throw new ParseException("failed to parse json to app");
         }
 
+        if (cache != null && app != null) {
+            cache.put(app);
+        }
         return app;
     }
+
+    /**
+     * Gets the id of the app with the code. The id is taken from the app
+     * cache if it is cached.
+     * 
+     * @param code
+     *            app code
+     * @return app id
+     * @throws DBNotFoundException
+     *             if no app has the code
+     * @throws DBException
+     */
+    public long getAppId(String code) throws DBException {
+        List<AppDto> apps = getApps(null, Collections.singletonList(code), null,
+                null, 1, 0);
+        if (apps == null || apps.isEmpty()) {
+            throw new DBNotFoundException("app not found: " + code);
+        }
+        return apps.get(0).getAppId();
+    }
     
     /**
      * Search apps with name
@@ -1438,7 +2390,9 @@ public class Connection {
     }
     
     /**
-     * Search apps with id, code or name
+     * Search apps with id, code or name. The apps found are added to the app
+     * cache, and a search only with ids or only with codes is answered from
+     * the cache if all of the apps are cached.
      * 
      * @param ids
      * @param codes
@@ -1450,6 +2404,13 @@ public class Connection {
      */
     public List<AppDto> getApps(List<Long> ids, List<String> codes, 
     		String name, List<Long> spaceIds, long limit, long offset) throws DBException {
+        AppCache cache = config.getAppCache();
+        if (cache != null && name == null && spaceIds == null && offset == 0) {
+            List<AppDto> cached = getCachedApps(cache, ids, codes, limit);
+            if (cached != null) {
+                return cached;
+            }
+        }
     	
     	StringBuilder sb = new StringBuilder();
         
@@ -1520,9 +2481,47 @@ public class Connection {
         } catch (IOException e) {
             throw new ParseException("failed to parse json to apps");
         }
-        
+
+        if (cache != null && apps != null) {
+            for (AppDto app : apps) {
+                cache.put(app);
+            }
+        }
     	return apps;
     }
+
+    /**
+     * Gets the apps from the app cache.
+     * 
+     * @param cache
+     *            app cache
+     * @param ids
+     *            app ids, or null
+     * @param codes
+     *            app codes, or null
+     * @param limit
+     *            max number of the apps
+     * @return the list of apps, or null unless all of the apps are cached
+     */
+    private static List<AppDto> getCachedApps(AppCache cache, List<Long> ids,
+            List<String> codes, long limit) {
+        if ((ids == null) == (codes == null)) {
+            return null;
+        }
+        int size = ids != null ? ids.size() : codes.size();
+        if (size == 0 || size > limit) {
+            return null;
+        }
+        List<AppDto> apps = new ArrayList<AppDto>(size);
+        for (int i = 0; i < size; i++) {
+            AppDto app = ids != null ? cache.get(ids.get(i)) : cache.get(codes.get(i));
+            if (app == null) {
+                return null;
+            }
+            apps.add(app);
+        }
+        return apps;
+    }
     
     /**
      * Add comment.
@@ -1631,4 +2630,377 @@ public class Connection {
     public CommentSet getComments(long app, long record, boolean descending) throws DBException {
     	return getComments(app, record, descending, -1, -1);
     }
+
+    /**
+     * Sets the new revisions to the updated records and restarts tracking
+     * their changes.
+     * 
+     * @param records
+     *            the updated records
+     * @param revisions
+     *            the revisions returned in the same order
+     */
+    private static void updated(List<Record> records, List<Long> revisions) {
+        for (int i = 0; i < records.size() && i < revisions.size(); i++) {
+            records.get(i).updated(revisions.get(i));
+        }
+    }
+
+    /**
+     * Returns true if any of the records has the revision. An update with the
+     * revision is not idempotent: if it is sent again after the response is
+     * lost, it fails with a conflict although it has been applied.
+     * 
+     * @param records
+     *            the records to be updated
+     * @return true if the revision of a record is checked
+     */
+    private static boolean hasRevision(List<Record> records) {
+        for (Record record : records) {
+            if (record.hasRevision()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sends the records in chunks of {@link #MAX_RECORDS_PER_REQUEST}. Up to
+     * {@link #getBulkParallelism()} chunks are sent at the same time, and no
+     * more chunk is sent once a chunk fails.
+     * 
+     * @param records
+     *            the records to be sent
+     * @param call
+     *            the request of a chunk
+     * @return the results of the chunks in the original order
+     * @throws DBException
+     *             the error of the request if the records fit in a chunk,
+     *             otherwise BulkException
+     */
+    private List<Long> sendInChunks(final List<Record> records,
+            final ChunkCall call) throws DBException {
+        final int size = records.size();
+        if (size <= MAX_RECORDS_PER_REQUEST) {
+            return call.call(records);
+        }
+
+        final int chunks = (size + MAX_RECORDS_PER_REQUEST - 1)
+                / MAX_RECORDS_PER_REQUEST;
+        final Long[] results = new Long[size];
+        final DBException[] errors = new DBException[chunks];
+        final AtomicInteger nextChunk = new AtomicInteger();
+        final AtomicBoolean failed = new AtomicBoolean();
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int chunk;
+                while (!failed.get()
+                        && (chunk = nextChunk.getAndIncrement()) < chunks) {
+                    int from = chunk * MAX_RECORDS_PER_REQUEST;
+                    int to = Math.min(from + MAX_RECORDS_PER_REQUEST, size);
+                    try {
+                        List<Long> result = call.call(records.subList(from, to));
+                        for (int i = 0; i < result.size() && from + i < to; i++) {
+                            results[from + i] = result.get(i);
+                        }
+                    } catch (DBException e) {
+                        errors[chunk] = e;
+                        failed.set(true);
+                    }
+                }
+            }
+        };
+
+        int workers = Math.min(config.getBulkParallelism(), chunks);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int i = 1; i < workers; i++) {
+            futures.add(getBulkExecutor().submit(worker));
+        }
+        RuntimeException error = null;
+        try {
+            worker.run();
+        } catch (RuntimeException e) {
+            failed.set(true);
+            error = e;
+        }
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (error == null && e.getCause() instanceof RuntimeException) {
+                        error = (RuntimeException) e.getCause();
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (error != null) {
+            throw error;
+        }
+        if (failed.get()) {
+            throw new BulkException(size, MAX_RECORDS_PER_REQUEST,
+                    Arrays.asList(errors), Arrays.asList(results));
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Gets the executor shared by the bulk operations of all connections.
+     * 
+     * @return executor
+     */
+    private static synchronized ExecutorService getBulkExecutor() {
+        if (bulkExecutor == null) {
+            bulkExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger threadNumber = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "kintone-bulk-"
+                            + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return bulkExecutor;
+    }
+
+    /**
+     * A request which sends a chunk of records.
+     *
+     */
+    private interface ChunkCall {
+        /**
+         * @param chunk
+         *            the records to be sent
+         * @return the result of each record
+         */
+        List<Long> call(List<Record> chunk) throws DBException;
+    }
+
+    /**
+     * Reads the response body.
+     *
+     */
+    private interface ResponseReader<T> {
+        T read(InputStream is) throws IOException;
+    }
+
+    /**
+     * A json request body which is written directly to the connection in
+     * UTF-8, without building the json string.
+     *
+     */
+    private abstract class JsonRequestBody implements RequestBody {
+
+        @Override
+        public String getContentType() {
+            return JSON_CONTENT;
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public void writeTo(OutputStream os) throws IOException {
+            Writer out = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
+            JsonWriter writer = new JsonWriter(out);
+            writeJson(writer);
+            writer.flush();
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        /**
+         * Writes the json body.
+         * 
+         * @param writer
+         *            a json writer
+         * @throws IOException
+         */
+        abstract void writeJson(JsonWriter writer) throws IOException;
+    }
+
+    /**
+     * A request body of a string.
+     *
+     */
+    private static class StringRequestBody implements RequestBody {
+        private String contentType;
+        private byte[] bytes;
+
+        StringRequestBody(String contentType, String body) {
+            this.contentType = contentType;
+            try {
+                this.bytes = body == null ? new byte[0] : body.getBytes("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new ParseException(e);
+            }
+        }
+
+        @Override
+        public String getContentType() {
+            return contentType;
+        }
+
+        @Override
+        public long getContentLength() {
+            return bytes.length;
+        }
+
+        @Override
+        public void writeTo(OutputStream os) throws IOException {
+            os.write(bytes);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+    }
+
+    /**
+     * A multipart request body to upload a file.
+     *
+     */
+    private static class MultipartRequestBody implements RequestBody {
+        private String boundary;
+        private InputStream input;
+        private String fileName;
+        private String contentType;
+
+        MultipartRequestBody(String boundary, InputStream input,
+                String fileName, String contentType) {
+            this.boundary = boundary;
+            this.input = input;
+            this.fileName = fileName;
+            this.contentType = contentType;
+        }
+
+        @Override
+        public String getContentType() {
+            return "multipart/form-data; boundary=" + boundary;
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public void writeTo(OutputStream os) throws IOException {
+            os.write(header(boundary, fileName, contentType));
+
+            byte[] buffer = new byte[8192];
+            int n = 0;
+            while (-1 != (n = input.read(buffer))) {
+                os.write(buffer, 0, n);
+            }
+            os.write(footer(boundary));
+        }
+
+        /**
+         * Creates the part header before the file content.
+         */
+        static byte[] header(String boundary, String fileName, String contentType)
+                throws UnsupportedEncodingException {
+            StringBuilder sb = new StringBuilder();
+            sb.append("--" + boundary + "\r\n");
+            sb.append("Content-Disposition: form-data; name=\"file\"; filename=\""
+                    + fileName + "\"\r\n");
+            sb.append("Content-Type: " + contentType + "\r\n\r\n");
+            return sb.toString().getBytes("UTF-8");
+        }
+
+        /**
+         * Creates the closing boundary after the file content.
+         */
+        static byte[] footer(String boundary) throws UnsupportedEncodingException {
+            return ("\r\n--" + boundary + "--\r\n").getBytes("UTF-8");
+        }
+    }
+
+    /**
+     * A multipart request body to upload a file with the length known in
+     * advance, so that the body is sent with Content-Length instead of being
+     * chunked. The file is opened each time the body is written, which makes
+     * the request repeatable.
+     *
+     */
+    private static class FileRequestBody implements RequestBody {
+        private static final int BUFFER_SIZE = 64 * 1024;
+
+        private final String boundary;
+        private final File file;
+        private final byte[] header;
+        private final byte[] footer;
+        private final long fileLength;
+
+        FileRequestBody(String boundary, File file, String contentType)
+                throws DBException {
+            this.boundary = boundary;
+            this.file = file;
+            this.fileLength = file.length();
+            try {
+                this.header = MultipartRequestBody.header(boundary,
+                        file.getName(), contentType);
+                this.footer = MultipartRequestBody.footer(boundary);
+            } catch (UnsupportedEncodingException e) {
+                throw new DBException(e);
+            }
+        }
+
+        @Override
+        public String getContentType() {
+            return "multipart/form-data; boundary=" + boundary;
+        }
+
+        @Override
+        public long getContentLength() {
+            return header.length + fileLength + footer.length;
+        }
+
+        @Override
+        public void writeTo(OutputStream os) throws IOException {
+            os.write(header);
+            InputStream input = new FileInputStream(file);
+            try {
+                byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE,
+                        Math.max(fileLength, 1))];
+                long remaining = fileLength;
+                while (remaining > 0) {
+                    int n = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (n == -1) {
+                        throw new IOException("file was truncated while uploading: "
+                                + file.getName());
+                    }
+                    os.write(buffer, 0, n);
+                    remaining -= n;
+                }
+            } finally {
+                input.close();
+            }
+            os.write(footer);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+    }
 }
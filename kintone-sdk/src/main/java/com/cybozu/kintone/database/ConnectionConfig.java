@@ -0,0 +1,728 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The settings of a {@link Connection}. A config is immutable, so a
+ * connection made from it can be shared by many threads. The basic
+ * authentication is sent with each request instead of the JVM wide
+ * {@link java.net.Authenticator}, so connections with different passwords do
+ * not interfere.
+ *
+ * <pre>
+ * ConnectionConfig config = ConnectionConfig.builder("example.cybozu.com")
+ *         .password("login", "password")
+ *         .basicAuth("user", "pass")
+ *         .build();
+ * Connection db = new Connection(config);
+ * </pre>
+ *
+ */
+public final class ConnectionConfig {
+    private static final String USER_AGENT_VALUE = "kintone-java-SDK";
+    private static String defaultUserAgent;
+
+    private final String domain;
+    private final String baseUrl;
+    private final String auth;
+    private final String apiToken;
+    private final String basicAuth;
+    private final Proxy proxy;
+    private final String userAgent;
+    private final boolean trustAllHosts;
+    private final String clientCert;
+    private final String clientCertPassword;
+    private final long guestSpaceId;
+    private final Map<String, String> headers;
+    private final Transport transport;
+    private final int bulkParallelism;
+    private final MetricsListener metricsListener;
+    private final RetryPolicy retryPolicy;
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final RequestPriority priority;
+    private final long deadline;
+    private final RequestCoalescer requestCoalescer;
+    private final AppCache appCache;
+    private final RecordCache recordCache;
+
+    private ConnectionConfig(Builder builder) {
+        this.domain = builder.domain;
+        this.baseUrl = builder.baseUrl;
+        this.auth = builder.auth;
+        this.apiToken = builder.apiToken;
+        this.basicAuth = builder.basicAuth;
+        this.proxy = builder.proxy;
+        this.userAgent = builder.userAgent;
+        this.trustAllHosts = builder.trustAllHosts;
+        this.clientCert = builder.clientCert;
+        this.clientCertPassword = builder.clientCertPassword;
+        this.guestSpaceId = builder.guestSpaceId;
+        this.headers = Collections.unmodifiableMap(
+                new LinkedHashMap<String, String>(builder.headers));
+        this.transport = builder.transport;
+        this.bulkParallelism = builder.bulkParallelism;
+        this.metricsListener = builder.metricsListener;
+        this.retryPolicy = builder.retryPolicy;
+        this.concurrencyLimiter = builder.concurrencyLimiter;
+        this.priority = builder.priority;
+        this.deadline = builder.deadline;
+        this.requestCoalescer = builder.requestCoalescer;
+        this.appCache = builder.appCache;
+        this.recordCache = builder.recordCache;
+    }
+
+    /**
+     * Creates a builder.
+     *
+     * @param domain
+     *            FQDN. for example "example1.cybozu.com"
+     * @return new builder
+     */
+    public static Builder builder(String domain) {
+        return new Builder(domain);
+    }
+
+    /**
+     * Creates a builder which has the settings of this config.
+     *
+     * @return new builder
+     */
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    /**
+     * Creates a config without the credentials, the proxy, the headers and
+     * the ssl settings.
+     *
+     * @return new config
+     */
+    ConnectionConfig withoutCredentials() {
+        Builder builder = new Builder(this);
+        builder.auth = null;
+        builder.apiToken = null;
+        builder.basicAuth = null;
+        builder.proxy = null;
+        builder.trustAllHosts = false;
+        builder.clientCert = null;
+        builder.clientCertPassword = null;
+        builder.headers.clear();
+        return builder.build();
+    }
+
+    /**
+     * Gets the domain.
+     *
+     * @return FQDN
+     */
+    public String getDomain() {
+        return domain;
+    }
+
+    /**
+     * Gets the base url of the server.
+     *
+     * @return base url, or null if the url is made from the domain
+     */
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * Gets the encoded login name and password.
+     *
+     * @return value of X-Cybozu-Authorization, or null
+     */
+    String getAuth() {
+        return auth;
+    }
+
+    /**
+     * Gets the api token.
+     *
+     * @return api token, or null if the password is used
+     */
+    public String getApiToken() {
+        return apiToken;
+    }
+
+    /**
+     * Gets the value of the Authorization header for the basic
+     * authentication.
+     *
+     * @return header value, or null
+     */
+    String getBasicAuth() {
+        return basicAuth;
+    }
+
+    /**
+     * Gets the proxy.
+     *
+     * @return proxy, or null
+     */
+    public Proxy getProxy() {
+        return proxy;
+    }
+
+    /**
+     * Gets the User-Agent header.
+     *
+     * @return user agent
+     */
+    public String getUserAgent() {
+        return userAgent;
+    }
+
+    /**
+     * Returns if the connection trusts all hosts (for debug).
+     *
+     * @return true if the connection trusts all hosts
+     */
+    public boolean isTrustAllHosts() {
+        return trustAllHosts;
+    }
+
+    /**
+     * Returns if the client certificate is used.
+     *
+     * @return true if the client certificate is used
+     */
+    public boolean isUseClientCert() {
+        return clientCert != null;
+    }
+
+    /**
+     * Gets the path of the client certificate.
+     *
+     * @return PKCS12 file path, or null
+     */
+    public String getClientCert() {
+        return clientCert;
+    }
+
+    /**
+     * Gets the password of the client certificate.
+     *
+     * @return password
+     */
+    String getClientCertPassword() {
+        return clientCertPassword;
+    }
+
+    /**
+     * Gets the guest space id.
+     *
+     * @return guest space id, or -1
+     */
+    public long getGuestSpaceId() {
+        return guestSpaceId;
+    }
+
+    /**
+     * Gets the user defined headers.
+     *
+     * @return unmodifiable map of the headers
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Gets the transport which sends requests.
+     *
+     * @return transport object
+     */
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Gets the max number of chunks sent concurrently by a bulk operation.
+     *
+     * @return max number of concurrent requests
+     */
+    public int getBulkParallelism() {
+        return bulkParallelism;
+    }
+
+    /**
+     * Gets the listener which receives the metrics of the requests.
+     *
+     * @return metrics listener, or null
+     */
+    public MetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    /**
+     * Gets the policy to retry the failed requests.
+     *
+     * @return retry policy
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Gets the limiter of the concurrent requests.
+     *
+     * @return limiter, or null if not limited
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Gets the priority of the requests.
+     *
+     * @return priority
+     */
+    public RequestPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Gets the time limit of each call.
+     *
+     * @return time limit in milliseconds, or 0 if not limited
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Gets the coalescer of the GET requests.
+     *
+     * @return coalescer, or null if the requests are not shared
+     */
+    public RequestCoalescer getRequestCoalescer() {
+        return requestCoalescer;
+    }
+
+    /**
+     * Gets the cache of the app information.
+     *
+     * @return app cache, or null if not cached
+     */
+    public AppCache getAppCache() {
+        return appCache;
+    }
+
+    /**
+     * Gets the cache of the records.
+     *
+     * @return record cache, or null if not cached
+     */
+    public RecordCache getRecordCache() {
+        return recordCache;
+    }
+
+    /**
+     * Gets the User-Agent which has the version of this sdk.
+     *
+     * @return user agent
+     */
+    private static synchronized String getDefaultUserAgent() {
+        if (defaultUserAgent != null) {
+            return defaultUserAgent;
+        }
+        Properties properties = new Properties();
+        InputStream inStream = ConnectionConfig.class.getResourceAsStream("/pom.properties");
+        if (inStream != null) {
+            try {
+                properties.load(inStream);
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                try {
+                    inStream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        defaultUserAgent = USER_AGENT_VALUE + "/" + properties.getProperty("version");
+        return defaultUserAgent;
+    }
+
+    /**
+     * A builder of {@link ConnectionConfig}. A builder is not thread-safe.
+     */
+    public static final class Builder {
+        private String domain;
+        private String baseUrl;
+        private String auth;
+        private String apiToken;
+        private String basicAuth;
+        private Proxy proxy;
+        private String userAgent;
+        private boolean trustAllHosts;
+        private String clientCert;
+        private String clientCertPassword;
+        private long guestSpaceId = -1;
+        private LinkedHashMap<String, String> headers = new LinkedHashMap<String, String>();
+        private Transport transport;
+        private int bulkParallelism = Connection.DEFAULT_BULK_PARALLELISM;
+        private MetricsListener metricsListener;
+        private RetryPolicy retryPolicy = RetryPolicy.NONE;
+        private ConcurrencyLimiter concurrencyLimiter;
+        private RequestPriority priority = RequestPriority.NORMAL;
+        private long deadline;
+        private RequestCoalescer requestCoalescer;
+        private AppCache appCache;
+        private RecordCache recordCache;
+
+        private Builder(String domain) {
+            this.domain = domain;
+            this.userAgent = getDefaultUserAgent();
+        }
+
+        private Builder(ConnectionConfig config) {
+            this.domain = config.domain;
+            this.baseUrl = config.baseUrl;
+            this.auth = config.auth;
+            this.apiToken = config.apiToken;
+            this.basicAuth = config.basicAuth;
+            this.proxy = config.proxy;
+            this.userAgent = config.userAgent;
+            this.trustAllHosts = config.trustAllHosts;
+            this.clientCert = config.clientCert;
+            this.clientCertPassword = config.clientCertPassword;
+            this.guestSpaceId = config.guestSpaceId;
+            this.headers.putAll(config.headers);
+            this.transport = config.transport;
+            this.bulkParallelism = config.bulkParallelism;
+            this.metricsListener = config.metricsListener;
+            this.retryPolicy = config.retryPolicy;
+            this.concurrencyLimiter = config.concurrencyLimiter;
+            this.priority = config.priority;
+            this.deadline = config.deadline;
+            this.requestCoalescer = config.requestCoalescer;
+            this.appCache = config.appCache;
+            this.recordCache = config.recordCache;
+        }
+
+        /**
+         * Authenticates with the login name and the password.
+         *
+         * @param login
+         *            login name
+         * @param password
+         *            password of the login name
+         * @return this builder
+         */
+        public Builder password(String login, String password) {
+            this.auth = encode(login, password);
+            this.apiToken = null;
+            return this;
+        }
+
+        /**
+         * Authenticates with the api token.
+         *
+         * @param apiToken
+         *            api token
+         * @return this builder
+         */
+        public Builder apiToken(String apiToken) {
+            this.apiToken = apiToken;
+            this.auth = null;
+            return this;
+        }
+
+        /**
+         * Sets the basic authentication, which is sent with each request.
+         *
+         * @param username
+         *            user name, or null to remove
+         * @param password
+         *            password
+         * @return this builder
+         */
+        public Builder basicAuth(String username, String password) {
+            if (username == null) {
+                this.basicAuth = null;
+            } else {
+                this.basicAuth = "Basic " + encode(username, password);
+            }
+            return this;
+        }
+
+        /**
+         * Sets the base url of the server instead of the domain, for example
+         * "http://localhost:8080" to send requests to a stub server.
+         *
+         * @param baseUrl
+         *            scheme, host and port, or null to use the domain
+         * @return this builder
+         */
+        public Builder baseUrl(String baseUrl) {
+            if (baseUrl != null && baseUrl.endsWith("/")) {
+                baseUrl = baseUrl.substring(0, baseUrl.length() - 1);
+            }
+            this.baseUrl = baseUrl;
+            return this;
+        }
+
+        /**
+         * Sets the proxy host.
+         *
+         * @param host
+         *            proxy host
+         * @param port
+         *            proxy port
+         * @return this builder
+         */
+        public Builder proxy(String host, int port) {
+            this.proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(host, port));
+            return this;
+        }
+
+        /**
+         * Sets to trust all hosts without verifying (for debug).
+         *
+         * @param trustAllHosts
+         *            true to trust all hosts
+         * @return this builder
+         */
+        public Builder trustAllHosts(boolean trustAllHosts) {
+            this.trustAllHosts = trustAllHosts;
+            return this;
+        }
+
+        /**
+         * Sets the client certificate authentication.
+         *
+         * @param cert
+         *            PKCS12 file path
+         * @param password
+         *            cert password
+         * @return this builder
+         */
+        public Builder clientCert(String cert, String password) {
+            this.clientCert = cert;
+            this.clientCertPassword = password;
+            return this;
+        }
+
+        /**
+         * Sets the guest space id.
+         *
+         * @param guestSpaceId
+         *            guest space id, or -1 for the normal space
+         * @return this builder
+         */
+        public Builder guestSpaceId(long guestSpaceId) {
+            this.guestSpaceId = guestSpaceId;
+            return this;
+        }
+
+        /**
+         * Adds a user customized header. A User-Agent value is appended to
+         * the User-Agent of this sdk.
+         *
+         * @param name
+         *            header name
+         * @param value
+         *            header value
+         * @return this builder
+         */
+        public Builder addHeader(String name, String value) {
+            if (name.equalsIgnoreCase("User-Agent")) {
+                this.userAgent += " " + value;
+            } else {
+                this.headers.put(name, value);
+            }
+            return this;
+        }
+
+        /**
+         * Sets the transport which sends requests.
+         *
+         * @param transport
+         *            transport object, or null to use
+         *            {@link UrlConnectionTransport}
+         * @return this builder
+         */
+        public Builder transport(Transport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * Sets the max number of chunks sent concurrently by a bulk
+         * operation.
+         *
+         * @param bulkParallelism
+         *            max number of concurrent requests (1 means sequential)
+         * @return this builder
+         */
+        public Builder bulkParallelism(int bulkParallelism) {
+            if (bulkParallelism <= 0) {
+                throw new IllegalArgumentException("bulkParallelism must be positive");
+            }
+            this.bulkParallelism = bulkParallelism;
+            return this;
+        }
+
+        /**
+         * Sets the listener which receives the metrics of the requests.
+         *
+         * @param metricsListener
+         *            metrics listener, or null not to measure
+         * @return this builder
+         */
+        public Builder metricsListener(MetricsListener metricsListener) {
+            this.metricsListener = metricsListener;
+            return this;
+        }
+
+        /**
+         * Sets the policy to retry the failed requests. The requests are not
+         * retried by default.
+         *
+         * @param retryPolicy
+         *            retry policy, or {@link RetryPolicy#NONE}
+         * @return this builder
+         */
+        public Builder retryPolicy(RetryPolicy retryPolicy) {
+            if (retryPolicy == null) {
+                throw new IllegalArgumentException("retryPolicy is null");
+            }
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Sets the limiter of the concurrent requests, such as
+         * {@link ConcurrencyLimiter#forDomain(String)}.
+         *
+         * @param concurrencyLimiter
+         *            limiter, or null not to limit
+         * @return this builder
+         */
+        public Builder concurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+            this.concurrencyLimiter = concurrencyLimiter;
+            return this;
+        }
+
+        /**
+         * Sets the priority of the requests in the concurrency limiter.
+         *
+         * @param priority
+         *            priority, {@link RequestPriority#NORMAL} by default
+         * @return this builder
+         */
+        public Builder priority(RequestPriority priority) {
+            if (priority == null) {
+                throw new IllegalArgumentException("priority is null");
+            }
+            this.priority = priority;
+            return this;
+        }
+
+        /**
+         * Sets the time limit of each call, which includes the wait for the
+         * concurrency limiter and the retries. A call fails with
+         * DeadlineExceededException instead of sending a request which
+         * cannot complete in time.
+         *
+         * @param deadline
+         *            time limit in milliseconds, or 0 not to limit
+         * @return this builder
+         */
+        public Builder deadline(long deadline) {
+            if (deadline < 0) {
+                throw new IllegalArgumentException("deadline must not be negative");
+            }
+            this.deadline = deadline;
+            return this;
+        }
+
+        /**
+         * Sets the coalescer which shares a GET request among the threads
+         * sending the same request at the same time. The requests are not
+         * shared by default.
+         *
+         * @param requestCoalescer
+         *            coalescer, or null not to share the requests
+         * @return this builder
+         */
+        public Builder requestCoalescer(RequestCoalescer requestCoalescer) {
+            this.requestCoalescer = requestCoalescer;
+            return this;
+        }
+
+        /**
+         * Sets the cache of the app information, which is used by
+         * {@link Connection#getApp(long)}, {@link Connection#getAppId(String)}
+         * and the searches of the apps by ids or codes.
+         *
+         * @param appCache
+         *            app cache, or null not to cache
+         * @return this builder
+         */
+        public Builder appCache(AppCache appCache) {
+            this.appCache = appCache;
+            return this;
+        }
+
+        /**
+         * Sets the cache of the records, which is used by the selects
+         * without the columns. The records are revalidated by their revisions
+         * on each select.
+         *
+         * @param recordCache
+         *            record cache, or null not to cache
+         * @return this builder
+         */
+        public Builder recordCache(RecordCache recordCache) {
+            this.recordCache = recordCache;
+            return this;
+        }
+
+        /**
+         * Creates the config.
+         *
+         * @return new config
+         */
+        public ConnectionConfig build() {
+            if (domain == null && baseUrl == null) {
+                throw new IllegalStateException("domain or baseUrl is required");
+            }
+            if (transport == null) {
+                transport = new UrlConnectionTransport();
+            }
+            return new ConnectionConfig(this);
+        }
+
+        private static String encode(String user, String password) {
+            return Base64.getEncoder().encodeToString(
+                    (user + ":" + password).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,108 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A metrics listener which keeps the latency histograms, the byte counts and
+ * the status code counts per api and method in memory.
+ *
+ * <pre>
+ * ConnectionMetrics metrics = new ConnectionMetrics();
+ * connection.setMetricsListener(metrics);
+ * ...
+ * EndpointMetrics select = metrics.getEndpoint("GET", "records.json");
+ * long p99 = select.getTotalLatency().getValueAtPercentile(99);
+ * </pre>
+ *
+ */
+public class ConnectionMetrics implements MetricsListener {
+    private final ConcurrentHashMap<String, EndpointMetrics> endpoints = new ConcurrentHashMap<String, EndpointMetrics>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    @Override
+    public void requestStarted(String method, String api) {
+        inFlight.incrementAndGet();
+        endpoint(method, api).started();
+    }
+
+    @Override
+    public void requestCompleted(RequestMetrics metrics) {
+        inFlight.decrementAndGet();
+        endpoint(metrics.getMethod(), metrics.getApi()).completed(metrics);
+    }
+
+    @Override
+    public void requestQueued(String method, String api, long queueNanos) {
+        endpoint(method, api).queued(queueNanos);
+    }
+
+    @Override
+    public void requestRetried(String method, String api, int attempt,
+            Exception cause) {
+        endpoint(method, api).retried();
+    }
+
+    /**
+     * @return the number of the requests being sent
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Gets the metrics of the api.
+     *
+     * @param method
+     *            GET, POST, PUT or DELETE
+     * @param api
+     *            api name such as "records.json"
+     * @return the metrics, or null if no request was sent to the api
+     */
+    public EndpointMetrics getEndpoint(String method, String api) {
+        return endpoints.get(method + " " + api);
+    }
+
+    /**
+     * @return the metrics of all the apis requested
+     */
+    public List<EndpointMetrics> getEndpoints() {
+        return new ArrayList<EndpointMetrics>(endpoints.values());
+    }
+
+    /**
+     * Clears the metrics. The requests being sent are still counted.
+     */
+    public void reset() {
+        endpoints.clear();
+    }
+
+    private EndpointMetrics endpoint(String method, String api) {
+        String key = method + " " + api;
+        EndpointMetrics endpoint = endpoints.get(key);
+        if (endpoint == null) {
+            EndpointMetrics created = new EndpointMetrics(method, api);
+            endpoint = endpoints.putIfAbsent(key, created);
+            if (endpoint == null) {
+                endpoint = created;
+            }
+        }
+        return endpoint;
+    }
+}
@@ -0,0 +1,198 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.cybozu.kintone.database.exception.DBException;
+import com.cybozu.kintone.database.exception.RecordStreamException;
+
+/**
+ * A record stream which drains a server-side cursor. A page is requested
+ * only when the previous one has been consumed. The cursor is deleted when
+ * the stream is closed, or when the stream is garbage collected without being
+ * closed. The server deletes the cursor by itself once all the records are
+ * read.
+ *
+ */
+class CursorRecordStream implements RecordStream {
+    private static final ReferenceQueue<CursorRecordStream> queue = new ReferenceQueue<CursorRecordStream>();
+    private static final Set<CursorReference> references = Collections
+            .newSetFromMap(new ConcurrentHashMap<CursorReference, Boolean>());
+
+    static {
+        Thread reaper = new Thread("kintone-cursor-reaper") {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        Reference<?> ref = queue.remove();
+                        ((CursorReference) ref).release();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        reaper.setDaemon(true);
+        reaper.start();
+    }
+
+    private Cursor cursor;
+    private CursorReference reference;
+    private Iterator<Record> current = Collections.<Record>emptyList().iterator();
+
+    /**
+     * Constructor
+     *
+     * @param connection
+     *            the connection which created the cursor
+     * @param id
+     *            cursor id
+     */
+    CursorRecordStream(Connection connection, String id) {
+        this.cursor = new Cursor(connection, id);
+        this.reference = new CursorReference(this, cursor);
+        references.add(reference);
+    }
+
+    /**
+     * Gets the cursor id.
+     *
+     * @return cursor id
+     */
+    String getCursorId() {
+        return cursor.id;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (!cursor.isOpen()) {
+                return false;
+            }
+            ResultSet rs;
+            try {
+                rs = cursor.connection.getCursorRecords(cursor.id);
+            } catch (DBException e) {
+                close();
+                throw new RecordStreamException(e);
+            }
+            if (!rs.hasMore()) {
+                cursor.drained();
+                release();
+            }
+            current = rs.getRecords().iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public Record next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+        current = Collections.<Record>emptyList().iterator();
+        cursor.delete();
+        release();
+    }
+
+    /**
+     * Unregisters the stream from the reaper.
+     */
+    private void release() {
+        if (references.remove(reference)) {
+            reference.clear();
+        }
+    }
+
+    /**
+     * The state of the server-side cursor. It must not refer to the stream,
+     * otherwise the stream would never be garbage collected.
+     *
+     */
+    private static class Cursor {
+        private final Connection connection;
+        private final String id;
+        private boolean open = true;
+
+        Cursor(Connection connection, String id) {
+            this.connection = connection;
+            this.id = id;
+        }
+
+        synchronized boolean isOpen() {
+            return open;
+        }
+
+        synchronized void drained() {
+            open = false;
+        }
+
+        /**
+         * Deletes the cursor if it is still open. The error is ignored
+         * because the server expires the cursor anyway.
+         */
+        void delete() {
+            synchronized (this) {
+                if (!open) {
+                    return;
+                }
+                open = false;
+            }
+            try {
+                connection.deleteCursor(id);
+            } catch (DBException e) {
+            }
+        }
+    }
+
+    /**
+     * Deletes the cursor when the stream becomes unreachable.
+     *
+     */
+    private static class CursorReference extends
+            PhantomReference<CursorRecordStream> {
+        private final Cursor cursor;
+
+        CursorReference(CursorRecordStream stream, Cursor cursor) {
+            super(stream, queue);
+            this.cursor = cursor;
+        }
+
+        void release() {
+            if (references.remove(this)) {
+                cursor.delete();
+            }
+        }
+    }
+}
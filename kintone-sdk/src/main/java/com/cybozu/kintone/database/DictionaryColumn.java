@@ -0,0 +1,117 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A column of the values chosen from a small set, such as a drop down or a
+ * status. Each distinct value is stored once in the dictionary, and each row
+ * holds the code of its value.
+ *
+ */
+public class DictionaryColumn extends Column {
+    private int[] codes = new int[16];
+    private List<String> dictionary = new ArrayList<String>();
+    private HashMap<String, Integer> index = new HashMap<String, Integer>();
+
+    DictionaryColumn(String name, FieldType fieldType) {
+        super(name, fieldType);
+    }
+
+    @Override
+    public String getString(int row) {
+        checkRow(row);
+        if (isNull(row)) {
+            return null;
+        }
+        return dictionary.get(codes[row]);
+    }
+
+    @Override
+    public Object getValue(int row) {
+        return getString(row);
+    }
+
+    /**
+     * Gets the code of the value of the row.
+     * @param row row index
+     * @return index of the value in the dictionary, or -1 if empty
+     */
+    public int getCode(int row) {
+        checkRow(row);
+        return isNull(row) ? -1 : codes[row];
+    }
+
+    /**
+     * Gets the distinct values in the order of appearance.
+     * @return the dictionary
+     */
+    public List<String> getDictionary() {
+        return Collections.unmodifiableList(dictionary);
+    }
+
+    /**
+     * Counts the rows of each value of the dictionary.
+     * @return the counts indexed by the code
+     */
+    public int[] countByCode() {
+        int[] counts = new int[dictionary.size()];
+        for (int i = 0; i < size; i++) {
+            if (!isNull(i)) {
+                counts[codes[i]]++;
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    boolean append(Object value) {
+        if (!(value instanceof String)) {
+            return false;
+        }
+        Integer code = index.get(value);
+        if (code == null) {
+            code = dictionary.size();
+            dictionary.add((String) value);
+            index.put((String) value, code);
+        }
+        ensureCapacity();
+        codes[size++] = code;
+        return true;
+    }
+
+    @Override
+    void appendDefault() {
+        ensureCapacity();
+        codes[size] = -1;
+    }
+
+    @Override
+    void trim() {
+        codes = Arrays.copyOf(codes, size);
+        index = null;
+    }
+
+    private void ensureCapacity() {
+        if (size == codes.length) {
+            codes = Arrays.copyOf(codes, codes.length * 2);
+        }
+    }
+}
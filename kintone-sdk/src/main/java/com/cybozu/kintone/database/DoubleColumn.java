@@ -0,0 +1,95 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.util.Arrays;
+
+/**
+ * A column of decimal values. Empty values are stored as 0.
+ *
+ */
+public class DoubleColumn extends Column {
+    private double[] values = new double[16];
+
+    DoubleColumn(String name, FieldType fieldType) {
+        super(name, fieldType);
+    }
+
+    @Override
+    public double getDouble(int row) {
+        checkRow(row);
+        checkNotNull(row);
+        return values[row];
+    }
+
+    @Override
+    public Object getValue(int row) {
+        return isNull(row) ? null : Double.valueOf(values[row]);
+    }
+
+    /**
+     * Gets the values. The array must not be modified.
+     * @return the array whose first {@link #size()} elements are the values
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * Sums up the non-empty values.
+     * @return the sum
+     */
+    public double sum() {
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    @Override
+    boolean append(Object value) {
+        double doubleValue;
+        if (value instanceof Number) {
+            doubleValue = ((Number) value).doubleValue();
+        } else {
+            try {
+                doubleValue = Double.parseDouble(value.toString());
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        ensureCapacity();
+        values[size++] = doubleValue;
+        return true;
+    }
+
+    @Override
+    void appendDefault() {
+        ensureCapacity();
+        values[size] = 0;
+    }
+
+    @Override
+    void trim() {
+        values = Arrays.copyOf(values, size);
+    }
+
+    private void ensureCapacity() {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+    }
+}
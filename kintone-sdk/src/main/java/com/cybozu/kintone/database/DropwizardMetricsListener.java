@@ -0,0 +1,103 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * A metrics listener which records the metrics to a Dropwizard Metrics
+ * registry. metrics-core has to be on the class path.
+ *
+ * The names are "&lt;prefix&gt;.&lt;method&gt;.&lt;api&gt;.&lt;metric&gt;":
+ * <ul>
+ * <li>total: timer of the time until the response was closed</li>
+ * <li>response: timer of the time until the response headers arrived</li>
+ * <li>request-bytes, response-bytes: histograms of the body bytes</li>
+ * <li>status.&lt;code&gt;, io-errors: meters of the results</li>
+ * <li>queue: timer of the time waited for the concurrency limiter</li>
+ * <li>retries: meter of the retries</li>
+ * </ul>
+ * and "&lt;prefix&gt;.in-flight" counts the requests being sent.
+ *
+ */
+public class DropwizardMetricsListener implements MetricsListener {
+    private final MetricRegistry registry;
+    private final String prefix;
+    private final Counter inFlight;
+
+    /**
+     * Constructor with the prefix "kintone".
+     *
+     * @param registry
+     *            metric registry
+     */
+    public DropwizardMetricsListener(MetricRegistry registry) {
+        this(registry, "kintone");
+    }
+
+    /**
+     * Constructor
+     *
+     * @param registry
+     *            metric registry
+     * @param prefix
+     *            prefix of the metric names
+     */
+    public DropwizardMetricsListener(MetricRegistry registry, String prefix) {
+        this.registry = registry;
+        this.prefix = prefix;
+        this.inFlight = registry.counter(MetricRegistry.name(prefix, "in-flight"));
+    }
+
+    @Override
+    public void requestStarted(String method, String api) {
+        inFlight.inc();
+    }
+
+    @Override
+    public void requestCompleted(RequestMetrics metrics) {
+        inFlight.dec();
+        String name = MetricRegistry.name(prefix, metrics.getMethod(), metrics.getApi());
+        registry.timer(MetricRegistry.name(name, "total"))
+                .update(metrics.getTotalNanos(), TimeUnit.NANOSECONDS);
+        registry.timer(MetricRegistry.name(name, "response"))
+                .update(metrics.getResponseNanos(), TimeUnit.NANOSECONDS);
+        registry.histogram(MetricRegistry.name(name, "request-bytes"))
+                .update(metrics.getRequestBytes());
+        registry.histogram(MetricRegistry.name(name, "response-bytes"))
+                .update(metrics.getResponseBytes());
+        if (metrics.getStatusCode() < 0) {
+            registry.meter(MetricRegistry.name(name, "io-errors")).mark();
+        } else {
+            registry.meter(MetricRegistry.name(name, "status",
+                    String.valueOf(metrics.getStatusCode()))).mark();
+        }
+    }
+
+    @Override
+    public void requestQueued(String method, String api, long queueNanos) {
+        registry.timer(MetricRegistry.name(prefix, method, api, "queue"))
+                .update(queueNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void requestRetried(String method, String api, int attempt,
+            Exception cause) {
+        registry.meter(MetricRegistry.name(prefix, method, api, "retries")).mark();
+    }
+}
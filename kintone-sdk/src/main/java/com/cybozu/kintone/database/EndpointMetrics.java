@@ -0,0 +1,168 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The metrics of the requests to an api with a method, recorded by
+ * {@link ConnectionMetrics}. The latencies are recorded in microseconds.
+ *
+ */
+public class EndpointMetrics {
+    private final String method;
+    private final String api;
+    private final LatencyHistogram responseLatency = new LatencyHistogram();
+    private final LatencyHistogram totalLatency = new LatencyHistogram();
+    private final LatencyHistogram queueLatency = new LatencyHistogram();
+    private final AtomicLong requestBytes = new AtomicLong();
+    private final AtomicLong responseBytes = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final ConcurrentHashMap<Integer, AtomicLong> statusCounts = new ConcurrentHashMap<Integer, AtomicLong>();
+
+    EndpointMetrics(String method, String api) {
+        this.method = method;
+        this.api = api;
+    }
+
+    /**
+     * @return GET, POST, PUT or DELETE
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return api name such as "records.json"
+     */
+    public String getApi() {
+        return api;
+    }
+
+    /**
+     * @return the number of the completed requests
+     */
+    public long getCount() {
+        return totalLatency.getCount();
+    }
+
+    /**
+     * @return the microseconds until the response headers arrived
+     */
+    public LatencyHistogram getResponseLatency() {
+        return responseLatency;
+    }
+
+    /**
+     * @return the microseconds until the response was closed
+     */
+    public LatencyHistogram getTotalLatency() {
+        return totalLatency;
+    }
+
+    /**
+     * @return the microseconds waited for the concurrency limiter
+     */
+    public LatencyHistogram getQueueLatency() {
+        return queueLatency;
+    }
+
+    /**
+     * @return the total bytes of the request bodies
+     */
+    public long getRequestBytes() {
+        return requestBytes.get();
+    }
+
+    /**
+     * @return the total bytes of the response bodies
+     */
+    public long getResponseBytes() {
+        return responseBytes.get();
+    }
+
+    /**
+     * @return the number of the requests failed without a response
+     */
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    /**
+     * @return the number of the retries
+     */
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    /**
+     * @return the number of the requests being sent
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return the number of the responses by status code
+     */
+    public Map<Integer, Long> getStatusCounts() {
+        TreeMap<Integer, Long> counts = new TreeMap<Integer, Long>();
+        for (Map.Entry<Integer, AtomicLong> entry : statusCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    void started() {
+        inFlight.incrementAndGet();
+    }
+
+    void completed(RequestMetrics metrics) {
+        if (inFlight.decrementAndGet() < 0) {
+            inFlight.incrementAndGet(); // started before reset
+        }
+        responseLatency.record(metrics.getResponseNanos() / 1000);
+        totalLatency.record(metrics.getTotalNanos() / 1000);
+        requestBytes.addAndGet(metrics.getRequestBytes());
+        responseBytes.addAndGet(metrics.getResponseBytes());
+        if (metrics.getStatusCode() < 0) {
+            errors.incrementAndGet();
+        } else {
+            AtomicLong count = statusCounts.get(metrics.getStatusCode());
+            if (count == null) {
+                AtomicLong created = new AtomicLong();
+                count = statusCounts.putIfAbsent(metrics.getStatusCode(), created);
+                if (count == null) {
+                    count = created;
+                }
+            }
+            count.incrementAndGet();
+        }
+    }
+
+    void queued(long queueNanos) {
+        queueLatency.record(queueNanos / 1000);
+    }
+
+    void retried() {
+        retries.incrementAndGet();
+    }
+}
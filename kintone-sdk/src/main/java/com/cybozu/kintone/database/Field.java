@@ -86,7 +86,7 @@ public class Field {
      * @return true if the value is empty
      */
     public boolean isEmpty() {
-        return value == null;
+        return getValue() == null;
     }
 
     /**
@@ -103,6 +103,7 @@ public class Field {
      */
     public String getAsString() {
         if (isEmpty()) return null;
+        Object value = getValue();
         
         if (value instanceof String) {
             return (String) value;
@@ -117,6 +118,7 @@ public class Field {
      */
     public Long getAsLong() {
         if (isEmpty()) return null;
+        Object value = getValue();
         
         if (value instanceof Long) {
             return (Long) value;
@@ -139,6 +141,7 @@ public class Field {
     @SuppressWarnings("unchecked")
     public List<String> getAsStringList() {
         if (isEmpty()) return null;
+        Object value = getValue();
         
         if (value instanceof List) {
             return (List<String>) value;
@@ -152,6 +155,7 @@ public class Field {
      */
     public UserDto getAsUserInfo() {
         if (isEmpty()) return null;
+        Object value = getValue();
         
         if (value instanceof UserDto) {
             return (UserDto) value;
@@ -166,6 +170,7 @@ public class Field {
     @SuppressWarnings("unchecked")
     public List<FileDto> getAsFileList() {
         if (isEmpty()) return null;
+        Object value = getValue();
         
         if (value instanceof List) {
             return (List<FileDto>) value;
@@ -180,6 +185,7 @@ public class Field {
     @SuppressWarnings("unchecked")
     public List<UserDto> getAsUserList() {
         if (isEmpty()) return null;
+        Object value = getValue();
         
         if (value instanceof List) {
             return (List<UserDto>) value;
@@ -194,6 +200,7 @@ public class Field {
     @SuppressWarnings("unchecked")
     public List<Record> getAsSubtable() {
         if (isEmpty()) return null;
+        Object value = getValue();
         
         if (value instanceof List) {
             return (List<Record>) value;
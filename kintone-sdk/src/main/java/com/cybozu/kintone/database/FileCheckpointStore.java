@@ -0,0 +1,71 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Saves the checkpoint of a {@link ChangeFeed} in a file. The file is
+ * replaced atomically, so it has either the old or the new checkpoint even
+ * if the process dies while saving.
+ *
+ */
+public class FileCheckpointStore implements CheckpointStore {
+    private final File file;
+
+    /**
+     * Constructor.
+     *
+     * @param file
+     *            checkpoint file
+     */
+    public FileCheckpointStore(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public ChangeCheckpoint load() throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        String checkpoint = new String(Files.readAllBytes(file.toPath()),
+                StandardCharsets.UTF_8).trim();
+        if (checkpoint.isEmpty()) {
+            return null;
+        }
+        try {
+            return ChangeCheckpoint.parse(checkpoint);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void save(ChangeCheckpoint checkpoint) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        Files.write(temp.toPath(), checkpoint.toString().getBytes(StandardCharsets.UTF_8));
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -23,4 +23,12 @@ public class FileLazyUploader implements LazyUploader {
        return conn.uploadFile(file, contentType);
     }
 
+    File getFile() {
+        return file;
+    }
+
+    String getContentType() {
+        return contentType;
+    }
+
 }
@@ -25,4 +25,16 @@ public class InputStreamLazyUploader implements LazyUploader {
        return conn.uploadFile(contentType, file, fileName);
     }
 
+    InputStream getInputStream() {
+        return file;
+    }
+
+    String getFileName() {
+        return fileName;
+    }
+
+    String getContentType() {
+        return contentType;
+    }
+
 }
@@ -31,7 +31,12 @@ package com.cybozu.kintone.database;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.lang.reflect.Type;
 import java.text.DateFormat;
 import java.text.ParseException;
@@ -49,9 +54,14 @@ import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
 
 /**
  * JsonParser class converts JSON string to Java object and also Java object to
@@ -61,6 +71,18 @@ import com.google.gson.stream.JsonWriter;
  */
 public class JsonParser {
 
+    private static final Gson GSON = new Gson();
+    private static final TypeAdapter<JsonElement> JSON_ELEMENT_ADAPTER = GSON
+            .getAdapter(JsonElement.class);
+    private static final TypeAdapter<List<String>> STRING_LIST_ADAPTER = GSON
+            .getAdapter(new TypeToken<List<String>>() {});
+    private static final TypeAdapter<List<FileDto>> FILE_LIST_ADAPTER = GSON
+            .getAdapter(new TypeToken<List<FileDto>>() {});
+    private static final TypeAdapter<UserDto> USER_ADAPTER = GSON
+            .getAdapter(UserDto.class);
+    private static final TypeAdapter<List<UserDto>> USER_LIST_ADAPTER = GSON
+            .getAdapter(new TypeToken<List<UserDto>>() {});
+
     public JsonParser() {
 
     }
@@ -91,218 +113,444 @@ public class JsonParser {
      */
     public ResultSet jsonToResultSet(Connection con, String json)
             throws IOException {
+        return jsonToResultSet(con, new StringReader(json));
+    }
+
+    /**
+     * Converts the json stream to the resultset object. The records are read
+     * token by token without building the whole json tree. The stream is not
+     * closed.
+     * @param con
+     *            a connection object
+     * @param is
+     *            a json stream encoded in UTF-8
+     * @return resultset object
+     * @throws IOException
+     */
+    public ResultSet jsonToResultSet(Connection con, InputStream is)
+            throws IOException {
+        return jsonToResultSet(con, new InputStreamReader(is, "UTF-8"));
+    }
+
+    /**
+     * Converts the json to the resultset object.
+     * @param con
+     *            a connection object
+     * @param in
+     *            a json reader
+     * @return resultset object
+     * @throws IOException
+     */
+    private ResultSet jsonToResultSet(Connection con, Reader in)
+            throws IOException {
 
         ResultSet rs = new ResultSet(con);
-        com.google.gson.JsonParser parser = new com.google.gson.JsonParser();
-        JsonElement root = parser.parse(json);
-        
-        if (root.isJsonObject()) {
-        	JsonObject rootObject = root.getAsJsonObject();
-            JsonArray records = rootObject.get("records").getAsJsonArray();
-            for (JsonElement elem: records) {
-                Record record = readRecord(elem);
-                if (record != null) {
-                    rs.add(record);
+        JsonReader reader = new JsonReader(in);
+        try {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                return rs;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("records")) {
+                    readRecords(reader, rs);
+                } else if (name.equals("totalCount")
+                        && reader.peek() != JsonToken.NULL) {
+                    rs.setTotalCount(Long.valueOf(reader.nextString()));
+                } else if (name.equals("next")
+                        && reader.peek() == JsonToken.BOOLEAN) {
+                    rs.setMore(reader.nextBoolean());
+                } else {
+                    reader.skipValue();
                 }
             }
-            
-            if (!rootObject.get("totalCount").isJsonNull()) {
-            	rs.setTotalCount(rootObject.get("totalCount").getAsLong());
-            	
+            reader.endObject();
+        } catch (MalformedJsonException e) {
+            throw new com.cybozu.kintone.database.exception.ParseException(
+                    "failed to parse json to resultset", e);
+        } catch (IllegalStateException e) {
+            throw new com.cybozu.kintone.database.exception.ParseException(
+                    "failed to parse json to resultset", e);
+        } catch (NumberFormatException e) {
+            throw new com.cybozu.kintone.database.exception.ParseException(
+                    "failed to parse json to resultset", e);
+        } catch (JsonParseException e) {
+            throw new com.cybozu.kintone.database.exception.ParseException(
+                    "failed to parse json to resultset", e);
+        }
+
+        return rs;
+    }
+
+    /**
+     * Converts the json stream to the columnar resultset object. The values
+     * are decoded into the columns while the records are read. The stream is
+     * not closed.
+     * @param is
+     *            a json stream encoded in UTF-8
+     * @return columnar resultset object
+     * @throws IOException
+     */
+    public ColumnarResultSet jsonToColumnarResultSet(InputStream is)
+            throws IOException {
+
+        ColumnarResultSet rs = new ColumnarResultSet();
+        JsonReader reader = new JsonReader(new InputStreamReader(is, "UTF-8"));
+        try {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                return rs;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("records")) {
+                    readColumnarRecords(reader, rs);
+                } else if (name.equals("totalCount")
+                        && reader.peek() != JsonToken.NULL) {
+                    rs.setTotalCount(Long.valueOf(reader.nextString()));
+                } else {
+                    reader.skipValue();
+                }
             }
+            reader.endObject();
+        } catch (MalformedJsonException e) {
+            throw new com.cybozu.kintone.database.exception.ParseException(
+                    "failed to parse json to resultset", e);
+        } catch (IllegalStateException e) {
+            throw new com.cybozu.kintone.database.exception.ParseException(
+                    "failed to parse json to resultset", e);
+        } catch (NumberFormatException e) {
+            throw new com.cybozu.kintone.database.exception.ParseException(
+                    "failed to parse json to resultset", e);
+        } catch (JsonParseException e) {
+            throw new com.cybozu.kintone.database.exception.ParseException(
+                    "failed to parse json to resultset", e);
         }
-        
-        
+        rs.trim();
+
         return rs;
     }
-    
+
+    /**
+     * Reads the record array into the columns.
+     * @param reader
+     *            a json reader positioned at the record array
+     * @param rs
+     *            the columnar resultset object
+     * @throws IOException
+     */
+    private void readColumnarRecords(JsonReader reader, final ColumnarResultSet rs)
+            throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return;
+        }
+        RecordLayout layout = new RecordLayout();
+        FieldConsumer consumer = new FieldConsumer() {
+            @Override
+            public void accept(String name, FieldType type, Object value) {
+                rs.put(name, type, value);
+            }
+        };
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String fieldName = reader.nextName();
+                readField(reader, fieldName, layout, consumer);
+            }
+            reader.endObject();
+            rs.endRow();
+        }
+        reader.endArray();
+    }
+
+    /**
+     * Reads the record array and adds the records to the resultset.
+     * @param reader
+     *            a json reader positioned at the record array
+     * @param rs
+     *            the resultset object
+     * @throws IOException
+     */
+    private void readRecords(JsonReader reader, ResultSet rs) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return;
+        }
+        RecordLayout layout = new RecordLayout();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            Record record = readRecord(reader, layout);
+            record.snapshot();
+            rs.add(record);
+        }
+        reader.endArray();
+    }
+
     /**
      * Reads and parses each record element.
-     * @param elem
-     *            a json element represents a record object
+     * @param reader
+     *            a json reader positioned at a record object
+     * @param layout
+     *            the layout shared by the records
      * @return the record object created
      * @throws IOException
      */
-    private Record readRecord(JsonElement elem) throws IOException {
-
-        Record record = new Record();
+    private Record readRecord(JsonReader reader, RecordLayout layout) throws IOException {
 
-        if (elem.isJsonObject()) {
-            JsonObject obj = elem.getAsJsonObject();
-            Set<Map.Entry<String,JsonElement>> set = obj.entrySet();
-            for (Map.Entry<String,JsonElement> entry: set) {
-                Field field = readField(entry.getKey(), entry.getValue());
-                if (field != null) {
-                    record.addField(field.getName(), field);
-                }
+        final Record record = new Record(layout);
+        FieldConsumer consumer = new FieldConsumer() {
+            @Override
+            public void accept(String name, FieldType type, Object value) {
+                record.putValue(name, type, value);
             }
+        };
+
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return record;
         }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String fieldName = reader.nextName();
+            readField(reader, fieldName, layout, consumer);
+        }
+        reader.endObject();
 
         return record;
     }
 
     /**
      * Reads and parses each field element.
+     * @param reader
+     *            a json reader positioned at a field object
      * @param fieldName
      *            the field name
-     * @param elem
-     *            a json element represents a record object
-     * @return the field object created
+     * @param layout
+     *            the layout of the record
+     * @param consumer
+     *            the consumer which receives the field value, unless the
+     *            field is unknown
      * @throws IOException
      */
-    private Field readField(String fieldName, JsonElement fieldElem) throws IOException {
-
-        Field field = null;
+    private void readField(JsonReader reader, String fieldName,
+            RecordLayout layout, FieldConsumer consumer) throws IOException {
 
-        
-        if (!fieldElem.isJsonObject()) return null;
-        JsonObject obj = fieldElem.getAsJsonObject();
-        
-        FieldType type = FieldType.getEnum(obj.get("type").getAsString());
-        JsonElement element = obj.get("value");
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return;
+        }
 
+        String typeName = null;
+        FieldType type = null;
+        boolean hasValue = false;
         Object object = null;
-        String strVal = null;
-        if (type == null || element == null)
-            return null;
-
-        if (!element.isJsonNull()) {
-            switch (type) {
-            case SINGLE_LINE_TEXT:
-            case CALC:
-            case MULTI_LINE_TEXT:
-            case RICH_TEXT:
-            case RADIO_BUTTON:
-            case DROP_DOWN:
-            case LINK:
-            case STATUS:
-            case RECORD_NUMBER:
-            case NUMBER:
-                object = element.getAsString();
-                break;
-            case __ID__:
-            case __REVISION__:
-                strVal = element.getAsString();
-                try {
-                    object = Long.valueOf(strVal);
-                } catch (NumberFormatException e) {
-                }
-                break;
-            case DATE:
-            case TIME:
-            case DATETIME:
-            case CREATED_TIME:
-            case UPDATED_TIME:
-                object = element.getAsString();
-                break;
-            case CHECK_BOX:
-            case MULTI_SELECT:
-            case CATEGORY:
-                object = jsonToStringArray(element);
-                break;
-            case FILE:
-                object = jsonToFileArray(element);
-                break;
-            case CREATOR:
-            case MODIFIER:
-                if (element.isJsonObject()) {
-                    Gson gson = new Gson();
-                    object = gson.fromJson(element, UserDto.class);
+        JsonElement pending = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("type")) {
+                typeName = reader.nextString();
+                type = FieldType.getEnum(typeName);
+            } else if (name.equals("value")) {
+                hasValue = true;
+                if (typeName == null) {
+                    // the type comes after the value
+                    pending = JSON_ELEMENT_ADAPTER.read(reader);
+                } else if (type == null) {
+                    reader.skipValue();
+                } else {
+                    object = readFieldValue(reader, type,
+                            subtableLayout(layout, fieldName, type));
                 }
-                break;
-            case USER_SELECT:
-            case ORGANIZATION_SELECT:
-            case GROUP_SELECT:
-            case STATUS_ASSIGNEE:
-                object = jsonToUserArray(element);
-                break;
-            case SUBTABLE:
-                object = jsonToSubtable(element);
-                break;
+            } else {
+                reader.skipValue();
             }
         }
-        field = new Field(fieldName, type, object);
+        reader.endObject();
+
+        if (type == null || !hasValue)
+            return;
+
+        if (pending != null) {
+            JsonReader pendingReader = new JsonReader(new StringReader(pending.toString()));
+            pendingReader.setLenient(true);
+            object = readFieldValue(pendingReader, type,
+                    subtableLayout(layout, fieldName, type));
+        }
 
-        return field;
+        consumer.accept(fieldName, type, object);
     }
 
     /**
-     * Converts json element to the sub table object.
-     * @param element json element
-     * @return sub table object
-     * @throws IOException
+     * Gets the layout of the rows of a sub table field.
+     * @param layout
+     *            the layout of the record
+     * @param fieldName
+     *            the field name
+     * @param type
+     *            the field type
+     * @return the layout of the rows, or null if the field is not a sub table
      */
-    private List<Record> jsonToSubtable(JsonElement element) throws IOException {
-        List<Record> rs = new ArrayList<Record>();
-        
-        if (!element.isJsonArray()) return null;
-        
-        JsonArray records = element.getAsJsonArray();
-        for (JsonElement elem: records) {
-            if (elem.isJsonObject()) {
-                JsonObject obj = elem.getAsJsonObject();
-                String id = obj.get("id").getAsString();
-                JsonElement value = obj.get("value");
-                Record record = readRecord(value);
-                if (record != null) {
-                    try {
-                        record.setId(Long.valueOf(id));
-                    } catch (NumberFormatException e) {
-                    }
-                    rs.add(record);
-                }
-            }
+    private RecordLayout subtableLayout(RecordLayout layout, String fieldName,
+            FieldType type) {
+        if (type != FieldType.SUBTABLE) {
+            return null;
         }
-        
-        return rs;
+        int slot = layout.add(fieldName, type);
+        if (layout.getType(slot) != type) {
+            return new RecordLayout();
+        }
+        return layout.getSubtableLayout(slot);
     }
-    
+
     /**
-     * Converts json element to the string array object.
-     * @param element json element
-     * @return string array object
+     * Reads the field value according to the field type.
+     * @param reader
+     *            a json reader positioned at the value
+     * @param type
+     *            the field type
+     * @param rowLayout
+     *            the layout of the rows if the field is a sub table
+     * @return the field value
      * @throws IOException
      */
-    private List<String> jsonToStringArray(JsonElement element) {
-        if (!element.isJsonArray())
+    private Object readFieldValue(JsonReader reader, FieldType type,
+            RecordLayout rowLayout) throws IOException {
+
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
             return null;
-        Type collectionType = new TypeToken<Collection<String>>() {
-        }.getType();
-        Gson gson = new Gson();
+        }
 
-        return gson.fromJson(element, collectionType);
+        switch (type) {
+        case SINGLE_LINE_TEXT:
+        case CALC:
+        case MULTI_LINE_TEXT:
+        case RICH_TEXT:
+        case RADIO_BUTTON:
+        case DROP_DOWN:
+        case LINK:
+        case STATUS:
+        case RECORD_NUMBER:
+        case NUMBER:
+        case DATE:
+        case TIME:
+        case DATETIME:
+        case CREATED_TIME:
+        case UPDATED_TIME:
+            return readString(reader);
+        case __ID__:
+        case __REVISION__:
+            String strVal = readString(reader);
+            try {
+                return Long.valueOf(strVal);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        case CHECK_BOX:
+        case MULTI_SELECT:
+        case CATEGORY:
+            if (reader.peek() != JsonToken.BEGIN_ARRAY)
+                break;
+            return STRING_LIST_ADAPTER.read(reader);
+        case FILE:
+            if (reader.peek() != JsonToken.BEGIN_ARRAY)
+                break;
+            return FILE_LIST_ADAPTER.read(reader);
+        case CREATOR:
+        case MODIFIER:
+            if (reader.peek() != JsonToken.BEGIN_OBJECT)
+                break;
+            return USER_ADAPTER.read(reader);
+        case USER_SELECT:
+        case ORGANIZATION_SELECT:
+        case GROUP_SELECT:
+        case STATUS_ASSIGNEE:
+            if (reader.peek() != JsonToken.BEGIN_ARRAY)
+                break;
+            return USER_LIST_ADAPTER.read(reader);
+        case SUBTABLE:
+            if (reader.peek() != JsonToken.BEGIN_ARRAY)
+                break;
+            return readSubtable(reader, rowLayout);
+        default:
+            break;
+        }
+        reader.skipValue();
+        return null;
     }
 
     /**
-     * Converts json element to the user array object.
-     * @param element json element
-     * @return user array object
+     * Reads a primitive value as string.
+     * @param reader
+     *            a json reader
+     * @return string value
      * @throws IOException
      */
-    private List<UserDto> jsonToUserArray(JsonElement element) {
-        if (!element.isJsonArray())
-            return null;
-        Type collectionType = new TypeToken<Collection<UserDto>>() {
-        }.getType();
-        Gson gson = new Gson();
-
-        return gson.fromJson(element, collectionType);
+    private String readString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.BOOLEAN) {
+            return String.valueOf(reader.nextBoolean());
+        }
+        return reader.nextString();
     }
 
     /**
-     * Converts json element to the file array object.
-     * @param element json element
-     * @return file array object
+     * Reads the sub table rows.
+     * @param reader
+     *            a json reader positioned at the row array
+     * @param layout
+     *            the layout shared by the rows
+     * @return sub table object
      * @throws IOException
      */
-    private List<FileDto> jsonToFileArray(JsonElement element) {
-        if (!element.isJsonArray())
-            return null;
-        Type collectionType = new TypeToken<Collection<FileDto>>() {
-        }.getType();
-        Gson gson = new Gson();
+    private List<Record> readSubtable(JsonReader reader, RecordLayout layout) throws IOException {
+        List<Record> rs = new Record.SubtableRows();
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            String id = null;
+            Record record = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("id") && reader.peek() != JsonToken.NULL) {
+                    id = readString(reader);
+                } else if (name.equals("value")) {
+                    record = readRecord(reader, layout);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (record == null) {
+                record = new Record(layout);
+            }
+            if (id != null) {
+                try {
+                    record.setId(Long.valueOf(id));
+                } catch (NumberFormatException e) {
+                }
+            }
+            rs.add(record);
+        }
+        reader.endArray();
 
-        return gson.fromJson(element, collectionType);
+        return rs;
     }
 
     /**
@@ -443,30 +691,72 @@ public class JsonParser {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         JsonWriter writer = new JsonWriter(new OutputStreamWriter(baos));
 
+        writeJsonForInsert(writer, app, records);
+
+        writer.close();
+        return new String(baos.toByteArray());
+    }
+
+    /**
+     * Writes the json for insert method.
+     * @param writer
+     *            a json writer
+     * @param app
+     *            the application id
+     * @param records
+     *            the array of the record object
+     * @throws IOException
+     */
+    void writeJsonForInsert(JsonWriter writer, long app, List<Record> records)
+            throws IOException {
         writer.beginObject();
         writer.name("app").value(app);
         writer.name("records");
 
         writer.beginArray();
         for (Record record : records) {
-            writer.beginObject();
-            Set<Map.Entry<String,Field>> set = record.getEntrySet();
-            for (Map.Entry<String,Field> entry: set) {
-                Field field = entry.getValue();
-                try {
-                    writeField(writer, field);
-                } catch (TypeMismatchException e) {
-                    e.printStackTrace();
-                }
-            }
-            writer.endObject();
+            writeRecordForInsert(writer, record);
         }
         writer.endArray();
 
         writer.endObject();
+    }
 
+    /**
+     * Generates the json string of a record element for insert.
+     * @param record
+     *            a record to be inserted
+     * @return json string
+     * @throws IOException
+     */
+    String recordToJsonForInsert(Record record) throws IOException {
+        StringWriter out = new StringWriter();
+        JsonWriter writer = new JsonWriter(out);
+        writeRecordForInsert(writer, record);
         writer.close();
-        return new String(baos.toByteArray());
+        return out.toString();
+    }
+
+    /**
+     * Writes a record element for insert.
+     * @param writer
+     *            a json writer
+     * @param record
+     *            a record to be inserted
+     * @throws IOException
+     */
+    private void writeRecordForInsert(JsonWriter writer, Record record) throws IOException {
+        writer.beginObject();
+        Set<Map.Entry<String,Field>> set = record.getEntrySet();
+        for (Map.Entry<String,Field> entry: set) {
+            Field field = entry.getValue();
+            try {
+                writeField(writer, field);
+            } catch (TypeMismatchException e) {
+                e.printStackTrace();
+            }
+        }
+        writer.endObject();
     }
 
     /**
@@ -504,6 +794,65 @@ public class JsonParser {
         return ids;
     }
 
+    /**
+     * Retrieves the revisions of the updated records from the json string
+     * of a bulk request.
+     * @param json
+     *            a json string
+     * @return the list of the revision numbers of each request, which is
+     *         empty if the request does not return the revisions
+     * @throws IOException
+     */
+    public List<List<Long>> jsonToBulkRevisions(String json) throws IOException {
+        com.google.gson.JsonParser parser = new com.google.gson.JsonParser();
+        JsonElement root = parser.parse(json);
+
+        List<List<Long>> revisions = new ArrayList<List<Long>>();
+        if (root.isJsonObject()) {
+            JsonElement results = root.getAsJsonObject().get("results");
+            if (results != null && results.isJsonArray()) {
+                for (JsonElement result : results.getAsJsonArray()) {
+                    revisions.add(readRevisions(result));
+                }
+            }
+        }
+
+        return revisions;
+    }
+
+    /**
+     * Retrieves the revisions of the updated records from json string.
+     * @param json
+     *            a json string
+     * @return the list of the revision number
+     * @throws IOException
+     */
+    public List<Long> jsonToRevisions(String json) throws IOException {
+        com.google.gson.JsonParser parser = new com.google.gson.JsonParser();
+        return readRevisions(parser.parse(json));
+    }
+
+    /**
+     * Reads the revisions of the updated records.
+     * @param root
+     *            the response object
+     * @return the list of the revision number
+     */
+    private List<Long> readRevisions(JsonElement root) {
+        List<Long> revisions = new ArrayList<Long>();
+        if (root.isJsonObject()) {
+            JsonElement records = root.getAsJsonObject().get("records");
+            if (records != null && records.isJsonArray()) {
+                for (JsonElement elem: records.getAsJsonArray()) {
+                    revisions.add(Long.valueOf(elem.getAsJsonObject()
+                            .get("revision").getAsString()));
+                }
+            }
+        }
+        
+        return revisions;
+    }
+    
     /**
      * Generates the json string for update method.
      * @param app
@@ -521,6 +870,26 @@ public class JsonParser {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         JsonWriter writer = new JsonWriter(new OutputStreamWriter(baos));
 
+        writeJsonForUpdate(writer, app, ids, record);
+
+        writer.close();
+        return new String(baos.toByteArray());
+    }
+
+    /**
+     * Writes the json for update method.
+     * @param writer
+     *            a json writer
+     * @param app
+     *            the application id
+     * @param ids
+     *            the array of the record id to be updated
+     * @param record
+     *            the values of updated records
+     * @throws IOException
+     */
+    void writeJsonForUpdate(JsonWriter writer, long app, List<Long> ids, Record record)
+            throws IOException {
         writer.beginObject();
         writer.name("app").value(app);
         writer.name("records");
@@ -534,7 +903,7 @@ public class JsonParser {
             }
             writer.name("record");
             writer.beginObject();
-            for (String fieldName : record.getFieldNames()) {
+            for (String fieldName : record.getChangedFields()) {
                 Field field = record.getField(fieldName);
                 try {
                     writeField(writer, field);
@@ -548,9 +917,6 @@ public class JsonParser {
         writer.endArray();
 
         writer.endObject();
-
-        writer.close();
-        return new String(baos.toByteArray());
     }
     
     /**
@@ -568,6 +934,24 @@ public class JsonParser {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         JsonWriter writer = new JsonWriter(new OutputStreamWriter(baos));
 
+        writeJsonForUpdate(writer, app, record);
+
+        writer.close();
+        return new String(baos.toByteArray());
+    }
+
+    /**
+     * Writes the json for update method.
+     * @param writer
+     *            a json writer
+     * @param app
+     *            application id
+     * @param record
+     *            updated record
+     * @throws IOException
+     */
+    void writeJsonForUpdate(JsonWriter writer, long app, Record record)
+            throws IOException {
         writer.beginObject();
         writer.name("app").value(app);
         writer.name("id").value(record.getId());
@@ -576,7 +960,7 @@ public class JsonParser {
         }
         writer.name("record");
         writer.beginObject();
-        for (String fieldName : record.getFieldNames()) {
+        for (String fieldName : record.getChangedFields()) {
             Field field = record.getField(fieldName);
             try {
                 writeField(writer, field);
@@ -587,9 +971,6 @@ public class JsonParser {
         writer.endObject();
         
         writer.endObject();
-
-        writer.close();
-        return new String(baos.toByteArray());
     }
     
     /**
@@ -607,36 +988,78 @@ public class JsonParser {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         JsonWriter writer = new JsonWriter(new OutputStreamWriter(baos));
 
+        writeJsonForUpdate(writer, app, records);
+
+        writer.close();
+        return new String(baos.toByteArray());
+    }
+
+    /**
+     * Writes the json for update method.
+     * @param writer
+     *            a json writer
+     * @param app
+     *            the application id
+     * @param records
+     *            an array of the updated records
+     * @throws IOException
+     */
+    void writeJsonForUpdate(JsonWriter writer, long app, List<Record> records)
+            throws IOException {
         writer.beginObject();
         writer.name("app").value(app);
         writer.name("records");
 
         writer.beginArray();
         for (Record record : records) {
-            writer.beginObject();
-            writer.name("id").value(record.getId());
-            if (record.hasRevision()) {
-                writer.name("revision").value(record.getRevision());
-            }
-            writer.name("record");
-            writer.beginObject();
-            for (String fieldName : record.getFieldNames()) {
-                Field field = record.getField(fieldName);
-                try {
-                    writeField(writer, field);
-                } catch (TypeMismatchException e) {
-                    e.printStackTrace();
-                }
-            }
-            writer.endObject();
-            writer.endObject();
+            writeRecordForUpdate(writer, record);
         }
         writer.endArray();
 
         writer.endObject();
+    }
 
+    /**
+     * Generates the json string of a record element for update.
+     * @param record
+     *            an updated record
+     * @return json string
+     * @throws IOException
+     */
+    String recordToJsonForUpdate(Record record) throws IOException {
+        StringWriter out = new StringWriter();
+        JsonWriter writer = new JsonWriter(out);
+        writeRecordForUpdate(writer, record);
         writer.close();
-        return new String(baos.toByteArray());
+        return out.toString();
+    }
+
+    /**
+     * Writes a record element for update.
+     * @param writer
+     *            a json writer
+     * @param record
+     *            an updated record
+     * @throws IOException
+     */
+    private void writeRecordForUpdate(JsonWriter writer, Record record) throws IOException {
+        writer.beginObject();
+        writer.name("id").value(record.getId());
+        if (record.hasRevision()) {
+            writer.name("revision").value(record.getRevision());
+        }
+        writer.name("record");
+        writer.beginObject();
+        for (String fieldName : record.getChangedFields()) {
+            Field field = record.getField(fieldName);
+            try {
+                writeField(writer, field);
+            } catch (TypeMismatchException e) {
+                e.printStackTrace();
+            }
+        }
+        writer.endObject();
+        writer.endObject();
     }
     
     /**
@@ -656,6 +1079,26 @@ public class JsonParser {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         JsonWriter writer = new JsonWriter(new OutputStreamWriter(baos));
 
+        writeJsonForUpdateByKey(writer, app, key, record);
+
+        writer.close();
+        return new String(baos.toByteArray());
+    }
+
+    /**
+     * Writes the json for update method.
+     * @param writer
+     *            a json writer
+     * @param app
+     *            application id
+     * @param key
+     *            key field name
+     * @param record
+     *            updated record
+     * @throws IOException
+     */
+    void writeJsonForUpdateByKey(JsonWriter writer, long app, String key, Record record)
+            throws IOException {
         writer.beginObject();
         writer.name("app").value(app);
         if (record.hasRevision()) {
@@ -669,8 +1112,8 @@ public class JsonParser {
         
         writer.name("record");
         writer.beginObject();
-        for (String fieldName : record.getFieldNames()) {
-        	if (fieldName == key) continue;
+        for (String fieldName : record.getChangedFields()) {
+        	if (fieldName.equals(key)) continue;
         	
             Field field = record.getField(fieldName);
             try {
@@ -682,9 +1125,6 @@ public class JsonParser {
         writer.endObject();
         
         writer.endObject();
-
-        writer.close();
-        return new String(baos.toByteArray());
     }
     
     /**
@@ -704,6 +1144,26 @@ public class JsonParser {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         JsonWriter writer = new JsonWriter(new OutputStreamWriter(baos));
 
+        writeJsonForUpdateByKey(writer, app, key, records);
+
+        writer.close();
+        return new String(baos.toByteArray());
+    }
+
+    /**
+     * Writes the json for update method.
+     * @param writer
+     *            a json writer
+     * @param app
+     *            application id
+     * @param key
+     *            key field name
+     * @param records
+     *            an array of the updated records
+     * @throws IOException
+     */
+    void writeJsonForUpdateByKey(JsonWriter writer, long app, String key, List<Record> records)
+            throws IOException {
         writer.beginObject();
         writer.name("app").value(app);
         writer.name("records");
@@ -722,8 +1182,8 @@ public class JsonParser {
             
             writer.name("record");
             writer.beginObject();
-            for (String fieldName : record.getFieldNames()) {
-            	if (fieldName == key) continue;
+            for (String fieldName : record.getChangedFields()) {
+            	if (fieldName.equals(key)) continue;
             	
                 Field field = record.getField(fieldName);
                 try {
@@ -738,9 +1198,6 @@ public class JsonParser {
         writer.endArray();
 
         writer.endObject();
-
-        writer.close();
-        return new String(baos.toByteArray());
     }
     
     /**
@@ -758,6 +1215,24 @@ public class JsonParser {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         JsonWriter writer = new JsonWriter(new OutputStreamWriter(baos));
 
+        writeJsonForDelete(writer, app, records);
+
+        writer.close();
+        return new String(baos.toByteArray());
+    }
+
+    /**
+     * Writes the json for delete method.
+     * @param writer
+     *            a json writer
+     * @param app
+     *            the application id
+     * @param records
+     *            an array of the records to be deleted
+     * @throws IOException
+     */
+    void writeJsonForDelete(JsonWriter writer, long app, List<Record> records)
+            throws IOException {
         writer.beginObject();
         writer.name("app").value(app);
         
@@ -776,9 +1251,6 @@ public class JsonParser {
         writer.endArray();
 
         writer.endObject();
-
-        writer.close();
-        return new String(baos.toByteArray());
     }
     
     /**
@@ -1074,6 +1546,85 @@ public class JsonParser {
         return new String(baos.toByteArray());
     }
     
+    /**
+     * Generates the json string to create a cursor.
+     * @param app
+     *            application id
+     * @param query
+     *            query string
+     * @param columns
+     *            column names if needed
+     * @param size
+     *            the number of records per request
+     * @return
+     *        json string
+     * @throws IOException
+     */
+    public String generateForCreateCursor(long app, String query, String[] columns, int size)
+    throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(baos, "UTF-8"));
+
+        writer.beginObject();
+        writer.name("app").value(app);
+        if (columns != null) {
+            writer.name("fields");
+            writer.beginArray();
+            for (String column : columns) {
+                writer.value(column);
+            }
+            writer.endArray();
+        }
+        if (query != null) {
+            writer.name("query").value(query);
+        }
+        writer.name("size").value(size);
+        writer.endObject();
+
+        writer.close();
+        return new String(baos.toByteArray(), "UTF-8");
+    }
+
+    /**
+     * Generates the json string to delete a cursor.
+     * @param id
+     *            cursor id
+     * @return
+     *        json string
+     * @throws IOException
+     */
+    public String generateForDeleteCursor(String id)
+    throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(baos, "UTF-8"));
+
+        writer.beginObject();
+        writer.name("id").value(id);
+        writer.endObject();
+
+        writer.close();
+        return new String(baos.toByteArray(), "UTF-8");
+    }
+
+    /**
+     * Retrieves the cursor id from json string.
+     * @param json
+     *            a json string
+     * @return the cursor id
+     * @throws IOException
+     */
+    public String jsonToCursorId(String json) throws IOException {
+        com.google.gson.JsonParser parser = new com.google.gson.JsonParser();
+        JsonElement root = parser.parse(json);
+
+        String id = null;
+        if (root.isJsonObject()) {
+            id = root.getAsJsonObject().get("id").getAsString();
+        }
+
+        return id;
+    }
+
     /**
      * Converts the json string to the commentset object.
      * @param json
@@ -1153,4 +1704,11 @@ public class JsonParser {
 
         return comment;
     }
-} 
+
+    /**
+     * Receives the decoded field values.
+     */
+    private interface FieldConsumer {
+        void accept(String name, FieldType type, Object value);
+    }
+}
@@ -0,0 +1,258 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.cybozu.kintone.database.exception.DBException;
+
+/**
+ * The pending lazy uploads of the records written at once. The files are
+ * uploaded concurrently, once for each field, since a file key can be
+ * attached to only one field. A stream binded with several fields is read
+ * once and its content is uploaded for each field.
+ *
+ */
+final class LazyUploadBatch {
+    private final Map<List<Object>, Upload> uploads = new LinkedHashMap<List<Object>, Upload>();
+
+    /**
+     * Adds the field if it has a lazy uploader.
+     *
+     * @param field
+     *            the field object
+     */
+    void add(Field field) {
+        if (!field.isLazyUpload()) {
+            return;
+        }
+        LazyUploader uploader = field.getLazyUploader();
+        List<Object> key = key(uploader);
+        Upload upload = uploads.get(key);
+        if (upload == null) {
+            upload = new Upload(uploader);
+            uploads.put(key, upload);
+        }
+        upload.fields.add(field);
+    }
+
+    /**
+     * Adds the fields of the record which have lazy uploaders.
+     *
+     * @param record
+     *            the record object
+     */
+    void add(Record record) {
+        for (Map.Entry<String, Field> entry : record.getEntrySet()) {
+            add(entry.getValue());
+        }
+    }
+
+    /**
+     * Gets the number of the files to be uploaded.
+     *
+     * @return number of the uploads
+     */
+    int size() {
+        int size = 0;
+        for (Upload upload : uploads.values()) {
+            size += upload.fields.size();
+        }
+        return size;
+    }
+
+    /**
+     * Gets the key of the uploaded content.
+     */
+    private static List<Object> key(LazyUploader uploader) {
+        if (uploader instanceof FileLazyUploader) {
+            FileLazyUploader fileUploader = (FileLazyUploader) uploader;
+            File file = fileUploader.getFile();
+            String path;
+            try {
+                path = file.getCanonicalPath();
+            } catch (IOException e) {
+                path = file.getAbsolutePath();
+            }
+            return Arrays.<Object>asList("file", path, fileUploader.getContentType());
+        }
+        if (uploader instanceof InputStreamLazyUploader) {
+            // a stream can be read only once
+            InputStreamLazyUploader streamUploader = (InputStreamLazyUploader) uploader;
+            return Arrays.<Object>asList("stream", streamUploader.getInputStream(),
+                    streamUploader.getFileName(), streamUploader.getContentType());
+        }
+        return Arrays.<Object>asList("uploader", uploader);
+    }
+
+    /**
+     * Reads the content of a stream binded with several fields, since a
+     * stream can be read only once.
+     *
+     * @throws DBException
+     *             the stream cannot be read
+     */
+    private void bufferSharedStreams() throws DBException {
+        for (Upload upload : uploads.values()) {
+            if (upload.fields.size() < 2
+                    || !(upload.uploader instanceof InputStreamLazyUploader)) {
+                continue;
+            }
+            InputStreamLazyUploader uploader = (InputStreamLazyUploader) upload.uploader;
+            try {
+                upload.content = Connection.streamToBytes(uploader.getInputStream());
+            } catch (IOException e) {
+                throw new DBException(e, "an error occurred while reading the file");
+            }
+        }
+    }
+
+    /**
+     * Uploads the files and sets the file keys to the fields. No more file
+     * is uploaded once an upload fails.
+     *
+     * @param connection
+     *            the connection object
+     * @param executor
+     *            the executor which runs the uploads
+     * @param parallelism
+     *            max number of the files uploaded at the same time
+     * @throws DBException
+     *             the error of the first failed upload
+     */
+    void upload(final Connection connection, ExecutorService executor,
+            int parallelism) throws DBException {
+        bufferSharedStreams();
+        final List<Task> list = new ArrayList<Task>();
+        for (Upload upload : uploads.values()) {
+            for (Field field : upload.fields) {
+                list.add(new Task(upload, field));
+            }
+        }
+        if (list.isEmpty()) {
+            return;
+        }
+
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicBoolean failed = new AtomicBoolean();
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int index;
+                while (!failed.get() && (index = next.getAndIncrement()) < list.size()) {
+                    Task task = list.get(index);
+                    try {
+                        task.fileKey = task.upload.upload(connection);
+                    } catch (DBException e) {
+                        task.error = e;
+                        failed.set(true);
+                    }
+                }
+            }
+        };
+
+        int workers = Math.min(parallelism, list.size());
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int i = 1; i < workers; i++) {
+            futures.add(executor.submit(worker));
+        }
+        RuntimeException error = null;
+        try {
+            worker.run();
+        } catch (RuntimeException e) {
+            failed.set(true);
+            error = e;
+        }
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (error == null && e.getCause() instanceof RuntimeException) {
+                        error = (RuntimeException) e.getCause();
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (error != null) {
+            throw error;
+        }
+
+        for (Task task : list) {
+            if (task.error != null) {
+                throw task.error;
+            }
+        }
+        // the fields are set in this thread, since a record is not thread safe
+        for (Task task : list) {
+            List<FileDto> files = new ArrayList<FileDto>();
+            FileDto file = new FileDto();
+            file.setFileKey(task.fileKey);
+            files.add(file);
+            task.field.setValue(files);
+        }
+    }
+
+    private static final class Upload {
+        final LazyUploader uploader;
+        final List<Field> fields = new ArrayList<Field>();
+        byte[] content; // the content of a shared stream
+
+        Upload(LazyUploader uploader) {
+            this.uploader = uploader;
+        }
+
+        String upload(Connection connection) throws DBException {
+            if (content == null) {
+                return uploader.upload(connection);
+            }
+            InputStreamLazyUploader streamUploader = (InputStreamLazyUploader) uploader;
+            return connection.uploadFile(streamUploader.getContentType(),
+                    new ByteArrayInputStream(content), streamUploader.getFileName());
+        }
+    }
+
+    private static final class Task {
+        final Upload upload;
+        final Field field;
+        volatile String fileKey;
+        volatile DBException error;
+
+        Task(Upload upload, Field field) {
+            this.upload = upload;
+            this.field = field;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.util.Arrays;
+
+/**
+ * A column of integer values. Empty values are stored as 0.
+ *
+ */
+public class LongColumn extends Column {
+    private long[] values = new long[16];
+
+    LongColumn(String name, FieldType fieldType) {
+        super(name, fieldType);
+    }
+
+    @Override
+    public long getLong(int row) {
+        checkRow(row);
+        checkNotNull(row);
+        return values[row];
+    }
+
+    @Override
+    public double getDouble(int row) {
+        return getLong(row);
+    }
+
+    @Override
+    public Object getValue(int row) {
+        return isNull(row) ? null : Long.valueOf(values[row]);
+    }
+
+    /**
+     * Gets the values. The array must not be modified.
+     * @return the array whose first {@link #size()} elements are the values
+     */
+    public long[] getValues() {
+        return values;
+    }
+
+    /**
+     * Sums up the non-empty values.
+     * @return the sum
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    @Override
+    boolean append(Object value) {
+        long longValue;
+        if (value instanceof Long) {
+            longValue = (Long) value;
+        } else {
+            try {
+                longValue = Long.parseLong(value.toString());
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        ensureCapacity();
+        values[size++] = longValue;
+        return true;
+    }
+
+    @Override
+    void appendDefault() {
+        ensureCapacity();
+        values[size] = 0;
+    }
+
+    @Override
+    void trim() {
+        values = Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Creates a double column with the same values.
+     * @return new column
+     */
+    DoubleColumn toDoubleColumn() {
+        DoubleColumn column = new DoubleColumn(getName(), getFieldType());
+        for (int i = 0; i < size; i++) {
+            if (isNull(i)) {
+                column.appendNull();
+            } else {
+                column.append(Double.valueOf(values[i]));
+            }
+        }
+        return column;
+    }
+
+    private void ensureCapacity() {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+/**
+ * Receives the metrics of the requests sent by a connection. The methods are
+ * called on the threads sending the requests, so they must be thread safe
+ * and return quickly. All the methods do nothing by default.
+ *
+ * @see ConnectionMetrics
+ */
+public interface MetricsListener {
+
+    /**
+     * Called before a request is sent.
+     *
+     * @param method
+     *            GET, POST, PUT or DELETE
+     * @param api
+     *            api name such as "records.json"
+     */
+    default void requestStarted(String method, String api) {
+    }
+
+    /**
+     * Called when the response of a request is closed, or when the request
+     * failed without a response.
+     *
+     * @param metrics
+     *            the metrics of the request
+     */
+    default void requestCompleted(RequestMetrics metrics) {
+    }
+
+    /**
+     * Called when a request waited for the concurrency limiter.
+     *
+     * @param method
+     *            GET, POST, PUT or DELETE
+     * @param api
+     *            api name such as "records.json"
+     * @param queueNanos
+     *            the time waited in nanoseconds
+     * @see ConcurrencyLimiter
+     */
+    default void requestQueued(String method, String api, long queueNanos) {
+    }
+
+    /**
+     * Called when a failed request is going to be sent again.
+     *
+     * @param method
+     *            GET, POST, PUT or DELETE
+     * @param api
+     *            api name such as "records.json"
+     * @param attempt
+     *            the number of the attempt to be made (2 for the first retry)
+     * @param cause
+     *            the failure of the previous attempt
+     */
+    default void requestRetried(String method, String api, int attempt,
+            Exception cause) {
+    }
+}
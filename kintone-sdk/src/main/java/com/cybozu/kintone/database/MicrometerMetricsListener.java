@@ -0,0 +1,112 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * A metrics listener which records the metrics to a Micrometer registry.
+ * micrometer-core has to be on the class path.
+ *
+ * The meters are tagged with "method" and "api", and the timers also with
+ * "status" ("IO_ERROR" if no response was received):
+ * <ul>
+ * <li>kintone.client.requests: the time until the response was closed</li>
+ * <li>kintone.client.responses: the time until the response headers arrived</li>
+ * <li>kintone.client.request.size, kintone.client.response.size: body bytes</li>
+ * <li>kintone.client.queue: the time waited for the concurrency limiter</li>
+ * <li>kintone.client.retries: the number of the retries</li>
+ * <li>kintone.client.requests.active: the number of the requests being sent</li>
+ * </ul>
+ *
+ */
+public class MicrometerMetricsListener implements MetricsListener {
+    private final MeterRegistry registry;
+    private final String prefix;
+    private final AtomicInteger inFlight;
+
+    /**
+     * Constructor with the prefix "kintone.client".
+     *
+     * @param registry
+     *            meter registry
+     */
+    public MicrometerMetricsListener(MeterRegistry registry) {
+        this(registry, "kintone.client");
+    }
+
+    /**
+     * Constructor
+     *
+     * @param registry
+     *            meter registry
+     * @param prefix
+     *            prefix of the meter names
+     */
+    public MicrometerMetricsListener(MeterRegistry registry, String prefix) {
+        this.registry = registry;
+        this.prefix = prefix;
+        this.inFlight = registry.gauge(prefix + ".requests.active",
+                new AtomicInteger());
+    }
+
+    @Override
+    public void requestStarted(String method, String api) {
+        inFlight.incrementAndGet();
+    }
+
+    @Override
+    public void requestCompleted(RequestMetrics metrics) {
+        inFlight.decrementAndGet();
+        Tags tags = Tags.of("method", metrics.getMethod(), "api", metrics.getApi());
+        Tags statusTags = tags.and("status", metrics.getStatusCode() < 0 ? "IO_ERROR"
+                : String.valueOf(metrics.getStatusCode()));
+        Timer.builder(prefix + ".requests").tags(statusTags)
+                .register(registry)
+                .record(metrics.getTotalNanos(), TimeUnit.NANOSECONDS);
+        Timer.builder(prefix + ".responses").tags(statusTags)
+                .register(registry)
+                .record(metrics.getResponseNanos(), TimeUnit.NANOSECONDS);
+        DistributionSummary.builder(prefix + ".request.size").baseUnit("bytes")
+                .tags(tags).register(registry)
+                .record(metrics.getRequestBytes());
+        DistributionSummary.builder(prefix + ".response.size").baseUnit("bytes")
+                .tags(tags).register(registry)
+                .record(metrics.getResponseBytes());
+    }
+
+    @Override
+    public void requestQueued(String method, String api, long queueNanos) {
+        Timer.builder(prefix + ".queue")
+                .tags("method", method, "api", api)
+                .register(registry)
+                .record(queueNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void requestRetried(String method, String api, int attempt,
+            Exception cause) {
+        Counter.builder(prefix + ".retries")
+                .tags("method", method, "api", api)
+                .register(registry).increment();
+    }
+}
@@ -0,0 +1,53 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.util.ArrayList;
+
+/**
+ * A column of the values which are not encoded, such as texts, users, files
+ * and sub tables. The values are the same objects as {@link Field#getValue()}.
+ *
+ */
+public class ObjectColumn extends Column {
+    private ArrayList<Object> values = new ArrayList<Object>();
+
+    ObjectColumn(String name, FieldType fieldType) {
+        super(name, fieldType);
+    }
+
+    @Override
+    public Object getValue(int row) {
+        checkRow(row);
+        return values.get(row);
+    }
+
+    @Override
+    boolean append(Object value) {
+        values.add(value);
+        size++;
+        return true;
+    }
+
+    @Override
+    void appendDefault() {
+        values.add(null);
+    }
+
+    @Override
+    void trim() {
+        values.trimToSize();
+    }
+}
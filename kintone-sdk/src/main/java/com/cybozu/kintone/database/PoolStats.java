@@ -0,0 +1,114 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+/**
+ * A snapshot of the connection pool metrics of the pooled transport.
+ *
+ */
+public class PoolStats {
+    private int leased;
+    private int idle;
+    private long leases;
+    private long created;
+    private long reused;
+    private long evicted;
+    private long discarded;
+    private long leaseWaitNanos;
+
+    PoolStats(int leased, int idle, long leases, long created, long reused,
+            long evicted, long discarded, long leaseWaitNanos) {
+        this.leased = leased;
+        this.idle = idle;
+        this.leases = leases;
+        this.created = created;
+        this.reused = reused;
+        this.evicted = evicted;
+        this.discarded = discarded;
+        this.leaseWaitNanos = leaseWaitNanos;
+    }
+
+    /**
+     * @return the number of connections currently in use
+     */
+    public int getLeased() {
+        return leased;
+    }
+
+    /**
+     * @return the number of idle connections kept alive in the pool
+     */
+    public int getIdle() {
+        return idle;
+    }
+
+    /**
+     * @return the total number of leases
+     */
+    public long getLeases() {
+        return leases;
+    }
+
+    /**
+     * @return the number of connections opened
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * @return the number of leases served by an idle connection
+     */
+    public long getReused() {
+        return reused;
+    }
+
+    /**
+     * @return the number of idle connections closed by expiration or staleness
+     */
+    public long getEvicted() {
+        return evicted;
+    }
+
+    /**
+     * @return the number of connections closed after use because they could
+     *         not be kept alive
+     */
+    public long getDiscarded() {
+        return discarded;
+    }
+
+    /**
+     * @return the total time spent waiting for a connection in nanoseconds
+     */
+    public long getLeaseWaitNanos() {
+        return leaseWaitNanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("leased: " + leased);
+        sb.append(", idle: " + idle);
+        sb.append(", leases: " + leases);
+        sb.append(", created: " + created);
+        sb.append(", reused: " + reused);
+        sb.append(", evicted: " + evicted);
+        sb.append(", discarded: " + discarded);
+        sb.append(", leaseWaitNanos: " + leaseWaitNanos);
+
+        return sb.toString();
+    }
+}
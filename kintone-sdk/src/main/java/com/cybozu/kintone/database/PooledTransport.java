@@ -0,0 +1,1129 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * A transport which keeps HTTP/1.1 connections alive and reuses them. The
+ * number of connections per host is limited, and idle connections are closed
+ * after the idle timeout. One instance can be shared by several connections.
+ *
+ */
+public class PooledTransport implements Transport {
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 10;
+    public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+
+    private static final String CRLF = "\r\n";
+    private static final int MAX_LINE_LENGTH = 65536;
+    private static final int BUFFER_SIZE = 8192;
+
+    private int maxConnectionsPerHost;
+    private long idleTimeout;
+    private int connectTimeout = 30000;
+    private int readTimeout = 0;
+    private long leaseTimeout = 60000;
+    private long validateAfterInactivity = 2000;
+
+    private final Map<Route, HostPool> pools = new HashMap<Route, HostPool>();
+    private ScheduledExecutorService evictor;
+    private volatile boolean closed = false;
+
+    private final AtomicLong leases = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong leaseWaitNanos = new AtomicLong();
+
+    /**
+     * Constructor
+     */
+    public PooledTransport() {
+        this(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxConnectionsPerHost
+     *            max connections per host
+     * @param idleTimeout
+     *            idle connections are closed after this period (milliseconds)
+     */
+    public PooledTransport(int maxConnectionsPerHost, long idleTimeout) {
+        if (maxConnectionsPerHost <= 0) {
+            throw new IllegalArgumentException("maxConnectionsPerHost must be positive");
+        }
+        if (idleTimeout <= 0) {
+            throw new IllegalArgumentException("idleTimeout must be positive");
+        }
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @return max connections per host
+     */
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    /**
+     * @return idle timeout (milliseconds)
+     */
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Sets the connect timeout.
+     *
+     * @param connectTimeout
+     *            timeout in milliseconds (0 means infinite)
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * Sets the read timeout.
+     *
+     * @param readTimeout
+     *            timeout in milliseconds (0 means infinite)
+     */
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Sets the max time to wait for a free connection when all the connections
+     * to the host are in use.
+     *
+     * @param leaseTimeout
+     *            timeout in milliseconds (0 means infinite)
+     */
+    public void setLeaseTimeout(long leaseTimeout) {
+        this.leaseTimeout = leaseTimeout;
+    }
+
+    /**
+     * Sets the inactivity period after which an idle connection is checked
+     * for staleness before being reused.
+     *
+     * @param validateAfterInactivity
+     *            period in milliseconds
+     */
+    public void setValidateAfterInactivity(long validateAfterInactivity) {
+        this.validateAfterInactivity = validateAfterInactivity;
+    }
+
+    /**
+     * Gets the pool metrics.
+     *
+     * @return a snapshot of the metrics
+     */
+    public PoolStats getStats() {
+        int leased = 0;
+        int idle = 0;
+        for (HostPool pool : getPools()) {
+            synchronized (pool) {
+                leased += pool.leased;
+                idle += pool.idle.size();
+            }
+        }
+        return new PoolStats(leased, idle, leases.get(), created.get(),
+                reused.get(), evicted.get(), discarded.get(),
+                leaseWaitNanos.get());
+    }
+
+    @Override
+    public TransportResponse execute(TransportRequest request)
+            throws IOException {
+        if (closed) {
+            throw new IOException("transport is closed");
+        }
+        Route route = new Route(request);
+        PooledSocket socket = lease(route, request.getTimeout(), true);
+        try {
+            return exchange(socket, request, route);
+        } catch (StaleConnectionException e) {
+            RequestBody body = request.getBody();
+            if (!socket.reused || (body != null && !body.isRepeatable())) {
+                throw e;
+            }
+            // the server closed the idle connection before the request
+            // arrived, so it is sent once more on a new connection
+            socket = lease(route, request.getTimeout(), false);
+            return exchange(socket, request, route);
+        }
+    }
+
+    /**
+     * Sends the request and reads the response headers. The connection is
+     * closed if it fails.
+     *
+     * @throws StaleConnectionException
+     *             if the connection was closed before any response arrived
+     */
+    private TransportResponse exchange(PooledSocket socket,
+            TransportRequest request, Route route) throws IOException {
+        try {
+            socket.socket.setSoTimeout(timeout(readTimeout, request.getTimeout()));
+            try {
+                writeRequest(socket, request, route);
+            } catch (SocketException e) {
+                throw new StaleConnectionException(e);
+            }
+            return readResponse(socket, request);
+        } catch (IOException e) {
+            release(socket, false);
+            throw e;
+        } catch (RuntimeException e) {
+            release(socket, false);
+            throw e;
+        }
+    }
+
+    /**
+     * Closes all the idle connections and stops the evictor. Connections in
+     * use are closed when they are released.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            if (evictor != null) {
+                evictor.shutdownNow();
+                evictor = null;
+            }
+        }
+        for (HostPool pool : getPools()) {
+            List<PooledSocket> sockets;
+            synchronized (pool) {
+                sockets = new ArrayList<PooledSocket>(pool.idle);
+                pool.idle.clear();
+                pool.notifyAll();
+            }
+            for (PooledSocket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    /**
+     * Closes the idle connections which exceed the idle timeout.
+     */
+    public void evictIdleConnections() {
+        long now = System.currentTimeMillis();
+        for (HostPool pool : getPools()) {
+            List<PooledSocket> expired = new ArrayList<PooledSocket>();
+            synchronized (pool) {
+                Iterator<PooledSocket> it = pool.idle.iterator();
+                while (it.hasNext()) {
+                    PooledSocket socket = it.next();
+                    if (now - socket.lastUsed >= idleTimeout) {
+                        it.remove();
+                        expired.add(socket);
+                    }
+                }
+            }
+            for (PooledSocket socket : expired) {
+                evicted.incrementAndGet();
+                socket.close();
+            }
+        }
+    }
+
+    private synchronized List<HostPool> getPools() {
+        return new ArrayList<HostPool>(pools.values());
+    }
+
+    private synchronized HostPool getPool(Route route) {
+        HostPool pool = pools.get(route);
+        if (pool == null) {
+            pool = new HostPool();
+            pools.put(route, pool);
+        }
+        if (evictor == null && !closed) {
+            evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "kintone-pool-evictor");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            long period = Math.max(idleTimeout / 2, 1000);
+            evictor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    evictIdleConnections();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+        return pool;
+    }
+
+    /**
+     * Leases a connection to the route. An idle connection is reused if
+     * available, otherwise a new connection is opened.
+     *
+     * @param route
+     *            destination
+     * @param requestTimeout
+     *            timeout of the request in milliseconds, or 0
+     * @param reuse
+     *            false to open a new connection
+     */
+    private PooledSocket lease(Route route, int requestTimeout, boolean reuse)
+            throws IOException {
+        HostPool pool = getPool(route);
+        long start = System.nanoTime();
+        long wait = timeout(leaseTimeout, requestTimeout);
+        long deadline = wait > 0 ? start
+                + TimeUnit.MILLISECONDS.toNanos(wait) : 0;
+
+        while (true) {
+            PooledSocket candidate = null;
+            synchronized (pool) {
+                while (true) {
+                    if (closed) {
+                        throw new IOException("transport is closed");
+                    }
+                    candidate = reuse ? pool.idle.pollFirst() : null;
+                    if (candidate != null || pool.leased < maxConnectionsPerHost) {
+                        pool.leased++;
+                        break;
+                    }
+                    try {
+                        if (deadline == 0) {
+                            pool.wait();
+                        } else {
+                            long remaining = deadline - System.nanoTime();
+                            if (remaining <= 0) {
+                                throw new IOException("timeout waiting for connection");
+                            }
+                            TimeUnit.NANOSECONDS.timedWait(pool, remaining);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("interrupted while waiting for connection");
+                    }
+                }
+            }
+            if (candidate != null) {
+                long idle = System.currentTimeMillis() - candidate.lastUsed;
+                if (idle >= idleTimeout
+                        || (idle >= validateAfterInactivity && candidate.isStale())) {
+                    evicted.incrementAndGet();
+                    candidate.close();
+                    release(pool);
+                    continue;
+                }
+                leases.incrementAndGet();
+                reused.incrementAndGet();
+                leaseWaitNanos.addAndGet(System.nanoTime() - start);
+                candidate.reused = true;
+                return candidate;
+            }
+            leaseWaitNanos.addAndGet(System.nanoTime() - start);
+            try {
+                PooledSocket socket = connect(route, pool,
+                        timeout(connectTimeout, requestTimeout));
+                created.incrementAndGet();
+                leases.incrementAndGet();
+                return socket;
+            } catch (IOException e) {
+                release(pool);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Gets the shorter of the two timeouts, where 0 means infinite.
+     */
+    private static int timeout(long timeout, int requestTimeout) {
+        if (requestTimeout <= 0) {
+            return (int) Math.min(timeout, Integer.MAX_VALUE);
+        }
+        if (timeout <= 0) {
+            return requestTimeout;
+        }
+        return (int) Math.min(timeout, requestTimeout);
+    }
+
+    private void release(HostPool pool) {
+        synchronized (pool) {
+            pool.leased--;
+            pool.notifyAll();
+        }
+    }
+
+    /**
+     * Returns the connection to the pool.
+     *
+     * @param socket
+     *            the leased connection
+     * @param reusable
+     *            true if the connection can be kept alive
+     */
+    private void release(PooledSocket socket, boolean reusable) {
+        HostPool pool = socket.pool;
+        boolean keep = reusable && !closed && !socket.socket.isClosed();
+        synchronized (pool) {
+            pool.leased--;
+            if (keep) {
+                socket.lastUsed = System.currentTimeMillis();
+                pool.idle.addFirst(socket);
+            }
+            pool.notifyAll();
+        }
+        if (!keep) {
+            discarded.incrementAndGet();
+            socket.close();
+        }
+    }
+
+    /**
+     * Opens a new connection within the connect timeout in milliseconds.
+     */
+    private PooledSocket connect(Route route, HostPool pool, int connectTimeout)
+            throws IOException {
+        Socket socket;
+        Proxy proxy = route.proxy;
+        if (proxy != null && proxy.type() == Proxy.Type.SOCKS) {
+            socket = new Socket(proxy);
+            socket.connect(new InetSocketAddress(route.host, route.port),
+                    connectTimeout);
+        } else if (proxy != null && proxy.type() == Proxy.Type.HTTP) {
+            socket = new Socket();
+            socket.connect(proxy.address(), connectTimeout);
+            if (route.secure) {
+                tunnel(socket, route);
+            }
+        } else {
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(route.host, route.port),
+                    connectTimeout);
+        }
+
+        try {
+            socket.setSoTimeout(readTimeout);
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            if (route.secure) {
+                socket = handshake(socket, route);
+            }
+            return new PooledSocket(pool, socket);
+        } catch (IOException e) {
+            try {
+                socket.close();
+            } catch (IOException e1) {
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Establishes a tunnel through the http proxy.
+     */
+    private void tunnel(Socket socket, Route route) throws IOException {
+        String target = route.host + ":" + route.port;
+        OutputStream os = socket.getOutputStream();
+        os.write(("CONNECT " + target + " HTTP/1.1" + CRLF + "Host: " + target
+                + CRLF + CRLF).getBytes("ISO-8859-1"));
+        os.flush();
+
+        InputStream is = socket.getInputStream();
+        String statusLine = readLine(is);
+        if (statusLine == null) {
+            throw new IOException("proxy closed the connection");
+        }
+        readHeaders(is);
+        int status = parseStatusCode(statusLine);
+        if (status != 200) {
+            socket.close();
+            throw new IOException("proxy returned status " + status);
+        }
+    }
+
+    /**
+     * Layers TLS over the socket and verifies the host name.
+     */
+    private Socket handshake(Socket socket, Route route) throws IOException {
+        SSLSocketFactory factory = route.sslSocketFactory;
+        if (factory == null) {
+            factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+        }
+        SSLSocket ssl = (SSLSocket) factory.createSocket(socket, route.host,
+                route.port, true);
+        if (route.hostnameVerifier == null) {
+            SSLParameters params = ssl.getSSLParameters();
+            params.setEndpointIdentificationAlgorithm("HTTPS");
+            ssl.setSSLParameters(params);
+        }
+        ssl.startHandshake();
+        if (route.hostnameVerifier != null
+                && !route.hostnameVerifier.verify(route.host, ssl.getSession())) {
+            ssl.close();
+            throw new SSLPeerUnverifiedException("host name verification failed: "
+                    + route.host);
+        }
+        return ssl;
+    }
+
+    /**
+     * Writes the request line, the headers and the body.
+     */
+    private void writeRequest(PooledSocket socket, TransportRequest request,
+            Route route) throws IOException {
+        URL url = request.getUrl();
+        String method = request.getMethod();
+        StringBuilder sb = new StringBuilder();
+        sb.append(method);
+        sb.append(' ');
+        if (route.proxy != null && route.proxy.type() == Proxy.Type.HTTP
+                && !route.secure) {
+            sb.append(url.toExternalForm());
+        } else {
+            String file = url.getFile();
+            sb.append(file.isEmpty() ? "/" : file);
+        }
+        sb.append(" HTTP/1.1" + CRLF);
+        sb.append("Host: " + route.host);
+        if (route.port != url.getDefaultPort()) {
+            sb.append(":" + route.port);
+        }
+        sb.append(CRLF);
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            sb.append(header.getKey() + ": " + header.getValue() + CRLF);
+        }
+
+        RequestBody body = request.getBody();
+        long length = -1;
+        if (body != null) {
+            sb.append("Content-Type: " + body.getContentType() + CRLF);
+            length = body.getContentLength();
+            if (length >= 0) {
+                sb.append("Content-Length: " + length + CRLF);
+            } else {
+                sb.append("Transfer-Encoding: chunked" + CRLF);
+            }
+        } else if (method.equals("POST") || method.equals("PUT")) {
+            sb.append("Content-Length: 0" + CRLF);
+        }
+        sb.append(CRLF);
+
+        OutputStream os = socket.out;
+        os.write(sb.toString().getBytes("ISO-8859-1"));
+        if (body != null) {
+            if (length >= 0) {
+                FixedLengthOutputStream fixed = new FixedLengthOutputStream(os, length);
+                body.writeTo(fixed);
+                fixed.finish();
+            } else {
+                ChunkedOutputStream chunked = new ChunkedOutputStream(os);
+                body.writeTo(chunked);
+                chunked.finish();
+            }
+        }
+        os.flush();
+    }
+
+    /**
+     * Reads the status line and the headers, and prepares the body stream.
+     */
+    private TransportResponse readResponse(PooledSocket socket,
+            TransportRequest request) throws IOException {
+        BufferedInputStream is = socket.in;
+        is.mark(1);
+        try {
+            if (is.read() == -1) {
+                throw new StaleConnectionException("connection closed by server");
+            }
+        } catch (SocketException e) {
+            throw new StaleConnectionException(e);
+        }
+        is.reset();
+
+        String statusLine;
+        int status;
+        Map<String, String> headers;
+        do {
+            statusLine = readLine(is);
+            if (statusLine == null) {
+                throw new IOException("connection closed by server");
+            }
+            status = parseStatusCode(statusLine);
+            headers = readHeaders(is);
+        } while (status >= 100 && status < 200);
+
+        boolean keepAlive;
+        String connection = headers.get("Connection");
+        if (statusLine.startsWith("HTTP/1.0")) {
+            keepAlive = "keep-alive".equalsIgnoreCase(connection);
+        } else {
+            keepAlive = !"close".equalsIgnoreCase(connection);
+        }
+
+        BodyInputStream body;
+        String transferEncoding = headers.get("Transfer-Encoding");
+        String contentLength = headers.get("Content-Length");
+        if (request.getMethod().equals("HEAD") || status == 204 || status == 304) {
+            body = new FixedLengthInputStream(is, 0);
+        } else if (transferEncoding != null
+                && transferEncoding.toLowerCase().contains("chunked")) {
+            body = new ChunkedInputStream(is);
+        } else if (contentLength != null) {
+            try {
+                body = new FixedLengthInputStream(is,
+                        Long.parseLong(contentLength.trim()));
+            } catch (NumberFormatException e) {
+                throw new IOException("invalid content length: " + contentLength);
+            }
+        } else {
+            body = new EofInputStream(is);
+            keepAlive = false;
+        }
+
+        return new PooledResponse(socket, status, headers, body, keepAlive);
+    }
+
+    private static int parseStatusCode(String statusLine) throws IOException {
+        String[] parts = statusLine.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+            throw new IOException("invalid status line: " + statusLine);
+        }
+        try {
+            return Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("invalid status line: " + statusLine);
+        }
+    }
+
+    private static Map<String, String> readHeaders(InputStream is)
+            throws IOException {
+        Map<String, String> headers = new TreeMap<String, String>(
+                String.CASE_INSENSITIVE_ORDER);
+        String line;
+        while ((line = readLine(is)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+            String prev = headers.get(name);
+            headers.put(name, prev == null ? value : prev + ", " + value);
+        }
+        if (line == null) {
+            throw new IOException("connection closed by server");
+        }
+        return headers;
+    }
+
+    /**
+     * Reads a line terminated by CRLF.
+     *
+     * @return the line without the terminator, or null at the end of the
+     *         stream
+     */
+    private static String readLine(InputStream is) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = is.read()) != -1) {
+            if (b == '\n') {
+                byte[] bytes = line.toByteArray();
+                int length = bytes.length;
+                if (length > 0 && bytes[length - 1] == '\r') {
+                    length--;
+                }
+                return new String(bytes, 0, length, "ISO-8859-1");
+            }
+            line.write(b);
+            if (line.size() > MAX_LINE_LENGTH) {
+                throw new IOException("too long line");
+            }
+        }
+        if (line.size() == 0) {
+            return null;
+        }
+        throw new IOException("unexpected end of stream");
+    }
+
+    /**
+     * Identifies the destination of the pooled connections.
+     *
+     */
+    private static class Route {
+        final String host;
+        final int port;
+        final boolean secure;
+        final Proxy proxy;
+        final SSLSocketFactory sslSocketFactory;
+        final HostnameVerifier hostnameVerifier;
+
+        Route(TransportRequest request) throws IOException {
+            URL url = request.getUrl();
+            String protocol = url.getProtocol();
+            if (protocol.equals("https")) {
+                secure = true;
+            } else if (protocol.equals("http")) {
+                secure = false;
+            } else {
+                throw new IOException("unsupported protocol: " + protocol);
+            }
+            host = url.getHost();
+            port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+            Proxy p = request.getProxy();
+            proxy = (p == null || p.type() == Proxy.Type.DIRECT) ? null : p;
+            sslSocketFactory = secure ? request.getSSLSocketFactory() : null;
+            hostnameVerifier = secure ? request.getHostnameVerifier() : null;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Route)) {
+                return false;
+            }
+            Route other = (Route) obj;
+            return host.equalsIgnoreCase(other.host) && port == other.port
+                    && secure == other.secure
+                    && (proxy == null ? other.proxy == null : proxy.equals(other.proxy))
+                    && sslSocketFactory == other.sslSocketFactory
+                    && hostnameVerifier == other.hostnameVerifier;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = host.toLowerCase().hashCode();
+            hash = hash * 31 + port;
+            hash = hash * 31 + (secure ? 1 : 0);
+            hash = hash * 31 + (proxy == null ? 0 : proxy.hashCode());
+            hash = hash * 31 + System.identityHashCode(sslSocketFactory);
+            hash = hash * 31 + System.identityHashCode(hostnameVerifier);
+            return hash;
+        }
+    }
+
+    /**
+     * The connections to a route.
+     *
+     */
+    private static class HostPool {
+        final ArrayDeque<PooledSocket> idle = new ArrayDeque<PooledSocket>();
+        int leased = 0;
+    }
+
+    /**
+     * A pooled socket.
+     *
+     */
+    private class PooledSocket {
+        final HostPool pool;
+        final Socket socket;
+        final BufferedInputStream in;
+        final OutputStream out;
+        long lastUsed;
+        boolean reused;
+
+        PooledSocket(HostPool pool, Socket socket) throws IOException {
+            this.pool = pool;
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+            this.out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        /**
+         * Returns true if the server has closed the connection.
+         */
+        boolean isStale() {
+            if (socket.isClosed() || socket.isInputShutdown()
+                    || socket.isOutputShutdown()) {
+                return true;
+            }
+            try {
+                if (in.available() > 0) {
+                    return true;
+                }
+                socket.setSoTimeout(1);
+                // any data or the end of stream means the connection is unusable
+                in.read();
+                return true;
+            } catch (SocketTimeoutException e) {
+                return false;
+            } catch (IOException e) {
+                return true;
+            } finally {
+                try {
+                    socket.setSoTimeout(readTimeout);
+                } catch (SocketException e) {
+                }
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Thrown when the connection is closed or reset before any byte of the
+     * response is received. On a reused connection, this is the server
+     * closing the idle connection before the request arrived.
+     *
+     */
+    private static class StaleConnectionException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        StaleConnectionException(String message) {
+            super(message);
+        }
+
+        StaleConnectionException(SocketException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * A response read from a pooled socket.
+     *
+     */
+    private class PooledResponse implements TransportResponse {
+        private PooledSocket socket;
+        private int statusCode;
+        private Map<String, String> headers;
+        private BodyInputStream body;
+        private boolean keepAlive;
+        private boolean released = false;
+
+        PooledResponse(PooledSocket socket, int statusCode,
+                Map<String, String> headers, BodyInputStream body,
+                boolean keepAlive) {
+            this.socket = socket;
+            this.statusCode = statusCode;
+            this.headers = headers;
+            this.body = body;
+            this.keepAlive = keepAlive;
+            body.response = this;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return headers.get(name);
+        }
+
+        @Override
+        public InputStream getBody() {
+            return body;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (released) {
+                return;
+            }
+            released = true;
+            release(socket, keepAlive && body.isComplete());
+        }
+    }
+
+    /**
+     * Base class of the response body streams. Closing the stream closes the
+     * response.
+     *
+     */
+    private static abstract class BodyInputStream extends InputStream {
+        protected final InputStream in;
+        PooledResponse response;
+
+        BodyInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * @return true if the whole body has been read
+         */
+        abstract boolean isComplete();
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n == -1 ? -1 : (b[0] & 0xff);
+        }
+
+        @Override
+        public void close() {
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+
+    /**
+     * A body delimited by Content-Length.
+     *
+     */
+    private static class FixedLengthInputStream extends BodyInputStream {
+        private long remaining;
+
+        FixedLengthInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        boolean isComplete() {
+            return remaining == 0;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n == -1) {
+                throw new IOException("unexpected end of stream");
+            }
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+    }
+
+    /**
+     * A body with chunked transfer encoding.
+     *
+     */
+    private static class ChunkedInputStream extends BodyInputStream {
+        private long chunkRemaining = 0;
+        private boolean eof = false;
+
+        ChunkedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        boolean isComplete() {
+            return eof;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (eof) {
+                return -1;
+            }
+            if (chunkRemaining == 0) {
+                String line = readLine(in);
+                if (line == null) {
+                    throw new IOException("unexpected end of stream");
+                }
+                int ext = line.indexOf(';');
+                if (ext >= 0) {
+                    line = line.substring(0, ext);
+                }
+                try {
+                    chunkRemaining = Long.parseLong(line.trim(), 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("invalid chunk size: " + line);
+                }
+                if (chunkRemaining == 0) {
+                    readHeaders(in); // trailers
+                    eof = true;
+                    return -1;
+                }
+            }
+            int n = in.read(b, off, (int) Math.min(len, chunkRemaining));
+            if (n == -1) {
+                throw new IOException("unexpected end of stream");
+            }
+            chunkRemaining -= n;
+            if (chunkRemaining == 0) {
+                readLine(in); // CRLF after the chunk data
+            }
+            return n;
+        }
+    }
+
+    /**
+     * A body terminated by closing the connection.
+     *
+     */
+    private static class EofInputStream extends BodyInputStream {
+
+        EofInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        boolean isComplete() {
+            return false;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return in.read(b, off, len);
+        }
+    }
+
+    /**
+     * Writes a body with Content-Length and checks its length.
+     *
+     */
+    private static class FixedLengthOutputStream extends OutputStream {
+        private final OutputStream out;
+        private long remaining;
+
+        FixedLengthOutputStream(OutputStream out, long length) {
+            this.out = out;
+            this.remaining = length;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (remaining <= 0) {
+                throw new IOException("body exceeds the content length");
+            }
+            out.write(b);
+            remaining--;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > remaining) {
+                throw new IOException("body exceeds the content length");
+            }
+            out.write(b, off, len);
+            remaining -= len;
+        }
+
+        void finish() throws IOException {
+            if (remaining != 0) {
+                throw new IOException("body is shorter than the content length");
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Writes a body with chunked transfer encoding.
+     *
+     */
+    private static class ChunkedOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int count = 0;
+        private boolean finished = false;
+
+        ChunkedOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                writeChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    writeChunk();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void writeChunk() throws IOException {
+            if (count == 0) {
+                return;
+            }
+            out.write((Integer.toHexString(count) + CRLF).getBytes("ISO-8859-1"));
+            out.write(buffer, 0, count);
+            out.write(CRLF.getBytes("ISO-8859-1"));
+            count = 0;
+        }
+
+        void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            writeChunk();
+            out.write(("0" + CRLF + CRLF).getBytes("ISO-8859-1"));
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+        }
+    }
+}
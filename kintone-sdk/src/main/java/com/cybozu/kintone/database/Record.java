@@ -19,11 +19,18 @@ import java.io.InputStream;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TimeZone;
 
@@ -33,6 +40,17 @@ import com.cybozu.kintone.database.exception.TypeMismatchException;
  * A record object represents a row of the kintone application. You can retrieve
  * or store data by using this class.
  * 
+ * The records retrieved by a query share a field layout and store only the
+ * field values in a flat array. The field objects of such a record are views
+ * of its value array, which are created when they are requested.
+ * 
+ * The records retrieved by a query track the fields changed since they were
+ * read, and the update methods send only the changed fields. The changes made
+ * by the setters, {@link #addField(String, Field)} and the field objects of
+ * the record are tracked. Call {@link #markChanged(String)} after changing a
+ * list value in place. A sub table is changed if its rows are added, removed
+ * or replaced, or the fields of a row are changed.
+ * 
  */
 public class Record implements Cloneable {
     static public final String DATETIME_PATTERN = "yyyy-MM-dd'T'HH:mm:ss'Z'";
@@ -42,12 +60,32 @@ public class Record implements Cloneable {
     private long revision;
 
     private HashMap<String, Field> fields = new HashMap<String, Field>();
+    private RecordLayout layout;
+    private Object[] values;
+    private boolean tracking; // true after snapshot()
+    private Set<String> changedFields; // created on the first change
+    private int snapshotIndex = -1; // the index in the sub table at the snapshot
 
     public Record() {
         this.id = -1;
         this.revision = -1;
     }
 
+    /**
+     * Creates a record which stores the values in the slots of the layout.
+     * The fields which the layout does not have are stored in the map.
+     * 
+     * @param layout
+     *            the layout shared by the records of a query
+     */
+    Record(RecordLayout layout) {
+        this();
+        this.layout = layout;
+        this.values = new Object[layout.size()];
+        Arrays.fill(this.values, RecordLayout.ABSENT);
+        this.fields = null;
+    }
+
     public Record(long id) {
         this.id = id;
     }
@@ -58,27 +96,308 @@ public class Record implements Cloneable {
     }
 
     /**
-     * Clones this instance.
+     * Clones this instance. The field objects, the list values and the rows
+     * of the sub tables are copied too, so the clone can be modified without
+     * changing this record.
      * 
      * @return the duplicated record object
      */
     public Object clone() {
-        Record record = new Record(this.id, this.revision);
+        Record record;
+        if (layout == null) {
+            record = new Record(this.id, this.revision);
+        } else {
+            record = new Record(layout);
+            record.setId(this.id);
+            record.setRevision(this.revision);
+            record.values = new Object[values.length];
+            for (int slot = 0; slot < values.length; slot++) {
+                record.values[slot] = copyValue(values[slot]);
+            }
+        }
 
-        for (String key : fields.keySet()) {
-            Field field = fields.get(key);
-            record.addField(key, field);
+        if (fields != null) {
+            for (String key : fields.keySet()) {
+                Field field = fields.get(key);
+                record.addField(key, copyField(field));
+            }
+        }
+        if (tracking) {
+            Set<String> changed = getChangedFields();
+            record.snapshot();
+            for (String name : changed) {
+                record.markChanged(name);
+            }
         }
         return record;
     }
 
+    /**
+     * Copies the field object and its value.
+     * 
+     * @param field
+     *            field object
+     * @return the copy of the field
+     */
+    private static Field copyField(Field field) {
+        Field copy = new Field(field.getName(), field.getFieldType(),
+                copyValue(field.getValue()));
+        copy.setLazyUploader(field.getLazyUploader());
+        return copy;
+    }
+
+    /**
+     * Copies the mutable objects of a field value: the field objects, the
+     * lists, the rows of a sub table and the files and users.
+     * 
+     * @param value
+     *            field value or a slot value
+     * @return the copy of the value, or the value itself if it is immutable
+     */
+    private static Object copyValue(Object value) {
+        if (value instanceof Field) {
+            return copyField((Field) value);
+        }
+        if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            List<Object> copy = new ArrayList<Object>(list.size());
+            for (Object item : list) {
+                copy.add(copyValue(item));
+            }
+            return copy;
+        }
+        if (value instanceof Record) {
+            return ((Record) value).clone();
+        }
+        if (value instanceof FileDto) {
+            FileDto file = (FileDto) value;
+            FileDto copy = new FileDto();
+            copy.setContentType(file.getContentType());
+            copy.setUrl(file.getUrl());
+            copy.setFileKey(file.getFileKey());
+            copy.setName(file.getName());
+            copy.setSize(file.getSize());
+            return copy;
+        }
+        if (value instanceof UserDto) {
+            UserDto user = (UserDto) value;
+            UserDto copy = new UserDto();
+            copy.setName(user.getName());
+            copy.setCode(user.getCode());
+            return copy;
+        }
+        return value;
+    }
+
+    /**
+     * Starts tracking the changes. The update methods send only the fields
+     * changed after this call. This is called when the record is retrieved.
+     * Nothing is allocated until a field is changed, except for a sub table
+     * which was not read from a response.
+     */
+    public void snapshot() {
+        tracking = false;
+        changedFields = null;
+        if (layout != null) {
+            for (int slot = 0; slot < values.length; slot++) {
+                if (values[slot] != RecordLayout.ABSENT
+                        && layout.getType(slot) == FieldType.SUBTABLE) {
+                    snapshotSubtable(layout.getName(slot));
+                }
+            }
+        }
+        if (fields != null) {
+            for (Map.Entry<String, Field> entry : fields.entrySet()) {
+                if (entry.getValue().getFieldType() == FieldType.SUBTABLE) {
+                    snapshotSubtable(entry.getKey());
+                }
+            }
+        }
+        tracking = true;
+    }
+
+    /**
+     * Records the size of the sub table and the index of each row to find
+     * the changes of the rows.
+     * 
+     * @param name
+     *            field name of the sub table
+     */
+    private void snapshotSubtable(String name) {
+        Field field = getField(name);
+        List<Record> rows = field.getAsSubtable();
+        if (rows == null) {
+            return;
+        }
+        SubtableRows tracked;
+        if (rows instanceof SubtableRows) {
+            tracked = (SubtableRows) rows;
+        } else {
+            tracked = new SubtableRows(rows);
+            field.setValue(tracked);
+        }
+        tracked.snapshotSize = tracked.size();
+        for (int i = 0; i < tracked.size(); i++) {
+            Record row = tracked.get(i);
+            row.snapshot();
+            row.snapshotIndex = i;
+        }
+    }
+
+    /**
+     * Returns true if the rows of the sub table have been added, removed,
+     * moved or changed since the snapshot.
+     * 
+     * @param name
+     *            field name of the sub table
+     * @return true if the rows have been changed
+     */
+    private boolean isSubtableChanged(String name) {
+        List<Record> rows = getField(name).getAsSubtable();
+        if (rows == null) {
+            return false;
+        }
+        if (!(rows instanceof SubtableRows)
+                || ((SubtableRows) rows).snapshotSize != rows.size()) {
+            return true;
+        }
+        for (int i = 0; i < rows.size(); i++) {
+            Record row = rows.get(i);
+            if (!row.tracking || row.snapshotIndex != i
+                    || !row.getChangedFields().isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Marks the sub table as changed if its rows have been changed.
+     * 
+     * @param name
+     *            field name of the sub table
+     */
+    private void checkSubtable(String name) {
+        if ((changedFields == null || !changedFields.contains(name))
+                && isSubtableChanged(name)) {
+            markChanged(name);
+        }
+    }
+
+    /**
+     * Sets the revision returned by an update and restarts tracking the
+     * changes, since the changed fields have been saved. The revision is set
+     * only if the record was updated with its revision.
+     * 
+     * @param revision
+     *            the new revision
+     */
+    void updated(long revision) {
+        if (hasRevision()) {
+            setRevision(revision);
+        }
+        if (tracking) {
+            snapshot();
+        }
+    }
+
+    /**
+     * Stops tracking the changes. The update methods send all the fields.
+     */
+    public void clearSnapshot() {
+        tracking = false;
+        changedFields = null;
+    }
+
+    /**
+     * Returns true if the changes of the record are tracked.
+     * 
+     * @return true if the changes are tracked
+     */
+    public boolean isTrackingChanges() {
+        return tracking;
+    }
+
+    /**
+     * Gets the names of the fields changed since the snapshot.
+     * 
+     * @return the changed field names, or all the field names if the
+     *         changes are not tracked
+     */
+    public Set<String> getChangedFields() {
+        if (!tracking) {
+            return getFieldNames();
+        }
+        if (layout != null) {
+            for (int slot = 0; slot < values.length; slot++) {
+                if (values[slot] != RecordLayout.ABSENT
+                        && layout.getType(slot) == FieldType.SUBTABLE) {
+                    checkSubtable(layout.getName(slot));
+                }
+            }
+        }
+        if (fields != null) {
+            for (Map.Entry<String, Field> entry : fields.entrySet()) {
+                if (entry.getValue().getFieldType() == FieldType.SUBTABLE) {
+                    checkSubtable(entry.getKey());
+                }
+            }
+        }
+        if (changedFields == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(changedFields);
+    }
+
+    /**
+     * Marks the field as changed, which has been modified in place. The
+     * names of the fields which the record does not have are ignored.
+     * 
+     * @param name
+     *            field name
+     */
+    public void markChanged(String name) {
+        if (tracking && hasField(name)) {
+            if (changedFields == null) {
+                changedFields = new HashSet<String>();
+            }
+            changedFields.add(name);
+        }
+    }
+
     /**
      * Gets the entry set of the record.
      * 
      * @return the entry set of the record
      */
     public Set<Map.Entry<String, Field>> getEntrySet() {
-        return fields.entrySet();
+        if (layout == null) {
+            return fields.entrySet();
+        }
+        return new AbstractSet<Map.Entry<String, Field>>() {
+            @Override
+            public Iterator<Map.Entry<String, Field>> iterator() {
+                final Iterator<String> names = getFieldNames().iterator();
+                return new Iterator<Map.Entry<String, Field>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return names.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<String, Field> next() {
+                        String name = names.next();
+                        return new AbstractMap.SimpleImmutableEntry<String, Field>(
+                                name, getField(name));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return getFieldNames().size();
+            }
+        };
     }
 
     /**
@@ -87,7 +406,31 @@ public class Record implements Cloneable {
      * @return the field names
      */
     public Set<String> getFieldNames() {
-        return fields.keySet();
+        if (layout == null) {
+            return fields.keySet();
+        }
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new FieldNameIterator();
+            }
+
+            @Override
+            public int size() {
+                int size = fields == null ? 0 : fields.size();
+                for (Object value : values) {
+                    if (value != RecordLayout.ABSENT) {
+                        size++;
+                    }
+                }
+                return size;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof String && hasField((String) o);
+            }
+        };
     }
 
     /**
@@ -98,6 +441,21 @@ public class Record implements Cloneable {
      * @return the field object
      */
     public Field getField(String name) {
+        if (layout != null) {
+            int slot = layout.indexOf(name);
+            if (slot >= 0 && slot < values.length) {
+                Object value = values[slot];
+                if (value instanceof Field) {
+                    return (Field) value;
+                }
+                if (value != RecordLayout.ABSENT) {
+                    return new SlotField(this, slot);
+                }
+            }
+            if (fields == null) {
+                return null;
+            }
+        }
         return fields.get(name);
     }
 
@@ -122,11 +480,61 @@ public class Record implements Cloneable {
             } catch (TypeMismatchException e) {
                 e.printStackTrace();
             }
+        } else if (layout != null && layout.indexOf(name) >= 0) {
+            int slot = layout.indexOf(name);
+            ensureCapacity(slot);
+            values[slot] = field;
+            markChanged(name);
         } else {
+            if (fields == null) {
+                fields = new HashMap<String, Field>();
+            }
             fields.put(name, field);
+            markChanged(name);
         }
     }
 
+    /**
+     * Sets the field value parsed from a response. The value is stored in the
+     * slot of the layout if the record has a layout.
+     * 
+     * @param name
+     *            field name
+     * @param type
+     *            field type
+     * @param value
+     *            field value
+     */
+    void putValue(String name, FieldType type, Object value) {
+        if (layout == null || type == FieldType.__ID__
+                || type == FieldType.__REVISION__) {
+            addField(name, new Field(name, type, value));
+            return;
+        }
+        int slot = layout.add(name, type);
+        ensureCapacity(slot);
+        if (layout.getType(slot) == type) {
+            values[slot] = value;
+        } else {
+            values[slot] = new Field(name, type, value);
+        }
+    }
+
+    /**
+     * Grows the value array to contain the slot.
+     * 
+     * @param slot
+     *            slot index
+     */
+    private void ensureCapacity(int slot) {
+        if (slot < values.length) {
+            return;
+        }
+        int length = values.length;
+        values = Arrays.copyOf(values, Math.max(slot + 1, layout.size()));
+        Arrays.fill(values, length, values.length, RecordLayout.ABSENT);
+    }
+
     /**
      * Sets the record id.
      * 
@@ -182,7 +590,7 @@ public class Record implements Cloneable {
      * @return true if the field value is empty
      */
     public boolean isEmpty(String name) {
-        return fields.get(name).isEmpty();
+        return getField(name).isEmpty();
     }
 
     /**
@@ -193,7 +601,10 @@ public class Record implements Cloneable {
      * @return true if the field exists
      */
     public boolean hasField(String name) {
-        return fields.containsKey(name);
+        if (layout == null) {
+            return fields.containsKey(name);
+        }
+        return getField(name) != null;
     }
 
     /**
@@ -205,7 +616,7 @@ public class Record implements Cloneable {
      */
     public Long getLong(String name) {
 
-        return fields.get(name).getAsLong();
+        return getField(name).getAsLong();
     }
 
     /**
@@ -217,7 +628,7 @@ public class Record implements Cloneable {
      */
     public String getString(String name) {
 
-        return fields.get(name).getAsString();
+        return getField(name).getAsString();
     }
 
     /**
@@ -227,7 +638,7 @@ public class Record implements Cloneable {
      *            field name
      */
     public List<String> getStrings(String name) {
-        return fields.get(name).getAsStringList();
+        return getField(name).getAsStringList();
     }
 
     /**
@@ -238,7 +649,7 @@ public class Record implements Cloneable {
      */
     public List<FileDto> getFiles(String name) {
 
-        return fields.get(name).getAsFileList();
+        return getField(name).getAsFileList();
     }
 
     /**
@@ -249,7 +660,7 @@ public class Record implements Cloneable {
      */
 
     public UserDto getUser(String name) {
-        return fields.get(name).getAsUserInfo();
+        return getField(name).getAsUserInfo();
     }
 
     /**
@@ -259,7 +670,7 @@ public class Record implements Cloneable {
      *            field name
      */
     public List<UserDto> getUsers(String name) {
-        return fields.get(name).getAsUserList();
+        return getField(name).getAsUserList();
     }
 
     /**
@@ -269,7 +680,7 @@ public class Record implements Cloneable {
      *            field name
      */
     public Date getDateTime(String name) {
-        String strDate = fields.get(name).getAsString();
+        String strDate = getField(name).getAsString();
         if (strDate == null || strDate.isEmpty())
             return null;
         try {
@@ -288,7 +699,7 @@ public class Record implements Cloneable {
      *            field name
      */
     public Date getDate(String name) {
-        String strDate = fields.get(name).getAsString();
+        String strDate = getField(name).getAsString();
         if (strDate == null || strDate.isEmpty())
             return null;
         try {
@@ -307,7 +718,7 @@ public class Record implements Cloneable {
      *            field name
      */
     public List<Record> getSubtable(String name) {
-        return fields.get(name).getAsSubtable();
+        return getField(name).getAsSubtable();
     }
 
     /**
@@ -522,6 +933,164 @@ public class Record implements Cloneable {
      * 			  field type
      */
     public FieldType getFieldType(String name) {
-    	return fields.get(name).getFieldType();
+    	return getField(name).getFieldType();
+    }
+
+    /**
+     * Iterates the names of the fields which the record has.
+     * 
+     */
+    private class FieldNameIterator implements Iterator<String> {
+        private int slot = 0;
+        private Iterator<String> extra = null;
+        private String next = null;
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            while (slot < values.length) {
+                int current = slot++;
+                if (values[current] != RecordLayout.ABSENT) {
+                    next = layout.getName(current);
+                    return true;
+                }
+            }
+            if (fields == null) {
+                return false;
+            }
+            if (extra == null) {
+                extra = fields.keySet().iterator();
+            }
+            if (extra.hasNext()) {
+                next = extra.next();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String result = next;
+            next = null;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * The rows of a sub table, which keep the size at the snapshot.
+     * 
+     */
+    static final class SubtableRows extends ArrayList<Record> {
+        private static final long serialVersionUID = 1L;
+
+        private int snapshotSize = -1;
+
+        SubtableRows() {
+        }
+
+        SubtableRows(List<Record> rows) {
+            super(rows);
+        }
+    }
+
+    /**
+     * A field object which reads and writes the slot of the record. Once the
+     * name, the type or the lazy uploader is changed, the slot holds a field
+     * object and the view delegates to it.
+     * 
+     */
+    private static final class SlotField extends Field {
+        private final Record record;
+        private final int slot;
+
+        SlotField(Record record, int slot) {
+            super(null, null, null);
+            this.record = record;
+            this.slot = slot;
+        }
+
+        private Field target() {
+            Object value = record.values[slot];
+            return value instanceof Field ? (Field) value : null;
+        }
+
+        private Field materialize() {
+            Field field = target();
+            if (field == null) {
+                field = new Field(record.layout.getName(slot),
+                        record.layout.getType(slot), record.values[slot]);
+                record.values[slot] = field;
+            }
+            return field;
+        }
+
+        @Override
+        public String getName() {
+            Field field = target();
+            return field != null ? field.getName() : record.layout.getName(slot);
+        }
+
+        @Override
+        public void setName(String name) {
+            record.markChanged(record.layout.getName(slot));
+            materialize().setName(name);
+        }
+
+        @Override
+        public FieldType getFieldType() {
+            Field field = target();
+            return field != null ? field.getFieldType() : record.layout.getType(slot);
+        }
+
+        @Override
+        public void setFieldType(FieldType fieldType) {
+            record.markChanged(record.layout.getName(slot));
+            materialize().setFieldType(fieldType);
+        }
+
+        @Override
+        public Object getValue() {
+            Field field = target();
+            return field != null ? field.getValue() : record.values[slot];
+        }
+
+        @Override
+        public void setValue(Object value) {
+            record.markChanged(record.layout.getName(slot));
+            Field field = target();
+            if (field != null) {
+                field.setValue(value);
+            } else {
+                record.values[slot] = value;
+            }
+        }
+
+        @Override
+        public boolean isLazyUpload() {
+            Field field = target();
+            return field != null && field.isLazyUpload();
+        }
+
+        @Override
+        public void setLazyUploader(LazyUploader lazyUploader) {
+            record.markChanged(record.layout.getName(slot));
+            materialize().setLazyUploader(lazyUploader);
+        }
+
+        @Override
+        public LazyUploader getLazyUploader() {
+            Field field = target();
+            return field != null ? field.getLazyUploader() : null;
+        }
     }
 }
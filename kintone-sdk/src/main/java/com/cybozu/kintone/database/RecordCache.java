@@ -0,0 +1,204 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches the records selected by {@link Connection#select(long, String)}.
+ * A select with the cache first retrieves only the ids and the revisions of
+ * the records, and then retrieves only the records which are not cached or
+ * whose revisions have changed, so that a cached record is never returned
+ * after it has been modified. The least recently used record is evicted when
+ * the cache is full. The pages of the record streams and the change feeds
+ * are not cached.
+ *
+ * The records updated or deleted through the connection, its bulk requests
+ * and bulk writers are removed from the cache. An update by key removes all
+ * the records of the app, since the ids of the updated records are not
+ * known. The cache keeps its own copies of the records and the callers
+ * get copies of them, including the rows of the sub tables and the list
+ * values, so a record can be modified without changing the cache.
+ *
+ * The records are keyed only by the app id and the record id, and the cache
+ * does not check the permission of the user. Share it only by the
+ * connections to the same domain and guest space with the same access, or
+ * another domain's records or the fields hidden from the user may be
+ * returned.
+ *
+ * <pre>
+ * Connection db = new Connection(ConnectionConfig.builder("example.cybozu.com")
+ *         .password("login", "password")
+ *         .recordCache(new RecordCache(10000))
+ *         .build());
+ * </pre>
+ *
+ */
+public class RecordCache {
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private final int maxSize;
+    private final LinkedHashMap<List<Long>, Record> records;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Constructor with the default size.
+     */
+    public RecordCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxSize
+     *            max number of the records
+     */
+    public RecordCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        this.maxSize = maxSize;
+        this.records = new LinkedHashMap<List<Long>, Record>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Long>, Record> eldest) {
+                if (size() <= RecordCache.this.maxSize) {
+                    return false;
+                }
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Gets the cached record of the revision.
+     *
+     * @param app
+     *            app id
+     * @param id
+     *            record id
+     * @param revision
+     *            the current revision of the record
+     * @return copy of the record, or null if the record of the revision is
+     *         not cached
+     */
+    public synchronized Record get(long app, long id, long revision) {
+        List<Long> key = key(app, id);
+        Record record = records.get(key);
+        if (record == null) {
+            misses++;
+            return null;
+        }
+        if (record.getRevision() != revision) {
+            records.remove(key);
+            misses++;
+            return null;
+        }
+        hits++;
+        return (Record) record.clone();
+    }
+
+    /**
+     * Adds the record to the cache. The record must have all the fields, the
+     * id and the revision.
+     *
+     * @param app
+     *            app id
+     * @param record
+     *            record object
+     */
+    public synchronized void put(long app, Record record) {
+        if (record.getId() < 0 || !record.hasRevision()) {
+            return;
+        }
+        records.put(key(app, record.getId()), (Record) record.clone());
+    }
+
+    /**
+     * Removes the record from the cache.
+     *
+     * @param app
+     *            app id
+     * @param id
+     *            record id
+     */
+    public synchronized void invalidate(long app, long id) {
+        records.remove(key(app, id));
+    }
+
+    /**
+     * Removes all records of the app from the cache.
+     *
+     * @param app
+     *            app id
+     */
+    public synchronized void invalidateApp(long app) {
+        Iterator<List<Long>> it = records.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().get(0) == app) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all records from the cache.
+     */
+    public synchronized void invalidateAll() {
+        records.clear();
+    }
+
+    /**
+     * @return the number of the cached records
+     */
+    public synchronized int size() {
+        return records.size();
+    }
+
+    /**
+     * @return the number of the records returned from the cache
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return the number of the records which were not cached or were
+     *         modified
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return the number of the records evicted because the cache was full
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    private static List<Long> key(long app, long id) {
+        return Arrays.asList(app, id);
+    }
+}
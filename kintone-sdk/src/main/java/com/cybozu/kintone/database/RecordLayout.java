@@ -0,0 +1,116 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The field layout shared by the records retrieved by a query. It maps each
+ * field name to the slot index of the value array of the records, so that a
+ * record does not keep its own map and field objects.
+ *
+ * The layout grows while the response is parsed, and must not be modified
+ * after the records are handed to the caller.
+ *
+ */
+final class RecordLayout {
+    /**
+     * The slot value of a field which the record does not have.
+     */
+    static final Object ABSENT = new Object();
+
+    private final HashMap<String, Integer> index = new HashMap<String, Integer>();
+    private String[] names = new String[16];
+    private FieldType[] types = new FieldType[16];
+    private RecordLayout[] subtables = new RecordLayout[16];
+    private int size = 0;
+
+    /**
+     * @return the number of slots
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the slot of the field.
+     *
+     * @param name
+     *            field name
+     * @return slot index, or -1 if the layout does not have the field
+     */
+    int indexOf(String name) {
+        Integer slot = index.get(name);
+        return slot == null ? -1 : slot.intValue();
+    }
+
+    /**
+     * Gets the slot of the field, adding it if the layout does not have it.
+     *
+     * @param name
+     *            field name
+     * @param type
+     *            field type
+     * @return slot index
+     */
+    int add(String name, FieldType type) {
+        Integer slot = index.get(name);
+        if (slot != null) {
+            return slot.intValue();
+        }
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            types = Arrays.copyOf(types, size * 2);
+            subtables = Arrays.copyOf(subtables, size * 2);
+        }
+        names[size] = name;
+        types[size] = type;
+        index.put(name, size);
+        return size++;
+    }
+
+    /**
+     * @param slot
+     *            slot index
+     * @return the field name of the slot
+     */
+    String getName(int slot) {
+        return names[slot];
+    }
+
+    /**
+     * @param slot
+     *            slot index
+     * @return the field type of the slot
+     */
+    FieldType getType(int slot) {
+        return types[slot];
+    }
+
+    /**
+     * Gets the layout of the rows of a sub table field.
+     *
+     * @param slot
+     *            slot index of the sub table field
+     * @return the layout of the rows
+     */
+    RecordLayout getSubtableLayout(int slot) {
+        if (subtables[slot] == null) {
+            subtables[slot] = new RecordLayout();
+        }
+        return subtables[slot];
+    }
+}
@@ -0,0 +1,33 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * A stream of records which are retrieved from kintone page by page while the
+ * caller iterates. Only a bounded number of records are kept in memory. If an
+ * error occurs while retrieving the records, the iterator methods throw
+ * {@link com.cybozu.kintone.database.exception.RecordStreamException}.
+ * 
+ */
+public interface RecordStream extends Iterator<Record>, Closeable {
+
+    /**
+     * Stops retrieving the records and releases the resources.
+     */
+    public void close();
+}
@@ -0,0 +1,59 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The body of a request sent through the transport.
+ *
+ */
+public interface RequestBody {
+
+    /**
+     * Gets the content type of the body.
+     *
+     * @return content type
+     */
+    public String getContentType();
+
+    /**
+     * Gets the length of the body in bytes.
+     *
+     * @return the length, or -1 if the length is unknown
+     */
+    public long getContentLength();
+
+    /**
+     * Writes the body to the stream. The stream must not be closed.
+     *
+     * @param os
+     *            output stream
+     * @throws IOException
+     */
+    public void writeTo(OutputStream os) throws IOException;
+
+    /**
+     * Returns true if the body can be written again, so that the request can
+     * be retried.
+     *
+     * @return true if {@link #writeTo(OutputStream)} can be called more than
+     *         once
+     */
+    default boolean isRepeatable() {
+        return false;
+    }
+}
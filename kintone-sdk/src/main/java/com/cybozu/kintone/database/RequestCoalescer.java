@@ -0,0 +1,168 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cybozu.kintone.database.exception.DBException;
+import com.cybozu.kintone.database.exception.DeadlineExceededException;
+
+/**
+ * Shares a GET request among the threads which send the same request at the
+ * same time. The first thread sends the request, and the others wait for its
+ * response instead of sending their own. The requests are the same if they
+ * have the same url, headers and priority. The headers include the
+ * credentials, so the response is never shared between different users.
+ * If the first thread gives up at its deadline, a waiting thread whose own
+ * deadline has not passed sends the request by itself.
+ *
+ * The response body is shared, and each thread parses it by itself, so that
+ * each caller gets its own ResultSet or AppDto which can be modified freely.
+ * Connections can share a coalescer.
+ *
+ * <pre>
+ * Connection db = new Connection(ConnectionConfig.builder("example.cybozu.com")
+ *         .password("login", "password")
+ *         .requestCoalescer(new RequestCoalescer())
+ *         .build());
+ * </pre>
+ *
+ */
+public class RequestCoalescer {
+    private final ConcurrentHashMap<List<Object>, Call> calls =
+            new ConcurrentHashMap<List<Object>, Call>();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * @return the number of the requests sent
+     */
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    /**
+     * @return the number of the requests which shared the response of
+     *         another request
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return the number of the requests being sent
+     */
+    public int getInFlight() {
+        return calls.size();
+    }
+
+    /**
+     * Gets the key which identifies the request.
+     *
+     * @param request
+     *            request without a body
+     * @param priority
+     *            priority of the request in the concurrency limiter
+     * @return key object
+     */
+    static List<Object> key(TransportRequest request, RequestPriority priority) {
+        return Arrays.<Object>asList(request.getMethod(),
+                request.getUrl().toString(),
+                new HashMap<String, String>(request.getHeaders()),
+                request.getProxy(), request.getSSLSocketFactory(), priority);
+    }
+
+    /**
+     * Gets the response body, sending the request only if the same request
+     * is not in flight.
+     *
+     * @param key
+     *            the key returned by
+     *            {@link #key(TransportRequest, RequestPriority)}
+     * @param deadline
+     *            the time to give up waiting in nanoseconds, or 0
+     * @param fetcher
+     *            sends the request
+     * @return response body
+     * @throws DBException
+     *             the error of the shared request
+     */
+    byte[] fetch(List<Object> key, long deadline, Fetcher fetcher)
+            throws DBException {
+        Call call = new Call();
+        Call current;
+        while ((current = calls.putIfAbsent(key, call)) != null) {
+            current.await(deadline);
+            if (current.error instanceof DeadlineExceededException
+                    && (deadline == 0 || deadline - System.nanoTime() > 0)) {
+                // the deadline was the sender's, not ours
+                continue;
+            }
+            coalesced.incrementAndGet();
+            if (current.error != null) {
+                throw current.error;
+            }
+            return current.body;
+        }
+        sent.incrementAndGet();
+        try {
+            call.body = fetcher.fetch();
+            return call.body;
+        } catch (DBException e) {
+            call.error = e;
+            throw e;
+        } catch (RuntimeException e) {
+            call.error = new DBException(e);
+            throw e;
+        } finally {
+            calls.remove(key, call);
+            call.done.countDown();
+        }
+    }
+
+    /**
+     * Sends a request and reads the whole response body.
+     */
+    interface Fetcher {
+        byte[] fetch() throws DBException;
+    }
+
+    private static class Call {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile byte[] body;
+        volatile DBException error;
+
+        void await(long deadline) throws DBException {
+            try {
+                if (deadline == 0) {
+                    done.await();
+                } else if (!done.await(deadline - System.nanoTime(),
+                        TimeUnit.NANOSECONDS)) {
+                    throw new DeadlineExceededException(
+                            "deadline exceeded while waiting for the shared request");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DBException(e, "interrupted while waiting for the shared request");
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+
+/**
+ * Measures a request for the metrics listener. The request body and the
+ * response body are wrapped to count the bytes, and the metrics are reported
+ * when the response is closed.
+ *
+ */
+final class RequestMeter {
+    private final MetricsListener listener;
+    private final String method;
+    private final String api;
+    private final long start;
+    private CountingRequestBody body;
+
+    /**
+     * Starts measuring the request.
+     * @param listener the listener to be notified
+     * @param request the request to be sent
+     */
+    RequestMeter(MetricsListener listener, TransportRequest request) {
+        this.listener = listener;
+        this.method = request.getMethod();
+        this.api = apiName(request.getUrl());
+        RequestBody requestBody = request.getBody();
+        if (requestBody instanceof CountingRequestBody) {
+            requestBody = ((CountingRequestBody) requestBody).body; // retried
+        }
+        if (requestBody != null) {
+            body = new CountingRequestBody(requestBody);
+            request.setBody(body);
+        }
+        listener.requestStarted(method, api);
+        this.start = System.nanoTime();
+    }
+
+    /**
+     * Reports the request which failed without a response.
+     * @param error the error of the transport
+     */
+    void failed(Exception error) {
+        long elapsed = System.nanoTime() - start;
+        listener.requestCompleted(new RequestMetrics(method, api, -1,
+                requestBytes(), 0, elapsed, elapsed, error));
+    }
+
+    /**
+     * Wraps the response to report the metrics when it is closed.
+     * @param response the response returned by the transport
+     * @return the wrapped response
+     */
+    TransportResponse received(TransportResponse response) {
+        return new MeteredResponse(response, System.nanoTime() - start);
+    }
+
+    private long requestBytes() {
+        return body == null ? 0 : body.count;
+    }
+
+    /**
+     * Gets the api name from the url.
+     * @param url the url of the request
+     * @return api name such as "records.json" or "record/comments.json"
+     */
+    static String apiName(URL url) {
+        String path = url.getPath();
+        int index = path.indexOf("/v1/");
+        return index < 0 ? path : path.substring(index + 4);
+    }
+
+    private static final class CountingRequestBody implements RequestBody {
+        private final RequestBody body;
+        private long count;
+
+        CountingRequestBody(RequestBody body) {
+            this.body = body;
+        }
+
+        @Override
+        public String getContentType() {
+            return body.getContentType();
+        }
+
+        @Override
+        public long getContentLength() {
+            return body.getContentLength();
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return body.isRepeatable();
+        }
+
+        @Override
+        public void writeTo(OutputStream os) throws IOException {
+            body.writeTo(new FilterOutputStream(os) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    count++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    count += len;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            });
+        }
+    }
+
+    private final class MeteredResponse implements TransportResponse {
+        private final TransportResponse response;
+        private final long responseNanos;
+        private InputStream body;
+        private long count;
+        private boolean closed;
+
+        MeteredResponse(TransportResponse response, long responseNanos) {
+            this.response = response;
+            this.responseNanos = responseNanos;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return response.getStatusCode();
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return response.getHeader(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                body = new FilterInputStream(response.getBody()) {
+                    @Override
+                    public int read() throws IOException {
+                        int b = in.read();
+                        if (b >= 0) {
+                            count++;
+                        }
+                        return b;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        int n = in.read(b, off, len);
+                        if (n > 0) {
+                            count += n;
+                        }
+                        return n;
+                    }
+                };
+            }
+            return body;
+        }
+
+        @Override
+        public void close() {
+            response.close();
+            if (!closed) {
+                closed = true;
+                listener.requestCompleted(new RequestMetrics(method, api,
+                        response.getStatusCode(), requestBytes(), count,
+                        responseNanos, System.nanoTime() - start, null));
+            }
+        }
+    }
+}
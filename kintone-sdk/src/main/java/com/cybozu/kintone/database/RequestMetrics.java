@@ -0,0 +1,108 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+/**
+ * The metrics of a request. The time until the response headers arrive is
+ * spent on the network and the server, and the rest of the total time is
+ * spent on reading and parsing the response body.
+ *
+ */
+public class RequestMetrics {
+    private String method;
+    private String api;
+    private int statusCode;
+    private long requestBytes;
+    private long responseBytes;
+    private long responseNanos;
+    private long totalNanos;
+    private Exception error;
+
+    RequestMetrics(String method, String api, int statusCode,
+            long requestBytes, long responseBytes, long responseNanos,
+            long totalNanos, Exception error) {
+        this.method = method;
+        this.api = api;
+        this.statusCode = statusCode;
+        this.requestBytes = requestBytes;
+        this.responseBytes = responseBytes;
+        this.responseNanos = responseNanos;
+        this.totalNanos = totalNanos;
+        this.error = error;
+    }
+
+    /**
+     * @return GET, POST, PUT or DELETE
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return api name such as "records.json"
+     */
+    public String getApi() {
+        return api;
+    }
+
+    /**
+     * @return the HTTP status code, or -1 if no response was received
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return the number of bytes of the request body
+     */
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    /**
+     * @return the number of bytes of the response body read
+     */
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    /**
+     * @return the nanoseconds until the response headers arrived
+     */
+    public long getResponseNanos() {
+        return responseNanos;
+    }
+
+    /**
+     * @return the nanoseconds until the response was closed
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return the nanoseconds spent on reading the response body
+     */
+    public long getReadNanos() {
+        return totalNanos - responseNanos;
+    }
+
+    /**
+     * @return the error of the transport, or null if a response was received
+     */
+    public Exception getError() {
+        return error;
+    }
+}
@@ -0,0 +1,31 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+/**
+ * The priority of the requests sent through a {@link ConcurrencyLimiter}.
+ * When the limit is reached, the waiting requests of a higher priority are
+ * sent first, and {@link #BATCH} requests are held back while the limit is
+ * nearly used up so that interactive requests are not starved.
+ *
+ */
+public enum RequestPriority {
+    /** Requests which a user is waiting for. */
+    INTERACTIVE,
+    /** The default priority. */
+    NORMAL,
+    /** Background requests such as bulk imports. */
+    BATCH
+}
@@ -34,6 +34,7 @@ public class ResultSet {
     private List<Record> records = new ArrayList<Record>();
     private int index = 0;
     private Long totalCount = null;
+    private boolean more = false;
     private Record current = null;
     private Connection connection = null;
 
@@ -55,6 +56,15 @@ public class ResultSet {
         records.add(record);
     }
 
+    /**
+     * Gets the records of this result set.
+     * 
+     * @return list of the records
+     */
+    List<Record> getRecords() {
+        return records;
+    }
+
     /**
      * Clears the result set.
      */
@@ -116,6 +126,17 @@ public class ResultSet {
         return true;
     }
 
+    /**
+     * Gets the current record. The record tracks the changes, so that
+     * {@link Connection#updateRecord(long, Record)} sends only the changed
+     * fields.
+     * 
+     * @return the record object
+     */
+    public Record getRecord() {
+        return current;
+    }
+
     /**
      * Gets the record number of the record.
      * 
@@ -182,6 +203,26 @@ public class ResultSet {
     public void setTotalCount(long totalCount) {
         this.totalCount = totalCount;
     }
+
+    /**
+     * Returns true if the cursor which retrieved this result set has more
+     * records.
+     * 
+     * @return true if more records remain
+     */
+    public boolean hasMore() {
+        return more;
+    }
+
+    /**
+     * Sets whether the cursor has more records.
+     * 
+     * @param more
+     *            true if more records remain
+     */
+    public void setMore(boolean more) {
+        this.more = more;
+    }
     
     /**
      * Gets the field value as long.
@@ -0,0 +1,345 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.cybozu.kintone.database.exception.DBException;
+import com.cybozu.kintone.database.exception.DBNotFoundException;
+
+/**
+ * Decides whether a failed request is sent again and how long to wait before
+ * it. The wait grows exponentially with random jitter, and the Retry-After
+ * header of the response is honored.
+ *
+ * A request is retried only if it is safe to send it twice. Idempotent
+ * requests are retried on any retryable error. The other requests, such as
+ * the POST of {@link Connection#insert(long, Record)} or the PUT of a workflow
+ * action, are retried only if the server cannot have processed them: the
+ * connection could not be made, or the request was rejected with 429 Too Many
+ * Requests. {@link Connection} decides whether each call is idempotent (see
+ * {@link TransportRequest#isIdempotent()}).
+ *
+ * <pre>
+ * RetryPolicy policy = RetryPolicy.builder()
+ *         .maxRetries(5)
+ *         .backoff(200, 10000)
+ *         .build();
+ * </pre>
+ *
+ */
+public final class RetryPolicy {
+    /** The policy which never retries. */
+    public static final RetryPolicy NONE = builder().maxRetries(0).build();
+
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    public static final long DEFAULT_INITIAL_BACKOFF = 200; // msec
+    public static final long DEFAULT_MAX_BACKOFF = 10000; // msec
+
+    private static final Set<String> IDEMPOTENT_METHODS = Collections.unmodifiableSet(
+            new HashSet<String>(Arrays.asList("GET", "HEAD", "PUT", "DELETE")));
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final int maxRetries;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final long maxRetryAfter;
+    private final Set<Integer> retryableStatuses;
+    private final Set<String> retryableErrorCodes;
+    private final boolean retryNonIdempotent;
+
+    private RetryPolicy(Builder builder) {
+        this.maxRetries = builder.maxRetries;
+        this.initialBackoff = builder.initialBackoff;
+        this.maxBackoff = builder.maxBackoff;
+        this.maxRetryAfter = builder.maxRetryAfter;
+        this.retryableStatuses = Collections.unmodifiableSet(
+                new HashSet<Integer>(builder.retryableStatuses));
+        this.retryableErrorCodes = Collections.unmodifiableSet(
+                new HashSet<String>(builder.retryableErrorCodes));
+        this.retryNonIdempotent = builder.retryNonIdempotent;
+    }
+
+    /**
+     * Creates a builder with the default settings: 3 retries on 429, 502, 503
+     * and 504 and on network errors, waiting from 200 msec up to 10 seconds.
+     *
+     * @return new builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Gets the max number of retries of a request.
+     *
+     * @return max number of retries
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Gets the status codes which are retried.
+     *
+     * @return unmodifiable set of status codes
+     */
+    public Set<Integer> getRetryableStatuses() {
+        return retryableStatuses;
+    }
+
+    /**
+     * Gets the error codes of the error responses which are retried
+     * regardless of the status code.
+     *
+     * @return unmodifiable set of error codes
+     */
+    public Set<String> getRetryableErrorCodes() {
+        return retryableErrorCodes;
+    }
+
+    /**
+     * Returns true if the failed request can be sent again, assuming that
+     * GET, PUT and DELETE requests are idempotent.
+     *
+     * @param method
+     *            GET, POST, PUT or DELETE
+     * @param error
+     *            the failure of the request
+     * @return true if the request can be retried
+     */
+    public boolean isRetryable(String method, DBException error) {
+        return isRetryable(isIdempotentMethod(method), error);
+    }
+
+    /**
+     * Returns true if the failed request can be sent again.
+     *
+     * @param idempotent
+     *            true if sending the request twice has the same effect as
+     *            sending it once
+     * @param error
+     *            the failure of the request
+     * @return true if the request can be retried
+     */
+    public boolean isRetryable(boolean idempotent, DBException error) {
+        if (error instanceof DBNotFoundException) {
+            return false;
+        }
+        Throwable cause = error.getCause();
+        idempotent = retryNonIdempotent || idempotent;
+        if (error.getHttpStatus() == 0) {
+            if (cause instanceof ConnectException
+                    || cause instanceof UnknownHostException) {
+                return true; // not sent
+            }
+            return cause != null && idempotent;
+        }
+        if (error.getHttpStatus() == TOO_MANY_REQUESTS
+                && retryableStatuses.contains(TOO_MANY_REQUESTS)) {
+            return true; // rejected before processing
+        }
+        if (!idempotent) {
+            return false;
+        }
+        if (retryableStatuses.contains(error.getHttpStatus())) {
+            return true;
+        }
+        return error.getErrorResponse() != null
+                && retryableErrorCodes.contains(error.getErrorResponse().getCode());
+    }
+
+    /**
+     * Gets the time to wait before the retry.
+     *
+     * @param retry
+     *            the number of the retry (1 for the first retry)
+     * @param retryAfter
+     *            the Retry-After header of the response, or null
+     * @return wait time in milliseconds
+     */
+    public long getDelay(int retry, String retryAfter) {
+        long hint = parseRetryAfter(retryAfter);
+        if (hint >= 0) {
+            return Math.min(hint, maxRetryAfter);
+        }
+        long ceiling = initialBackoff << Math.min(retry - 1, 30);
+        if (ceiling <= 0 || ceiling > maxBackoff) {
+            ceiling = maxBackoff;
+        }
+        // the jitter spreads the retries of concurrent clients
+        return ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+    }
+
+    /**
+     * Returns true if the requests of the method are idempotent unless the
+     * caller says otherwise.
+     *
+     * @param method
+     *            GET, POST, PUT or DELETE
+     * @return true for GET, HEAD, PUT and DELETE
+     */
+    static boolean isIdempotentMethod(String method) {
+        return IDEMPOTENT_METHODS.contains(method);
+    }
+
+    /**
+     * Parses the Retry-After header, which is seconds or an http date.
+     *
+     * @param retryAfter
+     *            header value, or null
+     * @return wait time in milliseconds, or -1 if not specified
+     */
+    static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null) {
+            return -1;
+        }
+        retryAfter = retryAfter.trim();
+        try {
+            return Math.max(0, Long.parseLong(retryAfter) * 1000);
+        } catch (NumberFormatException e) {
+            // http date
+        }
+        SimpleDateFormat format = new SimpleDateFormat(
+                "EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            Date date = format.parse(retryAfter);
+            return Math.max(0, date.getTime() - System.currentTimeMillis());
+        } catch (java.text.ParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * A builder of {@link RetryPolicy}.
+     */
+    public static final class Builder {
+        private int maxRetries = DEFAULT_MAX_RETRIES;
+        private long initialBackoff = DEFAULT_INITIAL_BACKOFF;
+        private long maxBackoff = DEFAULT_MAX_BACKOFF;
+        private long maxRetryAfter = 60000;
+        private Set<Integer> retryableStatuses = new HashSet<Integer>(
+                Arrays.asList(429, 502, 503, 504));
+        private Set<String> retryableErrorCodes = new HashSet<String>();
+        private boolean retryNonIdempotent;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the max number of retries of a request.
+         *
+         * @param maxRetries
+         *            max number of retries (0 means no retry)
+         * @return this builder
+         */
+        public Builder maxRetries(int maxRetries) {
+            if (maxRetries < 0) {
+                throw new IllegalArgumentException("maxRetries must not be negative");
+            }
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * Sets the wait time before the first retry and the upper limit of
+         * the wait time. The wait time doubles for each retry.
+         *
+         * @param initialBackoff
+         *            wait time before the first retry in milliseconds
+         * @param maxBackoff
+         *            max wait time in milliseconds
+         * @return this builder
+         */
+        public Builder backoff(long initialBackoff, long maxBackoff) {
+            if (initialBackoff <= 0 || maxBackoff < initialBackoff) {
+                throw new IllegalArgumentException("invalid backoff");
+            }
+            this.initialBackoff = initialBackoff;
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        /**
+         * Sets the max wait time requested by the Retry-After header.
+         *
+         * @param maxRetryAfter
+         *            max wait time in milliseconds
+         * @return this builder
+         */
+        public Builder maxRetryAfter(long maxRetryAfter) {
+            this.maxRetryAfter = maxRetryAfter;
+            return this;
+        }
+
+        /**
+         * Sets the status codes which are retried.
+         *
+         * @param statuses
+         *            status codes
+         * @return this builder
+         */
+        public Builder retryOnStatus(Integer... statuses) {
+            this.retryableStatuses = new HashSet<Integer>(Arrays.asList(statuses));
+            return this;
+        }
+
+        /**
+         * Sets the error codes of the error responses which are retried
+         * regardless of the status code.
+         *
+         * @param codes
+         *            error codes such as "GAIA_XX01"
+         * @return this builder
+         */
+        public Builder retryOnErrorCode(String... codes) {
+            this.retryableErrorCodes = new HashSet<String>(Arrays.asList(codes));
+            return this;
+        }
+
+        /**
+         * Allows to retry the requests which are not idempotent, such as
+         * POST. A record may be inserted twice if the response is lost.
+         *
+         * @param retryNonIdempotent
+         *            true to retry all requests
+         * @return this builder
+         */
+        public Builder retryNonIdempotent(boolean retryNonIdempotent) {
+            this.retryNonIdempotent = retryNonIdempotent;
+            return this;
+        }
+
+        /**
+         * Creates the policy.
+         *
+         * @return new policy
+         */
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.cybozu.kintone.database.exception.DBException;
+import com.cybozu.kintone.database.exception.RecordStreamException;
+
+/**
+ * A record stream which pages through the records in the order of the record
+ * id. Each page is selected with "$id &gt; (last id of the previous page)", so
+ * the cost of a page does not grow with the offset. The next page is fetched
+ * in the background while the caller iterates the current one, so at most two
+ * pages are kept in memory.
+ *
+ */
+class SeekRecordStream implements RecordStream {
+    private static final String ID_FIELD = "$id";
+
+    private static final ExecutorService prefetcher = Executors
+            .newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "kintone-prefetch");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private Connection connection;
+    private long app;
+    private String condition;
+    private String[] columns;
+    private int pageSize;
+
+    private Iterator<Record> current = Collections.<Record>emptyList().iterator();
+    private Future<List<Record>> next;
+    private boolean closed = false;
+
+    /**
+     * Constructor. The first page is requested immediately.
+     *
+     * @param connection
+     *            the connection object
+     * @param app
+     *            application id
+     * @param condition
+     *            query condition without "order by", "limit" and "offset"
+     * @param columns
+     *            column names if needed
+     * @param pageSize
+     *            the number of records per request
+     */
+    SeekRecordStream(Connection connection, long app, String condition,
+            String[] columns, int pageSize) {
+        this.connection = connection;
+        this.app = app;
+        this.condition = condition;
+        this.columns = withIdColumn(columns);
+        this.pageSize = pageSize;
+        this.next = fetch(0);
+    }
+
+    /**
+     * Makes sure that the record id is retrieved.
+     */
+    private static String[] withIdColumn(String[] columns) {
+        if (columns == null) {
+            return null;
+        }
+        for (String column : columns) {
+            if (column.equals(ID_FIELD)) {
+                return columns;
+            }
+        }
+        String[] result = new String[columns.length + 1];
+        System.arraycopy(columns, 0, result, 0, columns.length);
+        result[columns.length] = ID_FIELD;
+        return result;
+    }
+
+    /**
+     * Builds the query of the page following the specified record id.
+     */
+    private String buildQuery(long lastId) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(ID_FIELD + " > " + lastId);
+        if (condition != null && !condition.trim().isEmpty()) {
+            sb.append(" and (" + condition + ")");
+        }
+        sb.append(" order by " + ID_FIELD + " asc limit " + pageSize);
+        return new String(sb);
+    }
+
+    /**
+     * Requests the page following the specified record id in the background.
+     */
+    private Future<List<Record>> fetch(final long lastId) {
+        final String query = buildQuery(lastId);
+        return prefetcher.submit(new Callable<List<Record>>() {
+            @Override
+            public List<Record> call() throws DBException {
+                return connection.selectRecords(app, query, columns, false).getRecords();
+            }
+        });
+    }
+
+    /**
+     * Waits for the page requested in the background.
+     */
+    private List<Record> await(Future<List<Record>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RecordStreamException(new DBException(e,
+                    "interrupted while retrieving records"));
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DBException) {
+                throw new RecordStreamException((DBException) cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RecordStreamException(new DBException(cause));
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (closed || next == null) {
+                return false;
+            }
+            List<Record> page = await(next);
+            next = null;
+            if (page.size() >= pageSize) {
+                long lastId = page.get(page.size() - 1).getId();
+                next = fetch(lastId);
+            }
+            current = page.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public Record next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        current = Collections.<Record>emptyList().iterator();
+        if (next != null) {
+            next.cancel(false);
+            next = null;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.io.IOException;
+
+/**
+ * An interface which sends HTTP requests to kintone on behalf of the
+ * connection. A transport may be shared by several connections.
+ *
+ */
+public interface Transport {
+
+    /**
+     * Sends a request and returns the response. The caller must close the
+     * response after reading the body.
+     *
+     * @param request
+     *            the request to be sent
+     * @return the response
+     * @throws IOException
+     */
+    public TransportResponse execute(TransportRequest request)
+            throws IOException;
+
+    /**
+     * Releases the resources held by this transport.
+     */
+    public void close();
+}
@@ -0,0 +1,180 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.net.Proxy;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Represents a request sent through the transport.
+ *
+ */
+public class TransportRequest {
+    private String method;
+    private URL url;
+    private Map<String, String> headers = new LinkedHashMap<String, String>();
+    private RequestBody body;
+    private Proxy proxy;
+    private SSLSocketFactory sslSocketFactory;
+    private HostnameVerifier hostnameVerifier;
+    private int timeout;
+    private boolean idempotent;
+
+    /**
+     * Constructor. GET, PUT and DELETE requests are idempotent by default.
+     *
+     * @param method
+     *            GET, POST, PUT or DELETE
+     * @param url
+     *            request url
+     */
+    public TransportRequest(String method, URL url) {
+        this.method = method;
+        this.url = url;
+        this.idempotent = RetryPolicy.isIdempotentMethod(method);
+    }
+
+    /**
+     * @return method
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return request url
+     */
+    public URL getUrl() {
+        return url;
+    }
+
+    /**
+     * @return request headers
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Sets a request header.
+     *
+     * @param name
+     *            header name
+     * @param value
+     *            header value
+     */
+    public void setHeader(String name, String value) {
+        headers.put(name, value);
+    }
+
+    /**
+     * @return request body, or null if the request has no body
+     */
+    public RequestBody getBody() {
+        return body;
+    }
+
+    /**
+     * @param body
+     *            request body
+     */
+    public void setBody(RequestBody body) {
+        this.body = body;
+    }
+
+    /**
+     * @return proxy, or null if the request is sent directly
+     */
+    public Proxy getProxy() {
+        return proxy;
+    }
+
+    /**
+     * @param proxy
+     *            proxy
+     */
+    public void setProxy(Proxy proxy) {
+        this.proxy = proxy;
+    }
+
+    /**
+     * @return ssl socket factory, or null to use the default one
+     */
+    public SSLSocketFactory getSSLSocketFactory() {
+        return sslSocketFactory;
+    }
+
+    /**
+     * @param sslSocketFactory
+     *            ssl socket factory
+     */
+    public void setSSLSocketFactory(SSLSocketFactory sslSocketFactory) {
+        this.sslSocketFactory = sslSocketFactory;
+    }
+
+    /**
+     * @return hostname verifier, or null to use the default verification
+     */
+    public HostnameVerifier getHostnameVerifier() {
+        return hostnameVerifier;
+    }
+
+    /**
+     * @param hostnameVerifier
+     *            hostname verifier
+     */
+    public void setHostnameVerifier(HostnameVerifier hostnameVerifier) {
+        this.hostnameVerifier = hostnameVerifier;
+    }
+
+    /**
+     * @return max milliseconds to wait for the connection and for the
+     *         response, or 0 to use the settings of the transport
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout
+     *            max milliseconds to wait for the connection and for the
+     *            response, or 0 to use the settings of the transport
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return true if sending the request twice has the same effect as
+     *         sending it once, so that it can be retried after any error
+     */
+    public boolean isIdempotent() {
+        return idempotent;
+    }
+
+    /**
+     * @param idempotent
+     *            false if the request must not be applied twice, such as a
+     *            workflow action or an update with the revision
+     */
+    public void setIdempotent(boolean idempotent) {
+        this.idempotent = idempotent;
+    }
+}
@@ -0,0 +1,57 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Represents a response returned by the transport.
+ *
+ */
+public interface TransportResponse extends Closeable {
+
+    /**
+     * Gets the HTTP status code.
+     *
+     * @return status code
+     */
+    public int getStatusCode();
+
+    /**
+     * Gets the response header.
+     *
+     * @param name
+     *            header name (case insensitive)
+     * @return header value, or null if the header does not exist
+     */
+    public String getHeader(String name);
+
+    /**
+     * Gets the response body. The body of an error response is returned as
+     * well.
+     *
+     * @return the response body stream
+     * @throws IOException
+     */
+    public InputStream getBody() throws IOException;
+
+    /**
+     * Closes the response and returns the underlying connection to the
+     * transport if possible.
+     */
+    public void close();
+}
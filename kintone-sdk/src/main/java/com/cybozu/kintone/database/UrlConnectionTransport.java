@@ -0,0 +1,134 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+
+/**
+ * The default transport which uses HttpURLConnection of the JDK. Keep-alive
+ * connections are managed by the JDK.
+ *
+ */
+public class UrlConnectionTransport implements Transport {
+
+    @Override
+    public TransportResponse execute(TransportRequest request)
+            throws IOException {
+        HttpURLConnection conn;
+        if (request.getProxy() == null) {
+            conn = (HttpURLConnection) request.getUrl().openConnection();
+        } else {
+            conn = (HttpURLConnection) request.getUrl().openConnection(
+                    request.getProxy());
+        }
+        if (conn instanceof HttpsURLConnection) {
+            HttpsURLConnection https = (HttpsURLConnection) conn;
+            if (request.getSSLSocketFactory() != null) {
+                https.setSSLSocketFactory(request.getSSLSocketFactory());
+            }
+            if (request.getHostnameVerifier() != null) {
+                https.setHostnameVerifier(request.getHostnameVerifier());
+            }
+        }
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            conn.setRequestProperty(header.getKey(), header.getValue());
+        }
+        conn.setRequestMethod(request.getMethod());
+        if (request.getTimeout() > 0) {
+            conn.setConnectTimeout(request.getTimeout());
+            conn.setReadTimeout(request.getTimeout());
+        }
+
+        RequestBody body = request.getBody();
+        if (body != null) {
+            conn.setDoOutput(true);
+            conn.setRequestProperty("Content-Type", body.getContentType());
+            if (body.getContentLength() >= 0) {
+                conn.setFixedLengthStreamingMode(body.getContentLength());
+            } else {
+                conn.setChunkedStreamingMode(0);
+            }
+        }
+        conn.connect();
+
+        if (body != null) {
+            OutputStream os = conn.getOutputStream();
+            try {
+                body.writeTo(os);
+            } finally {
+                os.close();
+            }
+        }
+
+        return new UrlConnectionResponse(conn);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * A response wrapping HttpURLConnection.
+     *
+     */
+    private static class UrlConnectionResponse implements TransportResponse {
+        private HttpURLConnection conn;
+        private int statusCode;
+        private InputStream body;
+
+        UrlConnectionResponse(HttpURLConnection conn) throws IOException {
+            this.conn = conn;
+            this.statusCode = conn.getResponseCode();
+        }
+
+        @Override
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return conn.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                body = conn.getErrorStream();
+                if (body == null) {
+                    body = conn.getInputStream();
+                }
+            }
+            return body;
+        }
+
+        @Override
+        public void close() {
+            if (body == null) {
+                return;
+            }
+            try {
+                body.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+}
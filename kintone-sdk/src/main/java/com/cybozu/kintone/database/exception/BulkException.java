@@ -0,0 +1,88 @@
+package com.cybozu.kintone.database.exception;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class BulkException extends DBException {
+    /**
+     * An exception thrown when some chunks of a large bulk operation failed.
+     * The records are sent in chunks, and each chunk is written or rolled back
+     * as a whole. The exception tells which records have been written.
+     */
+    private static final long serialVersionUID = -3824011577284419276L;
+    private int chunkSize;
+    private int size;
+    private List<DBException> chunkErrors;
+    private List<Long> results;
+
+    public BulkException(int size, int chunkSize, List<DBException> chunkErrors,
+            List<Long> results) {
+        super(firstError(chunkErrors), countErrors(chunkErrors) + " of "
+                + chunkErrors.size() + " chunks failed");
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.chunkErrors = Collections.unmodifiableList(
+                new ArrayList<DBException>(chunkErrors));
+        this.results = Collections.unmodifiableList(new ArrayList<Long>(
+                results));
+    }
+
+    private static DBException firstError(List<DBException> chunkErrors) {
+        for (DBException e : chunkErrors) {
+            if (e != null) return e;
+        }
+        return null;
+    }
+
+    private static int countErrors(List<DBException> chunkErrors) {
+        int count = 0;
+        for (DBException e : chunkErrors) {
+            if (e != null) count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of records per chunk
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Gets the error of each chunk. The element is null if the chunk has been
+     * written or has not been sent.
+     *
+     * @return the list of the errors in the order of the chunks
+     */
+    public List<DBException> getChunkErrors() {
+        return chunkErrors;
+    }
+
+    /**
+     * Returns true if the record at the specified index of the original list
+     * has been written.
+     *
+     * @param index
+     *            index of the record in the original list
+     * @return true if the record has been written
+     */
+    public boolean isWritten(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index);
+        }
+        return results.get(index) != null;
+    }
+
+    /**
+     * Gets the results (record ids for insert, revisions for update) in the
+     * order of the original list. The element is null if the record has not
+     * been written. For delete, the element is 0 for a deleted record.
+     *
+     * @return the list of the results
+     */
+    public List<Long> getResults() {
+        return results;
+    }
+}
@@ -0,0 +1,31 @@
+//   Copyright 2013 Cybozu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package com.cybozu.kintone.database.exception;
+
+public class DeadlineExceededException extends DBException {
+    /**
+     * An exception which occurs when the deadline of a request expires
+     * before the request is completed. The request may not have been sent.
+     */
+    private static final long serialVersionUID = 5920472216392587603L;
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+
+    public DeadlineExceededException(Throwable e, String message) {
+        super(e, message);
+    }
+}
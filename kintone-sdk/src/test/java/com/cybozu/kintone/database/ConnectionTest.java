@@ -3,16 +3,21 @@ package com.cybozu.kintone.database;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.io.RandomAccessFile;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import com.cybozu.kintone.database.exception.DBException;
+import com.cybozu.kintone.database.exception.DeadlineExceededException;
 
 public class ConnectionTest {
 
@@ -692,6 +697,547 @@ public class ConnectionTest {
 		}
 	}
 
+	@Test
+	public void testPooledTransport() {
+		Connection db = getConnection();
+		PooledTransport transport = new PooledTransport(2, 30000);
+		db.setTransport(transport);
+		long app = getAppId();
+		try {
+			insertRecords();
+			for (int i = 0; i < 5; i++) {
+				ResultSet rs = db.select(app, "order by Record_number asc");
+				if (rs.size() != 3) {
+					fail("invalid count");
+				}
+			}
+			PoolStats stats = transport.getStats();
+			assertEquals(stats.getLeased(), 0);
+			assertEquals(stats.getCreated(), 1);
+			assertEquals(stats.getReused(), 4);
+		} catch (Exception e) {
+			fail("db exception:" + e.getMessage());
+		} finally {
+			transport.close();
+		}
+	}
+
+	@Test
+	public void testAsyncConnection() {
+		AsyncConnection db = new AsyncConnection(getConnection(), 4);
+		long app = getAppId();
+		try {
+			insertRecords();
+			List<CompletableFuture<ResultSet>> futures = new ArrayList<CompletableFuture<ResultSet>>();
+			for (int i = 0; i < 10; i++) {
+				futures.add(db.select(app, "order by Record_number asc"));
+			}
+			for (CompletableFuture<ResultSet> future : futures) {
+				if (future.get().size() != 3) {
+					fail("invalid count");
+				}
+			}
+		} catch (Exception e) {
+			fail("db exception:" + e.getMessage());
+		} finally {
+			db.close();
+		}
+	}
+
+	@Test
+	public void testSelectStream() {
+		Connection db = getConnection();
+		long app = getAppId();
+		RecordStream stream = null;
+		try {
+			insertRecords();
+			stream = db.selectStream(app, "Record_number > 0", null, 2);
+			int count = 0;
+			long lastId = 0;
+			while (stream.hasNext()) {
+				Record record = stream.next();
+				assertTrue(record.getId() > lastId);
+				lastId = record.getId();
+				count++;
+			}
+			assertEquals(count, 3);
+		} catch (Exception e) {
+			fail("db exception:" + e.getMessage());
+		} finally {
+			if (stream != null) {
+				stream.close();
+			}
+		}
+
+		try {
+			db.selectStream(app, "Record_number > 0 order by Record_number asc");
+			fail("order by should be rejected");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testSelectByCursor() {
+		Connection db = getConnection();
+		long app = getAppId();
+		try {
+			insertRecords();
+			RecordStream stream = db.selectByCursor(app, "order by Record_number asc", null, 2);
+			int count = 0;
+			while (stream.hasNext()) {
+				stream.next();
+				count++;
+			}
+			stream.close();
+			assertEquals(count, 3);
+
+			stream = db.selectByCursor(app, "order by Record_number asc", null, 1);
+			String id = ((CursorRecordStream) stream).getCursorId();
+			stream.next();
+			stream.close();
+			try {
+				db.getCursorRecords(id);
+				fail("the cursor should be deleted");
+			} catch (DBException e) {
+			}
+		} catch (Exception e) {
+			fail("db exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testInsertInChunks() {
+		Connection db = getConnection();
+		db.setBulkParallelism(3);
+		long app = getAppId();
+		try {
+			ArrayList<Record> records = new ArrayList<Record>();
+			for (int i = 0; i < 250; i++) {
+				Record record = new Record();
+				record.setString("key", "key" + i);
+				records.add(record);
+			}
+			List<Long> ids = db.insert(app, records);
+			assertEquals(ids.size(), 250);
+			assertEquals(new HashSet<Long>(ids).size(), 250);
+			// the chunks are sent concurrently, so the ids increase only within a chunk
+			for (int i = 1; i < ids.size(); i++) {
+				if (i % Connection.MAX_RECORDS_PER_REQUEST != 0) {
+					assertTrue(ids.get(i) > ids.get(i - 1));
+				}
+			}
+
+			for (int i = 0; i < records.size(); i++) {
+				Record record = records.get(i);
+				record.setId(ids.get(i));
+				record.setString("Single_line_text", "foo");
+			}
+			List<Long> revisions = db.updateRecords(app, records);
+			assertEquals(revisions.size(), 250);
+
+			db.delete(app, ids);
+			ResultSet rs = db.select(app, "");
+			assertEquals(rs.size(), 0);
+		} catch (Exception e) {
+			fail("db exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testBulkWriter() {
+		Connection db = getConnection();
+		long app = getAppId();
+		BulkWriter writer = new BulkWriter(db);
+		try {
+			List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+			for (int i = 0; i < 150; i++) {
+				Record record = new Record();
+				record.setString("key", "key" + i);
+				futures.add(writer.insert(app, record));
+			}
+			writer.flush();
+			for (CompletableFuture<Void> future : futures) {
+				future.get();
+			}
+			ResultSet rs = db.select(app, "limit 500");
+			assertEquals(rs.size(), 150);
+		} catch (Exception e) {
+			fail("db exception:" + e.getMessage());
+		} finally {
+			writer.close();
+		}
+	}
+
+	@Test
+	public void testUpdateSelectedRecord() {
+		Connection db = getConnection();
+		long app = getAppId();
+		try {
+			insertRecords();
+			ResultSet rs = db.select(app, "order by Record_number asc");
+			List<Record> records = rs.getRecords();
+			Record record = records.get(0);
+			assertTrue(record.hasField("Single_line_text"));
+			record.getField("Single_line_text").setValue("qux");
+			assertEquals(record.getString("Single_line_text"), "qux");
+			assertEquals(records.get(1).getString("Single_line_text"), "bar");
+
+			Record update = new Record(record.getId());
+			update.setString("Single_line_text", record.getString("Single_line_text"));
+			db.updateRecord(app, update);
+			rs = db.select(app, "order by Record_number asc");
+			rs.next();
+			assertEquals(rs.getString("Single_line_text"), "qux");
+		} catch (Exception e) {
+			fail("db exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testSelectColumnar() {
+		Connection db = getConnection();
+		long app = getAppId();
+		try {
+			List<Long> ids = insertRecords();
+			ColumnarResultSet rs = db.selectColumnar(app, "order by Record_number asc", null);
+			assertEquals(rs.size(), 3);
+			LongColumn idColumn = rs.getIds();
+			for (int i = 0; i < ids.size(); i++) {
+				assertEquals(idColumn.getLong(i), (long) ids.get(i));
+			}
+			assertEquals(rs.getString("Single_line_text", 1), "bar");
+		} catch (Exception e) {
+			fail("db exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testMetrics() {
+		Connection db = getConnection();
+		long app = getAppId();
+		ConnectionMetrics metrics = new ConnectionMetrics();
+		db.setMetricsListener(metrics);
+		try {
+			insertRecords();
+			db.select(app, "");
+			EndpointMetrics select = metrics.getEndpoint("GET", "records.json");
+			assertEquals(select.getCount(), 1);
+			assertEquals((long) select.getStatusCounts().get(200), 1);
+			assertTrue(select.getResponseBytes() > 0);
+			assertEquals(metrics.getInFlight(), 0);
+		} catch (Exception e) {
+			fail("db exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testConnectionConfig() {
+		ConnectionConfig config = ConnectionConfig.builder(System.getenv("DOMAIN"))
+				.password(System.getenv("LOGIN"), System.getenv("PASSWORD"))
+				.build();
+		Connection db = new Connection(config);
+		long app = getAppId();
+		try {
+			insertRecords();
+			Connection other = new Connection(config);
+			other.setBasicAuth("user", "password");
+			assertSame(db.getConfig(), config);
+			assertNotSame(other.getConfig(), config);
+
+			ResultSet rs = db.select(app, "");
+			assertEquals(rs.size(), 3);
+		} catch (Exception e) {
+			fail("db exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testClientCert() {
+		String cert = System.getenv("CLIENT_CERT");
+		String certPassword = System.getenv("CLIENT_CERT_PASSWORD");
+		if (cert == null) return;
+		Connection db = getConnection();
+		db.setClientCert(cert, certPassword);
+		long app = getAppId();
+		try {
+			insertRecords();
+			ResultSet rs = db.select(app, "");
+			assertEquals(rs.size(), 3);
+			rs = db.select(app, "");
+			assertEquals(rs.size(), 3);
+			assertSame(ClientCertificates.getSocketFactory(cert, certPassword),
+					ClientCertificates.getSocketFactory(cert, certPassword));
+		} catch (Exception e) {
+			fail("db exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testRetryPolicy() {
+		RetryPolicy policy = RetryPolicy.builder().maxRetries(2).backoff(100, 1000).build();
+		assertTrue(policy.isRetryable("GET", new DBException(503, "unavailable")));
+		assertTrue(policy.isRetryable("POST", new DBException(429, "too many requests")));
+		assertFalse(policy.isRetryable("POST", new DBException(503, "unavailable")));
+		assertFalse(policy.isRetryable("GET", new DBException(400, "bad request")));
+		assertFalse(policy.isRetryable(false, new DBException(503, "unavailable")));
+		assertTrue(policy.isRetryable(false, new DBException(429, "too many requests")));
+
+		Connection db = getConnection();
+		db.setRetryPolicy(policy);
+		long app = getAppId();
+		try {
+			insertRecords();
+			ResultSet rs = db.select(app, "");
+			assertEquals(rs.size(), 3);
+		} catch (Exception e) {
+			fail("db exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testConcurrencyLimiter() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 2);
+		Connection db = getConnection();
+		db.setConcurrencyLimiter(limiter);
+		long app = getAppId();
+		try {
+			insertRecords();
+			ResultSet rs = db.select(app, "");
+			assertEquals(rs.size(), 3);
+			assertEquals(limiter.getInFlight(), 0);
+			assertEquals(limiter.getQueueWait().getCount(), 1);
+		} catch (Exception e) {
+			fail("db exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testPriority() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1);
+		Connection db = getConnection();
+		db.setConcurrencyLimiter(limiter);
+		long app = getAppId();
+		try {
+			insertRecords();
+			Connection batch = db.withPriority(RequestPriority.BATCH);
+			assertEquals(batch.getConfig().getPriority(), RequestPriority.BATCH);
+			assertEquals(batch.select(app, "").size(), 3);
+
+			limiter.acquire();
+			try {
+				db.withPriority(RequestPriority.INTERACTIVE).withDeadline(100)
+						.select(app, "");
+				fail("deadline is not exceeded");
+			} catch (DeadlineExceededException e) {
+				assertEquals(limiter.getTimeoutCount(), 1);
+			} finally {
+				limiter.release(0, false);
+			}
+		} catch (Exception e) {
+			fail("db exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testRequestCoalescer() {
+		RequestCoalescer coalescer = new RequestCoalescer();
+		Connection connection = getConnection();
+		connection.setRequestCoalescer(coalescer);
+		AsyncConnection db = new AsyncConnection(connection, 8);
+		long app = getAppId();
+		try {
+			insertRecords();
+			List<CompletableFuture<ResultSet>> futures = new ArrayList<CompletableFuture<ResultSet>>();
+			for (int i = 0; i < 8; i++) {
+				futures.add(db.select(app, "order by Record_number asc"));
+			}
+			ResultSet first = futures.get(0).get();
+			for (CompletableFuture<ResultSet> future : futures) {
+				ResultSet rs = future.get();
+				assertEquals(rs.size(), 3);
+				if (rs != first) {
+					assertNotSame(rs.getRecords(), first.getRecords());
+				}
+			}
+			assertEquals(coalescer.getSentCount() + coalescer.getCoalescedCount(), 8);
+			assertEquals(coalescer.getInFlight(), 0);
+		} catch (Exception e) {
+			fail("db exception:" + e.getMessage());
+		} finally {
+			db.close();
+		}
+	}
+
+	@Test
+	public void testAppCache() {
+		AppCache cache = new AppCache(10, 60000);
+		Connection db = getConnection();
+		db.setAppCache(cache);
+		try {
+			AppDto app = db.getApp(getAppId());
+			AppDto cached = db.getApp(getAppId());
+			assertNotSame(app, cached);
+			assertEquals(app.getName(), cached.getName());
+			assertEquals(cache.getHitCount(), 1);
+			assertEquals(cache.getMissCount(), 1);
+			if (app.getCode() != null && app.getCode().length() > 0) {
+				assertEquals(db.getAppId(app.getCode()), getAppId());
+				assertEquals(cache.getHitCount(), 2);
+			}
+			cache.invalidate(getAppId());
+			assertEquals(cache.size(), 0);
+		} catch (Exception e) {
+			fail("db exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testRecordCache() {
+		RecordCache cache = new RecordCache(100);
+		Connection db = getConnection();
+		db.setRecordCache(cache);
+		long app = getAppId();
+		try {
+			List<Long> ids = insertRecords();
+			assertEquals(db.select(app, "").size(), 3);
+			assertEquals(cache.size(), 3);
+			assertEquals(db.select(app, "").size(), 3);
+			assertEquals(cache.getHitCount(), 3);
+
+			Record record = new Record();
+			record.setString("Single_line_text", "updated");
+			db.update(app, ids.get(0), record);
+			assertEquals(cache.size(), 2);
+			ResultSet rs = db.select(app, "Single_line_text = \"updated\"");
+			assertEquals(rs.size(), 1);
+			assertEquals(cache.getMissCount(), 4);
+
+			db.delete(app, ids.get(1));
+			assertEquals(cache.size(), 1);
+		} catch (Exception e) {
+			fail("db exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testChangeFeed() {
+		Connection db = getConnection();
+		long app = getAppId();
+		try {
+			File file = File.createTempFile("kintone", ".checkpoint");
+			file.deleteOnExit();
+			List<Long> ids = insertRecords();
+			Thread.sleep(1000);
+			ChangeFeed feed = db.changeFeed(app).batchSize(2).settleTime(0)
+					.checkpointStore(new FileCheckpointStore(file)).build();
+			List<ChangeEvent> events = feed.poll();
+			assertEquals(events.size(), 2);
+			assertEquals(feed.poll().size(), 1);
+			assertEquals(feed.poll().size(), 0);
+			feed.commit();
+			assertEquals(events.get(0).getId(), (long) ids.get(0));
+			assertTrue(events.get(0).isCreated());
+
+			Record record = new Record();
+			record.setString("Single_line_text", "updated");
+			Thread.sleep(1000);
+			db.update(app, ids.get(0), record);
+			Thread.sleep(1000);
+			feed = db.changeFeed(app).settleTime(0)
+					.checkpointStore(new FileCheckpointStore(file)).build();
+			assertTrue(feed.hasNext());
+			ChangeEvent event = feed.next();
+			assertEquals(event.getId(), (long) ids.get(0));
+			assertEquals(event.getRevision(), 2);
+			feed.close();
+		} catch (Exception e) {
+			fail("db exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testChangedFields() {
+		Connection db = getConnection();
+		long app = getAppId();
+		try {
+			List<Long> ids = insertRecords();
+			ResultSet rs = db.select(app, "$id = " + ids.get(0));
+			assertTrue(rs.next());
+			Record record = rs.getRecord();
+			assertTrue(record.isTrackingChanges());
+			assertTrue(record.getChangedFields().isEmpty());
+			record.markChanged("no_such_field");
+			assertTrue(record.getChangedFields().isEmpty());
+
+			record.setString("Single_line_text", "changed");
+			assertEquals(record.getChangedFields().size(), 1);
+			String json = new JsonParser().recordsToJsonForUpdate(app, record);
+			assertTrue(json.contains("Single_line_text"));
+			assertFalse(json.contains("key1"));
+			long revision = db.updateRecord(app, record);
+			assertEquals(record.getRevision().longValue(), revision);
+			assertTrue(record.getChangedFields().isEmpty());
+
+			// the record can be updated again with the new revision
+			record.setString("Single_line_text", "changed again");
+			db.updateRecord(app, record);
+
+			rs = db.select(app, "$id = " + ids.get(0));
+			assertTrue(rs.next());
+			assertEquals(rs.getString("Single_line_text"), "changed again");
+			assertEquals(rs.getString("key"), "key1");
+		} catch (Exception e) {
+			fail("db exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testLazyUploadBatch() {
+		Connection db = getConnection();
+		long app = getAppId();
+		try {
+			File file = new File("/Users/ryo/tmp/test.jpg");
+			ArrayList<Record> records = new ArrayList<Record>();
+			for (int i = 0; i < 10; i++) {
+				Record record = new Record();
+				record.setFile("Attachment", file);
+				records.add(record);
+			}
+			db.insert(app, records);
+
+			Set<String> fileKeys = new HashSet<String>();
+			for (Record record : records) {
+				fileKeys.add(record.getFiles("Attachment").get(0).getFileKey());
+			}
+			assertEquals(fileKeys.size(), 10);
+			assertEquals(db.select(app, "").size(), 10);
+		} catch (Exception e) {
+			fail("db exception:" + e.getMessage());
+		}
+	}
+
+	@Test
+	public void testUploadLargeFile() {
+		Connection db = getConnection();
+		try {
+			File file = File.createTempFile("kintone", ".bin");
+			file.deleteOnExit();
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(64L * 1024 * 1024);
+			} finally {
+				raf.close();
+			}
+
+			String fileKey = db.uploadFile(file);
+			File downloaded = db.downloadFile(fileKey);
+			downloaded.deleteOnExit();
+			assertEquals(downloaded.length(), file.length());
+		} catch (Exception e) {
+			fail("db exception:" + e.getMessage());
+		}
+	}
+
 	@Test
 	public void testGetApp() {
 		Connection db = getConnection();